@@ -35,6 +35,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
+import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
 import edu.umass.cs.utils.Config;
 
@@ -91,6 +93,7 @@ public class FailureDetection<NodeIDType> {
 	private final ScheduledExecutorService execpool;
 	private final NodeIDType myID;
 	private final InterfaceNIOTransport<NodeIDType, JSONObject> nioTransport;
+	private final IntegerMap<NodeIDType> integerMap;
 
 	// non-final
 	private Set<NodeIDType> keepAliveTargets;
@@ -102,9 +105,10 @@ public class FailureDetection<NodeIDType> {
 
 	FailureDetection(NodeIDType id,
 			InterfaceNIOTransport<NodeIDType, JSONObject> niot,
-			String paxosLogFolder) {
+			String paxosLogFolder, IntegerMap<NodeIDType> integerMap) {
 		nioTransport = niot;
 		myID = id;
+		this.integerMap = integerMap;
 		this.execpool = Executors.newScheduledThreadPool(1,
 				new ThreadFactory() {
 					@Override
@@ -124,7 +128,7 @@ public class FailureDetection<NodeIDType> {
 
 	FailureDetection(NodeIDType id,
 			InterfaceNIOTransport<NodeIDType, JSONObject> niot) {
-		this(id, niot, null);
+		this(id, niot, null, null);
 	}
 
 	protected synchronized static void setPessimistic() {
@@ -276,9 +280,9 @@ public class FailureDetection<NodeIDType> {
 
 	private JSONObject getPingPacket(NodeIDType id) throws JSONException {
 		FailureDetectionPacket<NodeIDType> fdp = new FailureDetectionPacket<NodeIDType>(
-				myID, id, true);
-		JSONObject fdpJson = fdp.toJSONObject();
-		return fdpJson;
+				myID, id, true, this.integerMap);
+		// byteified if possible
+		return new JSONMessenger.JSONObjectByteableWrapper(fdp);
 	}
 
 	private class PingTask implements Runnable {
@@ -0,0 +1,128 @@
+package edu.umass.cs.gigapaxos;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Tests the leader lease rules at the acceptor and the coordinator
+ *         without a paxos manager, i.e., that acceptors ignore prepares from
+ *         other nodes during a lease and that a coordinator serves local reads
+ *         only with an unexpired lease and after executing all decided slots.
+ */
+public class LeaderLeaseTest extends DefaultTest {
+
+	private static final int[] MEMBERS = { 1, 2, 3 };
+
+	// leases are off by default
+	static {
+		Config.register(new String[] { PC.LEADER_LEASE_PERIOD + "=2000" });
+	}
+
+	private static final long LEASE_PERIOD = Config
+			.getGlobalInt(PC.LEADER_LEASE_PERIOD);
+
+	private static void waitForLeaseExpiry() throws InterruptedException {
+		Thread.sleep(LEASE_PERIOD + 100);
+	}
+
+	/**
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testAcceptorLease() throws InterruptedException {
+		Assert.assertTrue(LEASE_PERIOD > 0);
+		// a new acceptor has not granted a lease to anyone
+		PaxosAcceptor acceptor = new PaxosAcceptor(0, 1, 0, null);
+		Assert.assertNotNull(acceptor.handlePrepare(new PreparePacket(
+				new Ballot(1, 2)), 3));
+		Assert.assertEquals(new Ballot(1, 2), acceptor.getBallot());
+
+		// accepting an accept starts the lease of its coordinator
+		acceptor.acceptAndUpdateBallot(new AcceptPacket(2, new PValuePacket(
+				new Ballot(1, 2), new ProposalPacket(0,
+						new RequestPacket("req0", false))), -1), 3);
+		Assert.assertNull(acceptor.handlePrepare(new PreparePacket(new Ballot(
+				2, 1)), 3));
+		Assert.assertEquals(new Ballot(1, 2), acceptor.getBallot());
+		// but the lease holder can prepare a higher ballot
+		Assert.assertNotNull(acceptor.handlePrepare(new PreparePacket(
+				new Ballot(2, 2)), 3));
+		Assert.assertEquals(new Ballot(2, 2), acceptor.getBallot());
+
+		waitForLeaseExpiry();
+		Assert.assertNotNull(acceptor.handlePrepare(new PreparePacket(
+				new Ballot(3, 1)), 3));
+		Assert.assertEquals(new Ballot(3, 1), acceptor.getBallot());
+
+		// accepting renews the lease for the new coordinator
+		acceptor.acceptAndUpdateBallot(new AcceptPacket(1, new PValuePacket(
+				new Ballot(3, 1), new ProposalPacket(1,
+						new RequestPacket("req1", false))), -1), 3);
+		Assert.assertNull(acceptor.handlePrepare(new PreparePacket(new Ballot(
+				4, 2)), 3));
+		Assert.assertEquals(new Ballot(3, 1), acceptor.getBallot());
+	}
+
+	/**
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCoordinatorLease() throws InterruptedException {
+		PaxosCoordinatorState pcs = new PaxosCoordinatorState(0, 1, 0,
+				MEMBERS, null);
+		pcs.setCoordinatorActive();
+		// no lease until a majority accepts something
+		Assert.assertFalse(pcs.canReadLocally(0));
+
+		AcceptPacket accept = pcs.propose(MEMBERS, new RequestPacket("req0",
+				false));
+		Assert.assertNull(pcs.handleAcceptReplyMyBallot(MEMBERS,
+				new AcceptReplyPacket(1, accept.ballot, accept.slot, -1)));
+		Assert.assertFalse(pcs.canReadLocally(0));
+		Assert.assertNotNull(pcs.handleAcceptReplyMyBallot(MEMBERS,
+				new AcceptReplyPacket(2, accept.ballot, accept.slot, -1)));
+		// slot 0 is decided but not yet executed
+		Assert.assertFalse(pcs.canReadLocally(0));
+		Assert.assertTrue(pcs.canReadLocally(1));
+
+		accept = pcs.propose(MEMBERS, new RequestPacket("req1", false));
+		// undecided slots don't block reads
+		Assert.assertTrue(pcs.canReadLocally(1));
+		pcs.handleAcceptReplyMyBallot(MEMBERS, new AcceptReplyPacket(2,
+				accept.ballot, accept.slot, -1));
+		pcs.handleAcceptReplyMyBallot(MEMBERS, new AcceptReplyPacket(3,
+				accept.ballot, accept.slot, -1));
+		Assert.assertFalse(pcs.canReadLocally(1));
+		Assert.assertTrue(pcs.canReadLocally(2));
+
+		waitForLeaseExpiry();
+		Assert.assertFalse(pcs.canReadLocally(2));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(LeaderLeaseTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -32,6 +32,7 @@ import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
@@ -40,9 +41,10 @@ import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.Util;
 import edu.umass.cs.utils.MultiArrayMap;
-import edu.umass.cs.utils.NullIfEmptyMap;
+import edu.umass.cs.utils.SlotWindowMap;
 
 /**
  * 
@@ -89,19 +91,38 @@ public class PaxosAcceptor {
 															// recovery
 
 	/*
-	 * The two maps below are of type NullIfEmptyMap as testing shows that
-	 * storing null maps as opposed to empty maps yields an overall reduction of
-	 * at least 2x in inactive paxos instance state. Their size depends on how
-	 * out-of-order decisions arrive.
+	 * The two maps below are null-if-empty as testing shows that storing null
+	 * maps as opposed to empty maps yields an overall reduction of at least 2x
+	 * in inactive paxos instance state. Their size depends on how out-of-order
+	 * decisions arrive. They are SlotWindowMaps, i.e., circular arrays indexed
+	 * by slot, so that accepts and decisions neither box slots nor allocate
+	 * map entries. Their window spans at most MAX_SLOT_WINDOW_SPAN slots.
 	 */
-	private NullIfEmptyMap<Integer, PValuePacket> acceptedProposals = new NullIfEmptyMap<Integer, PValuePacket>();
-	private NullIfEmptyMap<Integer, PValuePacket> committedRequests = new NullIfEmptyMap<Integer, PValuePacket>();
+	private SlotWindowMap<PValuePacket> acceptedProposals = new SlotWindowMap<PValuePacket>(
+			MAX_SLOT_WINDOW_SPAN);
+	private SlotWindowMap<PValuePacket> committedRequests = new SlotWindowMap<PValuePacket>(
+			MAX_SLOT_WINDOW_SPAN);
 
 	// used for pausing
 	private byte lastActiveTime = 0;
 	// used to limit sync decisions rate
 	private byte lastSyncdTime = 0;
 
+	/*
+	 * System.nanoTime() until which prepares from nodes other than ballotCoord
+	 * are ignored. Only accepting an accept starts or renews the lease of its
+	 * coordinator, so a new or restored acceptor starts without one. Leases
+	 * are not persisted, so an acceptor that restarts within a lease period
+	 * forgets the lease it granted.
+	 */
+	private long leaseExpiry;
+
+	private static final long LEASE_PERIOD = Config
+			.getGlobalInt(PC.LEADER_LEASE_PERIOD) * 1000L * 1000L;
+
+	protected static final int MAX_SLOT_WINDOW_SPAN = Config
+			.getGlobalInt(PC.MAX_SLOT_WINDOW_SPAN);
+
 	// static, so does not count towards space.
 	private static Logger log = PaxosConfig.getLogger();
 
@@ -111,6 +132,7 @@ public class PaxosAcceptor {
 		this._slot = s;
 		if (hri != null)
 			this.hotRestore(hri);
+		this.leaseExpiry = System.nanoTime();
 	}
 
 	protected synchronized boolean hotRestore(HotRestoreInfo hri) {
@@ -224,6 +246,12 @@ public class PaxosAcceptor {
 			PreparePacket prepare, int myID) {
 		if (this.isStopped())
 			return null;
+		if (this.isLeasedToOther(prepare)) {
+			log.log(Level.FINE,
+					"{0} acceptor ignoring {1} during lease granted to {2}",
+					new Object[] { this, prepare.ballot, this.ballotCoord });
+			return null;
+		}
 
 		PrepareReplyPacket preply = null;
 		if (prepare.ballot.compareTo(new Ballot(ballotNum, ballotCoord)) > 0) {
@@ -252,6 +280,18 @@ public class PaxosAcceptor {
 		return preply;
 	}
 
+	/*
+	 * A prepare for a higher ballot from a node other than the current lease
+	 * holder must wait for the lease to expire; otherwise the lease holder
+	 * could serve stale local reads after a new coordinator commits writes.
+	 */
+	private boolean isLeasedToOther(PreparePacket prepare) {
+		return LEASE_PERIOD > 0 && !prepare.isRecovery()
+				&& prepare.ballot.coordinatorID != this.ballotCoord
+				&& prepare.ballot.compareTo(ballotNum, ballotCoord) > 0
+				&& System.nanoTime() - this.leaseExpiry < 0;
+	}
+
 	// prunes accepted pvalues below those requested by coordinator
 	private synchronized Map<Integer, PValuePacket> pruneAcceptedProposals(
 			Map<Integer, PValuePacket> acceptedMap, int minSlot) {
@@ -288,6 +328,8 @@ public class PaxosAcceptor {
 			this.ballotCoord = accept.ballot.coordinatorID;
 			if (accept.slot - this.acceptedGCSlot > 0)
 				this.acceptedProposals.put(accept.slot, accept); // wraparound
+			if (LEASE_PERIOD > 0 && !accept.isRecovery())
+				this.leaseExpiry = System.nanoTime() + LEASE_PERIOD;
 			log.log(Level.FINE, "{0} acceptor accepting {1}", new Object[] {
 					this, accept.getSummary(log.isLoggable(Level.FINE)) });
 		}
@@ -400,27 +442,16 @@ public class PaxosAcceptor {
 		if (this.isStopped() || this.committedRequests.isEmpty())
 			return this.getSlot() - 1;
 
-		int maxSlot = this.committedRequests.lastKey();
-		if (maxSlot == Integer.MAX_VALUE) {
-			maxSlot = this.getSlot() - 1;
-			for (int i : this.committedRequests.keySet()) {
-				if (i - maxSlot > 0)
-					maxSlot = i;
-			}
-		}
-		return maxSlot;
+		// wraparound-aware
+		return this.committedRequests.lastKey();
 	}
 
 	protected synchronized int getMaxAcceptedSlot() {
 		if (this.isStopped() || this.acceptedProposals.isEmpty())
 			return this.getSlot() - 1;
 
-		int maxSlot = this.getSlot() - 1;
-		for (int i : this.acceptedProposals.keySet()) {
-			if (i - maxSlot > 0)
-				maxSlot = i;
-		}
-		return maxSlot;
+		int maxSlot = this.acceptedProposals.lastKey();
+		return maxSlot - this.getSlot() >= 0 ? maxSlot : this.getSlot() - 1;
 	}
 
 	protected synchronized boolean caughtUp() {
@@ -457,12 +488,7 @@ public class PaxosAcceptor {
 
 		if (gcSlot - this.acceptedGCSlot > 0) { // wraparound-aware arithmetic
 			this.acceptedGCSlot = gcSlot;
-			Iterator<Integer> slotIterator = this.acceptedProposals.keySet()
-					.iterator();
-			while (slotIterator.hasNext()) {
-				if ((Integer) slotIterator.next() - gcSlot <= 0)
-					slotIterator.remove();
-			}
+			this.acceptedProposals.removeUpTo(gcSlot);
 		}
 		this.garbageCollectDecisions(gcSlot);
 	}
@@ -472,11 +498,7 @@ public class PaxosAcceptor {
 		if (slot - this.getSlot() >= 0)
 			return;
 
-		for (Iterator<Integer> slotIter = this.committedRequests.keySet()
-				.iterator(); slotIter.hasNext();) {
-			if (slot - slotIter.next() > 0)
-				slotIter.remove();
-		}
+		this.committedRequests.removeUpTo(slot - 1);
 	}
 
 	/*********************** End of private methods *****************/
@@ -523,8 +545,10 @@ public class PaxosAcceptor {
 	}
 
 	protected void testingInitInstance(int load) {
-		this.acceptedProposals = new NullIfEmptyMap<Integer, PValuePacket>();
-		this.committedRequests = new NullIfEmptyMap<Integer, PValuePacket>();
+		this.acceptedProposals = new SlotWindowMap<PValuePacket>(
+				MAX_SLOT_WINDOW_SPAN);
+		this.committedRequests = new SlotWindowMap<PValuePacket>(
+				MAX_SLOT_WINDOW_SPAN);
 		for (int i = 0; i < load; i++) {
 			this.acceptedProposals.put(25 + i, new PValuePacket(new Ballot(
 					ballotNum, ballotCoord), new ProposalPacket(45 + i,
@@ -308,6 +308,13 @@ public class PaxosConfig {
 		 */
 		BATCHING_ENABLED(true),
 
+		/**
+		 * Number of request batcher shards, each with its own thread. All
+		 * requests for a paxos group go to the same shard, so more shards help
+		 * only with many active groups.
+		 */
+		NUM_REQUEST_BATCHERS(4),
+
 		/**
 		 * 
 		 */
@@ -409,6 +416,17 @@ public class PaxosConfig {
 		 */
 		CHECKPOINT_INTERVAL(400),
 
+		/**
+		 * Maximum number of consecutive slots covered by the in-memory arrays
+		 * of accepted, committed, and proposed slots in a paxos instance.
+		 * Slots farther ahead, e.g., decisions received by a lagging replica,
+		 * are held in a small sparse map instead so that they can not cause
+		 * huge allocations. Should be well above
+		 * {@link #CHECKPOINT_INTERVAL} as slots are garbage collected upon
+		 * checkpoints.
+		 */
+		MAX_SLOT_WINDOW_SPAN(1 << 16),
+
 		/**
 		 * Value of initial state used by the default service name (
 		 * {@link PaxosConfig#getDefaultServiceName()}).
@@ -536,6 +554,14 @@ public class PaxosConfig {
 		 */
 		MAX_OUTSTANDING_REQUESTS(8000),
 
+		/**
+		 * Maximum number of request packets queued in the request batcher for
+		 * a single paxos group. Client requests beyond this limit or beyond
+		 * {@link #MAX_OUTSTANDING_REQUESTS} queued requests across all groups
+		 * are rejected with an overload response.
+		 */
+		MAX_GROUP_QUEUED_REQUESTS(2000),
+
 		/**
 		 * Sleep millis to throttle client requests if overloaded. Used only for
 		 * testing.
@@ -564,6 +590,13 @@ public class PaxosConfig {
 		 */
 		USE_NIO_SENDER_TASK(false),
 
+		/**
+		 * Number of selector threads in NIOTransport. Connections are sharded
+		 * across selector threads by remote socket address, so more than one
+		 * selector thread helps only with many peers or clients.
+		 */
+		NIO_NUM_SELECTORS(1),
+
 		/**
 		 * Disable congestion pushback.
 		 */
@@ -667,6 +700,25 @@ public class PaxosConfig {
 		 */
 		FAILURE_DETECTION_TIMEOUT(6),
 
+		/**
+		 * Period in milliseconds of the lease that an acceptor grants to the
+		 * coordinator whose accept it accepts. While the lease is unexpired,
+		 * the acceptor ignores prepares from other nodes, so a coordinator
+		 * holding a lease from a majority can execute
+		 * {@link edu.umass.cs.gigapaxos.interfaces.ReadOnlyRequest}s locally
+		 * without an accept round. A coordinator failure delays the election
+		 * of the next coordinator by up to this period, so it should be well
+		 * below {@link #FAILURE_DETECTION_TIMEOUT}. 0, the default, disables
+		 * leases.
+		 */
+		LEADER_LEASE_PERIOD(0),
+
+		/**
+		 * Milliseconds by which a coordinator considers its lease to expire
+		 * before acceptors do so as to tolerate clock rate drift.
+		 */
+		LEADER_LEASE_GUARD(200),
+
 		/**
 		 * Request timeout in seconds after which the request will be deleted
 		 * from the outstanding queue. Currently, there is no effort to remove
@@ -688,6 +740,23 @@ public class PaxosConfig {
 		 */
 		USE_CHECKPOINTS_AS_PAUSE_TABLE(true),
 
+		/**
+		 * If true, the paused state of idle paxos instances and logIndexes
+		 * evicted from memory are stored in append-only memory-mapped files in
+		 * the paxos logs directory instead of the pause columns of the
+		 * checkpoint (or pause) table, so that unpausing neither queries the
+		 * DB nor parses strings. Paused state found in the DB upon startup is
+		 * moved to the mapped files.
+		 */
+		MAPPED_PAUSE_STORE(true),
+
+		/**
+		 * Initial size in bytes of each mapped pause store file. Files double
+		 * in size as needed and are compacted in the background. Relevant only
+		 * if {@link #MAPPED_PAUSE_STORE} is true.
+		 */
+		MAPPED_PAUSE_STORE_SIZE(4 * 1024 * 1024),
+
 		/**
 		 * 
 		 */
@@ -716,17 +785,60 @@ public class PaxosConfig {
 		/**
 		 * 
 		 */
-		FLUSH(true),
+		SYNC_FCLOSE(true),
 
 		/**
-		 * 
+		 * If true, journal log files are written through a preallocated
+		 * memory-mapped segment instead of a plain file channel. The segment
+		 * is truncated to the written size when the log file is rolled or
+		 * closed, and any zero-filled preallocated tail left behind by a
+		 * crash is trimmed upon startup, so the on-disk format remains
+		 * {@code <size><message>*} either way.
 		 */
-		SYNC_FCLOSE(true),
+		JOURNAL_MMAP(false),
 
 		/**
-		 * 
+		 * Size in bytes by which a memory-mapped journal segment is extended
+		 * when a batch does not fit in the currently mapped region. Relevant
+		 * only if {@link #JOURNAL_MMAP} is true.
+		 */
+		JOURNAL_MMAP_SEGMENT_SIZE(8 * 1024 * 1024),
+
+		/**
+		 * Number of threads used to decode journaled messages in parallel
+		 * while rolling forward upon recovery. Journal files are scanned
+		 * sequentially using memory-mapped reads and decoded messages are
+		 * still rolled forward in journal order. 0 means that messages are
+		 * read and decoded one at a time by the recovering thread.
+		 */
+		RECOVERY_DECODE_THREADS(4),
+
+		/**
+		 * Number of threads used to persist checkpoints in the background for
+		 * applications implementing
+		 * {@link edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable}.
+		 */
+		ASYNC_CHECKPOINT_THREADS(2),
+
+		/**
+		 * Number of threads in a pool shared by all paxos instances for
+		 * executing decisions. If positive, each paxos instance hands off its
+		 * committed decisions to its own serial executor on this pool, so
+		 * decisions are executed in order within a paxos group while the
+		 * thread that delivered them moves on to handle other messages, and a
+		 * slow application request delays only its own group. If 0, decisions
+		 * are executed by the thread that delivered them.
+		 */
+		EXECUTION_THREADS(0),
+
+		/**
+		 * Maximum number of decisions of a paxos instance handed off to
+		 * {@link #EXECUTION_THREADS} but not yet executed. Beyond this bound,
+		 * the thread delivering a decision executes it (and any earlier ones)
+		 * itself, thereby slowing down message handling until execution
+		 * catches up.
 		 */
-		FLUSH_FCLOSE(true),
+		MAX_EXECUTION_LAG(1000),
 
 		/**
 		 * Minimum seconds after last modification when a compaction attempt can
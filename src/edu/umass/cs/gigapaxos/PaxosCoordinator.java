@@ -385,6 +385,16 @@ public abstract class PaxosCoordinator {
 		return c!=null ? c.isActive() : false;
 	}
 
+	protected abstract boolean canReadLocally(int executedSlot);
+
+	/*
+	 * True if c holds an unexpired leader lease and executedSlot, the next
+	 * slot to be executed locally, is past all slots c knows are committed.
+	 */
+	protected static boolean canReadLocally(PaxosCoordinator c, int executedSlot) {
+		return c!=null ? c.canReadLocally(executedSlot) : false;
+	}
+
 	public String toString() {
 		return "{Coordinator=" + (getPCS() != null ? this.getPCS().toString() : null)
 				+ "}";
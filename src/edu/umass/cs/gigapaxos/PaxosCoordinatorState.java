@@ -38,7 +38,7 @@ import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.WaitforUtility;
 import edu.umass.cs.utils.Config;
-import edu.umass.cs.utils.NullIfEmptyMap;
+import edu.umass.cs.utils.SlotWindowMap;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -78,7 +78,8 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 * committed in my ballot. Non-null only untul the coordinator becomes
 	 * active.
 	 */
-	private NullIfEmptyMap<Integer, PValuePacket> carryoverProposals = new NullIfEmptyMap<Integer, PValuePacket>();
+	private SlotWindowMap<PValuePacket> carryoverProposals = new SlotWindowMap<PValuePacket>(
+			PaxosAcceptor.MAX_SLOT_WINDOW_SPAN);
 
 	/*
 	 * List of proposals I am currently trying to push in my ballot as
@@ -91,7 +92,8 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 * instances commit a decision, as accepts below the majority committed
 	 * frontier are garbage collected.
 	 */
-	private NullIfEmptyMap<Integer, ProposalStateAtCoordinator> myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+	private SlotWindowMap<ProposalStateAtCoordinator> myProposals = new SlotWindowMap<ProposalStateAtCoordinator>(
+			PaxosAcceptor.MAX_SLOT_WINDOW_SPAN);
 
 	private int nextProposalSlotNumber = 0; // next free slot number to propose
 
@@ -142,12 +144,30 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 */
 	private int[] nodeSlotNumbers = null;
 
+	/*
+	 * Leader lease state. A decision in my ballot means that a majority of
+	 * acceptors accepted its accept, each granting me a lease starting no
+	 * earlier than when the proposal was created. Local reads are allowed
+	 * until leaseExpiry (System.nanoTime()) but only after all slots below
+	 * readBarrierSlot, i.e., all slots carried over into my ballot and all
+	 * slots decided by me, have been executed locally.
+	 */
+	private long leaseExpiry = System.nanoTime();
+	private int readBarrierSlot = 0;
+
+	private static final long LEASE_PERIOD = Config
+			.getGlobalInt(PC.LEADER_LEASE_PERIOD) * 1000L * 1000L;
+	private static final long LEASE_GUARD = Config
+			.getGlobalInt(PC.LEADER_LEASE_GUARD) * 1000L * 1000L;
+
 	private static Logger log = PaxosConfig.getLogger();
 
 	// Used in myProposals map above and nowhere else
 	private class ProposalStateAtCoordinator {
 		final PValuePacket pValuePacket;
 		final WaitforUtility waitfor;
+		// before any accept for it is sent in my ballot
+		final long createTime = System.nanoTime();
 
 		ProposalStateAtCoordinator(int[] members, PValuePacket pvalue) {
 			this.pValuePacket = new PValuePacket(new Ballot(myBallotNum,
@@ -180,7 +200,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	}
 
 	private void copyOverPrevious(
-			NullIfEmptyMap<Integer, ProposalStateAtCoordinator> prev,
+			SlotWindowMap<ProposalStateAtCoordinator> prev,
 			int nextSlot, int[] members) {
 		String s = "";
 		String paxosID = null;
@@ -398,8 +418,9 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		 * Combine carryoverProposals with myProposals prioritizing the former
 		 * and selecting no-ops for slots for which neither contain a value.
 		 */
-		NullIfEmptyMap<Integer, ProposalStateAtCoordinator> preActives = this.myProposals;
-		this.myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+		SlotWindowMap<ProposalStateAtCoordinator> preActives = this.myProposals;
+		this.myProposals = new SlotWindowMap<ProposalStateAtCoordinator>(
+				PaxosAcceptor.MAX_SLOT_WINDOW_SPAN);
 		for (int curSlot = maxMinCarryoverSlot; curSlot - maxCarryoverSlot <= 0; curSlot++) { // wrapround-arithmetic
 			// received pvalues dominate pre-active proposals
 			if (this.carryoverProposals.containsKey(curSlot)) {
@@ -439,7 +460,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 * but why be so heartless.
 	 */
 	private synchronized void reproposePreemptedProposals(
-			NullIfEmptyMap<Integer, ProposalStateAtCoordinator> preempted,
+			SlotWindowMap<ProposalStateAtCoordinator> preempted,
 			int[] members) {
 		for (ProposalStateAtCoordinator psac : preempted.values()) {
 			AcceptPacket accept = this.propose(members,
@@ -557,9 +578,11 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	 */
 	protected synchronized void setCoordinatorActive() {
 		this.active = true;
+		// carryovers from lower ballots may have been executed elsewhere
+		this.readBarrierSlot = this.nextProposalSlotNumber;
 		/*
 		 * The two structures below have no more use. They hardly take up any
-		 * space, especially coz the latter is a NullIfEmptyMap, but why bother
+		 * space, especially coz the latter is a SlotWindowMap, but why bother
 		 * to even keep that. Plus it serves as an implicit assert(false) if any
 		 * code tries to access these structures here onwards.
 		 */
@@ -614,6 +637,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 						decision.getSummary(log.isLoggable(Level.FINE)) });
 				assert (!decision.isRecovery());
 				this.myProposals.remove(decision.slot);
+				this.renewLease(pstate, decision.slot);
 			} else
 				pstate.pValuePacket.addDebugInfo("r");
 		}
@@ -655,6 +679,27 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		return preempted;
 	}
 
+	private void renewLease(ProposalStateAtCoordinator pstate, int slot) {
+		if (slot + 1 - this.readBarrierSlot > 0)
+			this.readBarrierSlot = slot + 1;
+		if (LEASE_PERIOD > 0
+				&& pstate.createTime + LEASE_PERIOD - LEASE_GUARD
+						- this.leaseExpiry > 0)
+			this.leaseExpiry = pstate.createTime + LEASE_PERIOD - LEASE_GUARD;
+	}
+
+	/*
+	 * Phase3 Event: A read-only request at this coordinator. Return: true if
+	 * the request can be executed locally without violating linearizability,
+	 * i.e., the lease is unexpired and the local replica has executed all
+	 * slots up to the read barrier.
+	 */
+	protected synchronized boolean canReadLocally(int executedSlot) {
+		return LEASE_PERIOD > 0 && this.isActive()
+				&& System.nanoTime() - this.leaseExpiry < 0
+				&& executedSlot - this.readBarrierSlot >= 0;
+	}
+
 	protected synchronized boolean preemptedFully() {
 		// If no outstanding proposals and received higher ballot, resign as
 		// coordinator.
@@ -856,7 +901,7 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 	}
 
 	private boolean noGaps(int x, int y,
-			NullIfEmptyMap<Integer, ProposalStateAtCoordinator> map) {
+			SlotWindowMap<ProposalStateAtCoordinator> map) {
 		for (int i = x; i - y < 0; i++) { // wraparound-arithmetic
 			if (map.get(i) == null)
 				return false;
@@ -881,15 +926,10 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 		return this.makeNoopPValue(pvalue.slot, pvalue, pvalue.getPaxosID(), pvalue.getVersion());
 	}
 
-	private int getMaxPValueSlot(NullIfEmptyMap<Integer, PValuePacket> pvalues) {
-		Integer maxSlot = null; // this is maximum slot for which some adopted
-		// (=in-progress) request has been found
-		for (int cur : pvalues.keySet()) {
-			if (maxSlot == null)
-				maxSlot = cur;
-			if (cur - maxSlot > 0) // wraparound-arithmetic
-				maxSlot = cur;
-		}
+	private int getMaxPValueSlot(SlotWindowMap<PValuePacket> pvalues) {
+		// maximum slot for which some adopted (=in-progress) request has been
+		// found, wraparound-aware
+		Integer maxSlot = pvalues.lastKey();
 		assert(maxSlot != null);
 		return maxSlot;
 	}
@@ -965,7 +1005,8 @@ public class PaxosCoordinatorState extends PaxosCoordinator {
 
 	protected void testingInitCoord(int load) {
 		// this.testingInitInstance(load);
-		this.myProposals = new NullIfEmptyMap<Integer, ProposalStateAtCoordinator>();
+		this.myProposals = new SlotWindowMap<ProposalStateAtCoordinator>(
+				PaxosAcceptor.MAX_SLOT_WINDOW_SPAN);
 		int[] group = { 21, 32, 32, 91, 14 };
 		for (int i = 0; i < load; i++) {
 			this.myProposals.put(25 + i, new ProposalStateAtCoordinator(group,
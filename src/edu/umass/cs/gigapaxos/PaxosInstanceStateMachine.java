@@ -22,12 +22,17 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONException;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable;
+import edu.umass.cs.gigapaxos.interfaces.CheckpointProducer;
+import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.ReadOnlyRequest;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.SummarizableRequest;
@@ -63,6 +68,7 @@ import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Keyable;
 import edu.umass.cs.utils.Pausable;
+import edu.umass.cs.utils.SerialExecutor;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -185,6 +191,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	private PaxosAcceptor paxosState = null;
 	// uses just a single pointer's worth of space unless I am a coordinator
 	private PaxosCoordinator coordinator = null;
+	// created upon the first decision if EXECUTION_THREADS > 0
+	private volatile SerialExecutor executionStage = null;
 	/************ End of non-final paxos state ***********************************************/
 
 	// static, so does not count towards space.
@@ -250,6 +258,14 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		return this.getPaxosID();
 	}
 
+	// compares against the stored bytes without creating a string
+	@Override
+	public boolean keyEquals(Object key) {
+		return PAXOS_ID_AS_STRING ? this.paxosID.equals(key)
+				: key instanceof String
+						&& Util.equals((String) key, (byte[]) this.paxosID);
+	}
+
 	public String toString() {
 		return this.getNodeState();
 	}
@@ -887,7 +903,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		PrepareReplyPacket prepareReply = this.paxosState.handlePrepare(
 				prepare, this.paxosManager.getMyID());
 		if (prepareReply == null)
-			return null; // can happen only if acceptor is stopped
+			// acceptor stopped or lease granted to another coordinator
+			return null;
 		if (prepare.isRecovery())
 			return null; // no need to get accepted pvalues from disk during
 							// recovery as networking is disabled anyway
@@ -1497,18 +1514,67 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 	private static final int AGREEMENT_LATENCY_SAMPLING = 100;
 	private static final int EXECUTION_LATENCY_SAMPLING = 100;
 
+	private static final boolean PIPELINED_EXECUTION = Config
+			.getGlobalInt(PC.EXECUTION_THREADS) > 0;
+	private static final int MAX_EXECUTION_LAG = Config
+			.getGlobalInt(PC.MAX_EXECUTION_LAG);
+
+	private static final AtomicReferenceFieldUpdater<PaxosInstanceStateMachine, SerialExecutor> EXECUTION_STAGE = AtomicReferenceFieldUpdater
+			.newUpdater(PaxosInstanceStateMachine.class, SerialExecutor.class,
+					"executionStage");
+
+	/* Created lazily without locking this instance as the thread delivering a
+	 * decision must not wait for an ongoing execution. */
+	private SerialExecutor getExecutionStage() {
+		if (this.executionStage == null)
+			EXECUTION_STAGE.compareAndSet(this, null, new SerialExecutor(
+					this.paxosManager.getExecutionPool()));
+		return this.executionStage;
+	}
+
+	// decisions handed off but not yet executed
+	private int getPendingExecutions() {
+		SerialExecutor stage = this.executionStage;
+		return stage != null ? stage.getPending() : 0;
+	}
+
+	/* If pipelined execution is enabled, hands off a logged decision to this
+	 * instance's serial executor and returns immediately, so the delivering
+	 * thread is not held up by the execution of this or earlier decisions. The
+	 * decisions are still extracted, executed, and checkpointed atomically by
+	 * extractExecuteAndCheckpointNow below, so they are executed in slot order
+	 * regardless of the order in which they are handed off. A decision is
+	 * executed by the calling thread if more than MAX_EXECUTION_LAG decisions
+	 * are pending, if it is a recovery decision, or if it is null, i.e., the
+	 * caller is handleCheckpoint.
+	 * 
+	 * This method is protected, not private, because it needs to be called by
+	 * the logger after it is done logging the committed request. Having the
+	 * logger call this method is only space-efficient design alternative. */
+	protected MessagingTask extractExecuteAndCheckpoint(
+			final PValuePacket loggedDecision) {
+		SerialExecutor stage = null;
+		if (!PIPELINED_EXECUTION || loggedDecision == null
+				|| loggedDecision.isRecovery()
+				|| (stage = this.getExecutionStage()).getPending() >= MAX_EXECUTION_LAG)
+			return this.extractExecuteAndCheckpointNow(loggedDecision);
+		stage.execute(new Runnable() {
+			@Override
+			public void run() {
+				sendMessagingTask(extractExecuteAndCheckpointNow(loggedDecision));
+			}
+		});
+		return null;
+	}
+
 	/* The three actions--(1) extracting the next slot request from the
 	 * acceptor, (2) having the app execute the request, and (3) checkpoint if
 	 * needed--need to happen atomically. If the app throws an error while
 	 * executing the request, we need to retry until successful, otherwise, the
 	 * replicated state machine will be stuck. So, essentially, the app has to
 	 * support atomicity or the operations have to be idempotent for correctness
-	 * of the replicated state machine.
-	 * 
-	 * This method is protected, not private, because it needs to be called by
-	 * the logger after it is done logging the committed request. Having the
-	 * logger call this method is only space-efficient design alternative. */
-	protected/* synchronized */MessagingTask extractExecuteAndCheckpoint(
+	 * of the replicated state machine. */
+	private/* synchronized */MessagingTask extractExecuteAndCheckpointNow(
 			PValuePacket loggedDecision) {
 		long methodEntryTime = System.currentTimeMillis();
 		int execCount = 0;
@@ -1552,17 +1618,27 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 				// getState must be atomic with the execution
 				if (shouldCheckpoint(inorderDecision)
 						&& !inorderDecision.isRecovery())
-
-					consistentCheckpoint(
-							this,
-							inorderDecision.isStopRequest(),
-							pid,
-							this.version,
-							this.paxosManager
-									.getStringNodesFromIntArray(this.groupMembers),
-							inorderDecision.slot, this.paxosState.getBallot(), null,
-							this.paxosState
-									.getGCSlot());
+					if (inorderDecision.isStopRequest()
+							|| !(this.getApp() instanceof AsyncCheckpointable)
+							|| !asyncCheckpoint(
+								this,
+								pid,
+								this.version,
+								this.paxosManager
+										.getStringNodesFromIntArray(this.groupMembers),
+								inorderDecision.slot, this.paxosState
+										.getBallot(), this.paxosState
+										.getGCSlot()))
+						consistentCheckpoint(
+								this,
+								inorderDecision.isStopRequest(),
+								pid,
+								this.version,
+								this.paxosManager
+										.getStringNodesFromIntArray(this.groupMembers),
+								inorderDecision.slot, this.paxosState.getBallot(), null,
+								this.paxosState
+										.getGCSlot());
 
 				/* If stop request, copy epoch final state and kill self. If
 				 * copy is not successful, we could get stuck trying to create
@@ -1606,6 +1682,7 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		log.log(Level.FINE, "{0} checkpointing at slot {1}; isStop={2}",
 				new Object[] { pism, slot, isStop });
 		synchronized (pism.getPaxosManager()) {
+			pism.getPaxosManager().supersedeAsyncCheckpoint(paxosID);
 			return pism.canCheckpoint() ?
 				 AbstractPaxosLogger.checkpoint(pism.getPaxosManager()
 						.getPaxosLogger(), isStop, paxosID, version, members,
@@ -1614,6 +1691,65 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		}
 	}
 
+	/* Like consistentCheckpoint but only obtains a checkpoint producer from the
+	 * app atomically with execution and persists the checkpoint in the
+	 * background without holding the paxosManager lock. The checkpoint is
+	 * recorded in the logger only if the invariant in consistentCheckpoint
+	 * still holds and no synchronous checkpoint has superseded it meanwhile.
+	 * At most one asynchronous checkpoint is in flight per instance; a
+	 * checkpoint skipped because of that will simply be taken at the next
+	 * checkpoint interval.
+	 * 
+	 * Return: False if the app declined to checkpoint asynchronously, so the
+	 * caller must checkpoint synchronously instead. */
+	private static final boolean asyncCheckpoint(
+			final PaxosInstanceStateMachine pism, final String paxosID,
+			final int version, final Set<String> members, final int slot,
+			final Ballot ballot, final int gcSlot) {
+		final PaxosManager<?> pm = pism.getPaxosManager();
+		if (!pm.beginAsyncCheckpoint(paxosID, slot))
+			return true;
+		log.log(Level.FINE, "{0} asynchronously checkpointing at slot {1}",
+				new Object[] { pism, slot });
+		final CheckpointProducer producer;
+		try {
+			producer = ((AsyncCheckpointable) pism.getApp())
+					.checkpointAsync(paxosID);
+		} catch (RuntimeException e) {
+			pm.endAsyncCheckpoint(paxosID, slot);
+			throw e;
+		}
+		if (producer == null) {
+			pm.endAsyncCheckpoint(paxosID, slot);
+			return false;
+		}
+		pm.submitAsyncCheckpoint(new Runnable() {
+			@Override
+			public void run() {
+				String handle = null;
+				long t = System.currentTimeMillis();
+				try {
+					handle = pm.getLargeCheckpointer().checkpoint(paxosID,
+							producer);
+				} catch (IOException | RuntimeException e) {
+					log.severe(pism + " unable to create asynchronous checkpoint at slot "
+							+ slot + ": " + e);
+					e.printStackTrace();
+				}
+				synchronized (pm) {
+					if (pm.endAsyncCheckpoint(paxosID, slot) && handle != null
+							&& pism.canCheckpoint())
+						AbstractPaxosLogger.checkpoint(pm.getPaxosLogger(),
+								false, paxosID, version, members, slot, ballot,
+								handle, gcSlot);
+				}
+				DelayProfiler.updateDelay(AbstractPaxosLogger.appName
+						+ ".asyncCheckpoint", t);
+			}
+		});
+		return true;
+	}
+
 	// initial checkpoint or not de-mapped yet
 	private boolean canCheckpoint() {
 		return this.paxosState.isRecovering()
@@ -1637,6 +1773,37 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 		}
 	}
 
+	/* Executes a read-only request without ordering it if this node is the
+	 * coordinator holding a leader lease and has executed all slots that it
+	 * knows to be committed. The lease ensures that no other coordinator can
+	 * have committed a request in the meantime, so the read is linearizable.
+	 * Synchronized with extractExecuteAndCheckpoint so that the read does not
+	 * interleave with the execution of decisions.
+	 * 
+	 * Return: True if executed locally, false if the request must be ordered. */
+	protected boolean executeReadOnly(ReadOnlyRequest request,
+			ExecutedCallback callback) {
+		boolean executed = false;
+		synchronized (this) {
+			if (EXECUTE_UPON_ACCEPT || this.paxosState.isStopped()
+					|| !PaxosCoordinator.canReadLocally(this.coordinator,
+							this.paxosState.getSlot()))
+				return false;
+			try {
+				executed = this.getApp().execute(request, false);
+			} catch (Exception | Error e) {
+				// must swallow any and all exceptions as in execute
+				e.printStackTrace();
+			}
+		}
+		log.log(Level.FINE, "{0} {1} read-only request {2} under lease",
+				new Object[] { this, executed ? "executed" : "failed to execute",
+						request.getSummary(log.isLoggable(Level.FINE)) });
+		if (executed && callback != null)
+			callback.executed(request, true);
+		return executed;
+	}
+
 	/**
 	 * Helper method used above in EEC as well as by PaxosManager for emulating
 	 * unreplicated execution for testing purposes.
@@ -1783,7 +1950,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 					: this.paxosState) {
 				int cpSlot = this.paxosState.getSlot() - 1;
 				if (this.paxosState.caughtUp()
-						&& PaxosCoordinator.caughtUp(this.coordinator)) {
+						&& PaxosCoordinator.caughtUp(this.coordinator)
+						&& this.getPendingExecutions() == 0) {
 					String pid = this.getPaxosID();
 					consistentCheckpoint(
 							this,
@@ -1901,7 +2069,8 @@ public class PaxosInstanceStateMachine implements Keyable<String>, Pausable {
 			synchronized (this.coordinator != null ? this.coordinator
 					: this.paxosState) {
 				if (this.paxosState.caughtUp()
-						&& PaxosCoordinator.caughtUp(this.coordinator)) {
+						&& PaxosCoordinator.caughtUp(this.coordinator)
+						&& this.getPendingExecutions() == 0) {
 					hri = new HotRestoreInfo(this.getPaxosID(),
 							this.getVersion(), this.groupMembers,
 							this.paxosState.getSlot(),
@@ -29,11 +29,14 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.json.JSONArray;
@@ -43,6 +46,7 @@ import org.json.JSONObject;
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
 import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.ReadOnlyRequest;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.GigapaxosShutdownable;
@@ -64,7 +68,6 @@ import edu.umass.cs.gigapaxos.paxosutil.OverloadException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceCreationException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosInstanceDestructionException;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosMessenger;
-import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PendingDigests;
 import edu.umass.cs.gigapaxos.paxosutil.RateLimiter;
 import edu.umass.cs.gigapaxos.paxosutil.RecoveryInfo;
@@ -134,7 +137,8 @@ public class PaxosManager<NodeIDType> {
 	private final HashMap<String, PaxosInstanceStateMachine> corpses;
 	private final IntegerMap<NodeIDType> integerMap = new IntegerMap<NodeIDType>();
 	private final Stringifiable<NodeIDType> unstringer;
-	private final RequestBatcher requestBatcher;
+	// shards indexed by RequestBatcher.getShard(paxosID)
+	private final RequestBatcher[] requestBatchers;
 	private final PaxosPacketBatcher ppBatcher;
 
 	private int outOfOrderLimit = PaxosInstanceStateMachine.SYNC_THRESHOLD;
@@ -145,6 +149,14 @@ public class PaxosManager<NodeIDType> {
 	private final Outstanding outstanding = new Outstanding();
 	private final LargeCheckpointer largeCheckpointer;
 	private PendingDigests pendingDigests;
+
+	/* Slot of the in-flight asynchronous checkpoint, if any, by paxosID for
+	 * applications implementing AsyncCheckpointable. */
+	private final ConcurrentHashMap<String, Integer> asyncCheckpoints = new ConcurrentHashMap<String, Integer>();
+	private final ExecutorService asyncCheckpointer;
+
+	// pool shared by the execution stages of paxos instances, if enabled
+	private final ExecutorService executionPool;
 	
 	/**
 	 * aditya:
@@ -350,10 +362,15 @@ public class PaxosManager<NodeIDType> {
 	private boolean hasRecovered = false;
 
 	// need this to be static so DB can be closed gracefully
-	private static boolean closed = false;
+	private static volatile boolean closed = false;
 
-	// need this to be static so DB can be closed gracefully
-	private static int processing = 0;
+	/* Need this to be static so DB can be closed gracefully. Lock-free so
+	 * that concurrent demultiplexer threads don't serialize on a single
+	 * monitor for every packet. Not a LongAdder as its sum is not an atomic
+	 * snapshot, so it could read zero while a packet is still being
+	 * processed and let close() tear down the logger and messenger under
+	 * it. */
+	private static final AtomicLong processing = new AtomicLong(0);
 
 	/* Note: PaxosManager itself maintains no NIO transport instance as it
 	 * delegates all communication related activities to other objects.
@@ -422,11 +439,42 @@ public class PaxosManager<NodeIDType> {
 					});
 		
 		
+		this.asyncCheckpointer = Executors.newFixedThreadPool(
+				Config.getGlobalInt(PC.ASYNC_CHECKPOINT_THREADS),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = Executors.defaultThreadFactory()
+								.newThread(r);
+						thread.setName(PaxosManager.class.getSimpleName()
+								+ myID + ":asyncCheckpointer");
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+
+		if (Config.getGlobalInt(PC.EXECUTION_THREADS) > 0)
+			this.executionPool = Executors.newFixedThreadPool(
+					Config.getGlobalInt(PC.EXECUTION_THREADS),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = Executors.defaultThreadFactory()
+									.newThread(r);
+							thread.setName(PaxosManager.class.getSimpleName()
+									+ myID + ":executor");
+							return thread;
+						}
+					});
+		else
+			this.executionPool = null;
+
 		this.unstringer = unstringer;
 		this.largeCheckpointer = new LargeCheckpointer(paxosLogFolder,
 				this.myID + "", id.toString());
 		this.myApp = LargeCheckpointer.wrap(pi, largeCheckpointer);
-		this.FD = new FailureDetection<NodeIDType>(id, niot, paxosLogFolder);
+		this.FD = new FailureDetection<NodeIDType>(id, niot, paxosLogFolder,
+				this.integerMap);
 		this.pinstances = new MultiArrayMap<String, PaxosInstanceStateMachine>(
 				Config.getGlobalInt(PC.PINSTANCES_CAPACITY));
 		this.corpses = new HashMap<String, PaxosInstanceStateMachine>();
@@ -447,7 +495,11 @@ public class PaxosManager<NodeIDType> {
 					}
 				});
 		this.initOutstandingMonitor();
-		(this.requestBatcher = new RequestBatcher(this)).start();
+		this.requestBatchers = new RequestBatcher[Math.max(
+				Config.getGlobalInt(PC.NUM_REQUEST_BATCHERS), 1)];
+		for (int i = 0; i < this.requestBatchers.length; i++)
+			(this.requestBatchers[i] = new RequestBatcher(this, i,
+					this.requestBatchers.length)).start();
 		(this.ppBatcher = new PaxosPacketBatcher(this)).start();
 		testingInitialization();
 		// needed to unclose when testing multiple runs of open and close
@@ -882,7 +934,7 @@ public class PaxosManager<NodeIDType> {
 						"{0} packet json demultiplexer received {1}",
 						new Object[] { PaxosManager.this, jsonMsg });
 				PaxosManager.this
-						.handleIncomingPacket(edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer
+						.handleIncomingPacketOrReject(edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer
 								.toPaxosPacket(fixNodeStringToInt(jsonMsg),
 										PaxosManager.this.unstringer));
 				return true;
@@ -890,9 +942,6 @@ public class PaxosManager<NodeIDType> {
 				log.severe(this
 						+ " unable to parse JSON or unable fix node ID string to integer");
 				e.printStackTrace();
-			} catch (OverloadException oe) {
-				if (this.clientFacing)
-					PaxosPacketDemultiplexer.throttleExcessiveLoad();
 			}
 			return true;
 		}
@@ -930,9 +979,17 @@ public class PaxosManager<NodeIDType> {
 			}
 			return false;
 		}
+
+		// order is preserved per paxos group
+		@Override
+		protected Object getOrderingKey(JSONObject msg) {
+			return msg.opt(PaxosPacket.Keys.ID.toString());
+		}
 	}
 
 	protected boolean isCongested() {
+		if (this.getNumQueued() >= MAX_OUTSTANDING_REQUESTS)
+			return true;
 		this.GC();
 		return PaxosManager.this.getNumOutstandingOrQueued() > MAX_OUTSTANDING_REQUESTS;
 	}
@@ -942,7 +999,8 @@ public class PaxosManager<NodeIDType> {
 			edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast {
 
 		public FastDemultiplexer(int numThreads, boolean clientFacing) {
-			super(numThreads);
+			super(numThreads, (String intString) -> PaxosManager.this
+					.intStringToNode(intString));
 			this.setThreadName(PaxosManager.this.intToString(myID)
 					+ (clientFacing ? "-clientFacing" : ""));
 			this.register(PaxosPacket.PaxosPacketType.PAXOS_PACKET);
@@ -980,7 +1038,7 @@ public class PaxosManager<NodeIDType> {
 							DelayProfiler.updateDelayNano(
 									"requestPacketization", t);
 
-					PaxosManager.this.handleIncomingPacket(pp);
+					PaxosManager.this.handleIncomingPacketOrReject(pp);
 					return true;
 				} catch (JSONException e) {
 					log.severe(this + " incurred JSONException while parsing "
@@ -1012,7 +1070,8 @@ public class PaxosManager<NodeIDType> {
 				 * reverse efficiently while sending out messages. So we
 				 * currently byteify paxos packets only when all node IDs are
 				 * integers. */
-				PaxosManager.this.handleIncomingPacket(((PaxosPacket) msg));
+				PaxosManager.this
+						.handleIncomingPacketOrReject(((PaxosPacket) msg));
 			} catch (Exception | Error e) {
 				e.printStackTrace();
 			}
@@ -1060,7 +1119,37 @@ public class PaxosManager<NodeIDType> {
 	private static final boolean ENABLE_RESPONSE_CACHING = Config
 			.getGlobalBoolean(PC.ENABLE_RESPONSE_CACHING);
 
-	private void handleIncomingPacket(PaxosPacket pp) {
+	/* Fast reject path for requests received over the network: a request
+	 * that would overflow the request batcher's queues gets an immediate NACK
+	 * carrying the overload message, so that overload sheds load with bounded
+	 * latency instead of growing queues or stalling demultiplexer threads.
+	 * Packets in a batch are handled separately so that one rejected request
+	 * neither drops the rest nor gets the whole batch NACKed.
+	 * 
+	 * package-private for PaxosManagerTest */
+	void handleIncomingPacketOrReject(PaxosPacket pp) {
+		if (pp.getType() == PaxosPacketType.BATCHED_PAXOS_PACKET) {
+			for (PaxosPacket packet : ((BatchedPaxosPacket) pp)
+					.getPaxosPackets())
+				this.handleIncomingPacketOrReject(packet);
+			return;
+		}
+		try {
+			this.handleIncomingPacket(pp);
+		} catch (OverloadException oe) {
+			// only requests are rejected and only they have a client to NACK
+			if (!(pp instanceof RequestPacket))
+				throw oe;
+			RequestPacket request = (RequestPacket) pp;
+			PaxosConfig.log.log(Level.FINE, "{0} rejecting request {1}: {2}",
+					new Object[] { this, request.getSummary(), oe.getMessage() });
+			this.defaultCallback(request.getNACK(oe.getMessage()),
+					request.getClientAddress(), request.getListenAddress());
+		}
+	}
+
+	// package-private for PaxosProcessingTester
+	void handleIncomingPacket(PaxosPacket pp) {
 
 		if (ENABLE_RESPONSE_CACHING && pp.getType() == PaxosPacketType.REQUEST
 				&& this.retransmittedRequest(((RequestPacket) pp)))
@@ -1085,9 +1174,15 @@ public class PaxosManager<NodeIDType> {
 				&& RequestBatcher.shouldEnqueue()
 				&& !((RequestPacket) pp).isBroadcasted()) {
 			if (pp.getPaxosID() != null) {
+				RequestBatcher batcher = this.getRequestBatcher(pp.getPaxosID());
+				if (batcher.isCongested()
+						&& ((RequestPacket) pp).getEntryReplica() == IntegerMap.NULL_INT_NODE
+						&& !((RequestPacket) pp).isStopRequest())
+					// reject without contending for the batcher lock
+					throw new OverloadException("Excessive client request load");
 				PaxosConfig.log.log(level, "{0} enqueueing request {1}", new Object[] {
 						this, pp.getSummary(PaxosConfig.log.isLoggable(level)) });
-				this.requestBatcher.enqueue(((RequestPacket) pp));
+				batcher.enqueue(((RequestPacket) pp));
 			} else
 				error((RequestPacket) pp);
 		} else {
@@ -1098,6 +1193,18 @@ public class PaxosManager<NodeIDType> {
 		}
 	}
 
+	private RequestBatcher getRequestBatcher(String paxosID) {
+		return this.requestBatchers[RequestBatcher.getShard(paxosID,
+				this.requestBatchers.length)];
+	}
+
+	private int getNumQueued() {
+		int queued = 0;
+		for (RequestBatcher batcher : this.requestBatchers)
+			queued += batcher.getQueueSize();
+		return queued;
+	}
+
 	private void error(RequestPacket req) {
 		PaxosConfig.log.warning(this + " received request with no paxosID: "
 				+ req.getSummary());
@@ -1116,6 +1223,10 @@ public class PaxosManager<NodeIDType> {
 		Level level = Level.FINEST;
 		PaxosPacketType paxosPacketType;
 		try {
+			/* Check again after setProcessing(true) so that either
+			 * waitToFinishAll sees this packet or we see closed. */
+			if (this.isClosed())
+				return;
 			// will throw exception if no PAXOS_PACKET_TYPE
 			paxosPacketType = request.getType();
 			switch (paxosPacketType) {
@@ -1189,6 +1300,8 @@ public class PaxosManager<NodeIDType> {
 		if (request.getSender() != null) {
 			this.servers.add(request.getSender().getAddress());
 		}
+		if (request.senderNodeID == null)
+			return;
 		FD.receive((FailureDetectionPacket<NodeIDType>) request);
 	}
 
@@ -1208,7 +1321,13 @@ public class PaxosManager<NodeIDType> {
 
 			this.outstanding.enqueue(new RequestAndCallback(requestPacket,
 					callback));
-			this.handleIncomingPacket(requestPacket);
+			try {
+				this.handleIncomingPacket(requestPacket);
+			} catch (OverloadException oe) {
+				// caller handles overload
+				this.outstanding.dequeue(requestPacket);
+				throw oe;
+			}
 		} else
 			PaxosConfig.log.log(Level.INFO,
 					"{0} could not find paxos instance {1} for request {2} with body {3}; "
@@ -1260,6 +1379,31 @@ public class PaxosManager<NodeIDType> {
 		return this.propose(paxosID, this.getRequestPacket(request), callback);
 	}
 
+	private static final boolean LEADER_LEASES = Config
+			.getGlobalInt(PC.LEADER_LEASE_PERIOD) > 0;
+
+	/**
+	 * Executes a read-only request locally without proposing it if this node
+	 * is the coordinator of paxosID and holds a leader lease; refer
+	 * {@link PC#LEADER_LEASE_PERIOD}. The callback, if any, is invoked before
+	 * this method returns.
+	 * 
+	 * @param paxosID
+	 * @param request
+	 * @param callback
+	 * @return The paxosID:version represented as a String in which the
+	 *         request got executed; null if the request was not executed and
+	 *         must be proposed instead.
+	 */
+	public String executeReadOnly(String paxosID, ReadOnlyRequest request,
+			ExecutedCallback callback) {
+		if (!LEADER_LEASES || !request.isReadOnly())
+			return null;
+		PaxosInstanceStateMachine pism = this.getInstance(paxosID);
+		return pism != null && pism.executeReadOnly(request, callback) ? pism
+				.getPaxosIDVersion() : null;
+	}
+
 	/**
 	 * @param paxosID
 	 * @param request
@@ -1567,8 +1711,7 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	private int getNumOutstandingOrQueued() {
-		return (this.outstanding.requests.size())
-				+ this.requestBatcher.getQueueSize();
+		return (this.outstanding.requests.size()) + this.getNumQueued();
 	}
 
 	// queue of outstanding requests
@@ -1651,22 +1794,17 @@ public class PaxosManager<NodeIDType> {
 		this.paxosLogger.removeAll();
 	}
 
-	private static final synchronized void open() {
-		{
-			closed = false;
-		}
+	private static final void open() {
+		closed = false;
 	}
 
-	private static final synchronized void closeAll() {
-		{
-			closed = true;
-		}
+	private static final void closeAll() {
+		closed = true;
 	}
 
-	private static final synchronized boolean allClosed() {
-		{
-			return closed;
-		}
+	// not synchronized as it is invoked for every packet
+	private static final boolean allClosed() {
+		return closed;
 	}
 
 	private boolean isClosed() {
@@ -1690,10 +1828,14 @@ public class PaxosManager<NodeIDType> {
 		waitToFinishAll();
 
 		/* Close logger, FD, messenger, request batcher, executor */
+		this.asyncCheckpointer.shutdownNow();
+		if (this.executionPool != null)
+			this.executionPool.shutdownNow();
 		this.paxosLogger.close();
 		this.FD.close();
 		this.messenger.stop();
-		this.requestBatcher.stop();
+		for (RequestBatcher batcher : this.requestBatchers)
+			batcher.stop();
 		this.ppBatcher.stop();
 		this.largeCheckpointer.close();
 		this.executor.shutdownNow();
@@ -1980,8 +2122,10 @@ public class PaxosManager<NodeIDType> {
 					}
 				});
 
+		long rollForwardNanos = 0, readStartTime = System.currentTimeMillis();
 		try {
 			while ((paxosPacket = this.paxosLogger.readNextMessage()) != null) {
+				long t = System.nanoTime();
 				paxosPacket = PaxosPacket.markRecovered(paxosPacket);
 				Level level = Level.FINEST;
 				PaxosConfig.log.log(level,
@@ -1989,6 +2133,7 @@ public class PaxosManager<NodeIDType> {
 						new Object[] { this,
 								paxosPacket.getSummary(PaxosConfig.log.isLoggable(level)) });
 				this.handlePaxosPacket((paxosPacket));
+				rollForwardNanos += System.nanoTime() - t;
 				if ((++logCount) % freq == 0) {
 					freq *= 2;
 				}
@@ -2000,9 +2145,16 @@ public class PaxosManager<NodeIDType> {
 			e.printStackTrace();
 		}
 		this.paxosLogger.closeReadAll(); // releases lock
+		DelayProfiler.updateValue("recoveryRollForwardMillis",
+				rollForwardNanos / 1000 / 1000);
 		PaxosConfig.log.log(Level.INFO,
-				"{0} rolled forward {1} messages total across {2} paxos groups",
-				new Object[] { this, logCount, groupCount });
+				"{0} rolled forward {1} messages total across {2} paxos groups in {3}ms ({4}ms handling messages); {5}",
+				new Object[] { this, logCount, groupCount,
+						System.currentTimeMillis() - readStartTime,
+						rollForwardNanos / 1000 / 1000,
+						DelayProfiler.getStats(new HashSet<String>(Arrays.asList(
+								"recoveryScanMillis", "recoveryDecodeMillis",
+								"recoveryRollForwardMillis"))) });
 
 		// need to make another pass to mark all instances as active
 		while (this.paxosLogger.initiateReadCheckpoints(true))
@@ -2498,17 +2650,21 @@ public class PaxosManager<NodeIDType> {
 	}
 
 	/****************** Start of methods to gracefully finish processing **************/
-	private static final synchronized void setProcessing(boolean b) {
+	/* Not synchronized. The notification is needed only after closeAll, so
+	 * it is skipped while open. As both closed and processing are volatile,
+	 * either waitToFinishAll sees the decrement below or we see closed and
+	 * notify. */
+	private static final void setProcessing(boolean b) {
 		if (b)
-			processing++;
-		else
-			processing--;
-		if (processing == 0)
-			PaxosManager.class.notify();
+			processing.incrementAndGet();
+		else if (processing.decrementAndGet() == 0 && closed)
+			synchronized (PaxosManager.class) {
+				PaxosManager.class.notifyAll();
+			}
 	}
 
-	private static final synchronized boolean getProcessing() {
-		return processing > 0;
+	private static final boolean getProcessing() {
+		return processing.get() > 0;
 	}
 
 	protected static final synchronized void waitToFinishAll() {
@@ -3073,6 +3229,16 @@ public class PaxosManager<NodeIDType> {
 		return this.integerMap.get(id).toString();
 	}
 
+	/* Byteified failure detection packets carry IntegerMap ints as node IDs.
+	 * A node we have not yet mapped, e.g., one with which we share no group
+	 * yet, is returned as null unless all node IDs are ints anyway. */
+	private NodeIDType intStringToNode(String intString) {
+		NodeIDType node = this.integerMap.getIfPresent(Integer
+				.valueOf(intString));
+		return node != null || !IntegerMap.allInt() ? node : this.unstringer
+				.valueOf(intString);
+	}
+
 	/* ********************** Testing methods below ********************* */
 
 	private void testingInitialization() {
@@ -3368,6 +3534,38 @@ public class PaxosManager<NodeIDType> {
 		return this.myApp;
 	}
 
+	protected LargeCheckpointer getLargeCheckpointer() {
+		return this.largeCheckpointer;
+	}
+
+	/* Returns true if no asynchronous checkpoint is already in flight for
+	 * paxosID, in which case the caller must eventually invoke
+	 * endAsyncCheckpoint. */
+	protected boolean beginAsyncCheckpoint(String paxosID, int slot) {
+		return this.asyncCheckpoints.putIfAbsent(paxosID, slot) == null;
+	}
+
+	/* Returns true if the asynchronous checkpoint at slot has not been
+	 * superseded by a synchronous checkpoint in the meantime. Must be invoked
+	 * while synchronized on this PaxosManager like synchronous checkpoints. */
+	protected boolean endAsyncCheckpoint(String paxosID, int slot) {
+		return this.asyncCheckpoints.remove(paxosID, slot);
+	}
+
+	/* Invoked with this PaxosManager locked by synchronous checkpoints so that
+	 * an older in-flight asynchronous checkpoint does not overwrite them. */
+	protected void supersedeAsyncCheckpoint(String paxosID) {
+		this.asyncCheckpoints.remove(paxosID);
+	}
+
+	protected void submitAsyncCheckpoint(Runnable task) {
+		this.asyncCheckpointer.submit(task);
+	}
+
+	protected Executor getExecutionPool() {
+		return this.executionPool;
+	}
+
 	protected MessageDigest getMessageDigest() {
 		return RequestPacket.getMessageDigest();
 	}
@@ -0,0 +1,164 @@
+package edu.umass.cs.gigapaxos;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.Replicable;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.OverloadException;
+import edu.umass.cs.gigapaxos.testing.TESTPaxosApp;
+import edu.umass.cs.nio.JSONNIOTransport;
+import edu.umass.cs.nio.interfaces.InterfaceNIOTransport;
+import edu.umass.cs.nio.interfaces.Stringifiable;
+import edu.umass.cs.nio.nioutils.PacketDemultiplexerDefault;
+import edu.umass.cs.nio.nioutils.SampleNodeConfig;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Tests the reject path of {@link PaxosManager} for requests received
+ *         over the network, i.e., that a request rejected with an
+ *         {@link OverloadException} is NACKed to its client with the overload
+ *         message.
+ */
+public class PaxosManagerTest extends DefaultTest {
+
+	private static final String OVERLOAD = "test overload";
+
+	private static final InetSocketAddress CLIENT = new InetSocketAddress(
+			"127.0.0.1", 12345);
+
+	// static because send may be invoked before subclass fields are set
+	private static final LinkedBlockingQueue<Request> sent = new LinkedBlockingQueue<Request>();
+
+	/* Rejects every packet as the request batcher does when overloaded and
+	 * records responses instead of sending them. */
+	private static class RejectingPaxosManager extends PaxosManager<Integer> {
+		RejectingPaxosManager(Integer id, Stringifiable<Integer> nc,
+				InterfaceNIOTransport<Integer, JSONObject> niot, Replicable app) {
+			super(id, nc, niot, app);
+		}
+
+		@Override
+		void handleIncomingPacket(PaxosPacket pp) {
+			throw new OverloadException(OVERLOAD);
+		}
+
+		@Override
+		protected void send(InetSocketAddress sockAddr, Request request,
+				InetSocketAddress listenSockAddr) throws JSONException,
+				IOException {
+			Assert.assertEquals(CLIENT, sockAddr);
+			sent.add(request);
+		}
+	}
+
+	private static PaxosManager<Integer> pm;
+
+	/**
+	 * @throws IOException
+	 */
+	@BeforeClass
+	public static void setup() throws IOException {
+		int id = 0;
+		SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+				SampleNodeConfig.DEFAULT_START_PORT + 300);
+		snc.addLocal(id);
+		JSONNIOTransport<Integer> niot = new JSONNIOTransport<Integer>(id,
+				snc, new PacketDemultiplexerDefault(), true);
+		pm = new RejectingPaxosManager(id, snc, niot, new TESTPaxosApp(niot));
+	}
+
+	/**
+	 *
+	 */
+	@AfterClass
+	public static void teardown() {
+		pm.close();
+	}
+
+	private static RequestPacket createRequest(String value) {
+		RequestPacket request = new RequestPacket(value, false, CLIENT);
+		request.putPaxosID(PaxosManagerTest.class.getSimpleName(), 0);
+		return request;
+	}
+
+	private static void assertNACK(RequestPacket request) {
+		Request response = sent.poll();
+		Assert.assertTrue(response instanceof RequestPacket);
+		RequestPacket nack = (RequestPacket) response;
+		Assert.assertTrue(nack.isNACK());
+		Assert.assertEquals(request.getRequestID(), nack.getRequestID());
+		Assert.assertEquals(OVERLOAD, nack.getResponseValue());
+		// clients get NACKs as is
+		Assert.assertSame(nack, nack.getResponse());
+	}
+
+	/**
+	 * A rejected request is NACKed to its client with the overload message.
+	 */
+	@Test
+	public void testRejectedRequestIsNACKed() {
+		RequestPacket request = createRequest("req0");
+		pm.handleIncomingPacketOrReject(request);
+		assertNACK(request);
+		Assert.assertTrue(sent.isEmpty());
+	}
+
+	/**
+	 * Each request in a batch of paxos packets is NACKed separately.
+	 */
+	@Test
+	public void testBatchedRequestsAreNACKed() {
+		RequestPacket request1 = createRequest("req1");
+		RequestPacket request2 = createRequest("req2");
+		pm.handleIncomingPacketOrReject(new BatchedPaxosPacket(
+				new PaxosPacket[] { request1, request2 }));
+		assertNACK(request1);
+		assertNACK(request2);
+		Assert.assertTrue(sent.isEmpty());
+	}
+
+	/**
+	 * An overload upon a packet that is not a request has no client to NACK
+	 * and is propagated to the caller.
+	 */
+	@Test
+	public void testNonRequestIsNotNACKed() {
+		try {
+			pm.handleIncomingPacketOrReject(new FailureDetectionPacket<Integer>(
+					1, 0, true));
+			Assert.fail("Swallowed overload of a non-request packet");
+		} catch (OverloadException oe) {
+			// expected
+		}
+		Assert.assertTrue(sent.isEmpty());
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(PaxosManagerTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package edu.umass.cs.gigapaxos;
+
+import java.io.IOException;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.testing.TESTPaxosApp;
+import edu.umass.cs.nio.JSONNIOTransport;
+import edu.umass.cs.nio.nioutils.PacketDemultiplexerDefault;
+import edu.umass.cs.nio.nioutils.SampleNodeConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A microbenchmark for the throughput of
+ *         PaxosManager.handleIncomingPacket as a function of the number of
+ *         concurrent demultiplexer threads. It uses failure detection packets
+ *         that involve little work beyond the per-packet bookkeeping common
+ *         to all packets, so it mostly measures the latter. Usage:
+ *
+ *         PaxosProcessingTester [numPacketsPerThread [threadCounts ...]]
+ */
+public class PaxosProcessingTester {
+	private static final int DEFAULT_NUM_PACKETS = 1000000;
+
+	/**
+	 * @param pm
+	 * @param numThreads
+	 * @param numPackets
+	 * @return Packets/sec.
+	 * @throws InterruptedException
+	 */
+	static double test(final PaxosManager<Integer> pm, int numThreads,
+			final int numPackets) throws InterruptedException {
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			/* Distinct senders so that the failure detector's map is not
+			 * itself the bottleneck. */
+			final FailureDetectionPacket<Integer> fdp = new FailureDetectionPacket<Integer>(
+					1000 + i, pm.getNodeID(), true);
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < numPackets; j++)
+						pm.handleIncomingPacket(fdp);
+				}
+			});
+		}
+		long t = System.nanoTime();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		double rate = (double) numThreads * numPackets * 1000 * 1000
+				* 1000 / (System.nanoTime() - t);
+		System.out.println("numThreads=" + numThreads + ": "
+				+ Util.df(rate) + " packets/sec");
+		return rate;
+	}
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws InterruptedException,
+			IOException {
+		int numPackets = args.length > 0 ? Integer.valueOf(args[0])
+				: DEFAULT_NUM_PACKETS;
+		int[] threadCounts = null;
+		if (args.length > 1) {
+			threadCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				threadCounts[i - 1] = Integer.valueOf(args[i]);
+		} else {
+			// powers of 2 up to at least PACKET_DEMULTIPLEXER_THREADS
+			int max = Math.max(
+					Config.getGlobalInt(PC.PACKET_DEMULTIPLEXER_THREADS),
+					Runtime.getRuntime().availableProcessors());
+			threadCounts = new int[Integer.SIZE
+					- Integer.numberOfLeadingZeros(max - 1) + 1];
+			for (int i = 0; i < threadCounts.length; i++)
+				threadCounts[i] = 1 << i;
+		}
+
+		int id = 0;
+		SampleNodeConfig<Integer> snc = new SampleNodeConfig<Integer>(
+				SampleNodeConfig.DEFAULT_START_PORT);
+		snc.addLocal(id);
+		JSONNIOTransport<Integer> niot = new JSONNIOTransport<Integer>(id,
+				snc, new PacketDemultiplexerDefault(), true);
+		PaxosManager<Integer> pm = new PaxosManager<Integer>(id, snc,
+				niot, new TESTPaxosApp(niot));
+
+		// the first run is a warmup
+		test(pm, threadCounts[0], numPackets);
+		for (int numThreads : threadCounts)
+			test(pm, numThreads, numPackets);
+		pm.close();
+	}
+}
@@ -32,6 +32,7 @@ import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.Messenger;
 import edu.umass.cs.nio.interfaces.NodeConfig;
 import edu.umass.cs.nio.interfaces.SSLMessenger;
@@ -51,6 +52,7 @@ public class PaxosServer {
 
 	PaxosServer(String myID, NodeConfig<String> nodeConfig, String[] args)
 			throws IOException {
+		NIOTransport.setNumSelectors(Config.getGlobalInt(PC.NIO_NUM_SELECTORS));
 		this.messenger = (new JSONMessenger<String>(
 				(new MessageNIOTransport<String, JSONObject>(myID, nodeConfig,
 						ReconfigurationConfig.getServerSSLMode()))));
@@ -15,18 +15,19 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.gigapaxos;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
 import edu.umass.cs.gigapaxos.paxosutil.ConsumerTask;
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
+import edu.umass.cs.gigapaxos.paxosutil.OverloadException;
 import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
@@ -35,7 +36,12 @@ import edu.umass.cs.utils.Util;
 /**
  * @author arun
  *
- *         A utility class to consume batched requests.
+ *         A utility class to consume batched requests. A paxos manager uses
+ *         several request batchers as shards, each with its own thread, queues
+ *         and adaptive sleep duration, and all requests for a paxos group go to
+ *         the shard given by {@link #getShard(String, int)}. Each shard serves
+ *         its queued groups round-robin, and a batch preserves the arrival
+ *         order of the requests in it.
  */
 public class RequestBatcher extends ConsumerTask<RequestPacket> {
 
@@ -46,8 +52,11 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 	private static final double BATCH_OVERHEAD = Config
 			.getGlobalDouble(PC.BATCH_OVERHEAD);
 
-	private final HashMap<String, LinkedBlockingQueue<RequestPacket>> batched;
+	// insertion ordered so that groups are served round-robin
+	private final LinkedHashMap<String, ArrayDeque<RequestPacket>> batched;
 	private final PaxosManager<?> paxosManager;
+	private final int shard;
+	private final int maxQueuedRequests;
 	private static double agreementLatency = 0;
 
 	private static Logger log = PaxosConfig.getLogger();
@@ -58,21 +67,54 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 	 * @param paxosManager
 	 *            Needed to consume requests by invoking
 	 *            {@code paxosManager.handleIncomingPacketInternal}.
+	 * @param shard
+	 * @param numShards
 	 */
 	private RequestBatcher(
-			HashMap<String, LinkedBlockingQueue<RequestPacket>> lock,
-			PaxosManager<?> paxosManager) {
+			LinkedHashMap<String, ArrayDeque<RequestPacket>> lock,
+			PaxosManager<?> paxosManager, int shard, int numShards) {
 		super(lock);
 		this.batched = lock;
 		this.paxosManager = paxosManager;
+		this.shard = shard;
+		// the global bound is split evenly across shards
+		this.maxQueuedRequests = Math.max(MAX_QUEUED_REQUESTS / numShards, 1);
+	}
+
+	/**
+	 * @param paxosManager
+	 * @param shard
+	 *            Index of this shard.
+	 * @param numShards
+	 *            Total number of shards.
+	 */
+	public RequestBatcher(PaxosManager<?> paxosManager, int shard,
+			int numShards) {
+		this(new LinkedHashMap<String, ArrayDeque<RequestPacket>>(),
+				paxosManager, shard, numShards);
 	}
 
 	/**
 	 * @param paxosManager
 	 */
 	public RequestBatcher(PaxosManager<?> paxosManager) {
-		this(new HashMap<String, LinkedBlockingQueue<RequestPacket>>(),
-				paxosManager);
+		this(paxosManager, 0, 1);
+	}
+
+	/**
+	 * @param paxosID
+	 * @param numShards
+	 * @return The index of the shard responsible for {@code paxosID}.
+	 */
+	public static int getShard(String paxosID, int numShards) {
+		return (paxosID.hashCode() & Integer.MAX_VALUE) % numShards;
+	}
+
+	/**
+	 * @return The index of this shard.
+	 */
+	protected int getShardIndex() {
+		return this.shard;
 	}
 
 	@Override
@@ -80,6 +122,12 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		this.paxosManager.proposeBatched(task);
 	}
 
+	// increase outstanding count; overridden only for testing
+	protected void admit(RequestPacket task) {
+		this.paxosManager.incrOutstanding(task.addDebugInfo("b",
+				this.paxosManager.getMyID()));
+	}
+
 	protected synchronized static void updateSleepDuration(long entryTime) {
 		agreementLatency = Util.movingAverage(
 				((double) (System.currentTimeMillis() - entryTime)),
@@ -92,7 +140,7 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 	public void start() {
 		Thread me = (new Thread(this));
 		me.setName(RequestBatcher.class.getSimpleName()
-				+ this.paxosManager.getMyID());
+				+ this.paxosManager.getMyID() + ":" + this.shard);
 		me.start();
 	}
 
@@ -104,28 +152,36 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 	private static final long MIN_AGREEMENT_LATENCY_FOR_BATCHING = 0;
 	// max queued groups after which we stop any batch sleeps
 	private static final int MAX_GROUPS_FOR_BATCH_SLEEP = 5;
-	// FIXME: currently not actually used in throttleExcessiveLoad
+	// max queued requests across all groups including batched requests
 	private static final int MAX_QUEUED_REQUESTS = Config
 			.getGlobalInt(PC.MAX_OUTSTANDING_REQUESTS);
+	// max queued request packets for a single group
+	private static final int MAX_GROUP_QUEUED_REQUESTS = Config
+			.getGlobalInt(PC.MAX_GROUP_QUEUED_REQUESTS);
 
+	/**
+	 * @throws OverloadException
+	 *             if {@code task} is a new client request and admitting it
+	 *             would exceed the global or per-group queue bounds.
+	 */
 	@Override
 	public void enqueueImpl(RequestPacket task) {
+		ArrayDeque<RequestPacket> taskList = this.batched.get(task
+				.getPaxosID());
+		this.throttleExcessiveLoad(task, taskList);
+
 		this.setSleepDuration(this.computeSleepDuration());
 
 		// increase outstanding count and enqueue
-		this.paxosManager.incrOutstanding(task.addDebugInfo("b",
-				this.paxosManager.getMyID()));
+		this.admit(task);
 
-		LinkedBlockingQueue<RequestPacket> taskList = this.batched.get(task
-				.getPaxosID());
 		if (taskList == null)
-			taskList = new LinkedBlockingQueue<RequestPacket>();
+			this.batched.put(task.getPaxosID(),
+					taskList = new ArrayDeque<RequestPacket>());
 		taskList.add(task);
-		this.batched.put(task.getPaxosID(), taskList);
 		this.queueSize += task.batchSize() + 1;
 		this.avgNumQGroups = (int) Util.movingAverage(this.batched.size(),
 				this.avgNumQGroups);
-		this.throttleExcessiveLoad();
 	}
 
 	private double computeSleepDuration() {
@@ -139,20 +195,43 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		return this.queueSize;
 	}
 
-	private int queueSize = 0;
+	// volatile so that isCongested can be read without the lock
+	private volatile int queueSize = 0;
+
+	/**
+	 * Read without synchronization so that demultiplexers can push back
+	 * without contending for the batcher lock.
+	 * 
+	 * @return True if the number of requests queued in this shard has reached
+	 *         its share of the global bound.
+	 */
+	protected boolean isCongested() {
+		return this.queueSize >= this.maxQueuedRequests;
+	}
 
 	/**
 	 * This load throttling mechanism will propagate the exception so that the
 	 * client facing demultiplexer will catch it and take the necessary action
-	 * to throttle the incoming request load.
+	 * to throttle the incoming request load. Only requests that have not yet
+	 * been admitted at any replica are rejected; requests forwarded by other
+	 * replicas are already accounted for at their entry replica, and stop
+	 * requests are never rejected.
 	 * 
-	 * @param paxosID
+	 * @param task
+	 * @param taskList
 	 */
-	private void throttleExcessiveLoad() {
-		// FIXME: unused
-		if (this.queueSize > MAX_QUEUED_REQUESTS) {
-			// throw new OverloadException("Excessive client request load");
-		}
+	private void throttleExcessiveLoad(RequestPacket task,
+			ArrayDeque<RequestPacket> taskList) {
+		if (task.getEntryReplica() != IntegerMap.NULL_INT_NODE
+				|| task.isStopRequest())
+			return;
+		if (this.queueSize + task.batchSize() + 1 > this.maxQueuedRequests)
+			throw new OverloadException("Excessive client request load: "
+					+ this.queueSize + " queued requests");
+		if (taskList != null && taskList.size() >= MAX_GROUP_QUEUED_REQUESTS)
+			throw new OverloadException("Excessive client request load for "
+					+ task.getPaxosID() + ": " + taskList.size()
+					+ " queued requests");
 	}
 
 	protected static boolean shouldEnqueue() {
@@ -170,10 +249,12 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 			return null;
 
 		// pluck first list (each grouped by paxosID)
-		Iterator<Entry<String, LinkedBlockingQueue<RequestPacket>>> mapEntryIter = this.batched
+		Iterator<Entry<String, ArrayDeque<RequestPacket>>> mapEntryIter = this.batched
 				.entrySet().iterator();
-		Entry<String, LinkedBlockingQueue<RequestPacket>> firstEntry = mapEntryIter
+		Entry<String, ArrayDeque<RequestPacket>> firstEntry = mapEntryIter
 				.next();
+		// removed now and re-inserted at the end if not all plucked
+		mapEntryIter.remove();
 
 		// make a batched request out of this extracted (nonempty) list
 		Iterator<RequestPacket> reqPktIter = firstEntry.getValue().iterator();
@@ -183,7 +264,7 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		reqPktIter.remove();
 
 		// then pluck the rest into a batch within the first request
-		Set<RequestPacket> batch = new HashSet<RequestPacket>();
+		ArrayList<RequestPacket> batch = new ArrayList<RequestPacket>();
 		/* totalByteLength must be less than SQLPaxosLogger.MAX_LOG_MESSAGE_SIZE
 		 * that specifies the maximum length of a paxos log message. We use the
 		 * method lengthEstimate() below that is a loose upper bound on the
@@ -218,9 +299,9 @@ public class RequestBatcher extends ConsumerTask<RequestPacket> {
 		if (!batch.isEmpty())
 			first.latchToBatch(batch.toArray(new RequestPacket[0]));
 
-		// remove first list if all plucked
-		if (firstEntry.getValue().isEmpty())// !reqPktIter.hasNext())
-			mapEntryIter.remove();
+		// move first list to the end unless all plucked
+		if (!firstEntry.getValue().isEmpty())
+			this.batched.put(firstEntry.getKey(), firstEntry.getValue());
 
 		if (ENABLE_INSTRUMENTATION && Util.oneIn(20))
 			DelayProfiler.updateMovAvg("#queued", queueSize);
@@ -0,0 +1,255 @@
+package edu.umass.cs.gigapaxos;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.PaxosConfig.PC;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxosutil.OverloadException;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Tests {@link RequestBatcher} shards without a paxos manager. Batches
+ *         are consumed by a digest computation that stands in for the proposal
+ *         work done on a batcher thread.
+ */
+public class RequestBatcherTest extends DefaultTest {
+
+	private static final int NUM_GROUPS = 1000;
+
+	private static String getGroup(int i) {
+		return "group" + i;
+	}
+
+	private static class TestBatcher extends RequestBatcher {
+		final ConcurrentHashMap<String, ArrayList<RequestPacket>> consumed = new ConcurrentHashMap<String, ArrayList<RequestPacket>>();
+		final AtomicInteger numConsumed;
+		final AtomicInteger numBatches;
+		final MessageDigest md;
+
+		TestBatcher(int shard, int numShards, AtomicInteger numConsumed,
+				AtomicInteger numBatches) {
+			super(null, shard, numShards);
+			this.numConsumed = numConsumed;
+			this.numBatches = numBatches;
+			try {
+				this.md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void process(RequestPacket task) {
+			ArrayList<RequestPacket> requests = new ArrayList<RequestPacket>();
+			requests.add(task);
+			if (task.getBatched() != null)
+				for (RequestPacket req : task.getBatched())
+					requests.add(req);
+			try {
+				for (RequestPacket req : requests)
+					md.update(req.requestValue.getBytes("ISO-8859-1"));
+			} catch (UnsupportedEncodingException e) {
+				e.printStackTrace();
+			}
+			md.digest();
+			ArrayList<RequestPacket> list = this.consumed.get(task
+					.getPaxosID());
+			if (list == null)
+				this.consumed.put(task.getPaxosID(),
+						list = new ArrayList<RequestPacket>());
+			list.addAll(requests);
+			this.numBatches.incrementAndGet();
+			synchronized (this.numConsumed) {
+				this.numConsumed.addAndGet(requests.size());
+				this.numConsumed.notifyAll();
+			}
+		}
+
+		@Override
+		protected void admit(RequestPacket task) {
+			// no outstanding requests without a paxos manager
+		}
+
+		public void start() {
+			this.start(RequestBatcher.class.getSimpleName() + ":test");
+		}
+	}
+
+	private static TestBatcher[] createShards(int numShards,
+			AtomicInteger numConsumed, AtomicInteger numBatches) {
+		TestBatcher[] shards = new TestBatcher[numShards];
+		for (int i = 0; i < numShards; i++)
+			shards[i] = new TestBatcher(i, numShards, numConsumed, numBatches);
+		return shards;
+	}
+
+	// retries overload rejections after yielding
+	private static void enqueue(TestBatcher[] shards, RequestPacket request) {
+		TestBatcher shard = shards[RequestBatcher.getShard(
+				request.getPaxosID(), shards.length)];
+		while (true)
+			try {
+				shard.enqueue(request);
+				return;
+			} catch (OverloadException oe) {
+				Thread.yield();
+			}
+	}
+
+	private static void waitForConsumed(AtomicInteger numConsumed, int total)
+			throws InterruptedException {
+		synchronized (numConsumed) {
+			while (numConsumed.get() < total)
+				numConsumed.wait();
+		}
+	}
+
+	private static RequestPacket createRequest(String group, int seq) {
+		RequestPacket request = new RequestPacket(group + ":" + seq, false);
+		request.putPaxosID(group, 0);
+		return request;
+	}
+
+	/**
+	 * Every request is consumed exactly once and in arrival order for its
+	 * group, including across batches.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testArrivalOrder() throws InterruptedException {
+		AtomicInteger numConsumed = new AtomicInteger(), numBatches = new AtomicInteger();
+		TestBatcher[] shards = createShards(3, numConsumed, numBatches);
+		int numGroups = 10, perGroup = 200;
+		// enqueue before starting so that batches are large
+		for (int seq = 0; seq < perGroup; seq++)
+			for (int g = 0; g < numGroups; g++)
+				enqueue(shards, createRequest(getGroup(g), seq));
+		for (TestBatcher shard : shards)
+			shard.start();
+		waitForConsumed(numConsumed, numGroups * perGroup);
+
+		HashMap<String, ArrayList<RequestPacket>> consumed = new HashMap<String, ArrayList<RequestPacket>>();
+		for (TestBatcher shard : shards) {
+			shard.stop();
+			for (String group : shard.consumed.keySet()) {
+				Assert.assertNull(consumed.put(group, shard.consumed.get(group)));
+				Assert.assertEquals(RequestBatcher.getShard(group, shards.length),
+						shard.getShardIndex());
+			}
+		}
+		Assert.assertEquals(numGroups, consumed.size());
+		for (String group : consumed.keySet()) {
+			ArrayList<RequestPacket> requests = consumed.get(group);
+			Assert.assertEquals(perGroup, requests.size());
+			for (int seq = 0; seq < perGroup; seq++)
+				Assert.assertEquals(group + ":" + seq,
+						requests.get(seq).requestValue);
+		}
+		Assert.assertTrue(numBatches.get() < numGroups * perGroup);
+	}
+
+	/**
+	 * A group with {@link PC#MAX_GROUP_QUEUED_REQUESTS} queued requests
+	 * rejects further client requests, while other groups as well as
+	 * forwarded and stop requests for the same group are still admitted.
+	 */
+	@Test
+	public void testGroupQueueBound() {
+		TestBatcher batcher = new TestBatcher(0, 1, new AtomicInteger(),
+				new AtomicInteger());
+		int maxPerGroup = Config.getGlobalInt(PC.MAX_GROUP_QUEUED_REQUESTS);
+		// else the global bound would be hit first
+		Assert.assertTrue(maxPerGroup < Config
+				.getGlobalInt(PC.MAX_OUTSTANDING_REQUESTS));
+		for (int seq = 0; seq < maxPerGroup; seq++)
+			batcher.enqueue(createRequest(getGroup(0), seq));
+		try {
+			batcher.enqueue(createRequest(getGroup(0), maxPerGroup));
+			Assert.fail("Admitted a request beyond the per-group bound");
+		} catch (OverloadException oe) {
+			// expected
+		}
+		Assert.assertEquals(maxPerGroup, batcher.getQueueSize());
+
+		batcher.enqueue(createRequest(getGroup(1), 0));
+		batcher.enqueue(createRequest(getGroup(0), maxPerGroup)
+				.setEntryReplica(1));
+		RequestPacket stop = new RequestPacket(getGroup(0) + ":stop", true);
+		stop.putPaxosID(getGroup(0), 0);
+		batcher.enqueue(stop);
+		Assert.assertEquals(maxPerGroup + 3, batcher.getQueueSize());
+	}
+
+	/**
+	 * Multi-group load test that prints consumed requests and batches per
+	 * second for increasing numbers of shards. Scaling with the number of
+	 * shards needs at least as many cores as shards.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testShardScaling() throws InterruptedException {
+		int total = 200 * 1000;
+		int numProducers = 4;
+		System.out.print("[" + Runtime.getRuntime().availableProcessors()
+				+ " cores] ");
+		for (int numShards = 1; numShards <= 8; numShards *= 2) {
+			final AtomicInteger numConsumed = new AtomicInteger(), numBatches = new AtomicInteger();
+			final TestBatcher[] shards = createShards(numShards, numConsumed,
+					numBatches);
+			for (TestBatcher shard : shards)
+				shard.start();
+
+			long t = System.currentTimeMillis();
+			Thread[] producers = new Thread[numProducers];
+			for (int p = 0; p < numProducers; p++) {
+				final int producer = p;
+				(producers[p] = new Thread() {
+					public void run() {
+						for (int i = producer; i < total; i += numProducers)
+							enqueue(shards, createRequest(getGroup(i
+									% NUM_GROUPS), i));
+					}
+				}).start();
+			}
+			for (Thread producer : producers)
+				producer.join();
+			waitForConsumed(numConsumed, total);
+			long elapsed = Math.max(System.currentTimeMillis() - t, 1);
+			for (TestBatcher shard : shards)
+				shard.stop();
+
+			Assert.assertEquals(total, numConsumed.get());
+			System.out.print("shards=" + numShards + ": "
+					+ (total * 1000 / elapsed) + " requests/s, "
+					+ (numBatches.get() * 1000 / elapsed) + " batches/s; ");
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(RequestBatcherTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
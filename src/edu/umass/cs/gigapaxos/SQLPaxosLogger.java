@@ -21,13 +21,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -52,10 +54,18 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
@@ -98,6 +108,7 @@ import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.DiskMap;
 import edu.umass.cs.utils.Diskable;
+import edu.umass.cs.utils.MappedStore;
 import edu.umass.cs.utils.MultiArrayMap;
 import edu.umass.cs.utils.Util;
 
@@ -253,6 +264,11 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private final ScheduledExecutorService GC;
 	private final MessageLogDiskMap messageLog;
 
+	/* Paused instance state and logIndexes evicted from messageLog if
+	 * MAPPED_PAUSE_STORE is enabled, else null. */
+	private final MappedStore pauseStore;
+	private final MappedStore logIndexStore;
+
 	private static Logger log = Logger.getLogger(PaxosManager.class.getName());;
 
 	SQLPaxosLogger(int id, String strID, String dbPath,
@@ -291,6 +307,18 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			}
 
 		};
+		try {
+			this.pauseStore = MAPPED_PAUSE_STORE ? new MappedStore(
+					getPauseStoreDir(this.logDirectory, this.strID) + "/hri",
+					MAPPED_PAUSE_STORE_SIZE, SYNC) : null;
+			this.logIndexStore = MAPPED_PAUSE_STORE ? new MappedStore(
+					getPauseStoreDir(this.logDirectory, this.strID)
+							+ "/logindex", MAPPED_PAUSE_STORE_SIZE, SYNC)
+					: null;
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open pause store for " + id
+					+ ": " + e);
+		}
 		this.messageLog = USE_DISK_MAP ? new MessageLogDiskMap(disk)
 						: new MessageLogPausable(disk);
 
@@ -299,6 +327,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			throw new RuntimeException("Unable to initiate "
 					+ PaxosManager.class.getSimpleName() + " for " + id);
 		;
+		if (MAPPED_PAUSE_STORE)
+			this.migratePausedState();
 	}
 
 	// only used for dropping all state
@@ -306,6 +336,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		super(IntegerMap.NULL_INT_NODE, null, null);
 		this.strID = strID;
 		this.messageLog = null;
+		this.pauseStore = null;
+		this.logIndexStore = null;
 		this.journaler = null;
 		this.GC = null;
 		this.initialize(false);
@@ -327,6 +359,9 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					// logIndex match pattern
 					SQLPaxosLogger.getLogIndexDBPrefix(
 							SQLPaxosLogger.LOG_DIRECTORY, strID),
+					// mapped pause store
+					SQLPaxosLogger.getPauseStoreDir(
+							SQLPaxosLogger.LOG_DIRECTORY, strID),
 					// locks dir
 					SQLPaxosLogger.getLocksDir()+"/"+strID);
 		}
@@ -351,6 +386,11 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return getLogIndexDBPrefix(this.logDirectory, this.strID /* this.myID */);
 	}
 
+	// suffixed so that the prefix match in dropState doesn't match other IDs
+	private static String getPauseStoreDir(String logdir, Object strID) {
+		return logdir + "/" + strID + ".pause";
+	}
+
 	/**
 	 * @param id
 	 * @param dbPath
@@ -690,7 +730,12 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		private final String logdir;
 		private final String logfilePrefix;
 		private String curLogfile = null;
-		private FileOutputStream fos;
+		private RandomAccessFile raf;
+		private FileChannel channel;
+		/* Preallocated region of the current log file starting at file offset
+		 * segmentBase; non-null only if JOURNAL_MMAP is enabled. */
+		private MappedByteBuffer segment = null;
+		private long segmentBase = 0;
 		private long curLogfileSize = 0;
 		private int numLogfiles = 0;
 		private int numOngoingGCs = 0;
@@ -704,8 +749,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			// logdir + SUBDIR + myID + "/";
 			this.logfilePrefix = PREFIX + myID + POSTPREFIX;
 			assert (this.logdir != null && this.logfilePrefix != null);
+			if (JOURNAL_MMAP)
+				this.trimPreallocatedTails();
 			this.curLogfile = generateLogfileName();
-			this.fos = createLogfile(curLogfile, true);
+			this.channel = createLogfile(curLogfile, true);
 		}
 
 		private static final String getJournalLogDir(String logdir, Object myID) {
@@ -721,7 +768,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			// this.logdir + PREFIX + this.myID + POSTPREFIX;
 		}
 
-		private FileOutputStream createLogfile(String filename) {
+		private FileChannel createLogfile(String filename) {
 			return this.createLogfile(filename, false);
 		}
 
@@ -732,20 +779,23 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							.currentTimeMillis()) : System.currentTimeMillis());
 		}
 
-		private FileOutputStream createLogfile(String filename,
-				boolean deleteEmpty) {
+		private FileChannel createLogfile(String filename, boolean deleteEmpty) {
 			assert (this.logdir != null && this.logfilePrefix != null);
 			if (deleteEmpty)
 				this.deleteEmptyLogfiles();
 			try {
 				new File(filename).getParentFile().mkdirs();
 				(new FileWriter(filename, false)).close();
-				this.fos = new FileOutputStream(new File(filename));
+				this.raf = new RandomAccessFile(filename, "rw");
+				this.channel = this.raf.getChannel();
 				this.curLogfileSize = 0;
+				if (JOURNAL_MMAP)
+					this.map(0, (long) MAX_LOG_FILE_SIZE
+							+ JOURNAL_MMAP_SEGMENT_SIZE);
 				this.numLogfiles++;
 				log.log(Level.INFO, "{0} created new log file {1}",
 						new Object[] { this, this.curLogfile });
-				return this.fos;
+				return this.channel;
 			} catch (IOException e) {
 				if (ENABLE_JOURNALING) {
 					log.severe(this + " unable to create log file " + filename
@@ -757,6 +807,37 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			return null;
 		}
 
+		private void map(long offset, long size) throws IOException {
+			MappedByteBuffer prev = this.segment;
+			this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE,
+					offset, Math.min(size, Integer.MAX_VALUE));
+			this.segmentBase = offset;
+			if (prev != null)
+				unmap(prev);
+		}
+
+		/* Best-effort explicit unmap of a segment that is no longer written
+		 * instead of waiting for GC, which can pin disk space and address
+		 * space for closed log files for a long time. The segment must not be
+		 * accessed after this call. */
+		private static void unmap(MappedByteBuffer buf) {
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				unsafeClass.getMethod("invokeCleaner", ByteBuffer.class)
+						.invoke(theUnsafe.get(null), buf);
+			} catch (ReflectiveOperationException | SecurityException e) {
+				// pre-java 9 or restricted; GC will unmap eventually
+				log.log(Level.FINE, "Unable to unmap journal segment: {0}",
+						new Object[] { e });
+			}
+		}
+
+		boolean isOpen() {
+			return this.channel != null;
+		}
+
 		boolean shouldGC() {
 			if (this.numLogfiles > 0
 					&& this.numLogfiles % JOURNAL_GC_FREQUENCY == 0)
@@ -786,24 +867,87 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 					f.delete();
 		}
 
+		/* A log file that was being written through a memory-mapped segment
+		 * when the node crashed will have a zero-filled preallocated tail. We
+		 * truncate each log file at the end of its last complete record so
+		 * that all readers can continue to assume <size><message>* up to the
+		 * end of the file. */
+		private void trimPreallocatedTails() {
+			File[] files = new File(this.logdir).listFiles(new FileFilter() {
+				@Override
+				public boolean accept(File pathname) {
+					return pathname.isFile()
+							&& pathname.toString().startsWith(
+									Journaler.this.getLogfilePrefix())
+							&& !pathname.toString().endsWith(TMP_FILE_SUFFIX);
+				}
+			});
+			if (files != null)
+				for (File f : files)
+					try {
+						trimPreallocatedTail(f);
+					} catch (IOException e) {
+						log.severe(this + " unable to trim log file " + f
+								+ ": " + e);
+						e.printStackTrace();
+					}
+		}
+
+		private long trimPreallocatedTail(File file) throws IOException {
+			RandomAccessFile raf = null;
+			try {
+				raf = new RandomAccessFile(file, "rw");
+				long length = raf.length(), offset = 0;
+				while (offset + 4 <= length) {
+					raf.seek(offset);
+					int msgLength = raf.readInt();
+					if (msgLength <= 0 || offset + 4 + msgLength > length)
+						break;
+					offset += 4 + msgLength;
+				}
+				if (offset < length) {
+					log.log(Level.INFO,
+							"{0} trimming log file {1} from {2} to {3} bytes",
+							new Object[] { this, file, length, offset });
+					raf.setLength(offset);
+				}
+				return offset;
+			} finally {
+				if (raf != null)
+					raf.close();
+			}
+		}
+
+		/* Must be called with fosLock held. Truncates any preallocated tail
+		 * before closing so that closed log files are exactly as long as the
+		 * records they contain. */
+		private void closeLogfile() throws IOException {
+			if (this.segment != null) {
+				if (SYNC_FCLOSE)
+					this.segment.force();
+				unmap(this.segment);
+				this.segment = null;
+				this.channel.truncate(this.curLogfileSize);
+			} else if (SYNC_FCLOSE)
+				this.channel.force(false);
+			this.raf.close();
+			this.channel = null;
+		}
+
 		private void rollLogFile() {
 			synchronized (fosLock) {
 				// check again here
 				if (curLogfileSize > MAX_LOG_FILE_SIZE) {
 					try {
-						if (FLUSH_FCLOSE)
-							fos.flush();
-						if (SYNC_FCLOSE)
-							fos.getFD().sync();
-						fos.close();
-						fos = createLogfile(curLogfile = generateLogfileName());
+						this.closeLogfile();
+						channel = createLogfile(curLogfile = generateLogfileName());
 						curLogfileSize = 0;
 					} catch (IOException e) {
 						log.severe(this + " unable to close existing log file "
 								+ this.curLogfile);
 						e.printStackTrace();
 					} finally {
-						if (fos == null)
+						if (channel == null)
 							Util.suicide(this + " unable to open log file "
 									+ this.curLogfile + "; exiting");
 					}
@@ -811,17 +955,69 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			}
 		}
 
-		private void appendToLogFile(byte[] bytes, String paxosID)
-				throws IOException {
+		private void close() {
+			synchronized (fosLock) {
+				if (this.channel != null)
+					try {
+						this.closeLogfile();
+					} catch (IOException e) {
+						log.severe(this + " unable to close log file "
+								+ this.curLogfile);
+						e.printStackTrace();
+					}
+			}
+		}
+
+		/**
+		 * Appends the first {@code n} already framed records in {@code bufs}
+		 * as a single group commit, i.e., with a single gathering write (or
+		 * copy into the mapped segment) and at most one sync for the whole
+		 * batch. A record may span multiple buffers, so {@code paxosIDs[i]}
+		 * is non-null only for the first buffer of each record. There is no
+		 * flush here as channels are unbuffered.
+		 *
+		 * @param bufs
+		 * @param paxosIDs
+		 * @param n
+		 * @param offsets
+		 *            Offsets of records relative to the start of the batch,
+		 *            made absolute file offsets under the same lock as the
+		 *            append; negative entries are left as is.
+		 * @return The log file appended to.
+		 * @throws IOException
+		 */
+		private String appendToLogFile(ByteBuffer[] bufs, String[] paxosIDs,
+				int n, long[] offsets) throws IOException {
+			long total = 0;
+			for (int i = 0; i < n; i++)
+				total += bufs[i].remaining();
 			synchronized (fosLock) {
-				fos.write(bytes);
-				if (FLUSH)
-					fos.flush();
-				// will sync to disk but will be slow as hell
-				if (SYNC)
-					fos.getFD().sync();
-				curLogfileSize += bytes.length;
-				this.fidMap.add(this.curLogfile, paxosID);
+				if (n == 0)
+					return this.curLogfile;
+				for (int i = 0; i < offsets.length; i++)
+					if (offsets[i] >= 0)
+						offsets[i] += this.curLogfileSize;
+				if (this.segment != null) {
+					if (this.segment.remaining() < total)
+						this.map(this.curLogfileSize,
+								Math.max(total, JOURNAL_MMAP_SEGMENT_SIZE));
+					for (int i = 0; i < n; i++)
+						this.segment.put(bufs[i]);
+					// will sync to disk but will be slow as hell
+					if (SYNC)
+						this.segment.force();
+				} else {
+					for (long written = 0; written < total;)
+						written += channel.write(bufs, 0, n);
+					// one sync for the whole batch
+					if (SYNC)
+						channel.force(false);
+				}
+				curLogfileSize += total;
+				for (int i = 0; i < n; i++)
+					if (paxosIDs[i] != null)
+						this.fidMap.add(this.curLogfile, paxosIDs[i]);
+				return this.curLogfile;
 			}
 		}
 
@@ -965,10 +1161,20 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private PendingLogTask[] journal(LogMessagingTask[] packets) {
 		if (!ENABLE_JOURNALING)
 			return new PendingLogTask[0]; // no error
-		if (this.journaler.fos == null)
+		if (!this.journaler.isOpen())
 			return null; // error
 		boolean amCoordinator = false, isAccept = false;
 		PendingLogTask[] pending = new PendingLogTask[packets.length];
+		// framed records to be group-committed at the end
+		ByteBuffer[] framed = new ByteBuffer[2 * packets.length];
+		String[] paxosIDs = new String[2 * packets.length];
+		// offsets relative to the batch until appended
+		long[] offsets = new long[packets.length];
+		int[] lengths = new int[packets.length];
+		Arrays.fill(offsets, -1);
+		Arrays.fill(lengths, -1);
+		int numFramed = 0;
+		long offset = 0;
 		for (int i = 0; i < packets.length; i++) {
 			LogMessagingTask pkt = packets[i];
 			amCoordinator = pkt.logMsg instanceof PValuePacket ? ((PValuePacket) pkt.logMsg).ballot.coordinatorID == myID
@@ -998,9 +1204,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 						bytes = deflate(bytes);
 
 					// format: <size><message>*
-					ByteBuffer bbuf = ByteBuffer.allocate(4 + bytes.length);
-					bbuf.putInt(bytes.length);
-					bbuf.put(bytes);
+					ByteBuffer sizeBuf = ByteBuffer.allocate(4);
+					sizeBuf.putInt(bytes.length).flip();
 
 					if (ALL_BUT_APPEND)
 						continue;
@@ -1009,24 +1214,14 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							|| (COORD_STRINGIFIES_WO_JOURNALING && amCoordinator))
 						continue;
 
-					// else append to log file *after* creating pending task
-					if (DB_INDEX_JOURNAL)
-						synchronized (this) {
-							SQLPaxosLogger.this.pendingLogMessages
-									.add(pending[i] = new PendingLogTask(
-											packets[i],
-											this.journaler.curLogfile,
-											this.journaler.curLogfileSize,
-											bytes.length));
-						}
-					else if (PAUSABLE_INDEX_JOURNAL)
-						this.messageLog.add(packets[i].logMsg,
-								this.journaler.curLogfile,
-								this.journaler.curLogfileSize, bytes.length);
-					SQLPaxosLogger.this.journaler.appendToLogFile(bbuf.array(),
-							pkt.logMsg.getPaxosID());
-					assert (pending[i] == null || this.journaler.curLogfileSize == pending[i].logfileOffset
-							+ bbuf.capacity());
+					/* The message bytes are written as is instead of first
+					 * being copied into a single buffer along with the size. */
+					framed[numFramed] = sizeBuf;
+					paxosIDs[numFramed++] = pkt.logMsg.getPaxosID();
+					framed[numFramed++] = ByteBuffer.wrap(bytes);
+					offsets[i] = offset;
+					lengths[i] = bytes.length;
+					offset += 4 + bytes.length;
 				}
 
 			} catch (IOException ioe) {
@@ -1034,6 +1229,31 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				return null;
 			}
 		}
+		String journalFile = null;
+		try {
+			journalFile = SQLPaxosLogger.this.journaler.appendToLogFile(
+					framed, paxosIDs, numFramed, offsets);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+
+		/* Index only after the whole batch has been appended so that
+		 * concurrent readers of logged messages never find an index entry
+		 * whose bytes have not yet been written. */
+		for (int i = 0; i < packets.length; i++) {
+			if (lengths[i] < 0)
+				continue;
+			if (DB_INDEX_JOURNAL)
+				synchronized (this) {
+					SQLPaxosLogger.this.pendingLogMessages
+							.add(pending[i] = new PendingLogTask(packets[i],
+									journalFile, offsets[i], lengths[i]));
+				}
+			else if (PAUSABLE_INDEX_JOURNAL)
+				this.messageLog.add(packets[i].logMsg, journalFile,
+						offsets[i], lengths[i]);
+		}
 
 		if (this.journaler.curLogfileSize > MAX_LOG_FILE_SIZE) {
 			// always commit pending before rolling log file
@@ -1131,9 +1351,12 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private static final boolean SYNC = Config.getGlobalBoolean(PC.SYNC);
 	private static final boolean SYNC_FCLOSE = Config
 			.getGlobalBoolean(PC.SYNC_FCLOSE);
-	private static final boolean FLUSH_FCLOSE = Config
-			.getGlobalBoolean(PC.FLUSH_FCLOSE);
-	private static final boolean FLUSH = Config.getGlobalBoolean(PC.FLUSH);
+	private static final int RECOVERY_DECODE_THREADS = Config
+			.getGlobalInt(PC.RECOVERY_DECODE_THREADS);
+	private static final boolean JOURNAL_MMAP = Config
+			.getGlobalBoolean(PC.JOURNAL_MMAP);
+	private static final int JOURNAL_MMAP_SEGMENT_SIZE = Config
+			.getGlobalInt(PC.JOURNAL_MMAP_SEGMENT_SIZE);
 
 	private static final int LOG_INDEX_FREQUENCY = Config
 			.getGlobalInt(PC.LOG_INDEX_FREQUENCY);
@@ -1159,6 +1382,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 	private static final boolean USE_CHECKPOINTS_AS_PAUSE_TABLE = Config
 			.getGlobalBoolean(PC.USE_CHECKPOINTS_AS_PAUSE_TABLE);
+	private static final boolean MAPPED_PAUSE_STORE = Config
+			.getGlobalBoolean(PC.MAPPED_PAUSE_STORE);
+	private static final int MAPPED_PAUSE_STORE_SIZE = Config
+			.getGlobalInt(PC.MAPPED_PAUSE_STORE_SIZE);
 
 	private static final int MAX_DB_BATCH_SIZE = Config
 			.getGlobalInt(PC.MAX_DB_BATCH_SIZE);
@@ -1919,6 +2146,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			Map<String, HotRestoreInfo> hriMap) {
 		if (isClosed())
 			return null;
+		if (MAPPED_PAUSE_STORE)
+			return this.pauseToStore(hriMap);
 		if (!USE_CHECKPOINTS_AS_PAUSE_TABLE)
 			return pauseBatchIndividually(hriMap);
 
@@ -1988,6 +2217,38 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return diffEntries;
 	}
 
+	private Map<String, HotRestoreInfo> pauseToStore(
+			Map<String, HotRestoreInfo> hriMap) {
+		Map<String, HotRestoreInfo> paused = new HashMap<String, HotRestoreInfo>();
+		for (HotRestoreInfo hri : hriMap.values())
+			if (this.pauseToStore(hri))
+				paused.put(hri.paxosID, hri);
+		log.log(Level.FINE, "{0} paused [{1}]", new Object[] { this,
+				Util.truncatedLog(paused.keySet(), 16) });
+		return paused;
+	}
+
+	/* Writes the logIndex, if any, before the paused state so that an
+	 * instance is never found paused without its logIndex. */
+	private boolean pauseToStore(HotRestoreInfo hri) {
+		synchronized (this.messageLog) {
+			try {
+				LogIndex logIndex = this.messageLog.getLogIndex(hri.paxosID);
+				if (logIndex != null)
+					this.logIndexStore.put(hri.paxosID, logIndex.toBytes());
+				this.pauseStore.put(hri.paxosID, hri.toBytes());
+				return true;
+			} catch (IOException e) {
+				log.severe(this + " failed to pause instance " + hri.paxosID
+						+ ": " + e);
+				e.printStackTrace();
+			} finally {
+				this.messageLog.uncache(hri.paxosID);
+			}
+		}
+		return false;
+	}
+
 	/* Can not start pause or unpause after close has been called. For other
 	 * operations like checkpointing or logging, we need to be able to do them
 	 * even after close has been called as waitToFinish needs that.
@@ -1997,6 +2258,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	public/* synchronized */boolean pause(String paxosID, String serializedState) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return false;
+		if (MAPPED_PAUSE_STORE)
+			return this.pauseToStore(new HotRestoreInfo(serializedState));
 
 		boolean paused = false;
 		String insertCmd = "insert into "
@@ -2076,6 +2339,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	public/* synchronized */HotRestoreInfo unpause(String paxosID) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return null;
+		if (MAPPED_PAUSE_STORE)
+			return this.unpauseFromStore(paxosID);
 
 		HotRestoreInfo hri = null;
 		PreparedStatement pstmt = null;
@@ -2122,9 +2387,41 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return hri;
 	}
 
+	private HotRestoreInfo unpauseFromStore(String paxosID) {
+		byte[] hriBytes = this.pauseStore.get(paxosID);
+		if (hriBytes == null)
+			return null;
+		try {
+			HotRestoreInfo hri = new HotRestoreInfo(ByteBuffer.wrap(hriBytes));
+			byte[] logIndexBytes = this.logIndexStore.get(paxosID);
+			if (logIndexBytes != null)
+				this.messageLog.restore(new LogIndex(ByteBuffer
+						.wrap(logIndexBytes)));
+			// unpause will also delete paused state
+			this.pauseStore.remove(paxosID);
+			log.log(Level.FINEST, "{0} unpaused {1} from {2}", new Object[] {
+					this, paxosID, this.pauseStore });
+			return hri;
+		} catch (IOException e) {
+			log.severe(this + " failed to unpause instance " + paxosID + ": "
+					+ e);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	private void deletePaused(String paxosID) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return;
+		if (MAPPED_PAUSE_STORE) {
+			try {
+				this.pauseStore.remove(paxosID);
+			} catch (IOException e) {
+				log.severe(this + " failed to delete paused state for "
+						+ paxosID + ": " + e);
+			}
+			return;
+		}
 		PreparedStatement pstmt = null;
 		ResultSet rset = null;
 		Connection conn = null;
@@ -2153,6 +2450,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			LogIndex logIndex) {
 		if (isClosed() /* || !isLoggingEnabled() */)
 			return false;
+		if (MAPPED_PAUSE_STORE)
+			return this.pauseLogIndexToStore(paxosID, logIndex);
 		boolean paused = false;
 		// insert works because unpause always deletes on-disk copy
 		String insertCmd = "insert into " + getPTable()
@@ -2204,6 +2503,26 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return paused;
 	}
 
+	private boolean pauseLogIndexToStore(String paxosID, LogIndex logIndex) {
+		synchronized (this.messageLog) {
+			try {
+				if (logIndex != null)
+					this.logIndexStore.put(paxosID, logIndex.toBytes());
+				else
+					this.logIndexStore.remove(paxosID);
+				return true;
+			} catch (IOException e) {
+				log.severe(this + " failed to pause logIndex for " + paxosID
+						+ ": " + e);
+				e.printStackTrace();
+			} finally {
+				// free up memory
+				this.messageLog.uncache(paxosID);
+			}
+		}
+		return false;
+	}
+
 	private/* synchronized */Set<String> pauseLogIndexIndividually(
 			Map<String, LogIndex> toCommit) {
 		Set<String> paused = new HashSet<String>();
@@ -2221,7 +2540,7 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			Map<String, LogIndex> toCommit) {
 		if (isClosed())
 			return null;
-		if (!USE_CHECKPOINTS_AS_PAUSE_TABLE)
+		if (MAPPED_PAUSE_STORE || !USE_CHECKPOINTS_AS_PAUSE_TABLE)
 			return this.pauseLogIndexIndividually(toCommit);
 		String updateCmd = "update "
 				+ (USE_CHECKPOINTS_AS_PAUSE_TABLE ? getCTable() : getPTable())
@@ -2293,6 +2612,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 		log.log(Level.FINER, "{0} trying to unpause logIndex for {1}",
 				new Object[] { this, paxosID });
+		if (MAPPED_PAUSE_STORE)
+			return this.unpauseLogIndexFromStore(paxosID);
 		PreparedStatement pstmt = null;
 		ResultSet rset = null;
 		Connection conn = null;
@@ -2326,6 +2647,73 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return logIndex;
 	}
 
+	private LogIndex unpauseLogIndexFromStore(String paxosID) {
+		byte[] logIndexBytes = this.logIndexStore.get(paxosID);
+		if (logIndexBytes == null)
+			return null;
+		try {
+			LogIndex logIndex = new LogIndex(ByteBuffer.wrap(logIndexBytes));
+			this.messageLog.restore(logIndex);
+			log.log(Level.FINE, "{0} unpaused logIndex for {1}", new Object[] {
+					this, paxosID });
+			return logIndex;
+		} catch (IOException e) {
+			log.severe(this + " failed to unpause logIndex for " + paxosID
+					+ ": " + e);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/* Moves paused state and logIndexes found in the DB, e.g., written before
+	 * MAPPED_PAUSE_STORE was enabled, to the mapped pause store. */
+	private void migratePausedState() {
+		String table = USE_CHECKPOINTS_AS_PAUSE_TABLE ? getCTable()
+				: getPTable();
+		String where = " where serialized is not null or logindex is not null";
+		PreparedStatement pstmt = null;
+		ResultSet rset = null;
+		Connection conn = null;
+		int migrated = 0;
+		try {
+			conn = this.getDefaultConn();
+			pstmt = conn.prepareStatement("select paxos_id, serialized, logindex from "
+					+ table + where);
+			rset = pstmt.executeQuery();
+			while (rset.next()) {
+				String paxosID = rset.getString(1);
+				String logIndexString = lobToString(rset.getBlob(3));
+				if (logIndexString != null)
+					this.logIndexStore.put(paxosID, new LogIndex(new JSONArray(
+							logIndexString)).toBytes());
+				if (rset.getString(2) != null)
+					this.pauseStore.put(paxosID,
+							new HotRestoreInfo(rset.getString(2)).toBytes());
+				migrated++;
+			}
+			if (migrated > 0) {
+				cleanup(pstmt, rset);
+				rset = null;
+				pstmt = conn.prepareStatement("update "
+						+ table
+						+ " set serialized=null, logindex=null"
+						+ (USE_CHECKPOINTS_AS_PAUSE_TABLE ? ", has_serialized=false"
+								: "") + where);
+				pstmt.executeUpdate();
+				log.log(Level.INFO,
+						"{0} moved paused state of {1} paxos groups from {2} to {3}",
+						new Object[] { this, migrated, table, this.pauseStore });
+			}
+		} catch (SQLException | JSONException | IOException e) {
+			log.severe(this + " failed to move paused state from " + table
+					+ ": " + e);
+			e.printStackTrace();
+		} finally {
+			cleanup(pstmt, rset);
+			cleanup(conn);
+		}
+	}
+
 	/**
 	 * Gets current checkpoint. There can be only one checkpoint for a paxosID
 	 * at any time.
@@ -2615,6 +3003,216 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 	private File[] logfiles = null;
 	private int logfileIndex = 0;
 	RandomAccessFile curRAF = null;
+	private String latestJournalFile = null;
+	private JournalReplayer replayer = null;
+
+	private static class ReplayedRecord {
+		final String logfile;
+		final long offset;
+		final int length;
+		final PaxosPacket pp;
+
+		ReplayedRecord(String logfile, long offset, int length, PaxosPacket pp) {
+			this.logfile = logfile;
+			this.offset = offset;
+			this.length = length;
+			this.pp = pp;
+		}
+	}
+
+	private static final ReplayedRecord END_OF_JOURNAL = new ReplayedRecord(
+			null, 0, 0, null);
+
+	/* Pipelined roll forward of journal files. A single scanner thread maps
+	 * each log file in order and frames <size><message> records, a pool of
+	 * decoder threads converts the framed bytes to packets in parallel, and
+	 * readNextMessage() consumes the decoded records strictly in journal
+	 * order, so each paxosID still sees its messages in the order logged.
+	 * Scanning is bounded by the size of the queue of pending decodes. */
+	private class JournalReplayer implements Runnable {
+		private final File[] files;
+		private final BlockingQueue<Future<ReplayedRecord>> decoded = new ArrayBlockingQueue<Future<ReplayedRecord>>(
+				RECOVERY_DECODE_THREADS * 1024);
+		private final ForkJoinPool decoders = new ForkJoinPool(
+				RECOVERY_DECODE_THREADS);
+		private final Thread scanner;
+		private final AtomicLong decodeNanos = new AtomicLong(0);
+		private long scanNanos = 0;
+		private long numRecords = 0;
+		private volatile boolean stopped = false;
+
+		JournalReplayer(File[] files) {
+			this.files = files;
+			this.scanner = new Thread(this, SQLPaxosLogger.this
+					+ ":JournalReplayer");
+			this.scanner.setDaemon(true);
+		}
+
+		void startIfNotStarted() {
+			if (this.scanner.getState() == Thread.State.NEW)
+				this.scanner.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (File file : this.files) {
+					if (this.stopped)
+						break;
+					long t = System.nanoTime();
+					this.scan(file);
+					this.scanNanos += System.nanoTime() - t;
+				}
+			} catch (IOException e) {
+				log.severe(SQLPaxosLogger.this + " incurred " + e
+						+ " while scanning journal files");
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				// stopped
+			} finally {
+				this.putQuietly(END_OF_JOURNAL);
+			}
+		}
+
+		private void scan(final File file) throws IOException,
+				InterruptedException {
+			log.log(Level.INFO,
+					"{0} rolling forward logged messages from file {1}",
+					new Object[] { SQLPaxosLogger.this.journaler, file });
+			final String logfile = file.toString();
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				MappedByteBuffer mbuf = raf.getChannel().map(
+						FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				int offset = 0;
+				while (!this.stopped && offset + 4 <= mbuf.limit()) {
+					final int msgLength = mbuf.getInt(offset);
+					/* Zero-filled preallocated tail of a memory-mapped log
+					 * file or an incompletely written last record. */
+					if (msgLength <= 0 || offset + 4 + msgLength > mbuf.limit())
+						break;
+					final ByteBuffer record = mbuf.duplicate();
+					record.position(offset + 4).limit(offset + 4 + msgLength);
+					final long msgOffset = offset;
+					this.decoded.put(this.decoders
+							.submit(new Callable<ReplayedRecord>() {
+								@Override
+								public ReplayedRecord call() {
+									return decode(logfile, msgOffset, record);
+								}
+							}));
+					this.numRecords++;
+					offset += 4 + msgLength;
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		private ReplayedRecord decode(String logfile, long offset,
+				ByteBuffer record) {
+			long t = System.nanoTime();
+			int length = record.remaining();
+			byte[] msg = new byte[length];
+			record.get(msg);
+			PaxosPacket pp = null;
+			try {
+				pp = getPacketizer() != null ? getPacketizer()
+						.stringToPaxosPacket(msg) : PaxosPacket
+						.getPaxosPacket(new String(msg, CHARSET));
+			} catch (IOException | JSONException e) {
+				log.log(Level.WARNING,
+						"{0} incurred exception {1} while decoding logged message at offset {2} in {3}",
+						new Object[] { SQLPaxosLogger.this, e, offset, logfile });
+			}
+			this.decodeNanos.addAndGet(System.nanoTime() - t);
+			return new ReplayedRecord(logfile, offset, length, pp);
+		}
+
+		private void putQuietly(ReplayedRecord record) {
+			FutureTask<ReplayedRecord> done = new FutureTask<ReplayedRecord>(
+					new Runnable() {
+						public void run() {
+						}
+					}, record);
+			done.run();
+			try {
+				this.decoded.put(done);
+			} catch (InterruptedException e) {
+				// only if stopped, so nobody is waiting
+			}
+		}
+
+		/* Returns the next decoded record in journal order, skipping
+		 * undecodeable ones, or null after the last record. */
+		ReplayedRecord next() {
+			while (true) {
+				ReplayedRecord record = null;
+				try {
+					record = this.decoded.take().get();
+				} catch (InterruptedException | ExecutionException e) {
+					log.severe(SQLPaxosLogger.this + " incurred " + e
+							+ " while rolling forward logged messages");
+					e.printStackTrace();
+					continue;
+				}
+				if (record == END_OF_JOURNAL) {
+					this.finish();
+					return null;
+				}
+				if (record.pp != null)
+					return record;
+			}
+		}
+
+		private void finish() {
+			this.decoders.shutdown();
+			DelayProfiler.updateValue("recoveryScanMillis",
+					this.scanNanos / 1000 / 1000);
+			DelayProfiler.updateValue("recoveryDecodeMillis",
+					this.decodeNanos.get() / 1000 / 1000);
+			log.log(Level.INFO,
+					"{0} scanned {1} logged messages in {2}ms and decoded them in {3}ms of CPU time using {4} threads",
+					new Object[] { SQLPaxosLogger.this, this.numRecords,
+							this.scanNanos / 1000 / 1000,
+							this.decodeNanos.get() / 1000 / 1000,
+							RECOVERY_DECODE_THREADS });
+		}
+
+		void stop() {
+			this.stopped = true;
+			this.scanner.interrupt();
+			this.decoders.shutdownNow();
+		}
+	}
+
+	private PaxosPacket readNextReplayedMessage() {
+		this.replayer.startIfNotStarted();
+		ReplayedRecord record = this.replayer.next();
+		if (record == null) {
+			this.replayer = null;
+			return null;
+		}
+		PaxosPacket pp = record.pp;
+		try {
+			// also index latest log file
+			if (DB_INDEX_JOURNAL && record.logfile.equals(this.latestJournalFile))
+				this.indexJournalEntryInDB(pp, record.logfile, record.offset,
+						record.length);
+		} catch (JSONException e) {
+			e.printStackTrace();
+			log.log(Level.WARNING,
+					"{0} incurred exception {1} while indexing logged message {2}",
+					new Object[] { this, e, pp.getSummary() });
+		}
+		assert (pp.getPaxosID() != null) : "paxosID is null for " + pp;
+		if (this.messageLog.getLogIndex(pp.getPaxosID()) == null)
+			this.unpauseLogIndex(pp.getPaxosID());
+
+		// feed into in-memory log
+		this.messageLog.add(pp, record.logfile, record.offset, record.length);
+		return pp;
+	}
 
 	public boolean initiateReadMessages() {
 		if (isClosed())
@@ -2661,6 +3259,14 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 							new Object[] { this, logfiles[i] });
 
 					this.logfileIndex = i;
+					this.latestJournalFile = this.getLatestJournalFile();
+					/* The replayer is started upon the first readNextMessage()
+					 * as the packetizer may not have been set yet. */
+					if (RECOVERY_DECODE_THREADS > 0) {
+						this.replayer = new JournalReplayer(Arrays
+								.copyOfRange(logfiles, i, logfiles.length));
+						return initiated;
+					}
 					curRAF = new RandomAccessFile(logfiles[i], "r");
 					log.log(Level.FINEST,
 							"{0} rolling forward logged messages from file {1}",
@@ -2686,13 +3292,15 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 			conn = this.getDefaultConn();
 			pstmt = conn.prepareStatement("select paxos_id from "
 					+ getCTable()
-					+ " where "
-					+ (USE_CHECKPOINTS_AS_PAUSE_TABLE ? " has_serialized=false"
-							: " paxos_id NOT in (select paxos_id from "
-									+ getPTable() + ")"));
+					+ (MAPPED_PAUSE_STORE ? "" : " where "
+							+ (USE_CHECKPOINTS_AS_PAUSE_TABLE ? " has_serialized=false"
+									: " paxos_id NOT in (select paxos_id from "
+											+ getPTable() + ")")));
 			rset = pstmt.executeQuery();
 			while (rset != null && rset.next()) {
-				unpaused.add(rset.getString(1));
+				String paxosID = rset.getString(1);
+				if (!MAPPED_PAUSE_STORE || !this.pauseStore.containsKey(paxosID))
+					unpaused.add(paxosID);
 			}
 		} catch (SQLException e) {
 			log.severe(this + ": SQLException while getting all paxos IDs " + " : " + e);
@@ -2789,7 +3397,9 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				e.printStackTrace();
 			}
 		else if (isJournalingEnabled()) {
-			String latest = this.getLatestJournalFile();
+			if (this.replayer != null)
+				return this.readNextReplayedMessage();
+			String latest = this.latestJournalFile;
 			try {
 				while (this.curRAF != null
 						&& this.curRAF.getFilePointer() == this.curRAF.length()) {
@@ -2810,6 +3420,12 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 
 				long msgOffset = this.curRAF.getFilePointer();
 				int msgLength = this.curRAF.readInt();
+				/* Zero-filled preallocated tail of the current memory-mapped
+				 * log file, so there is nothing more to read in this file. */
+				if (msgLength <= 0) {
+					this.curRAF.seek(this.curRAF.length());
+					return this.readNextMessage();
+				}
 
 				log.log(Level.FINEST,
 						"{0} reading from offset {1} of length {2} from file {3}",
@@ -2857,6 +3473,10 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		log.log(Level.FINE, "{0}{1}", new Object[] { this,
 				" invoking closeReadAll" });
 		this.cleanupCursorConn();
+		if (this.replayer != null) {
+			this.replayer.stop();
+			this.replayer = null;
+		}
 	}
 
 	private void indexJournalEntryInDB(PaxosPacket pp, String journalFile,
@@ -3786,6 +4406,8 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 				log.log(Level.FINE, "{0} removed logIndex for {1}:{2}",
 						new Object[] { this, paxosID, version });
 			}
+			if (MAPPED_PAUSE_STORE)
+				this.removeFromStore(paxosID, version);
 		}
 		String cmdM = "delete from "
 				+ getMTable()
@@ -3827,6 +4449,29 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		return removedCP && removedM;
 	}
 
+	// like the checkpoint row holding them, only removes versions <= version
+	private void removeFromStore(String paxosID, int version) {
+		if (paxosID == null) {
+			this.pauseStore.clear();
+			this.logIndexStore.clear();
+			return;
+		}
+		try {
+			byte[] bytes = this.pauseStore.get(paxosID);
+			if (bytes != null
+					&& new HotRestoreInfo(ByteBuffer.wrap(bytes)).version
+							- version <= 0)
+				this.pauseStore.remove(paxosID);
+			if ((bytes = this.logIndexStore.get(paxosID)) != null
+					&& new LogIndex(ByteBuffer.wrap(bytes)).version - version <= 0)
+				this.logIndexStore.remove(paxosID);
+		} catch (IOException e) {
+			log.severe(this + " failed to remove paused state for " + paxosID
+					+ ":" + version + ": " + e);
+			e.printStackTrace();
+		}
+	}
+
 	public boolean removeAll() {
 		this.removeAllJournals();
 		// remove all paxos DB state
@@ -3856,7 +4501,14 @@ public class SQLPaxosLogger extends AbstractPaxosLogger {
 		// messageLog should be closed before DB
 		if (this.messageLog != null)
 			this.messageLog.close();
+		// and before the pause store that it commits logIndexes to
+		if (this.pauseStore != null)
+			this.pauseStore.close();
+		if (this.logIndexStore != null)
+			this.logIndexStore.close();
 		this.setClosed(true);
+		if (this.journaler != null)
+			this.journaler.close();
 		// can not close derby until all instances are done
 		if (allClosed() || !isEmbeddedDB())
 			this.closeGracefully();
@@ -0,0 +1,35 @@
+package edu.umass.cs.gigapaxos.interfaces;
+
+import edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer;
+
+/**
+ * @author arun
+ *
+ *         An optional extension of {@link Replicable} for applications with
+ *         large state. Instead of returning the state as a string from
+ *         {@link #checkpoint(String)}, such applications return a
+ *         {@link CheckpointProducer} that paxos persists in the background
+ *         using {@link LargeCheckpointer}. Checkpoints for stop requests, and
+ *         so epoch final state, are still obtained synchronously using
+ *         {@link #checkpoint(String)}.
+ */
+public interface AsyncCheckpointable extends Replicable {
+	/**
+	 * Invoked atomically with request execution just like
+	 * {@link #checkpoint(String)}, so this method should return quickly, e.g.,
+	 * after taking a copy-on-write snapshot, and defer the actual writing of
+	 * the state to the returned producer.
+	 * <p>
+	 * Upon recovery, {@link #restore(String, String)} will be invoked with a
+	 * checkpoint handle that the application can convert to a local file
+	 * using {@link LargeCheckpointer#restoreCheckpointHandle(String, String)}.
+	 * 
+	 * @param name
+	 * @return A producer for the current state of {@code name}, or null if
+	 *         {@code name} should be checkpointed synchronously using
+	 *         {@link #checkpoint(String)} instead, e.g., by wrappers such as
+	 *         replica coordinators whose underlying application is not
+	 *         {@link AsyncCheckpointable}.
+	 */
+	public CheckpointProducer checkpointAsync(String name);
+}
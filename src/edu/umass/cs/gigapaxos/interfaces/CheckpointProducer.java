@@ -0,0 +1,35 @@
+package edu.umass.cs.gigapaxos.interfaces;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author arun
+ *
+ *         A deferred checkpoint returned by
+ *         {@link AsyncCheckpointable#checkpointAsync(String)}. The producer is
+ *         invoked in the background, without holding any paxos locks, after
+ *         the corresponding request has been executed, so it must write the
+ *         state as it was when it was created and not the current state.
+ */
+public interface CheckpointProducer {
+	/**
+	 * Writes the checkpoint to {@code out}. Applications that prefer streams
+	 * can wrap {@code out} using
+	 * {@link java.nio.channels.Channels#newOutputStream(WritableByteChannel)}.
+	 * 
+	 * @param out
+	 *            The channel to which the complete checkpoint must be written.
+	 * @param previous
+	 *            The most recent previously persisted checkpoint for the same
+	 *            name, or null if there is none. An application that knows
+	 *            what has changed since can produce the new checkpoint as a
+	 *            delta by copying unchanged regions from {@code previous},
+	 *            e.g., using {@link FileChannel#transferTo}, instead of
+	 *            serializing them again.
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel out, FileChannel previous)
+			throws IOException;
+}
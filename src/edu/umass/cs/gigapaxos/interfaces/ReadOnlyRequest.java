@@ -0,0 +1,24 @@
+package edu.umass.cs.gigapaxos.interfaces;
+
+/**
+ * @author arun
+ *
+ *         A request that does not modify application state. With leader leases
+ *         enabled ({@link edu.umass.cs.gigapaxos.PaxosConfig.PC#LEADER_LEASE_PERIOD}),
+ *         a read-only request received by a replica that is the lease-holding
+ *         coordinator of its paxos group is executed directly via
+ *         {@link Replicable#execute(Request, boolean)} once all committed
+ *         requests have been executed locally, which is linearizable. Otherwise,
+ *         it is ordered like any other request.
+ */
+public interface ReadOnlyRequest extends Request {
+	/**
+	 * Allows a request type to be read-only only for some instances, e.g.,
+	 * gets but not puts.
+	 *
+	 * @return True if this request does not modify application state.
+	 */
+	default boolean isReadOnly() {
+		return true;
+	}
+}
@@ -23,12 +23,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
  *
  */
-public class AcceptReplyPacket extends PaxosPacket {
+public class AcceptReplyPacket extends PaxosPacket implements Byteable {
 	/**
 	 * Sender node ID.
 	 */
@@ -183,6 +184,24 @@ public class AcceptReplyPacket extends PaxosPacket {
 		return bbuf;
 	}
 
+	/* The same format as the prefix of BatchedAcceptReply, so it is
+	 * unversioned like the latter. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ SIZEOF_ACCEPTREPLY]);
+			this.toBytes(bbuf);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * @return {@link #requestID} used only for debugging.
 	 */
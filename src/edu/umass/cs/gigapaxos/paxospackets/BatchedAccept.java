@@ -1,6 +1,8 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
 import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeMap;
@@ -10,13 +12,14 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
  * @author arun
  *
  */
-public class BatchedAccept extends PaxosPacket {
+public class BatchedAccept extends PaxosPacket implements Byteable {
 
 	/**
 	 * 
@@ -94,6 +97,77 @@ public class BatchedAccept extends PaxosPacket {
 
 	}
 
+	protected static final int SIZEOF_BATCHEDACCEPT = 1 // version
+			+ 8 // int,int ballot
+			+ 4 // int medianCheckpointedSlot
+			+ 4 // int number of slots
+			+ 4 // int group size
+	;
+
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedAccept(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.medianCheckpointedSlot = bbuf.getInt();
+		int numSlots = bbuf.getInt();
+		for (int i = 0; i < numSlots; i++) {
+			int slot = bbuf.getInt();
+			this.slotRequestIDs.put(slot, bbuf.getLong());
+			int digestLength = bbuf.getInt();
+			byte[] digest = null;
+			if (digestLength >= 0)
+				bbuf.get(digest = new byte[digestLength]);
+			this.slotDigests.put(slot, digest);
+		}
+		int groupSize = bbuf.getInt();
+		this.group = new HashSet<Integer>();
+		for (int i = 0; i < groupSize; i++)
+			this.group.add(bbuf.getInt());
+	}
+
+	/* Format: ballot | medianCheckpointedSlot | numSlots | (slot | requestID |
+	 * digestLength | digest)* | groupSize | group, where a digest length of -1
+	 * means a null digest. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			int length = this.sizeofPaxosPacket() + SIZEOF_BATCHEDACCEPT + 4
+					* this.group.size();
+			for (byte[] digest : this.slotDigests.values())
+				length += 4 + 8 + 4 + (digest != null ? digest.length : 0);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION)
+					.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.medianCheckpointedSlot)
+					.putInt(this.slotDigests.size());
+			for (Integer slot : this.slotDigests.keySet()) {
+				assert (this.slotRequestIDs.containsKey(slot)) : slot;
+				byte[] digest = this.slotDigests.get(slot);
+				bbuf.putInt(slot).putLong(this.slotRequestIDs.get(slot))
+						.putInt(digest != null ? digest.length : -1);
+				if (digest != null)
+					bbuf.put(digest);
+			}
+			bbuf.putInt(this.group.size());
+			for (int member : this.group)
+				bbuf.putInt(member);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
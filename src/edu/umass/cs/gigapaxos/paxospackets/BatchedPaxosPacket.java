@@ -1,5 +1,8 @@
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -9,6 +12,8 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexer;
 import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.nio.interfaces.Stringifiable;
 
 /**
  * @author arun
@@ -19,7 +24,7 @@ import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
  *         well try to extract blood out of stone.
  * 
  */
-public class BatchedPaxosPacket extends PaxosPacket {
+public class BatchedPaxosPacket extends PaxosPacket implements Byteable {
 
 	ArrayList<PaxosPacket> packets = new ArrayList<PaxosPacket>();
 
@@ -73,6 +78,51 @@ public class BatchedPaxosPacket extends PaxosPacket {
 		}
 	}
 
+	/**
+	 * @param bbuf
+	 * @param unstringer
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public BatchedPaxosPacket(ByteBuffer bbuf, Stringifiable<?> unstringer)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		int numPackets = bbuf.getInt();
+		for (int i = 0; i < numPackets; i++)
+			this.packets.add(PaxosPacketDemultiplexerFast.toPaxosPacket(
+					getElement(bbuf), unstringer, null));
+	}
+
+	/* Format: numPackets | (length | packet)* where each packet is in its own
+	 * byteified format. Falls back to json if any packet is not byteified. */
+	@Override
+	public byte[] toBytes() {
+		boolean byteable = isByteifiable();
+		for (PaxosPacket pp : this.packets)
+			byteable = byteable && isByteifiable(pp);
+		try {
+			if (!byteable)
+				return this.toJSONObject().toString().getBytes(CHARSET);
+
+			byte[][] elements = new byte[this.packets.size()][];
+			int length = this.sizeofPaxosPacket() + 1 + 4;
+			for (int i = 0; i < elements.length; i++)
+				length += 4 + (elements[i] = ((Byteable) this.packets.get(i))
+						.toBytes()).length;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION)
+					.putInt(elements.length);
+			for (byte[] element : elements)
+				bbuf.putInt(element.length).put(element);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException | JSONException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	protected JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -17,12 +17,17 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
 /**
@@ -35,7 +40,8 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
  */
 
 @SuppressWarnings("javadoc")
-public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
+public class FailureDetectionPacket<NodeIDType> extends PaxosPacket
+		implements Byteable {
 
 	private static enum Keys {
 		SNDR, RCVR, MODE, SADDR
@@ -58,13 +64,32 @@ public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
 	 */
 	private InetSocketAddress saddr=null;
 
+	/**
+	 * Maps node IDs to ints for byteification; json is used if null.
+	 */
+	private final IntegerMap<NodeIDType> integerMap;
+
 	public FailureDetectionPacket(NodeIDType senderNodeID,
 			NodeIDType responderNodeID, boolean status) {
+		this(senderNodeID, responderNodeID, status, null);
+	}
+
+	/**
+	 * @param senderNodeID
+	 * @param responderNodeID
+	 * @param status
+	 * @param integerMap
+	 *            Used to byteify node IDs as ints like other paxos packets.
+	 */
+	public FailureDetectionPacket(NodeIDType senderNodeID,
+			NodeIDType responderNodeID, boolean status,
+			IntegerMap<NodeIDType> integerMap) {
 		super((PaxosPacket) null);
 		this.senderNodeID = senderNodeID;
 		this.responderNodeID = responderNodeID;
 		this.packetType = PaxosPacketType.FAILURE_DETECT;
 		this.status = status;
+		this.integerMap = integerMap;
 	}
 
 	public FailureDetectionPacket(JSONObject json,
@@ -78,6 +103,57 @@ public class FailureDetectionPacket<NodeIDType> extends PaxosPacket {
 		this.packetType = PaxosPacket.getPaxosPacketType(json);
 		this.status = json.getBoolean(Keys.MODE.toString());
 		this.saddr = MessageNIOTransport.getSenderAddress(json);
+		this.integerMap = null;
+	}
+
+	protected static final int SIZEOF_FAILUREDETECTION = 1 // version
+			+ 4 // int senderNodeID
+			+ 4 // int responderNodeID
+			+ 1 // boolean status
+	;
+
+	/**
+	 * @param bbuf
+	 * @param unstringer
+	 *            Converts the stringified {@link IntegerMap} int of a node
+	 *            back to its node ID.
+	 * @param saddr
+	 *            Sender address as in the NIO header.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public FailureDetectionPacket(ByteBuffer bbuf,
+			Stringifiable<NodeIDType> unstringer, InetSocketAddress saddr)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.senderNodeID = unstringer.valueOf(Integer.toString(bbuf.getInt()));
+		this.responderNodeID = unstringer.valueOf(Integer.toString(bbuf
+				.getInt()));
+		this.status = bbuf.get() == (byte) 1;
+		this.saddr = saddr;
+		this.integerMap = null;
+	}
+
+	/* Node IDs are byteified as their IntegerMap ints, so byteification is
+	 * used only if this packet was created with an IntegerMap. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable() || this.integerMap == null)
+			return this.toStringBytes();
+		try {
+			int sender = this.integerMap.put(this.senderNodeID);
+			int responder = this.integerMap.put(this.responderNodeID);
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ SIZEOF_FAILUREDETECTION]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION).putInt(sender)
+					.putInt(responder).put(this.status ? (byte) 1 : (byte) 0);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
 	}
 
 	@Override
@@ -17,6 +17,9 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.json.JSONArray;
@@ -24,6 +27,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -38,7 +42,7 @@ import edu.umass.cs.utils.Util;
  */
 
 @SuppressWarnings("javadoc")
-public class FindReplicaGroupPacket extends PaxosPacket {
+public class FindReplicaGroupPacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Node ID sending the request.
@@ -89,6 +93,41 @@ public class FindReplicaGroupPacket extends PaxosPacket {
 			this.group = null;
 	}
 
+	public FindReplicaGroupPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.nodeID = bbuf.getInt();
+		int groupSize = bbuf.getInt();
+		if (groupSize > 0) {
+			this.group = new int[groupSize];
+			for (int i = 0; i < groupSize; i++)
+				this.group[i] = bbuf.getInt();
+		} else
+			this.group = null;
+	}
+
+	// a null group is byteified as an empty group like with json
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			int groupSize = this.group != null ? this.group.length : 0;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ 1 + 4 + 4 + 4 * groupSize]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION).putInt(this.nodeID)
+					.putInt(groupSize);
+			for (int i = 0; i < groupSize; i++)
+				bbuf.putInt(this.group[i]);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -123,7 +123,7 @@ public class PValuePacket extends ProposalPacket {
 				.toString()) : false;
 	}
 
-	protected PValuePacket(ByteBuffer bbuf)
+	public PValuePacket(ByteBuffer bbuf)
 			throws UnsupportedEncodingException, UnknownHostException {
 		super(bbuf);
 		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
@@ -132,6 +132,29 @@ public class PValuePacket extends ProposalPacket {
 		this.noCoalesce = bbuf.get() == (byte) 1;
 	}
 
+	/* Same as the AcceptPacket format without the sender. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return super.toBytes();
+		return this.toPValueBytes();
+	}
+
+	/**
+	 * @return Byteified pvalue irrespective of the subclass. Used also to
+	 *         byteify the accepted pvalues in prepare replies.
+	 */
+	protected final byte[] toPValueBytes() {
+		ByteBuffer bbuf = this.toProposalBytes(SIZEOF_PVALUE);
+		bbuf.putInt(this.ballot.ballotNumber)
+				.putInt(this.ballot.coordinatorID)
+				.put(this.recovery ? (byte) 1 : 0)
+				.putInt(this.medianCheckpointedSlot)
+				.put(this.noCoalesce ? (byte) 1 : 0);
+		assert (!bbuf.hasRemaining()); // exact alignment
+		return bbuf.array();
+	}
+
 	public PValuePacket makeDecision(int mcSlot) {
 		this.packetType = PaxosPacketType.DECISION;
 		this.medianCheckpointedSlot = mcSlot;
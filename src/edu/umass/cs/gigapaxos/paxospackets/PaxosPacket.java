@@ -29,7 +29,9 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.interfaces.Summarizable;
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
 import edu.umass.cs.nio.JSONPacket;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.utils.Config;
 
@@ -469,6 +471,88 @@ public abstract class PaxosPacket extends JSONPacket implements Summarizable {
 		return bbuf;
 	}
 
+	/**
+	 * Version of the byteified format of packet types that are byteified as
+	 * self-contained formats, i.e., all types except {@link RequestPacket},
+	 * {@link AcceptPacket}, {@link BatchedCommit}, and
+	 * {@link BatchedAcceptReply} (and the formats derived from the first two
+	 * for proposals, decisions, and accept replies) whose formats predate
+	 * versioning and are also used by the logger. The version byte
+	 * immediately follows the PaxosPacket header, and a receiver that does
+	 * not recognize the version refuses to parse the packet.
+	 */
+	protected static final byte BYTEIFICATION_VERSION = 1;
+
+	/**
+	 * @return True if byte[] serialization is enabled. Packet types using
+	 *         this check carry node IDs only as {@link IntegerMap} ints, so
+	 *         they do not need node IDs to be ints themselves.
+	 */
+	protected static boolean isByteifiable() {
+		return BYTEIFICATION;
+	}
+
+	/**
+	 * @param pp
+	 * @return True if {@code pp} is sent in its byteified form. The request,
+	 *         accept, batched commit and batched accept reply layouts are
+	 *         shared with clients and the log, so they are byteified only if
+	 *         all node IDs are ints.
+	 */
+	public static boolean isByteifiable(PaxosPacket pp) {
+		switch (pp.getType()) {
+		case REQUEST:
+		case ACCEPT:
+		case BATCHED_COMMIT:
+		case BATCHED_ACCEPT_REPLY:
+			return BYTEIFICATION && IntegerMap.allInt();
+		default:
+			return BYTEIFICATION && pp instanceof Byteable;
+		}
+	}
+
+	protected static void checkByteificationVersion(ByteBuffer bbuf)
+			throws UnsupportedEncodingException {
+		byte version = bbuf.get();
+		if (version != BYTEIFICATION_VERSION)
+			throw new UnsupportedEncodingException(
+					"Unrecognized byteification version " + version
+							+ " != " + BYTEIFICATION_VERSION);
+	}
+
+	/**
+	 * @return Length of the PaxosPacket header written by
+	 *         {@link #toBytes(ByteBuffer)}.
+	 * @throws UnsupportedEncodingException
+	 */
+	protected int sizeofPaxosPacket() throws UnsupportedEncodingException {
+		return SIZEOF_PAXOSPACKET_FIXED
+				+ (this.paxosID != null ? this.paxosID.getBytes(CHARSET).length
+						: 0);
+	}
+
+	/**
+	 * @param bbuf
+	 * @return The next length-prefixed element in {@code bbuf} as a buffer
+	 *         positioned at 0 sharing the same content, i.e., without copying.
+	 */
+	protected static ByteBuffer getElement(ByteBuffer bbuf) {
+		int length = bbuf.getInt();
+		ByteBuffer element = (ByteBuffer) bbuf.slice().limit(length);
+		bbuf.position(bbuf.position() + length);
+		return element;
+	}
+
+	// used when byteification is not possible
+	protected byte[] toStringBytes() {
+		try {
+			return this.toString().getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	public JSONObject toJSONObject() throws JSONException {
 		JSONObject json = new JSONObject();
 		// tells Packet that this is a PaxosPacket
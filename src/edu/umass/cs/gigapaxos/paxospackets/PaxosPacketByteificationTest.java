@@ -0,0 +1,482 @@
+package edu.umass.cs.gigapaxos.paxospackets;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.IntegerMap;
+import edu.umass.cs.gigapaxos.paxosutil.PaxosPacketDemultiplexerFast;
+import edu.umass.cs.nio.MessageExtractor;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.nio.interfaces.Stringifiable;
+import edu.umass.cs.nio.nioutils.StringifiableDefault;
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         Round-trip tests of the byteified forms of randomly generated paxos
+ *         packets of every type and a comparison of their serialization cost
+ *         against json.
+ */
+public class PaxosPacketByteificationTest extends DefaultTest {
+
+	private static final Stringifiable<Integer> unstringer = new StringifiableDefault<Integer>(
+			0);
+	private static final IntegerMap<Integer> integerMap = new IntegerMap<Integer>();
+
+	private final Random r = new Random(1);
+	private final MessageDigest md;
+
+	/**
+	 * @throws NoSuchAlgorithmException
+	 */
+	public PaxosPacketByteificationTest() throws NoSuchAlgorithmException {
+		this.md = MessageDigest.getInstance("SHA-1");
+	}
+
+	/* Any byte is a valid character in PaxosPacket.CHARSET. Non-empty as
+	 * RequestPacket byteifies empty values as null. */
+	private String randomString(int maxLength) {
+		char[] chars = new char[1 + r.nextInt(maxLength)];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) r.nextInt(256);
+		return new String(chars);
+	}
+
+	private Ballot randomBallot() {
+		return new Ballot(r.nextInt(100), r.nextInt(10));
+	}
+
+	private Set<Integer> randomGroup() {
+		Set<Integer> group = new HashSet<Integer>();
+		for (int i = r.nextInt(5) + 1; i > 0; i--)
+			group.add(r.nextInt(100));
+		return group;
+	}
+
+	private <PacketType extends PaxosPacket> PacketType putPaxosID(
+			PacketType pp) {
+		pp.putPaxosID("paxos" + r.nextInt(100), r.nextInt(10));
+		return pp;
+	}
+
+	private RequestPacket randomRequest() {
+		RequestPacket req = new RequestPacket(r.nextLong(),
+				randomString(100), r.nextInt(10) == 0, new InetSocketAddress(
+						"127.0.0.1", 1 + r.nextInt(60000)));
+		req.setEntryReplica(r.nextInt(10));
+		if (r.nextBoolean()) {
+			RequestPacket[] batch = new RequestPacket[r.nextInt(3) + 1];
+			for (int i = 0; i < batch.length; i++)
+				batch[i] = new RequestPacket(r.nextLong(), randomString(50),
+						false);
+			req.latchToBatch(batch);
+		}
+		return putPaxosID(req);
+	}
+
+	private ProposalPacket randomProposal() {
+		return new ProposalPacket(r.nextInt(), randomRequest());
+	}
+
+	private PValuePacket randomPValue() {
+		PValuePacket pvalue = new PValuePacket(randomBallot(),
+				randomProposal());
+		pvalue.packetType = PaxosPacketType.ACCEPT;
+		return pvalue;
+	}
+
+	private AcceptPacket randomAccept() {
+		return new AcceptPacket(r.nextInt(10), randomPValue(), r.nextInt());
+	}
+
+	private PValuePacket randomDecision() {
+		PValuePacket decision = new PValuePacket(randomPValue())
+				.makeDecision(r.nextInt());
+		if (r.nextBoolean())
+			decision.setNoCoalesce();
+		return r.nextInt(4) == 0 ? decision.preempt() : decision;
+	}
+
+	private PreparePacket randomPrepare() {
+		PreparePacket prepare = new PreparePacket(randomBallot(), r.nextInt());
+		if (r.nextBoolean())
+			prepare.setRecovery();
+		return putPaxosID(prepare);
+	}
+
+	// the acceptor stores accepts, but their senders are not sent
+	private PrepareReplyPacket randomPrepareReply(boolean accepts) {
+		HashMap<Integer, PValuePacket> accepted = new HashMap<Integer, PValuePacket>();
+		int gcSlot = r.nextInt(1000);
+		for (int i = r.nextInt(4); i > 0; i--) {
+			PValuePacket pvalue = new PValuePacket(randomBallot(),
+					new ProposalPacket(gcSlot + 1 + r.nextInt(100),
+							randomRequest()));
+			pvalue.packetType = PaxosPacketType.ACCEPT;
+			if (accepts)
+				// caches accept bytes that should not be used
+				(pvalue = new AcceptPacket(r.nextInt(10), pvalue, r.nextInt()))
+						.toBytes();
+			accepted.put(pvalue.slot, pvalue);
+		}
+		return putPaxosID(new PrepareReplyPacket(r.nextInt(10),
+				randomBallot(), accepted, gcSlot));
+	}
+
+	private AcceptReplyPacket randomAcceptReply() {
+		AcceptReplyPacket reply = new AcceptReplyPacket(r.nextInt(10),
+				randomBallot(), r.nextInt(), r.nextInt(), r.nextLong());
+		if (r.nextBoolean())
+			reply.setDigestRequest();
+		return putPaxosID(reply);
+	}
+
+	private BatchedAcceptReply randomBatchedAcceptReply() {
+		AcceptReplyPacket reply = randomAcceptReply();
+		BatchedAcceptReply batched = new BatchedAcceptReply(reply);
+		for (int i = r.nextInt(5); i > 0; i--) {
+			AcceptReplyPacket next = new AcceptReplyPacket(reply.acceptor,
+					reply.ballot, r.nextInt(), reply.maxCheckpointedSlot,
+					r.nextLong());
+			next.putPaxosID(reply.getPaxosID(), reply.getVersion());
+			batched.addAcceptReply(next);
+		}
+		return batched;
+	}
+
+	private BatchedCommit randomBatchedCommit() {
+		PValuePacket decision = new PValuePacket(randomPValue())
+				.makeDecision(r.nextInt());
+		BatchedCommit batched = new BatchedCommit(decision, randomGroup());
+		for (int i = r.nextInt(5); i > 0; i--)
+			batched.addCommit((PValuePacket) new PValuePacket(decision.ballot,
+					new ProposalPacket(r.nextInt(), randomRequest()))
+					.makeDecision(decision.getMedianCheckpointedSlot())
+					.putPaxosID(decision.getPaxosID(), decision.getVersion()));
+		return batched;
+	}
+
+	private BatchedAccept randomBatchedAccept() {
+		AcceptPacket accept = randomAccept();
+		accept.getDigest(md);
+		BatchedAccept batched = new BatchedAccept(accept, randomGroup());
+		for (int i = r.nextInt(5); i > 0; i--) {
+			AcceptPacket next = (AcceptPacket) new AcceptPacket(accept.sender,
+					new PValuePacket(accept.ballot, new ProposalPacket(
+							r.nextInt(), randomRequest())), r.nextInt())
+					.putPaxosID(accept.getPaxosID(), accept.getVersion());
+			next.getDigest(md);
+			batched.addAccept(next);
+		}
+		return batched;
+	}
+
+	private SyncDecisionsPacket randomSyncDecisions() {
+		ArrayList<Integer> missing = new ArrayList<Integer>();
+		for (int i = r.nextInt(5); i > 0; i--)
+			missing.add(r.nextInt());
+		return putPaxosID(new SyncDecisionsPacket(r.nextInt(10), r.nextInt(),
+				missing.isEmpty() && r.nextBoolean() ? null : missing, false));
+	}
+
+	private StatePacket randomState() {
+		return putPaxosID(new StatePacket(randomBallot(), r.nextInt(),
+				randomString(1000)));
+	}
+
+	private FailureDetectionPacket<Integer> randomFailureDetection() {
+		return putPaxosID(new FailureDetectionPacket<Integer>(r.nextInt(10),
+				r.nextInt(10), r.nextBoolean(), integerMap));
+	}
+
+	/* A parsed failure detection packet has node IDs but no IntegerMap to
+	 * byteify them with. */
+	@SuppressWarnings("unchecked")
+	private static PaxosPacket reIntegerMap(PaxosPacket pp)
+			throws JSONException {
+		if (!(pp instanceof FailureDetectionPacket))
+			return pp;
+		JSONObject json = pp.toJSONObject();
+		PaxosPacket fdp = new FailureDetectionPacket<Integer>(
+				((FailureDetectionPacket<Integer>) pp).senderNodeID,
+				json.getInt("RCVR"), json.getBoolean("MODE"), integerMap);
+		fdp.putPaxosID(pp.getPaxosID(), pp.getVersion());
+		return fdp;
+	}
+
+	private FindReplicaGroupPacket randomFindReplicaGroup()
+			throws JSONException {
+		FindReplicaGroupPacket frg = new FindReplicaGroupPacket(r.nextInt(10),
+				randomPrepare());
+		return r.nextBoolean() ? frg : new FindReplicaGroupPacket(
+				Util.setToIntArray(randomGroup()), frg);
+	}
+
+	private PaxosPacket random(PaxosPacketType type) throws JSONException {
+		switch (type) {
+		case REQUEST:
+			return randomRequest();
+		case PROPOSAL:
+			return randomProposal();
+		case ACCEPT:
+			return randomAccept();
+		case DECISION:
+			return randomDecision();
+		case PREPARE:
+			return randomPrepare();
+		case PREPARE_REPLY:
+			return randomPrepareReply(false);
+		case ACCEPT_REPLY:
+			return randomAcceptReply();
+		case BATCHED_ACCEPT_REPLY:
+			return randomBatchedAcceptReply();
+		case BATCHED_COMMIT:
+			return randomBatchedCommit();
+		case BATCHED_ACCEPT:
+			return randomBatchedAccept();
+		case SYNC_DECISIONS_REQUEST:
+			return randomSyncDecisions();
+		case CHECKPOINT_STATE:
+			return randomState();
+		case FAILURE_DETECT:
+			return randomFailureDetection();
+		case FIND_REPLICA_GROUP:
+			return randomFindReplicaGroup();
+		case BATCHED_PAXOS_PACKET:
+			BatchedPaxosPacket batched = new BatchedPaxosPacket(
+					random(PaxosPacketType.DECISION));
+			for (int i = r.nextInt(5); i > 0; i--) {
+				PaxosPacketType elementType = SENDABLE[r.nextInt(SENDABLE.length - 1)];
+				// failure detection packets are never batched
+				if (elementType != PaxosPacketType.FAILURE_DETECT)
+					batched.append(random(elementType));
+			}
+			return batched;
+		default:
+			throw new RuntimeException("Unexpected type " + type);
+		}
+	}
+
+	/* All types sent on the wire; BATCHED_PAXOS_PACKET must be last as it is
+	 * excluded while choosing its elements. PREEMPTED is covered by DECISION. */
+	private static final PaxosPacketType[] SENDABLE = {
+			PaxosPacketType.REQUEST, PaxosPacketType.PROPOSAL,
+			PaxosPacketType.ACCEPT, PaxosPacketType.DECISION,
+			PaxosPacketType.PREPARE, PaxosPacketType.PREPARE_REPLY,
+			PaxosPacketType.ACCEPT_REPLY, PaxosPacketType.BATCHED_ACCEPT_REPLY,
+			PaxosPacketType.BATCHED_COMMIT, PaxosPacketType.BATCHED_ACCEPT,
+			PaxosPacketType.SYNC_DECISIONS_REQUEST,
+			PaxosPacketType.CHECKPOINT_STATE, PaxosPacketType.FAILURE_DETECT,
+			PaxosPacketType.FIND_REPLICA_GROUP,
+			PaxosPacketType.BATCHED_PAXOS_PACKET };
+
+	private static PaxosPacket fromBytes(byte[] bytes)
+			throws UnsupportedEncodingException, UnknownHostException {
+		return PaxosPacketDemultiplexerFast.toPaxosPacket(
+				ByteBuffer.wrap(bytes), unstringer, null);
+	}
+
+	// the json form with sorted keys as the canonical form for comparisons
+	private static String toJSONString(PaxosPacket pp) throws JSONException {
+		return canonical(pp.toJSONObject()).toString();
+	}
+
+	private static Object canonical(Object json) throws JSONException {
+		if (json instanceof JSONObject) {
+			TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+			for (String key : Util.getNames((JSONObject) json))
+				sorted.put(key, canonical(((JSONObject) json).get(key)));
+			return sorted;
+		} else if (json instanceof JSONArray) {
+			ArrayList<Object> list = new ArrayList<Object>();
+			for (int i = 0; i < ((JSONArray) json).length(); i++)
+				list.add(canonical(((JSONArray) json).get(i)));
+			return list;
+		}
+		return json;
+	}
+
+	/**
+	 * Every type parsed from its byteified form yields an identical packet.
+	 *
+	 * @throws JSONException
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	@Test
+	public void testRoundTrip() throws JSONException,
+			UnsupportedEncodingException, UnknownHostException {
+		Assume.assumeTrue(PaxosPacket.isByteifiable());
+		for (PaxosPacketType type : SENDABLE)
+			for (int i = 0; i < 200; i++) {
+				PaxosPacket pp = random(type);
+				Assert.assertTrue(pp instanceof Byteable);
+				byte[] bytes = ((Byteable) pp).toBytes();
+				Assert.assertEquals(pp.getType(), PaxosPacket.getType(bytes));
+				PaxosPacket parsed = fromBytes(bytes);
+				Assert.assertEquals(pp.getClass(), parsed.getClass());
+				Assert.assertEquals(toJSONString(pp), toJSONString(parsed));
+				// byteification is deterministic
+				Assert.assertArrayEquals(bytes, ((Byteable) reIntegerMap(parsed))
+						.toBytes());
+			}
+	}
+
+	/**
+	 * Accepted pvalues in prepare replies are parsed as pvalues, not accepts,
+	 * just like with json.
+	 *
+	 * @throws JSONException
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	@Test
+	public void testPrepareReplyPValues() throws JSONException,
+			UnsupportedEncodingException, UnknownHostException {
+		Assume.assumeTrue(PaxosPacket.isByteifiable());
+		PrepareReplyPacket preply;
+		while ((preply = randomPrepareReply(true)).accepted.isEmpty())
+			;
+		PrepareReplyPacket parsed = (PrepareReplyPacket) fromBytes(preply
+				.toBytes());
+		PrepareReplyPacket jsonParsed = new PrepareReplyPacket(
+				preply.toJSONObject());
+		Assert.assertEquals(jsonParsed.accepted.keySet(),
+				parsed.accepted.keySet());
+		for (int slot : parsed.accepted.keySet()) {
+			Assert.assertEquals(PValuePacket.class, parsed.accepted.get(slot)
+					.getClass());
+			Assert.assertEquals(toJSONString(jsonParsed.accepted.get(slot)),
+					toJSONString(parsed.accepted.get(slot)));
+		}
+	}
+
+	/**
+	 * An unrecognized version is refused.
+	 *
+	 * @throws UnknownHostException
+	 * @throws JSONException
+	 */
+	@Test
+	public void testVersion() throws UnknownHostException, JSONException {
+		Assume.assumeTrue(PaxosPacket.isByteifiable());
+		PreparePacket prepare = randomPrepare();
+		byte[] bytes = prepare.toBytes();
+		bytes[PaxosPacket.SIZEOF_PAXOSPACKET_FIXED
+				+ prepare.getPaxosID().length()]++;
+		try {
+			fromBytes(bytes);
+			Assert.fail("Parsed unrecognized version");
+		} catch (UnsupportedEncodingException e) {
+			// expected
+		}
+	}
+
+	private static final int WARMUP = 2000;
+	private static final int ITERATIONS = 5000;
+
+	// the json path used when byteification is disabled
+	private static PaxosPacket jsonRoundTrip(PaxosPacket pp)
+			throws JSONException {
+		// json-smart batches only support elements with json-smart forms
+		net.minidev.json.JSONObject jsonS = pp instanceof BatchedPaxosPacket ? null
+				: pp.toJSONSmart();
+		String message = jsonS != null ? jsonS.toString() : pp.toJSONObject()
+				.toString();
+		net.minidev.json.JSONObject parsed = MessageExtractor
+				.parseJSONSmart(message);
+		if (pp.getType() == PaxosPacketType.ACCEPT)
+			parsed.put(RequestPacket.Keys.STRINGIFIED.toString(), message);
+		return PaxosPacketDemultiplexerFast.toPaxosPacket(parsed, unstringer);
+	}
+
+	private static PaxosPacket bytesRoundTrip(PaxosPacket pp)
+			throws UnsupportedEncodingException, UnknownHostException {
+		if (pp instanceof RequestPacket)
+			// bypass the cached bytes of requests and accepts
+			((RequestPacket) pp).setByteifiedSelf(null);
+		return fromBytes(((Byteable) pp).toBytes());
+	}
+
+	/**
+	 * Serialization plus deserialization time per packet for each type using
+	 * byteification and using json. Not a rigorous benchmark, but enough to
+	 * compare the two.
+	 *
+	 * @throws JSONException
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	@Test
+	public void testSerializationSpeed() throws JSONException,
+			UnsupportedEncodingException, UnknownHostException {
+		Assume.assumeTrue(PaxosPacket.isByteifiable());
+		for (PaxosPacketType type : SENDABLE) {
+			PaxosPacket[] packets = new PaxosPacket[100];
+			for (int i = 0; i < packets.length; i++)
+				packets[i] = random(type);
+			int bytesLength = 0, jsonLength = 0;
+			for (PaxosPacket pp : packets) {
+				bytesLength += ((Byteable) pp).toBytes().length;
+				jsonLength += (pp.toJSONSmart() != null
+						&& !(pp instanceof BatchedPaxosPacket) ? pp
+						.toJSONSmart() : pp.toJSONObject()).toString().length();
+			}
+
+			for (int i = 0; i < WARMUP; i++) {
+				bytesRoundTrip(packets[i % packets.length]);
+				jsonRoundTrip(packets[i % packets.length]);
+			}
+			long t = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++)
+				bytesRoundTrip(packets[i % packets.length]);
+			long bytesTime = System.nanoTime() - t;
+			t = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; i++)
+				jsonRoundTrip(packets[i % packets.length]);
+			long jsonTime = System.nanoTime() - t;
+
+			System.out.println(String.format(
+					"%-22s bytes: %6.2fus %5dB; json: %6.2fus %5dB; speedup=%.1fx",
+					type, bytesTime / 1000.0 / ITERATIONS, bytesLength
+							/ packets.length, jsonTime / 1000.0 / ITERATIONS,
+					jsonLength / packets.length, (double) jsonTime
+							/ bytesTime));
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(PaxosPacketByteificationTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -17,17 +17,22 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * @author arun
  *
  */
 @SuppressWarnings("javadoc")
-public final class PreparePacket extends PaxosPacket {
+public final class PreparePacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot in the PREPARE message.
@@ -74,6 +79,41 @@ public final class PreparePacket extends PaxosPacket {
 		this.recovery = json.optBoolean(PaxosPacket.Keys.RCVRY.toString());
 	}
 
+	protected static final int SIZEOF_PREPARE = 1 // version
+			+ 8 // int,int ballot
+			+ 4 // int firstUndecidedSlot
+			+ 1 // boolean recovery
+	;
+
+	public PreparePacket(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.firstUndecidedSlot = bbuf.getInt();
+		this.recovery = bbuf.get() == (byte) 1;
+	}
+
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ SIZEOF_PREPARE]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION)
+					.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID)
+					.putInt(this.firstUndecidedSlot)
+					.put(this.recovery ? (byte) 1 : (byte) 0);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -17,6 +17,10 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -27,6 +31,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.nio.interfaces.Byteable;
 
 /**
  * 
@@ -34,7 +39,7 @@ import edu.umass.cs.gigapaxos.paxosutil.Ballot;
  *
  */
 @SuppressWarnings("javadoc")
-public class PrepareReplyPacket extends PaxosPacket {
+public class PrepareReplyPacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot of the PREPARE being replied to.
@@ -102,6 +107,64 @@ public class PrepareReplyPacket extends PaxosPacket {
 		this.createTime = json.getLong(RequestPacket.Keys.CT.toString());
 	}
 
+	protected static final int SIZEOF_PREPAREREPLY = 1 // version
+			+ 4 // int acceptor
+			+ 8 // int,int ballot
+			+ 4 // int firstSlot
+			+ 4 // int maxSlot
+			+ 4 // int minSlot
+			+ 8 // long createTime
+			+ 4 // int number of accepted pvalues
+	;
+
+	public PrepareReplyPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.acceptor = bbuf.getInt();
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.firstSlot = bbuf.getInt();
+		this.maxSlot = bbuf.getInt();
+		this.minSlot = bbuf.getInt();
+		this.createTime = bbuf.getLong();
+		this.accepted = new TreeMap<Integer, PValuePacket>();
+		int numAccepted = bbuf.getInt();
+		for (int i = 0; i < numAccepted; i++) {
+			PValuePacket pvalue = new PValuePacket(getElement(bbuf));
+			this.accepted.put(pvalue.slot, pvalue);
+		}
+	}
+
+	/* Accepted pvalues are byteified as length-prefixed pvalues, so a receiver
+	 * gets pvalues, not accepts, just like with json. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			ArrayList<byte[]> pvalues = new ArrayList<byte[]>();
+			int length = this.sizeofPaxosPacket() + SIZEOF_PREPAREREPLY;
+			for (PValuePacket pvalue : this.accepted.values()) {
+				byte[] element = pvalue.toPValueBytes();
+				pvalues.add(element);
+				length += 4 + element.length;
+			}
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[length]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION)
+					.putInt(this.acceptor).putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID).putInt(this.firstSlot)
+					.putInt(this.maxSlot).putInt(this.minSlot)
+					.putLong(this.createTime).putInt(pvalues.size());
+			for (byte[] element : pvalues)
+				bbuf.putInt(element.length).put(element);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	// only for unit testing in PrepareReplyAssembler
 	public PrepareReplyPacket(int acceptor, Ballot ballot,
 			HashMap<Integer, PValuePacket> acceptedMap, int gcSlot, int max) {
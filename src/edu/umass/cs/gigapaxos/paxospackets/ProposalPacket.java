@@ -73,7 +73,7 @@ public class ProposalPacket extends RequestPacket {
 		return json;
 	}
 
-	protected ProposalPacket(ByteBuffer bbuf)
+	public ProposalPacket(ByteBuffer bbuf)
 			throws UnsupportedEncodingException, UnknownHostException {
 		super(bbuf);
 		this.slot = bbuf.getInt();
@@ -81,16 +81,26 @@ public class ProposalPacket extends RequestPacket {
 
 	protected static final int SIZEOF_PROPOSAL = 4;
 
-	// only RequestPacket should be byteable
+	/* The RequestPacket format followed by the slot. Like the AcceptPacket
+	 * format that extends it, this format is unversioned. */
 	@Override
 	public byte[] toBytes() {
-		try {
-			byte[] bytes = this.toString().getBytes(CHARSET);
-			return bytes;
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-		}
-		return null;
+		if (!isByteifiable())
+			return this.toStringBytes();
+		return this.toProposalBytes(0).array();
+	}
+
+	/**
+	 * @param extraLength
+	 * @return Buffer containing the RequestPacket format followed by the slot
+	 *         with room for {@code extraLength} more bytes.
+	 */
+	protected ByteBuffer toProposalBytes(int extraLength) {
+		// instrument=true bypasses any cached accept bytes
+		byte[] buf = super.toBytes(true);
+		return ByteBuffer
+				.wrap(new byte[buf.length + SIZEOF_PROPOSAL + extraLength])
+				.put(buf).putInt(this.slot);
 	}
 
 	@Override
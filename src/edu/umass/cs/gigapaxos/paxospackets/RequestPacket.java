@@ -1199,6 +1199,23 @@ public class RequestPacket extends PaxosPacket implements Request,
 				req.stop, req);
 	}
 
+	/**
+	 * @param error
+	 * @return A NACK with {@code error} as its response value.
+	 */
+	public RequestPacket getNACK(String error) {
+		RequestPacket nack = this.getNACK();
+		nack.responseValue = error;
+		return nack;
+	}
+
+	/**
+	 * @return True if this is a NACK response.
+	 */
+	public boolean isNACK() {
+		return ResponseCodes.NACK.toString().equals(this.requestValue);
+	}
+
 	private static String print(ArrayList<RequestPacket[]> reqArrayList) {
 		String s = "[\n";
 		int count = 0;
@@ -1391,7 +1408,8 @@ public class RequestPacket extends PaxosPacket implements Request,
 
 	@Override
 	public ClientRequest getResponse() {
-		return this.getACK();
+		// NACKs are already responses
+		return this.isNACK() ? this : this.getACK();
 	}
 
 	public void setResponse(String response) {
@@ -17,11 +17,16 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.paxosutil.Ballot;
 import edu.umass.cs.gigapaxos.paxosutil.SlotBallotState;
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 
@@ -30,7 +35,7 @@ import edu.umass.cs.utils.Util;
  *
  */
 @SuppressWarnings("javadoc")
-public final class StatePacket extends PaxosPacket{
+public final class StatePacket extends PaxosPacket implements Byteable {
 
 	/**
 	 * Ballot in which the request at the checkpointed slot was committed.
@@ -72,6 +77,48 @@ public final class StatePacket extends PaxosPacket{
 		this.isLargeCheckpoint = json.optBoolean(PaxosPacket.Keys.BIG_CP.toString());
 	}
 
+	public StatePacket(ByteBuffer bbuf) throws UnsupportedEncodingException,
+			UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.ballot = new Ballot(bbuf.getInt(), bbuf.getInt());
+		this.slotNumber = bbuf.getInt();
+		this.isLargeCheckpoint = bbuf.get() == (byte) 1;
+		int stateLength = bbuf.getInt();
+		byte[] stateBytes = null;
+		if (stateLength >= 0)
+			bbuf.get(stateBytes = new byte[stateLength]);
+		this.state = stateBytes != null ? new String(stateBytes, CHARSET)
+				: null;
+	}
+
+	/* Format: ballot | slotNumber | isLargeCheckpoint | stateLength | state,
+	 * where a state length of -1 means a null state. */
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			byte[] stateBytes = this.state != null ? this.state
+					.getBytes(CHARSET) : null;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ 1 + 8 + 4 + 1 + 4
+					+ (stateBytes != null ? stateBytes.length : 0)]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION)
+					.putInt(this.ballot.ballotNumber)
+					.putInt(this.ballot.coordinatorID).putInt(this.slotNumber)
+					.put(this.isLargeCheckpoint ? (byte) 1 : (byte) 0)
+					.putInt(stateBytes != null ? stateBytes.length : -1);
+			if (stateBytes != null)
+				bbuf.put(stateBytes);
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
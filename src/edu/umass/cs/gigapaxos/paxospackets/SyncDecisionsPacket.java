@@ -17,12 +17,16 @@
  */
 package edu.umass.cs.gigapaxos.paxospackets;
 
+import java.io.UnsupportedEncodingException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.nio.interfaces.Byteable;
 import edu.umass.cs.utils.Util;
 
 /**
@@ -33,7 +37,8 @@ import edu.umass.cs.utils.Util;
  *         it is reporting as missing in this sync reply.
  */
 @SuppressWarnings("javadoc")
-public final class SyncDecisionsPacket extends PaxosPacket {
+public final class SyncDecisionsPacket extends PaxosPacket implements
+		Byteable {
 
 	/**
 	 * Node sending the sync decisions request.
@@ -75,6 +80,44 @@ public final class SyncDecisionsPacket extends PaxosPacket {
 		this.packetType = PaxosPacketType.SYNC_DECISIONS_REQUEST;
 	}
 
+	public SyncDecisionsPacket(ByteBuffer bbuf)
+			throws UnsupportedEncodingException, UnknownHostException {
+		super(bbuf);
+		checkByteificationVersion(bbuf);
+		this.nodeID = bbuf.getInt();
+		this.maxDecisionSlot = bbuf.getInt();
+		int numMissing = bbuf.getInt();
+		if (numMissing > 0) {
+			this.missingSlotNumbers = new ArrayList<Integer>(numMissing);
+			for (int i = 0; i < numMissing; i++)
+				this.missingSlotNumbers.add(bbuf.getInt());
+		} else
+			this.missingSlotNumbers = null;
+		this.packetType = PaxosPacketType.SYNC_DECISIONS_REQUEST;
+	}
+
+	// null missing slots are byteified as empty like with json
+	@Override
+	public byte[] toBytes() {
+		if (!isByteifiable())
+			return this.toStringBytes();
+		try {
+			int numMissing = this.missingSlotNumbers != null ? this.missingSlotNumbers
+					.size() : 0;
+			ByteBuffer bbuf = ByteBuffer.wrap(new byte[this.sizeofPaxosPacket()
+					+ 1 + 4 + 4 + 4 + 4 * numMissing]);
+			super.toBytes(bbuf).put(BYTEIFICATION_VERSION).putInt(this.nodeID)
+					.putInt(this.maxDecisionSlot).putInt(numMissing);
+			for (int i = 0; i < numMissing; i++)
+				bbuf.putInt(this.missingSlotNumbers.get(i));
+			assert (!bbuf.hasRemaining()); // exact alignment
+			return bbuf.array();
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException {
 		JSONObject json = new JSONObject();
@@ -15,6 +15,10 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.gigapaxos.paxosutil;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -121,6 +125,77 @@ public class HotRestoreInfo {
 						: "null");
 	}
 
+	private static final byte BYTES_VERSION = 1;
+
+	/**
+	 * @return Compact binary form used by the paused instance store. Integers
+	 *         are encoded as variable-length zigzag integers.
+	 */
+	public byte[] toBytes() {
+		byte[] id = LogIndex.getBytes(this.paxosID);
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[1 + 5 + id.length + 5
+				* (12 + this.members.length + (this.nodeSlots != null ? this.nodeSlots.length
+						: 0))]);
+		bbuf.put(BYTES_VERSION);
+		LogIndex.putBytes(bbuf, id);
+		LogIndex.putVarLong(bbuf, this.version);
+		putInts(bbuf, this.members);
+		LogIndex.putVarLong(bbuf, this.accSlot);
+		LogIndex.putVarLong(bbuf, this.accBallot.ballotNumber);
+		LogIndex.putVarLong(bbuf, this.accBallot.coordinatorID);
+		LogIndex.putVarLong(bbuf, this.accGCSlot);
+		bbuf.put(this.coordBallot != null ? (byte) 1 : (byte) 0);
+		if (this.coordBallot != null) {
+			LogIndex.putVarLong(bbuf, this.coordBallot.ballotNumber);
+			LogIndex.putVarLong(bbuf, this.coordBallot.coordinatorID);
+		}
+		LogIndex.putVarLong(bbuf, this.nextProposalSlot);
+		putInts(bbuf, this.nodeSlots);
+		return Arrays.copyOf(bbuf.array(), bbuf.position());
+	}
+
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 *             If {@code bbuf} was encoded using a different version.
+	 */
+	public HotRestoreInfo(ByteBuffer bbuf) throws UnsupportedEncodingException {
+		byte bytesVersion = bbuf.get();
+		if (bytesVersion != BYTES_VERSION)
+			throw new UnsupportedEncodingException(
+					HotRestoreInfo.class.getSimpleName() + " version "
+							+ bytesVersion + " != " + BYTES_VERSION);
+		this.paxosID = LogIndex.getString(bbuf);
+		this.version = LogIndex.getVarInt(bbuf);
+		this.members = getInts(bbuf);
+		this.accSlot = LogIndex.getVarInt(bbuf);
+		this.accBallot = new Ballot(LogIndex.getVarInt(bbuf),
+				LogIndex.getVarInt(bbuf));
+		this.accGCSlot = LogIndex.getVarInt(bbuf);
+		this.coordBallot = bbuf.get() == (byte) 1 ? new Ballot(
+				LogIndex.getVarInt(bbuf), LogIndex.getVarInt(bbuf)) : null;
+		this.nextProposalSlot = LogIndex.getVarInt(bbuf);
+		this.nodeSlots = getInts(bbuf);
+	}
+
+	// length -1 encodes null
+	private static void putInts(ByteBuffer bbuf, int[] ints) {
+		LogIndex.putVarLong(bbuf, ints != null ? ints.length : -1);
+		if (ints != null)
+			for (int i : ints)
+				LogIndex.putVarLong(bbuf, i);
+	}
+
+	private static int[] getInts(ByteBuffer bbuf) {
+		int length = LogIndex.getVarInt(bbuf);
+		if (length < 0)
+			return null;
+		int[] ints = new int[length];
+		for (int i = 0; i < length; i++)
+			ints[i] = LogIndex.getVarInt(bbuf);
+		return ints;
+	}
+
 	public boolean isCreateHRI() {
 		/**
 		 * Revert to Original coz FIX below is bad. We do need accSlot=1 as that
@@ -170,5 +245,22 @@ public class HotRestoreInfo {
 			System.out.println(str2);
 			Assert.assertEquals(str1, str2);
 		}
+
+		@Test
+		public void testToBytesAndBack() throws UnsupportedEncodingException {
+			int[] members = { 1, 4, 67 };
+			HotRestoreInfo hri1 = new HotRestoreInfo("paxos0", 2, members, 5,
+					new Ballot(3, 4), 3, new Ballot(45, 67), 34, new int[] {
+							1, 3, 5 });
+			HotRestoreInfo hri2 = new HotRestoreInfo(ByteBuffer.wrap(hri1
+					.toBytes()));
+			Assert.assertEquals(hri1.toString(), hri2.toString());
+			// null coordinator ballot and node slots
+			hri1 = new HotRestoreInfo("paxos1", 0, members, 1,
+					new Ballot(0, 1), -1, null, 1, null);
+			Assert.assertEquals(hri1.toString(), new HotRestoreInfo(ByteBuffer
+					.wrap(hri1.toBytes())).toString());
+			Assert.assertTrue(hri1.toBytes().length < hri1.toString().length());
+		}
 	}
 }
@@ -58,7 +58,7 @@ public class IntegerMap<NodeIDType> {
 	 * @param node
 	 * @return Returns {@code int} corresponding to {@code node}.
 	 */
-	public int put(NodeIDType node) {
+	public synchronized int put(NodeIDType node) {
 		assert (node != null);
 		int id = getID(node);
 		
@@ -129,6 +129,14 @@ public class IntegerMap<NodeIDType> {
 		return node;
 	}
 
+	/**
+	 * @param id
+	 * @return Node ID corresponding to int id or null if none.
+	 */
+	public synchronized NodeIDType getIfPresent(int id) {
+		return this.nodeMap.get(id);
+	}
+
 	/**
 	 * @param nodes
 	 * @return Integer set corresponding to node ID set.
@@ -3,6 +3,8 @@ package edu.umass.cs.gigapaxos.paxosutil;
 import edu.umass.cs.gigapaxos.PaxosConfig;
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.SQLPaxosLogger;
+import edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable;
+import edu.umass.cs.gigapaxos.interfaces.CheckpointProducer;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
@@ -14,6 +16,7 @@ import edu.umass.cs.utils.Util;
 import org.apache.commons.io.IOUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
@@ -23,10 +26,14 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -415,6 +422,68 @@ public class LargeCheckpointer {
 		return json.toString();
 	}
 
+	/**
+	 * Persists the checkpoint written by {@code producer} in a new checkpoint
+	 * file for {@code name} and returns the corresponding checkpoint handle.
+	 * The most recent previous checkpoint file for {@code name}, if any, is
+	 * supplied to the producer so that it can produce the new checkpoint as a
+	 * delta against it.
+	 * 
+	 * @param name
+	 * @param producer
+	 * @return Checkpoint handle that can be fetched remotely.
+	 * @throws IOException
+	 */
+	public String checkpoint(String name, CheckpointProducer producer)
+			throws IOException {
+		File previous = this.getLatestCheckpoint(name);
+		String filename = this.getCheckpointFile(name);
+		new File(filename).getParentFile().mkdirs();
+		FileChannel out = null, prev = null;
+		try {
+			out = FileChannel.open(Paths.get(filename),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			if (previous != null)
+				prev = FileChannel.open(previous.toPath(),
+						StandardOpenOption.READ);
+			producer.writeTo(out, prev);
+			out.force(true);
+		} finally {
+			if (out != null)
+				out.close();
+			if (prev != null)
+				prev.close();
+		}
+
+		this.deleteOldCheckpoints(getCheckpointDir(), name, 4);
+		try {
+			JSONObject json = new JSONObject(createCheckpointHandle(filename));
+			json.put(Keys.ISA3142.toString(),
+					PaxosConfig.getActives().get(myNodeId).getHostString()
+							+ ":" + this.serverSock.getLocalPort());
+			return json.toString();
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private File getLatestCheckpoint(final String name) {
+		File[] files = new File(this.getCheckpointDir())
+				.listFiles(new FilenameFilter() {
+					public boolean accept(File dir, String filename) {
+						return filename.startsWith(name + ".")
+								&& filename.lastIndexOf('.') == name.length();
+					}
+				});
+		if (files == null || files.length == 0)
+			return null;
+		TreeSet<Filename> sorted = new TreeSet<Filename>();
+		for (File file : files)
+			sorted.add(new Filename(file));
+		return sorted.last().file;
+	}
+
 	private final boolean moveCheckpoint(String filename1, String filename2) {
 		return moveFile(new File(filename1),
 				new File(filename2).getAbsoluteFile());
@@ -716,6 +785,44 @@ public class LargeCheckpointer {
 			// lcp1.deleteAllCheckpointsAndClose();
 			lcp1.close();
 		}
+
+		/**
+		 * Tests {@link LargeCheckpointer#checkpoint(String, CheckpointProducer)}
+		 * with a producer that appends a delta to the previous checkpoint.
+		 * 
+		 * @throws JSONException
+		 * @throws IOException
+		 */
+		@Test
+		public void test_checkpointProducer() throws JSONException,
+				IOException {
+			TestReplicable app = new TestReplicable();
+			File dir = Files.createTempDirectory(
+					LargeCheckpointerTest.class.getSimpleName()).toFile();
+			LargeCheckpointer lcp = new LargeCheckpointer(dir.toString(),
+					"123", "AR0");
+			String name = NAME;
+
+			final String[] deltas = { "base", ":delta1", ":delta2" };
+			String handle = null;
+			for (final String delta : deltas) {
+				handle = lcp.checkpoint(name, new CheckpointProducer() {
+					@Override
+					public void writeTo(WritableByteChannel out,
+							FileChannel previous) throws IOException {
+						if (previous != null)
+							previous.transferTo(0, previous.size(), out);
+						out.write(ByteBuffer.wrap(delta.getBytes()));
+					}
+				});
+				Assert.assertTrue(isCheckpointHandle(handle));
+			}
+			app.restore(name, handle);
+			Assert.assertEquals("base:delta1:delta2", app.states.get(name));
+
+			lcp.deleteAllCheckpointsAndClose();
+			Util.recursiveRemove(dir);
+		}
 	};
 
 	/**
@@ -737,50 +844,73 @@ public class LargeCheckpointer {
 	 *         created by the application at a system location.
 	 */
 	public static Replicable wrap(final Replicable pi, LargeCheckpointer lcp) {
-		return new Replicable() {
+		return pi instanceof AsyncCheckpointable ? new WrappedAsyncCheckpointable(
+				(AsyncCheckpointable) pi, lcp) : new WrappedReplicable(pi, lcp);
+	}
 
-			@Override
-			public boolean execute(Request request) {
-				return pi.execute(request);
-			}
+	private static class WrappedReplicable implements Replicable {
+		final Replicable pi;
+		final LargeCheckpointer lcp;
 
-			@Override
-			public Request getRequest(String stringified)
-					throws RequestParseException {
-				return pi.getRequest(stringified);
-			}
+		WrappedReplicable(Replicable pi, LargeCheckpointer lcp) {
+			this.pi = pi;
+			this.lcp = lcp;
+		}
 
-			@Override
-			public Set<IntegerPacketType> getRequestTypes() {
-				return pi.getRequestTypes();
-			}
+		@Override
+		public boolean execute(Request request) {
+			return pi.execute(request);
+		}
 
-			@Override
-			public boolean execute(Request request, boolean doNotReplyToClient) {
-				return pi.execute(request, doNotReplyToClient);
-			}
+		@Override
+		public Request getRequest(String stringified)
+				throws RequestParseException {
+			return pi.getRequest(stringified);
+		}
 
-			@Override
-			public String checkpoint(String name) {
-				String checkpoint = pi.checkpoint(name);
-				try {
-					if (isCheckpointHandle(checkpoint))
-						checkpoint = lcp.stowAwayCheckpoint(name, checkpoint);
-				} catch (JSONException | IOException e) {
-					e.printStackTrace();
-				}
-				return checkpoint;
-			}
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return pi.getRequestTypes();
+		}
 
-			@Override
-			public boolean restore(String name, String state) {
-				return pi.restore(name, state);
-			}
+		@Override
+		public boolean execute(Request request, boolean doNotReplyToClient) {
+			return pi.execute(request, doNotReplyToClient);
+		}
 
-			public String toString() {
-				return pi.toString();
+		@Override
+		public String checkpoint(String name) {
+			String checkpoint = pi.checkpoint(name);
+			try {
+				if (isCheckpointHandle(checkpoint))
+					checkpoint = lcp.stowAwayCheckpoint(name, checkpoint);
+			} catch (JSONException | IOException e) {
+				e.printStackTrace();
 			}
+			return checkpoint;
+		}
 
-		};
+		@Override
+		public boolean restore(String name, String state) {
+			return pi.restore(name, state);
+		}
+
+		public String toString() {
+			return pi.toString();
+		}
+	}
+
+	private static class WrappedAsyncCheckpointable extends WrappedReplicable
+			implements AsyncCheckpointable {
+
+		WrappedAsyncCheckpointable(AsyncCheckpointable pi,
+				LargeCheckpointer lcp) {
+			super(pi, lcp);
+		}
+
+		@Override
+		public CheckpointProducer checkpointAsync(String name) {
+			return ((AsyncCheckpointable) pi).checkpointAsync(name);
+		}
 	}
 }
@@ -2,13 +2,19 @@ package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.junit.Assert;
 import org.junit.Test;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
@@ -312,6 +318,137 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 		}
 	}
 
+	private static final byte BYTES_VERSION = 1;
+
+	/**
+	 * Compact binary alternative to {@link #toString()} used by the paused
+	 * instance store. Logfile names are written once and referred to by index
+	 * in entries, and integers are encoded as variable-length zigzag integers.
+	 * 
+	 * @return Binary form.
+	 */
+	public byte[] toBytes() {
+		HashMap<String, Integer> logfiles = new HashMap<String, Integer>();
+		ArrayList<byte[]> names = new ArrayList<byte[]>();
+		int namesLength = 0;
+		ArrayList<LogIndexEntry> entries = new ArrayList<LogIndexEntry>();
+		if (this.log != null)
+			synchronized (this.log) {
+				entries.addAll(this.log);
+			}
+		for (LogIndexEntry entry : entries)
+			if (!logfiles.containsKey(entry.logfile)) {
+				logfiles.put(entry.logfile, logfiles.size());
+				names.add(getBytes(entry.logfile));
+				namesLength += 5 + names.get(names.size() - 1).length;
+			}
+		if (this.minLogfile != null && !logfiles.containsKey(this.minLogfile)) {
+			logfiles.put(this.minLogfile, logfiles.size());
+			names.add(getBytes(this.minLogfile));
+			namesLength += 5 + names.get(names.size() - 1).length;
+		}
+		byte[] id = getBytes(this.paxosID);
+
+		ByteBuffer bbuf = ByteBuffer.wrap(new byte[1 + 5 + id.length + 5 + 5
+				+ 10 + 5 + namesLength + 5 + 5 + entries.size() * (5 * 6 + 10)]);
+		bbuf.put(BYTES_VERSION);
+		putBytes(bbuf, id);
+		putVarLong(bbuf, this.version);
+		putVarLong(bbuf, this.gcSlot);
+		putVarLong(bbuf, this.lastActive);
+		putVarLong(bbuf, names.size());
+		for (byte[] name : names)
+			putBytes(bbuf, name);
+		putVarLong(bbuf, this.minLogfile != null ? logfiles.get(this.minLogfile)
+				: -1);
+		// -1 encodes a null log
+		putVarLong(bbuf, this.log != null ? entries.size() : -1);
+		for (LogIndexEntry entry : entries) {
+			putVarLong(bbuf, entry.slot);
+			putVarLong(bbuf, entry.ballotNum);
+			putVarLong(bbuf, entry.ballotCoord);
+			putVarLong(bbuf, entry.type);
+			putVarLong(bbuf, logfiles.get(entry.logfile));
+			putVarLong(bbuf, entry.offset);
+			putVarLong(bbuf, entry.length);
+		}
+		return Arrays.copyOf(bbuf.array(), bbuf.position());
+	}
+
+	/**
+	 * @param bbuf
+	 * @throws UnsupportedEncodingException
+	 *             If {@code bbuf} was encoded using a different version.
+	 */
+	public LogIndex(ByteBuffer bbuf) throws UnsupportedEncodingException {
+		byte bytesVersion = bbuf.get();
+		if (bytesVersion != BYTES_VERSION)
+			throw new UnsupportedEncodingException(
+					LogIndex.class.getSimpleName() + " version "
+							+ bytesVersion + " != " + BYTES_VERSION);
+		this.paxosID = getString(bbuf);
+		this.version = getVarInt(bbuf);
+		this.gcSlot = getVarInt(bbuf);
+		this.lastActive = getVarLong(bbuf);
+		String[] logfiles = new String[getVarInt(bbuf)];
+		for (int i = 0; i < logfiles.length; i++)
+			logfiles[i] = getString(bbuf);
+		int minLogfileIndex = getVarInt(bbuf);
+		this.minLogfile = minLogfileIndex >= 0 ? logfiles[minLogfileIndex]
+				: null;
+		int numEntries = getVarInt(bbuf);
+		if (numEntries >= 0)
+			this.log = new ArrayList<LogIndexEntry>(numEntries);
+		for (int i = 0; i < numEntries; i++)
+			this.log.add(new LogIndexEntry(getVarInt(bbuf), getVarInt(bbuf),
+					getVarInt(bbuf), getVarInt(bbuf), logfiles[getVarInt(bbuf)],
+					getVarLong(bbuf), getVarInt(bbuf)));
+	}
+
+	/**
+	 * @param s
+	 * @return UTF-8 bytes of {@code s}.
+	 */
+	static byte[] getBytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	static void putBytes(ByteBuffer bbuf, byte[] bytes) {
+		putVarLong(bbuf, bytes.length);
+		bbuf.put(bytes);
+	}
+
+	static String getString(ByteBuffer bbuf) {
+		byte[] bytes = new byte[getVarInt(bbuf)];
+		bbuf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// zigzag so that small negative values like -1 are also short
+	static void putVarLong(ByteBuffer bbuf, long value) {
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7fL) != 0) {
+			bbuf.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		bbuf.put((byte) v);
+	}
+
+	static long getVarLong(ByteBuffer bbuf) {
+		long v = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = bbuf.get();
+			v |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				break;
+		}
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	static int getVarInt(ByteBuffer bbuf) {
+		return (int) getVarLong(bbuf);
+	}
+
 	/**
 	 * @return Oldest log file containing an entry for this paxosID after the
 	 *         last commit to disk.
@@ -397,5 +534,26 @@ public class LogIndex implements Keyable<String>, Serializable, Pausable {
 					"ISO-8859-1"));
 		}
 
+		/**
+		 * @throws IOException
+		 */
+		@Test
+		public void testToBytesAndBack() throws IOException {
+			LogIndex logIndex = new LogIndex("paxos0", 3);
+			Assert.assertEquals(logIndex.toString(), new LogIndex(ByteBuffer
+					.wrap(logIndex.toBytes())).toString());
+			logIndex.add(5, 2, 1, PaxosPacketType.ACCEPT.getInt(),
+					"paxos_logs/log.1", 0, 300);
+			logIndex.add(5, 2, 1, PaxosPacketType.DECISION.getInt(),
+					"paxos_logs/log.1", 300, 200);
+			logIndex.add(6, 2, 1, PaxosPacketType.ACCEPT.getInt(),
+					"paxos_logs/log.2", 1L << 33, 200);
+			byte[] bytes = logIndex.toBytes();
+			Assert.assertEquals(logIndex.toString(), new LogIndex(ByteBuffer
+					.wrap(bytes)).toString());
+			Assert.assertTrue(bytes.length < SQLPaxosLogger.deflate(logIndex
+					.toString().getBytes("ISO-8859-1")).length);
+		}
+
 	}
 }
@@ -122,11 +122,8 @@ public class PaxosMessenger<NodeIDType> extends JSONMessenger<NodeIDType> {
 				&& ((RequestPacket) msg).getStringifiedSelf() != null)
 			return ((RequestPacket) msg).getStringifiedSelf();
 
-		// FIXME: to test byteable
-		if (BYTEIFICATION
-				&& IntegerMap.allInt()
-				&& (msg.getType() == PaxosPacket.PaxosPacketType.REQUEST || (msg
-						.getType() == PaxosPacket.PaxosPacketType.ACCEPT))
+		// all paxos packets are byteable
+		if (PaxosPacket.isByteifiable(msg)
 				|| msg.getType() == PaxosPacketType.BATCHED_COMMIT
 				|| msg.getType() == PaxosPacketType.BATCHED_ACCEPT_REPLY)
 			return msg;
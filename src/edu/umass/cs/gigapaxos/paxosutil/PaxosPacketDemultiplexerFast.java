@@ -16,6 +16,7 @@
 package edu.umass.cs.gigapaxos.paxosutil;
 
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
@@ -27,12 +28,22 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.PaxosConfig.PC;
 import edu.umass.cs.gigapaxos.paxospackets.AcceptPacket;
+import edu.umass.cs.gigapaxos.paxospackets.AcceptReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedAccept;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedAcceptReply;
 import edu.umass.cs.gigapaxos.paxospackets.BatchedCommit;
+import edu.umass.cs.gigapaxos.paxospackets.BatchedPaxosPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FailureDetectionPacket;
+import edu.umass.cs.gigapaxos.paxospackets.FindReplicaGroupPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PValuePacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket;
 import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxospackets.PrepareReplyPacket;
+import edu.umass.cs.gigapaxos.paxospackets.PreparePacket;
+import edu.umass.cs.gigapaxos.paxospackets.ProposalPacket;
 import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.gigapaxos.paxospackets.StatePacket;
+import edu.umass.cs.gigapaxos.paxospackets.SyncDecisionsPacket;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.MessageExtractor;
@@ -48,34 +59,61 @@ import edu.umass.cs.utils.Util;
  *         This is a faster demultiplexer than PaxosPacketDemultiplexerJSON.
  *         JSON turns out to be the bottleneck. This class supports json-smart
  *         and direct serialization to and from byte[]. The last option is the
- *         fastest. We need faster options only for RequestPacket and
- *         AcceptPacket; for everything else JSON is just fine.
+ *         fastest. The faster options matter most for RequestPacket and
+ *         AcceptPacket, but all paxos packet types are byteified so that
+ *         no packet on the wire needs JSON parsing with byteification
+ *         enabled.
  * 
  *         Byteification is a bit harder to maintain, especially the
  *         processHeader part, but is worth it for this critical demultiplexer.
  */
 public abstract class PaxosPacketDemultiplexerFast extends
 		AbstractPacketDemultiplexer<Object> {
+	private final Stringifiable<?> unstringer;
+
 	/**
 	 * @param numThreads
 	 */
 	public PaxosPacketDemultiplexerFast(int numThreads) {
+		this(numThreads, null);
+	}
+
+	/**
+	 * @param numThreads
+	 * @param unstringer
+	 *            Needed to parse byteified {@link FailureDetectionPacket}.
+	 */
+	public PaxosPacketDemultiplexerFast(int numThreads,
+			Stringifiable<?> unstringer) {
 		super(numThreads);
+		this.unstringer = unstringer;
 	}
 
-	private static PaxosPacket toPaxosPacket(byte[] bytes)
+	/**
+	 * @param bbuf
+	 *            Buffer positioned at 0 containing exactly one byteified
+	 *            packet.
+	 * @param unstringer
+	 *            Needed only for {@link FailureDetectionPacket}.
+	 * @param sndr
+	 *            Sender address needed only for
+	 *            {@link FailureDetectionPacket}.
+	 * @return Parsed PaxosPacket.
+	 * @throws UnsupportedEncodingException
+	 * @throws UnknownHostException
+	 */
+	public static PaxosPacket toPaxosPacket(ByteBuffer bbuf,
+			Stringifiable<?> unstringer, InetSocketAddress sndr)
 			throws UnsupportedEncodingException, UnknownHostException {
-		assert (bytes != null);
-		ByteBuffer bbuf = ByteBuffer.wrap(bytes);
+		assert (bbuf != null && bbuf.position() == 0);
 
 		PaxosPacket.PaxosPacketType type = bbuf.getInt() == PaxosPacketType.PAXOS_PACKET
 				.getInt() ? PaxosPacketType.getPaxosPacketType(bbuf.getInt())
 				: null;
 
 		if (type == null)
-			fatal(bytes);
+			fatal(bbuf);
 
-		// bbuf = ByteBuffer.wrap(bytes);
 		bbuf.rewind();
 
 		PaxosPacket paxosPacket = null;
@@ -85,18 +123,53 @@ public abstract class PaxosPacketDemultiplexerFast extends
 			paxosPacket = new RequestPacket(bbuf);
 			// log.info("after new RequestPacket(ByteBuffer)");
 			break;
+		case PROPOSAL:
+			paxosPacket = new ProposalPacket(bbuf);
+			break;
+		case DECISION:
+		case PREEMPTED:
+			paxosPacket = new PValuePacket(bbuf);
+			break;
 		case ACCEPT:
 			paxosPacket = new AcceptPacket(bbuf);
 			break;
 		case BATCHED_COMMIT:
 			paxosPacket = new BatchedCommit(bbuf);
 			break;
+		case ACCEPT_REPLY:
+			paxosPacket = new AcceptReplyPacket(bbuf);
+			break;
 		case BATCHED_ACCEPT_REPLY:
 			paxosPacket = new BatchedAcceptReply(bbuf);
 			break;
+		case PREPARE:
+			paxosPacket = new PreparePacket(bbuf);
+			break;
+		case PREPARE_REPLY:
+			paxosPacket = new PrepareReplyPacket(bbuf);
+			break;
+		case BATCHED_ACCEPT:
+			paxosPacket = new BatchedAccept(bbuf);
+			break;
+		case BATCHED_PAXOS_PACKET:
+			paxosPacket = new BatchedPaxosPacket(bbuf, unstringer);
+			break;
+		case SYNC_DECISIONS_REQUEST:
+			paxosPacket = new SyncDecisionsPacket(bbuf);
+			break;
+		case CHECKPOINT_STATE:
+			paxosPacket = new StatePacket(bbuf);
+			break;
+		case FAILURE_DETECT:
+			assert (unstringer != null);
+			paxosPacket = new FailureDetectionPacket<>(bbuf, unstringer, sndr);
+			break;
+		case FIND_REPLICA_GROUP:
+			paxosPacket = new FindReplicaGroupPacket(bbuf);
+			break;
 
 		default:
-			assert (false);
+			fatal(type);
 		}
 		return paxosPacket;
 	}
@@ -202,25 +275,38 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				0, 4).getInt() : PaxosPacketType.PAXOS_PACKET.getInt();
 	}
 
-	// currently only RequestPacket is byteable
+	// true for all types parsed by toPaxosPacket(ByteBuffer,...)
 	private static boolean isByteable(byte[] bytes) {
-		ByteBuffer bbuf;
-		int type = -1;
-		if ((bbuf = ByteBuffer.wrap(bytes, 0, 8)).getInt() == PaxosPacket.PaxosPacketType.PAXOS_PACKET
-				.getInt()
-				&& ((type = bbuf.getInt()) == PaxosPacket.PaxosPacketType.REQUEST
-						.getInt()
-						|| (type == PaxosPacket.PaxosPacketType.ACCEPT.getInt())
-						|| type == PaxosPacketType.BATCHED_COMMIT.getInt() || type == PaxosPacketType.BATCHED_ACCEPT_REPLY
-						.getInt()))
+		PaxosPacketType type = bytes.length >= 8 ? PaxosPacket.getType(bytes)
+				: null;
+		if (type == null)
+			return false;
+		switch (type) {
+		case REQUEST:
+		case PROPOSAL:
+		case DECISION:
+		case PREEMPTED:
+		case ACCEPT:
+		case BATCHED_COMMIT:
+		case ACCEPT_REPLY:
+		case BATCHED_ACCEPT_REPLY:
+		case PREPARE:
+		case PREPARE_REPLY:
+		case BATCHED_ACCEPT:
+		case BATCHED_PAXOS_PACKET:
+		case SYNC_DECISIONS_REQUEST:
+		case CHECKPOINT_STATE:
+		case FAILURE_DETECT:
+		case FIND_REPLICA_GROUP:
 			return true;
-		assert (type != PaxosPacket.PaxosPacketType.PROPOSAL.getInt());
-		return false;
+		default:
+			return false;
+		}
 	}
 
 	@Override
 	protected Object processHeader(byte[] bytes, NIOHeader header) {
-		return processHeaderUtil(bytes, header);
+		return processHeaderUtil(bytes, header, this.unstringer);
 	}
 
 	/**
@@ -230,6 +316,18 @@ public abstract class PaxosPacketDemultiplexerFast extends
 	 *         header processing.
 	 */
 	public static final Object processHeaderUtil(byte[] bytes, NIOHeader header) {
+		return processHeaderUtil(bytes, header, null);
+	}
+
+	/**
+	 * @param bytes
+	 * @param header
+	 * @param unstringer
+	 * @return Same as {@link #processHeaderUtil(byte[], NIOHeader)} but also
+	 *         able to parse byteified {@link FailureDetectionPacket}.
+	 */
+	public static final Object processHeaderUtil(byte[] bytes,
+			NIOHeader header, Stringifiable<?> unstringer) {
 		if (isByteable(bytes)) {
 			long t = System.nanoTime();
 			if (PaxosPacket.getType(bytes) == PaxosPacketType.REQUEST) {
@@ -270,7 +368,8 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				}
 			}
 			try {
-				PaxosPacket pp = toPaxosPacket(bytes);
+				PaxosPacket pp = toPaxosPacket(ByteBuffer.wrap(bytes),
+						unstringer, header.sndr);
 				if (PaxosMessenger.INSTRUMENT_SERIALIZATION && Util.oneIn(100)) {
 					if (pp.getType() == PaxosPacketType.REQUEST)
 						DelayProfiler.updateDelayNano("<-request", t);
@@ -344,6 +443,17 @@ public abstract class PaxosPacketDemultiplexerFast extends
 				.equals(PaxosPacket.PaxosPacketType.REQUEST));
 	}
 
+	// order is preserved per paxos group
+	@Override
+	protected Object getOrderingKey(Object msg) {
+		if (msg instanceof PaxosPacket)
+			return ((PaxosPacket) msg).getPaxosID();
+		if (msg instanceof net.minidev.json.JSONObject)
+			return ((net.minidev.json.JSONObject) msg)
+					.get(PaxosPacket.Keys.ID.toString());
+		return null;
+	}
+
 	private static net.minidev.json.JSONObject insertStringifiedSelf(
 			net.minidev.json.JSONObject json, String message) {
 		// sigh: we need the string to avoid restringification overhead
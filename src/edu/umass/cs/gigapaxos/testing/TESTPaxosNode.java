@@ -226,6 +226,8 @@ public class TESTPaxosNode {
 			TESTPaxosConfig.setConsoleHandler();
 			NIOTransport.setUseSenderTask(Config
 					.getGlobalBoolean(PC.USE_NIO_SENDER_TASK));
+			NIOTransport.setNumSelectors(Config
+					.getGlobalInt(PC.NIO_NUM_SELECTORS));
 			int myID = processArgs(args);
 			TESTPaxosNode me = new TESTPaxosNode(myID,
 					TESTPaxosConfig.getFromPaxosConfig(), false);
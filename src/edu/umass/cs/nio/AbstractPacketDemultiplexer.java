@@ -92,7 +92,9 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		return threadPoolSize;
 	}
 
-	private final ScheduledThreadPoolExecutor executor;
+	private final PacketDispatcher<MessageType> dispatcher;
+	// created only if delays are emulated
+	private ScheduledThreadPoolExecutor delayEmulator = null;
 	private final HashMap<Integer, PacketDemultiplexer<MessageType>> demuxMap = new HashMap<Integer, PacketDemultiplexer<MessageType>>();
 	private final Set<Integer> orderPreservingTypes = new HashSet<Integer>();
 	protected static final Logger log = NIOTransport.getLogger();
@@ -115,31 +117,45 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 	 *            setThreadPoolsize(int)}.
 	 */
 	public AbstractPacketDemultiplexer(int threadPoolSize) {
-		this.executor = (ScheduledThreadPoolExecutor) Executors
-				.newScheduledThreadPool(threadPoolSize, new ThreadFactory() {
-					@Override
-					public Thread newThread(Runnable r) {
-						Thread thread = Executors.defaultThreadFactory()
-								.newThread(r);
-						thread.setName(threadName);
-						return thread;
-					}
-				});
+		this.dispatcher = new PacketDispatcher<MessageType>(this,
+				threadPoolSize);
 		this.myThreadPoolSize = threadPoolSize;
 	}
 
 	/**
-	 * Sets the number of packet demultiplexing threads.
+	 * Sets the number of packet demultiplexing threads. This has no effect
+	 * once packets have been received.
 	 * 
 	 * @param corePoolSize
 	 * @return {@code this}
 	 */
 	public AbstractPacketDemultiplexer<MessageType> setNumDemultiplexerThreads(
 			int corePoolSize) {
-		this.executor.setCorePoolSize(corePoolSize);
+		if (this.myThreadPoolSize == 0
+				|| !this.dispatcher.setNumWorkers(corePoolSize))
+			log.log(Level.WARNING,
+					"{0} unable to change the number of demultiplexer threads to {1}",
+					new Object[] { this, corePoolSize });
 		return this;
 	}
 
+	private synchronized ScheduledThreadPoolExecutor getDelayEmulator() {
+		if (this.delayEmulator == null)
+			this.delayEmulator = (ScheduledThreadPoolExecutor) Executors
+					.newScheduledThreadPool(Math.max(this.myThreadPoolSize, 1),
+							new ThreadFactory() {
+								@Override
+								public Thread newThread(Runnable r) {
+									Thread thread = Executors
+											.defaultThreadFactory()
+											.newThread(r);
+									thread.setName(threadName);
+									return thread;
+								}
+							});
+		return this.delayEmulator;
+	}
+
 	/**
 	 * 
 	 */
@@ -170,18 +186,20 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 			return false;
 		}
 		Integer type = message != null ? getPacketType(message) : null;
-		log.log(level,
-				"{0} handling type {1} message {2}:{3}",
-				new Object[] {
-						this,
-						type,
-						header,
-						log.isLoggable(level) ? (message instanceof Summarizable ? ((Summarizable) message)
-								.getSummary(log.isLoggable(level)) : Util
-								.truncate(new Stringer(msg), 32, 32))
-								: msg });
-
-		if (type == null || !this.demuxMap.containsKey(type)) {
+		// avoid per-message log argument allocation
+		if (log.isLoggable(level))
+			log.log(level, "{0} handling type {1} message {2}:{3}",
+					new Object[] {
+							this,
+							type,
+							header,
+							message instanceof Summarizable ? ((Summarizable) message)
+									.getSummary(log.isLoggable(level)) : Util
+									.truncate(new Stringer(msg), 32, 32) });
+
+		PacketDemultiplexer<MessageType> pd = type != null ? this.demuxMap
+				.get(type) : null;
+		if (pd == null) {
 			/* It is natural for some demultiplexers to not handle some packet
 			 * types, so it is not a "bad" thing that requires a warning log. */
 			log.log(level,
@@ -197,37 +215,45 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 													32, 32))) });
 			return false;
 		}
-		Tasker tasker = new Tasker(message, this.demuxMap.get(type), header);
-		if (this.myThreadPoolSize == 0 || isOrderPreserving(message)) {
+		if (this.myThreadPoolSize == 0) {
 			log.log(Level.FINER,
 					"{0} handling message type {1} in selector thread; this can cause "
 							+ "deadlocks if the handler involves blocking operations",
 					new Object[] { this, type });
 			// task better be lightning quick
-			tasker.run();
-		} else
+			this.handle(message, pd, header);
+			return true;
+		}
+		if (log.isLoggable(level = Level.FINER))
+			log.log(level, "{0} invoking {1}.handleMessage({2})",
+					new Object[] {
+							this,
+							pd,
+							(message instanceof Summarizable ? ((Summarizable) message)
+									.getSummary(log.isLoggable(level)) : Util
+									.truncate(message, 32, 32)) });
+		if (this.isOrderPreserving(message)) {
+			/* Messages of the same key are handled by the same worker in
+			 * arrival order. Without a key, this serves as the key so that
+			 * all order preserving messages are handled in arrival order. */
+			Object key = this.getOrderingKey(message);
+			return this.dispatcher.dispatch(key != null ? key : this,
+					message, pd, header);
+		}
+		if (emulateDelays)
 			try {
-				log.log(level = Level.FINER,
-						"{0} invoking {1}.handleMessage({2})",
-						new Object[] {
-								this,
-								tasker.pd,
-								(message instanceof Summarizable ? ((Summarizable) message)
-										.getSummary(log.isLoggable(level))
-										: Util.truncate(message, 32, 32)) });
-				// task should still be non-blocking
-				executor.schedule(tasker,
-						emulateDelays ? JSONDelayEmulator.getEmulatedDelay()
-								: 0, TimeUnit.MILLISECONDS);
+				this.getDelayEmulator().schedule(
+						new Tasker(message, pd, header),
+						JSONDelayEmulator.getEmulatedDelay(),
+						TimeUnit.MILLISECONDS);
+				return true;
 			} catch (RejectedExecutionException ree) {
-				if (!executor.isShutdown())
+				if (!this.delayEmulator.isShutdown())
 					ree.printStackTrace();
 				return false;
 			}
-		/* Note: executor.submit() consistently yields poorer performance than
-		 * scheduling at 0 as above even though they are equivalent. Probably
-		 * garbage collection or heap optimization issues. */
-		return true;
+		// task should still be non-blocking
+		return this.dispatcher.dispatch(null, message, pd, header);
 	}
 
 	/**
@@ -257,6 +283,21 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		return false;
 	}
 
+	/**
+	 * Order preserving messages with equal keys are handled in arrival order
+	 * by the same demultiplexer thread while those with different keys may be
+	 * handled in parallel. A null key preserves order with respect to all
+	 * other order preserving messages with a null key.
+	 * 
+	 * @param msg
+	 * @return Key, e.g., a paxos group name, within which order is preserved
+	 *         for messages for which {@link #isOrderPreserving(Object)} is
+	 *         true.
+	 */
+	protected Object getOrderingKey(MessageType msg) {
+		return null;
+	}
+
 	/**
 	 * Registers {@code type} with {@code this}.
 	 * 
@@ -352,7 +393,36 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 	 * must be cleanly closed by invoking this stop method.
 	 */
 	public void stop() {
-		this.executor.shutdown();
+		this.dispatcher.stop();
+		synchronized (this) {
+			if (this.delayEmulator != null)
+				this.delayEmulator.shutdown();
+		}
+	}
+
+	// for testing
+	PacketDispatcher<MessageType> getDispatcher() {
+		return this.dispatcher;
+	}
+
+	// finally called for all received messages
+	void handle(MessageType message, PacketDemultiplexer<MessageType> pd,
+			NIOHeader header) {
+		long t = 0;
+		try {
+			if (NIOInstrumenter.monitorHandleMessageEnabled())
+				t = insert(message);
+			pd.handleMessage(message, header);
+		} catch (RejectedExecutionException ree) {
+			ree.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace(); // unless printed task will die silently
+		} catch (Error e) {
+			e.printStackTrace();
+		} finally {
+			if (NIOInstrumenter.monitorHandleMessageEnabled())
+				release(t);
+		}
 	}
 
 	// helper task for handleMessageSuper
@@ -370,22 +440,8 @@ public abstract class AbstractPacketDemultiplexer<MessageType> implements
 		}
 
 		public void run() {
-			long t = 0;
-			try {
-				if (NIOInstrumenter.monitorHandleMessageEnabled())
-					t = insert(this.json);
-				pd.handleMessage(this.json, header);
-			} catch (RejectedExecutionException ree) {
-				if (!executor.isShutdown())
-					ree.printStackTrace();
-			} catch (Exception e) {
-				e.printStackTrace(); // unless printed task will die silently
-			} catch (Error e) {
-				e.printStackTrace();
-			} finally {
-				if (NIOInstrumenter.monitorHandleMessageEnabled())
-					release(t);
-			}
+			AbstractPacketDemultiplexer.this.handle(this.json, this.pd,
+					this.header);
 		}
 	}
 
@@ -157,7 +157,7 @@ public class JSONMessenger<NodeIDType> implements
 			try {
 				if (msg instanceof JSONObject) {
 					message = ((JSONObject) (msg)).toString();
-				} else if (!(msg instanceof byte[] && msg instanceof Byteable))
+				} else if (!(msg instanceof byte[] || msg instanceof Byteable))
 					// we no longer require msg to be JSON at all
 					message = msg.toString();
 			} catch (Exception je) {
@@ -58,7 +58,8 @@ public class MessageExtractor implements InterfaceMessageExtractor {
 	 */
 	public static final String STRINGIFIED = "_STRINGIFIED_";
 
-	private ArrayList<AbstractPacketDemultiplexer<?>> packetDemuxes;
+	// copy-on-write, read without locking by all selector threads
+	private volatile ArrayList<AbstractPacketDemultiplexer<?>> packetDemuxes;
 	private final ScheduledExecutorService executor = Executors
 			.newScheduledThreadPool(1); // only for delay emulation
 
@@ -31,17 +31,19 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +55,7 @@ import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
 import edu.umass.cs.nio.interfaces.DataProcessingWorker;
 import edu.umass.cs.nio.interfaces.HandshakeCallback;
 import edu.umass.cs.nio.interfaces.NodeConfig;
+import edu.umass.cs.nio.nioutils.ByteBufferPool;
 import edu.umass.cs.nio.nioutils.DataProcessingWorkerDefault;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.nio.nioutils.RTTEstimator;
@@ -99,6 +102,16 @@ import javax.net.ssl.SSLException;
  *            pendingWrites and sets selection ops to wait for write-ready
  *            events accordingly.
  * 
+ *            Optionally, the selector work can be spread across multiple
+ *            selector threads (refer {@link #setNumSelectors(int)}). Each
+ *            selector thread owns a disjoint shard of socket channels
+ *            determined by the remote socket address and has its own write
+ *            buffer, pending sends, pending connects, and read buffers. The
+ *            first selector thread also accepts connections and hands off
+ *            each accepted channel to the selector thread owning its remote
+ *            address. As a channel is always serviced by the same selector
+ *            thread, per-connection FIFO ordering is unchanged.
+ * 
  *            To enable non-blocking connects, the application threads queue
  *            connect events in the synchronized structure pendingConnects. The
  *            selector thread reads from pendingConnects and sets selection ops
@@ -172,6 +185,30 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	private static int instanceCount = 0;
 
+	/**
+	 * Default number of selector threads.
+	 */
+	public static final int DEFAULT_NUM_SELECTORS = 1;
+	private static int numSelectors = DEFAULT_NUM_SELECTORS;
+
+	/**
+	 * Sets the number of selector threads used by NIOTransport instances
+	 * created subsequently. Connections are sharded across selector threads
+	 * by remote socket address.
+	 * 
+	 * @param n
+	 */
+	public static final void setNumSelectors(int n) {
+		numSelectors = Math.max(1, n);
+	}
+
+	/**
+	 * @return Number of selector threads for new NIOTransport instances.
+	 */
+	public static final int getNumSelectors() {
+		return numSelectors;
+	}
+
 	/**
 	 * Usually an id that corresponds to a socket address as specified in
 	 * NodeConfig. Note that myID can also <code>null</code> be which means
@@ -186,28 +223,19 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	// Maps id to socket address
 	protected final NodeConfig<NodeIDType> nodeConfig;
 
-	// selector we'll be monitoring
-	private final Selector selector;
-
-	private final ByteBuffer writeBuffer = ByteBuffer
-			.allocateDirect(WRITE_BUFFER_SIZE);
+	/* Selector threads with the first one being run by this NIOTransport's
+	 * own thread and owning the server channel. */
+	private final SelectorShard[] shards;
 
 	// The channel on which we'll accept connections
 	private ServerSocketChannel serverChannel;
 
-	// List of pending connects on which finishConnect needs to be called.
-	private final LinkedList<ChangeRequest> pendingConnects = new LinkedList<ChangeRequest>();
-
-	/* The key is a socket address and the value is a list of messages to be
-	 * sent to that socket address. */
-	private final ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>> sendQueues = new ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>>();
-
 	/* Maps a socket address to a socket channel. The latter may change in case
 	 * a connection breaks and a new one needs to be initiated. */
-	private final HashMap<InetSocketAddress, SocketChannel> sockAddrToSockChannel = new HashMap<InetSocketAddress, SocketChannel>();
+	private final ConcurrentHashMap<InetSocketAddress, SocketChannel> sockAddrToSockChannel = new ConcurrentHashMap<InetSocketAddress, SocketChannel>();
 
-	/* Map to optimize connection attempts by the selector thread. */
-	private final HashMap<InetSocketAddress, Long> connAttempts = new HashMap<InetSocketAddress, Long>();
+	/* Map to optimize connection attempts by the selector threads. */
+	private final ConcurrentHashMap<InetSocketAddress, Long> connAttempts = new ConcurrentHashMap<InetSocketAddress, Long>();
 
 	private final ConcurrentHashMap<NodeIDType, Long> lastFailed = new ConcurrentHashMap<NodeIDType, Long>();
 
@@ -245,6 +273,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	}
 
 	// private constructor must remain private
+	@SuppressWarnings("unchecked")
 	private NIOTransport(NodeIDType id, NodeConfig<NodeIDType> nc,
 			InetSocketAddress mySockAddr, DataProcessingWorker worker,
 			boolean start, SSLDataProcessingWorker.SSL_MODES sslMode)
@@ -253,7 +282,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		// null node config means no ID-based communication possible
 		this.nodeConfig = nc;
 		this.worker = this.getWorker(worker, sslMode);
-		this.selector = this.initSelector(mySockAddr);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		SelectorShard[] shards = new NIOTransport.SelectorShard[numSelectors];
+		this.shards = shards;
+		this.shards[0] = new SelectorShard(0, this.initSelector(mySockAddr));
+		for (int i = 1; i < this.shards.length; i++)
+			this.shards[i] = new SelectorShard(i, Selector.open());
 		this.listeningSocketAddress = (InetSocketAddress) this.serverChannel
 				.getLocalAddress();
 		this.listeningAddress = this.listeningSocketAddress.getAddress();
@@ -263,6 +297,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				+ (myID != null ? myID : "[]"));
 		me.start();
 		this.meThreadId = me.getId();
+		for (int i = 1; i < this.shards.length; i++)
+			this.shards[i].start(me.getName());
 
 		synchronized(NIOTransport.class) {
 			instanceCount++;
@@ -283,6 +319,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 */
 	public NIOTransport<NodeIDType> setName(String name) {
 		this.me.setName(name);
+		for (int i = 1; i < this.shards.length; i++)
+			this.shards[i].thread.setName(name + ":" + i);
 		return this;
 	}
 
@@ -441,9 +479,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					+ MAX_PAYLOAD_SIZE);
 		testAndIntiateConnection(isa);
 		// we put length header in *all* messages
-		ByteBuffer bbuf = getHeaderedByteBuffer(data = this.deflate(data));
-		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, bbuf)
-				: 0;
+		ByteBuffer header = getHeader((data = this.deflate(data)).length);
+		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, header,
+				ByteBuffer.wrap(data)) : 0;
 		if(written > 0)
 			NIOInstrumenter.incrSent();
 		return written > 0 ? written - HEADER_SIZE : written;
@@ -482,19 +520,34 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		testAndIntiateConnection(isa);
 		ByteBuffer bbuf = ByteBuffer.allocate((HEADER_SIZE + data.length)
 				* batchSize);
+		NIOInstrumenter.incrBytesAllocated(bbuf.capacity());
 		for (int i = 0; i < batchSize; i++)
 			putHeaderLength(bbuf, data.length).put(data);
 		bbuf.flip();
-		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, bbuf)
-				: 0;
+		int written = this.canEnqueueSend(isa) ? this.enqueueSend(isa, null,
+				bbuf) : 0;
 		return written > 0 ? written - batchSize * HEADER_SIZE : written;
 	}
 
-	private static ByteBuffer getHeaderedByteBuffer(byte[] data) {
-		ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE + data.length);
-		putHeaderLength(bbuf, data.length).put(data);
-		assert (!bbuf.hasRemaining() && bbuf.capacity() == (HEADER_SIZE + data.length));
-		bbuf.flip();
+	/* The header is written separately from the payload using a gathering
+	 * write, so the payload is copied only if it has to be queued. */
+	private static ByteBuffer getHeader(int length) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		NIOInstrumenter.incrBytesAllocated(HEADER_SIZE);
+		putHeaderLength(header, length).flip();
+		return header;
+	}
+
+	/* Copies the unsent remainder of a message into a pooled buffer that is
+	 * released once it has been fully written. A null header means that
+	 * payload is already a privately owned headered buffer that can be queued
+	 * as is. */
+	private static ByteBuffer getQueueable(ByteBuffer header, ByteBuffer payload) {
+		if (header == null)
+			return payload;
+		ByteBuffer bbuf = bufferPool.acquire(header.remaining()
+				+ payload.remaining());
+		bbuf.put(header).put(payload).flip();
 		return bbuf;
 	}
 
@@ -533,37 +586,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (this.started)
 			return;
 		this.started = true;
-		while (!isStopped()) {
-			try {
-				/* Set ops to WRITE for pending write requests. We don't need to
-				 * do this every select iteration, just once in a few
-				 * iterations. We need to do it at all so that the selector
-				 * thread can retry connecting to not-yet-connected destinations
-				 * with pending writes. */
-				registerWriteInterests();
-				// set ops to CONNECT for pending connect requests.
-				processPendingConnects();
-				// wait for an event one of the registered channels.
-				this.selector.select(SELECT_TIMEOUT);
-				// accept, connect, read, or write as needed.
-				processSelectedKeys();
-				// process data from pending buffers on congested channels
-				this.tryProcessCongested();
-
-				if (IS_IOS) {
-					tryIOSWrite();
-				}
-			} catch (Exception e) {
-				/* Can do little else here. Hopefully, the exceptions inside the
-				 * individual methods above have already been contained. */
-				log.severe(this + " incurred IOException " + e.getMessage());
-				e.printStackTrace();
-			}
-		}
+		while (!isStopped())
+			this.selectOnce(this.shards[0]);
 		try {
 			if (this.senderTask != null)
 				this.senderTask.close();
-			this.selector.close();
+			this.shards[0].selector.close();
 			this.serverChannel.close();
 
 			if (this.worker instanceof SSLDataProcessingWorker) {
@@ -576,9 +604,38 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
-	private void tryIOSWrite() throws IOException {
+	// Invoked only by selector threads.
+	private void selectOnce(SelectorShard shard) {
+		try {
+			/* Set ops to WRITE for pending write requests. We don't need to do
+			 * this every select iteration, just once in a few iterations. We
+			 * need to do it at all so that the selector thread can retry
+			 * connecting to not-yet-connected destinations with pending
+			 * writes. */
+			registerWriteInterests(shard);
+			// set ops to CONNECT for pending connect requests.
+			processPendingConnects(shard);
+			// wait for an event one of the registered channels.
+			shard.selector.select(SELECT_TIMEOUT);
+			// accept, connect, read, or write as needed.
+			processSelectedKeys(shard);
+			// process data from pending buffers on congested channels
+			this.tryProcessCongested(shard);
+
+			if (IS_IOS) {
+				tryIOSWrite(shard);
+			}
+		} catch (Exception e) {
+			/* Can do little else here. Hopefully, the exceptions inside the
+			 * individual methods above have already been contained. */
+			log.severe(this + " incurred IOException " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	private void tryIOSWrite(SelectorShard shard) throws IOException {
 		Collection<SelectionKey> keys =
-				(this.selector.keys());
+				(shard.selector.keys());
 		Iterator<SelectionKey> keysItr = keys.iterator();
 		while (keysItr.hasNext()) {
 			SelectionKey key = keysItr.next();
@@ -599,7 +656,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		this.stopped = true;
 		if (this.senderTask != null)
 			this.senderTask.close();
-		this.selector.wakeup();
+		for (SelectorShard shard : this.shards)
+			shard.selector.wakeup();
 	}
 
 	/**
@@ -640,11 +698,11 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		return node != null ? this.lastFailed.containsKey(node) : false;
 	}
 
-	// Invoked only by the selector thread. Typical nio event handling code.
-	private void processSelectedKeys() {
+	// Invoked only by selector threads. Typical nio event handling code.
+	private void processSelectedKeys(SelectorShard shard) {
 		// Iterate over the set of keys for which events are available
 		Collection<SelectionKey> selected = // new ArrayList<SelectionKey>
-		(this.selector.selectedKeys());
+		(shard.selector.selectedKeys());
 		Iterator<SelectionKey> selectedKeys = selected.iterator();
 		//Collections.shuffle(selected); // to mix in reads and writes
 
@@ -682,7 +740,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				cleanupSSL(key);
 			}
 		}
-		this.selector.selectedKeys().clear();
+		shard.selector.selectedKeys().clear();
 	}
 
 	private void updateFailed(SelectionKey key) {
@@ -743,6 +801,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		SocketChannel socketChannel = serverSocketChannel.accept();
 		if (socketChannel == null)
 			return;
+		InetSocketAddress remote = (InetSocketAddress) socketChannel
+				.getRemoteAddress();
 		log.log(Level.FINE, "{0} accepted connection from {1}", new Object[] {
 				this, socketChannel.getRemoteAddress() });
 		NIOInstrumenter.incrAccepted();
@@ -754,13 +814,26 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 		this.updateAlive(socketChannel);
 		// record RTT if available
-		RTTEstimator.record(((InetSocketAddress) socketChannel
-				.getRemoteAddress()).getAddress());
+		RTTEstimator.record(remote.getAddress());
+
+		/* A selector thread can not register a channel with another selector
+		 * thread's selector without blocking, so the accepted channel is
+		 * handed off to the selector thread owning its remote address. */
+		SelectorShard shard = this.getShard(remote);
+		if (shard.selector != key.selector()) {
+			if (DUPLEX_CONNECTIONS)
+				this.putSockAddrToSockChannel(remote, socketChannel);
+			this.addPendingChange(shard, new ChangeRequest(socketChannel,
+					ChangeRequest.ACCEPT, SelectionKey.OP_READ
+							| (DUPLEX_CONNECTIONS && !isSSL() ? SelectionKey.OP_WRITE
+									: 0)));
+			return;
+		}
 
 		/* Register the new SocketChannel with our Selector, indicating we'd
 		 * like to be notified when there's data waiting to be read. We could
 		 * have also use key.selector() below. */
-		SelectionKey socketChannelKey = socketChannel.register(this.selector,
+		SelectionKey socketChannelKey = socketChannel.register(shard.selector,
 				SelectionKey.OP_READ);
 
 		// Try to reuse accepted connection for sending data
@@ -821,18 +894,29 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
-	private final ConcurrentHashMap<SelectionKey, ByteBuffer> readBuffers = new ConcurrentHashMap<SelectionKey, ByteBuffer>();
+	/* Upper bound on the total size of free buffers of each size class in
+	 * bufferPool. */
+	private static final int POOLED_BYTES_PER_SIZE_CLASS = 4 * 1024 * 1024;
 
-	private final ConcurrentHashMap<SelectionKey, AlternatingByteBuffer> congested = new ConcurrentHashMap<SelectionKey, AlternatingByteBuffer>();
+	/* Pool for queued sends and received message bodies. Heap buffers as the
+	 * receive path needs array() and all writes go through the direct
+	 * writeBuffer anyway. */
+	private static final ByteBufferPool bufferPool = new ByteBufferPool(false,
+			MAX_PAYLOAD_SIZE + HEADER_SIZE, POOLED_BYTES_PER_SIZE_CLASS);
 
 	private void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
+		SelectorShard shard = this.getShard(key);
 
-		// if SSL, simply pass any bytes to SSL worker
+		/* If SSL, simply pass any bytes to SSL worker. With multiple
+		 * selectors, the worker is invoked concurrently for different
+		 * channels, which is safe as its channel map is concurrent and all
+		 * per-channel SSL state is accessed under the monitor of that
+		 * channel's AbstractNIOSSL. */
 		if (isSSL() && !IS_IOS) {
-			this.readBuffers.putIfAbsent(key,
+			shard.readBuffers.putIfAbsent(key,
 					ByteBuffer.allocate(READ_BUFFER_SIZE));
-			ByteBuffer bbuf = this.readBuffers.get(key); // this.readBuffer;
+			ByteBuffer bbuf = shard.readBuffers.get(key); // this.readBuffer;
 			int numRead = socketChannel.read(bbuf);
 
 			// socket closed by remote end
@@ -884,8 +968,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				throw new IOException(myID + ":" + ioe.getMessage()
 						+ " on channel " + socketChannel);
 			}
-			// allocate new buffer and read payload
-			bbuf = (abbuf.bodyBuf = ByteBuffer.allocate(length));
+			// get pooled buffer and read payload
+			bbuf = (abbuf.bodyBuf = bufferPool.acquire(length));
 			socketChannel.read(bbuf);
 		}
 
@@ -904,14 +988,18 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			// clear header to prepare to read the next message
 			if (!bbuf.hasRemaining()) {
 				abbuf.clear();
-				this.congested.remove(key);
+				// worker must have copied out whatever it needs
+				bufferPool.release(bbuf);
+				shard.congested.remove(key);
 			}
 			// else worker has not finished reading
 			else {
 				bbuf.compact();
+				// compact sets the limit to the pooled buffer's capacity
+				bbuf.limit(bbuf.position());
 				assert (!bbuf.hasRemaining()); // all or nothing processing
 				// check later to prevent the last one from hanging
-				congested.putIfAbsent(key, abbuf);
+				shard.congested.putIfAbsent(key, abbuf);
 			}
 		}
 
@@ -921,9 +1009,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		 * notwithstanding. */
 	}
 
-	private void tryProcessCongested() throws IOException {
-		if (!this.congested.isEmpty())
-			for (Iterator<SelectionKey> keyIter = this.congested.keySet()
+	private void tryProcessCongested(SelectorShard shard) throws IOException {
+		if (!shard.congested.isEmpty())
+			for (Iterator<SelectionKey> keyIter = shard.congested.keySet()
 					.iterator(); keyIter.hasNext();) {
 				SelectionKey key = keyIter.next();
 				if (key.isValid())
@@ -972,9 +1060,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			return bbuf;
 
 		Inflater inflator = new Inflater();
-		inflator.setInput(bbuf.array(), 0, bbuf.capacity());
-		byte[] decompressed = new byte[bbuf.capacity()];
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(bbuf.capacity());
+		inflator.setInput(bbuf.array(), bbuf.arrayOffset() + bbuf.position(),
+				bbuf.remaining());
+		byte[] decompressed = new byte[bbuf.remaining()];
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(bbuf.remaining());
 		try {
 			while (!inflator.finished()) {
 				int count = inflator.inflate(decompressed);
@@ -986,7 +1075,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			inflator.end();
 		} catch (DataFormatException e) {
 			// possible for exception to be legitimate even if below threshold
-			if (bbuf.capacity() > getCompressionThreshold()) {
+			if (bbuf.remaining() > getCompressionThreshold()) {
 				log.severe(this + " incurred DataFormatException ");
 				e.printStackTrace();
 			}
@@ -1009,9 +1098,11 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				//cleanup(key, socketChannel);
 				cleanupSSL(key);
 			} else {
-				// If all data written successfully, switch back to read mode.
+				/* If all data written successfully or a producer holds the
+				 * queue, switch back to read mode. */
 				if (this.writeAllPendingWrites(isa, socketChannel)) {
 					key.interestOps(SelectionKey.OP_READ);
+					this.recheckWriteInterest(isa, key);
 				}
 			}
 		} catch (IOException e) {
@@ -1025,13 +1116,20 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	private void clearPending(SocketChannel socketChannel) {
 		InetSocketAddress sockAddr = this
 				.getSockAddrFromSockChannel(socketChannel);
+		if (sockAddr == null)
+			return;
 		/* Invariant: if there is data buffered to a destination, we must have a
-		 * socket channel for it. */
-		synchronized (this.sendQueues) {
-			this.sendQueues.remove(sockAddr);
-			synchronized (this.sockAddrToSockChannel) {
-				this.sockAddrToSockChannel.remove(sockAddr);
-			}
+		 * socket channel for it. A producer that races with the removal below
+		 * either finds the queue retired and uses a new one or gets its message
+		 * dropped along with the rest of the queue. */
+		SendQueue sendQueue = this.getShard(sockAddr).sendQueues
+				.remove(sockAddr);
+		if (sendQueue != null) {
+			sendQueue.retired = true;
+			sendQueue.writeInterestPending.set(false);
+		}
+		synchronized (this.sockAddrToSockChannel) {
+			this.sockAddrToSockChannel.remove(sockAddr);
 		}
 	}
 
@@ -1103,7 +1201,102 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
-	/* Start of methods synchronizing on pendingWrites. */
+	/* Start of methods using send queues. */
+
+	/* Per-destination queue of pending sends. Application threads never lock
+	 * a send queue. They append to its tail while counted in producers, so
+	 * that the selector thread can retire idle, empty queues without losing a
+	 * concurrent append. The head of the queue is owned by whoever holds the
+	 * writing flag, i.e., either the selector thread (or sender task) or an
+	 * application thread attempting a sneaky write, so at most one thread
+	 * writes to the channel or removes from the queue at a time. */
+	private static final class SendQueue {
+		final ConcurrentLinkedDeque<ByteBuffer> queue = new ConcurrentLinkedDeque<ByteBuffer>();
+		// maintained separately as ConcurrentLinkedDeque.size() is O(n)
+		final AtomicInteger size = new AtomicInteger(0);
+		final AtomicInteger producers = new AtomicInteger(0);
+		final AtomicBoolean writing = new AtomicBoolean(false);
+		/* Set by the producer that requests OP_WRITE and cleared by the
+		 * selector thread after it drains the queue, so that only one producer
+		 * per drain needs to wake up the selector. */
+		final AtomicBoolean writeInterestPending = new AtomicBoolean(false);
+		volatile boolean retired = false;
+
+		boolean isEmpty() {
+			return this.queue.isEmpty();
+		}
+
+		int size() {
+			return this.size.get();
+		}
+
+		void add(ByteBuffer buf) {
+			this.queue.addLast(buf);
+			this.size.incrementAndGet();
+		}
+
+		// only by the writer
+		void addFirst(ByteBuffer buf) {
+			this.queue.addFirst(buf);
+			this.size.incrementAndGet();
+		}
+
+		ByteBuffer peek() {
+			return this.queue.peekFirst();
+		}
+
+		// only by the writer
+		ByteBuffer remove() {
+			ByteBuffer buf = this.queue.pollFirst();
+			if (buf != null)
+				this.size.decrementAndGet();
+			return buf;
+		}
+
+		boolean tryWrite() {
+			return this.writing.compareAndSet(false, true);
+		}
+
+		void doneWriting() {
+			this.writing.set(false);
+		}
+	}
+
+	/* Returns the send queue for isa with the caller counted as a producer.
+	 * The caller must decrement producers when done. */
+	private SendQueue enterSendQueue(InetSocketAddress isa) {
+		ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = this
+				.getShard(isa).sendQueues;
+		while (true) {
+			SendQueue sendQueue = sendQueues.get(isa), created = null;
+			if (sendQueue == null
+					&& (sendQueue = sendQueues.putIfAbsent(isa,
+							created = new SendQueue())) == null)
+				sendQueue = created;
+			sendQueue.producers.incrementAndGet();
+			if (!sendQueue.retired)
+				return sendQueue;
+			// being retired, so retry with its replacement
+			sendQueue.producers.decrementAndGet();
+			Thread.yield();
+		}
+	}
+
+	/* Invoked only by the selector thread. Retires an empty send queue unless
+	 * a producer is concurrently appending to it. The volatile retired write
+	 * followed by the producers read here and the producers increment followed
+	 * by the retired read in enterSendQueue ensure that either the producer
+	 * backs off or the queue is not retired. */
+	private static void retireIfEmpty(
+			ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues,
+			InetSocketAddress isa, SendQueue sendQueue) {
+		sendQueue.retired = true;
+		if (sendQueue.producers.get() == 0 && sendQueue.isEmpty()) {
+			sendQueues.remove(isa, sendQueue);
+			sendQueue.writeInterestPending.set(false);
+		} else
+			sendQueue.retired = false;
+	}
 
 	/* Invoked only by the selector thread. Writes to socket channel and
 	 * de-queues writes. If an exception occurs, it lets the bytes remain in the
@@ -1112,27 +1305,49 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * result in some missing data. */
 	private boolean writeAllPendingWrites(InetSocketAddress isa,
 			SocketChannel socketChannel) throws IOException {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+		SelectorShard shard = this.getShard(isa);
+		SendQueue sendQueue = shard.sendQueues.get(isa);
 		// possible if queuePendingWrite has not yet happened after connect
 		if (sendQueue == null)
 			return true;
+		/* A producer is sneakily writing, so the caller clears OP_WRITE
+		 * instead of spinning on it and the producer re-arms it upon
+		 * doneWriting if anything is left in the queue. */
+		if (!sendQueue.tryWrite())
+			return true;
 
-		if (SEND_BATCHED)
-			this.sendBatched(sendQueue, socketChannel);
-		else
-			this.sendUnbatched(sendQueue, socketChannel);
-
-		if (sendQueue.isEmpty()) // check before locking
-			this.dequeueSendQueueIfEmpty(isa, sendQueue);
+		try {
+			if (SEND_BATCHED)
+				this.sendBatched(shard.writeBuffer, sendQueue, socketChannel);
+			else
+				this.sendUnbatched(sendQueue, socketChannel);
+		} finally {
+			sendQueue.doneWriting();
+		}
 
 		// caller will switch back to read mode if empty
 		return (sendQueue.isEmpty());
 	}
 
+	/* Clears the pending write interest only after the caller has switched to
+	 * read mode and then checks the queue again, so that a concurrent enqueue
+	 * either finds the flag cleared and sets OP_WRITE itself or is noticed
+	 * here. A producer holding the writing flag checks the queue after
+	 * releasing it, so it is left to re-arm OP_WRITE in that case. */
+	private void recheckWriteInterest(InetSocketAddress isa, SelectionKey key) {
+		SendQueue sendQueue = this.getShard(isa).sendQueues.get(isa);
+		if (sendQueue == null)
+			return;
+		sendQueue.writeInterestPending.set(false);
+		if (!sendQueue.writing.get() && !sendQueue.isEmpty()
+				&& sendQueue.writeInterestPending.compareAndSet(false, true))
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
 	private static boolean SEND_BATCHED = true; // default true
 
 	// dequeue and send one message at a time
-	private void sendUnbatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
+	private void sendUnbatched(SendQueue sendQueue,
 			SocketChannel socketChannel) throws IOException {
 		while (!sendQueue.isEmpty()) {
 			ByteBuffer buf0 = (ByteBuffer) sendQueue.peek();
@@ -1151,16 +1366,16 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				break;
 			}
 			assert (buf0.remaining() == 0);
-			sendQueue.remove(); // remove buf0
+			bufferPool.release(sendQueue.remove()); // remove buf0
 		}
 	}
 
 	// use a large bytebuffer to batch and send
-	private void sendBatched(LinkedBlockingQueue<ByteBuffer> sendQueue,
+	private void sendBatched(ByteBuffer writeBuffer, SendQueue sendQueue,
 			SocketChannel socketChannel) throws IOException {
 		// copy as much as possible into writeBuffer
-		this.writeBuffer.clear();
-		for (ByteBuffer buf : sendQueue) {
+		writeBuffer.clear();
+		for (ByteBuffer buf : sendQueue.queue) {
 			if (writeBuffer.remaining() < buf.remaining())
 				// cut out exactly as much as writeBuffer can accommodate
 				buf = (ByteBuffer) buf.slice().limit(writeBuffer.remaining());
@@ -1173,8 +1388,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 
 		// flip and send out
-		this.writeBuffer.flip();
-		int written = this.wrapWrite(socketChannel, this.writeBuffer);
+		writeBuffer.flip();
+		int written = this.wrapWrite(socketChannel, writeBuffer);
 		NIOInstrumenter.incrBytesSent(written);
 		// assert(this.writeBuffer.remaining()==0);
 		log.log(Level.FINEST, "{0} wrote {1} batched bytes to {2}",
@@ -1191,16 +1406,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			}
 			// remove buf coz it got fully sent
 			written -= buf.remaining();
-			sendQueue.remove();
-		}
-	}
-
-	private void dequeueSendQueueIfEmpty(InetSocketAddress isa,
-			LinkedBlockingQueue<ByteBuffer> sendQueue) {
-		synchronized (this.sendQueues) {
-			// synchronized queue -> pendingWrites
-			if (sendQueue.isEmpty())
-				this.sendQueues.remove(isa, sendQueue);
+			bufferPool.release(sendQueue.remove());
 		}
 	}
 
@@ -1245,6 +1451,19 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			return socketChannel.write(unencrypted);
 	}
 
+	/* Gathering write of header and payload without concatenating them. Only
+	 * used for sneaky writes that are disabled with SSL. */
+	private long gatherWrite(SocketChannel socketChannel, ByteBuffer header,
+			ByteBuffer payload) throws IOException {
+		assert (!this.isSSL());
+		Level level = Level.FINEST;
+		if (log.isLoggable(level))
+			log.log(level, "{0}[t{1}] sneakily gathering write to channel {2}",
+					new Object[] { this, Thread.currentThread().getId(),
+							socketChannel });
+		return socketChannel.write(new ByteBuffer[] { header, payload });
+	}
+
 	private boolean isSSL() {
 		return (this.worker instanceof SSLDataProcessingWorker
 				|| this.worker instanceof  IOSSSLDataProcessingWorker) ? true : false;
@@ -1272,7 +1491,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (!isComplete) {
 			/* Deregister write interest, but keep read interest coz we need it
 			 * for the handshake itself to complete. */
-			SelectionKey key = socketChannel.keyFor(this.selector);
+			SelectionKey key = this.keyFor(socketChannel);
 			if (key != null && key.isValid())
 				key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
 		}
@@ -1290,50 +1509,69 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
-	// for application threads to queue sends for selector thread
-	private int enqueueSend(InetSocketAddress isa, ByteBuffer data)
-			throws IOException {
+	/* For application threads to queue sends for selector thread. The message
+	 * is header followed by payload unless header is null, in which case
+	 * payload must be a headered buffer that is not referenced elsewhere. */
+	private int enqueueSend(InetSocketAddress isa, ByteBuffer header,
+			ByteBuffer payload) throws IOException {
 
+		int length = (header != null ? header.remaining() : 0)
+				+ payload.remaining();
 		int queuedBytes = 0;
-		// lock because selector thread may remove sendQueue from sendQueues
-		synchronized (this.sendQueues) {
-			if (!this.sendQueues.containsKey(isa))
-				this.sendQueues.putIfAbsent(isa,
-						new LinkedBlockingQueue<ByteBuffer>());
-			LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues
-					.get(isa);
-			if (sendQueue.isEmpty() && (trySneakyWrite(isa, data))
-					&& data.remaining() == 0)
-				return data.capacity();
-
-			if (sendQueue.size() < getMaxQueuedSends()) {
-				sendQueue.add(data);
-				queuedBytes = data.capacity();
+		boolean sneaky = false, held = false;
+		SendQueue sendQueue = this.enterSendQueue(isa);
+		try {
+			// sneak only if nothing is queued and no one else is writing
+			if (sendQueue.isEmpty() && (held = sendQueue.tryWrite()))
+				try {
+					if (sendQueue.isEmpty()
+							&& (sneaky = trySneakyWrite(isa, header, payload))) {
+						if (payload.remaining() == 0)
+							return length;
+						/* The unsent remainder must precede anything other
+						 * producers queued meanwhile. */
+						sendQueue.addFirst(getQueueable(header, payload));
+						queuedBytes = length;
+					}
+				} finally {
+					sendQueue.doneWriting();
+				}
 
-			} else {
-				log.log(Level.WARNING,
-						"{0} message queue for {1} out of room, dropping message",
-						new Object[] { this, isa });
-				queuedBytes = this.isConnected(isa) ? 0 : -1;
-				// could also drop queue here
+			if (!sneaky) {
+				if (sendQueue.size() < getMaxQueuedSends()) {
+					sendQueue.add(getQueueable(header, payload));
+					queuedBytes = length;
+
+				} else {
+					log.log(Level.WARNING,
+							"{0} message queue for {1} out of room, dropping message",
+							new Object[] { this, isa });
+					queuedBytes = this.isConnected(isa) ? 0 : -1;
+					// could also drop queue here
+				}
 			}
+		} finally {
+			sendQueue.producers.decrementAndGet();
 		}
 
-		if (queuedBytes > 0 && data.remaining() > 0) {
-			// wake up selecting thread so it can push out the write
+		/* Wake up selecting thread so it can push out the write. If we held
+		 * the writing flag, the selector may have given up OP_WRITE meanwhile
+		 * for others' writes, so re-arm it for those too. */
+		if ((queuedBytes > 0 || (held && !sendQueue.isEmpty()))
+				&& sendQueue.writeInterestPending.compareAndSet(false, true))
 			this.wakeupSelector(isa);
-		}
 
 		return queuedBytes;
 	}
 
 	private boolean canEnqueueSend(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = null;
-		return ((sendQueue = this.sendQueues.get(isa)) == null)
+		SendQueue sendQueue = null;
+		return ((sendQueue = this.getShard(isa).sendQueues.get(isa)) == null)
 				|| sendQueue.size() < MAX_QUEUED_SENDS;
 	}
 
 	private void wakeupSelector(InetSocketAddress isa) {
+		Selector selector = this.getShard(isa).selector;
 		SocketChannel sc = this.getSockAddrToSockChannel(isa);
 		SelectionKey key = null;
 		/* No point setting op write unless connected and handshaken. If not yet
@@ -1343,7 +1581,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (sc != null && sc.isConnected() && this.isHandshakeComplete(sc))
 			try {
 				// set op to write if not already set
-				if ((key = sc.keyFor(this.selector)) != null && key.isValid()
+				if ((key = sc.keyFor(selector)) != null && key.isValid()
 				// && (key.interestOps() & SelectionKey.OP_WRITE) == 0
 				) {
 					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
@@ -1352,7 +1590,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				// could have been cancelled upon a write attempt
 				cleanupRetry(key, sc, isa);
 			}
-		this.selector.wakeup();
+		selector.wakeup();
 		// if pending writes and socket closed, retry if possible
 		if (sc != null && !sc.isOpen())
 			this.cleanupRetry(null, sc, isa);
@@ -1363,8 +1601,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * first and only element) of the pendingWrites list. */
 	private static final boolean SNEAK_DIRECT_WRITE = true; // default true
 
-	private boolean trySneakyWrite(InetSocketAddress isa, ByteBuffer data)
-			throws IOException {
+	private boolean trySneakyWrite(InetSocketAddress isa, ByteBuffer header,
+			ByteBuffer payload) throws IOException {
 		/* FIXME: sneaky writes cause problems with ssl, so they are disabled
 		 * with ssl for now. */
 		if (!SNEAK_DIRECT_WRITE || isSSL())
@@ -1373,7 +1611,10 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		if (channel != null && channel.isConnected()
 				&& this.isHandshakeComplete(channel)) {
 			try {
-				this.wrapWrite(channel, data, true);
+				if (header != null)
+					this.gatherWrite(channel, header, payload);
+				else
+					this.wrapWrite(channel, payload, true);
 				return true;
 			} catch (IOException e) {
 				if (!this.isDisconnected(isa)) {
@@ -1391,54 +1632,52 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * to which connection attempts have failed. If finishConnection fails,
 	 * there is no other mechanism to retry establishing a connection to such
 	 * destinations. */
-	private long lastRegisterWriteInterestsInvoked = 0;
 	private static long INTER_REGISTER_WRITE_INTERESTS_SPACING = 8000;
 
-	private void registerWriteInterests() {
-		if (System.currentTimeMillis() - this.lastRegisterWriteInterestsInvoked < (Math
+	private void registerWriteInterests(SelectorShard shard) {
+		if (System.currentTimeMillis() - shard.lastRegisterWriteInterestsInvoked < (Math
 				.random() * INTER_REGISTER_WRITE_INTERESTS_SPACING))
 			return;
-		this.lastRegisterWriteInterestsInvoked = System.currentTimeMillis();
-		if (this.sendQueues.isEmpty())
+		shard.lastRegisterWriteInterestsInvoked = System.currentTimeMillis();
+		ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = shard.sendQueues;
+		if (sendQueues.isEmpty())
 			return;
-		synchronized (this.sendQueues) {
-
-			/*
-			 * Android doesn't currently recognize ConcurrentHashMap.keySet()
-			 * due to a Java 8 -> Java 7 translation issue. Therefore, cast
-			 * it to a Map<?, ?> explicitly.
-			 */
-			for (InetSocketAddress isa : ((Map<InetSocketAddress, LinkedBlockingQueue<ByteBuffer>>) this.sendQueues).keySet()) {
-				LinkedBlockingQueue<ByteBuffer> queue = this.sendQueues
-						.get(isa);
-				if (queue != null && !queue.isEmpty()) {
-					// Nested locking: pendingWrites -> SockAddrToSockChannel
-					SocketChannel sc = getSockAddrToSockChannel(isa); // synchronized
-
-					/* We can be here only if an entry was made in queuePending,
-					 * which can happen only after initiateConnection, which
-					 * maps the isa to a socket channel. Hence, the assert. */
-					// assert (sc != null) : isa;
-					if (sc == null)
-						return;
-
-					// connected and handshake complete => set op_write
-					SelectionKey key = null;
-					if (((sc.isConnected() && this.isHandshakeComplete(sc))
-							&& (key = sc.keyFor(this.selector)) != null 
-							&& (key.interestOps() & SelectionKey.OP_WRITE) == 0
-							))
-						try {
-							key.interestOps(key.interestOps()
-									| SelectionKey.OP_WRITE);
-						} catch (CancelledKeyException cke) {
-							// could have been cancelled upon a write attempt
-							cleanupRetry(key, sc, isa);
-						}
-					// if socket closed, retry (if allowed)
-					if (!sc.isOpen()) {
-						this.cleanupRetry(null, sc, isa);
+		/*
+		 * Android doesn't currently recognize ConcurrentHashMap.keySet()
+		 * due to a Java 8 -> Java 7 translation issue. Therefore, cast
+		 * it to a Map<?, ?> explicitly.
+		 */
+		for (InetSocketAddress isa : ((Map<InetSocketAddress, SendQueue>) sendQueues).keySet()) {
+			SendQueue queue = sendQueues.get(isa);
+			// queues are retired here instead of after every drain
+			if (queue != null && queue.isEmpty())
+				retireIfEmpty(sendQueues, isa, queue);
+			else if (queue != null) {
+				SocketChannel sc = getSockAddrToSockChannel(isa);
+
+				/* We can be here only if an entry was made in queuePending,
+				 * which can happen only after initiateConnection, which
+				 * maps the isa to a socket channel. Hence, the assert. */
+				// assert (sc != null) : isa;
+				if (sc == null)
+					return;
+
+				// connected and handshake complete => set op_write
+				SelectionKey key = null;
+				if (((sc.isConnected() && this.isHandshakeComplete(sc))
+						&& (key = sc.keyFor(shard.selector)) != null 
+						&& (key.interestOps() & SelectionKey.OP_WRITE) == 0
+						))
+					try {
+						key.interestOps(key.interestOps()
+								| SelectionKey.OP_WRITE);
+					} catch (CancelledKeyException cke) {
+						// could have been cancelled upon a write attempt
+						cleanupRetry(key, sc, isa);
 					}
+				// if socket closed, retry (if allowed)
+				if (!sc.isOpen()) {
+					this.cleanupRetry(null, sc, isa);
 				}
 			}
 		}
@@ -1487,6 +1726,12 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 			InetSocketAddress isa) {
 		//cleanup(key, sc);
 		cleanupSSL(key);
+		/* Any OP_WRITE requested is gone with the key, so producers must wake
+		 * up the selector again once reconnected. */
+		SendQueue sendQueue = isa != null ? this.getShard(isa).sendQueues
+				.get(isa) : null;
+		if (sendQueue != null)
+			sendQueue.writeInterestPending.set(false);
 		try {
 			if (this.canReconnect(isa)) {
 				testAndIntiateConnection(isa);
@@ -1511,27 +1756,28 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 	}
 
+	/* Atomic test-and-set so that at most one of several selector threads
+	 * reconnects to isa per min inter-connect time. */
 	private boolean checkAndReconnect(InetSocketAddress isa) {
-		boolean canReconnect = false;
-		if (this.canReconnect(isa)) {
-			this.connAttempts.put(isa, System.currentTimeMillis());
-			canReconnect = true;
-		}
-		return canReconnect;
+		Long last = this.connAttempts.get(isa);
+		long now = System.currentTimeMillis();
+		if (now - (last != null ? last : 0L) <= getMinInterConnectTime())
+			return false;
+		return last == null ? this.connAttempts.putIfAbsent(isa, now) == null
+				: this.connAttempts.replace(isa, last, now);
 	}
 
 	/* **************************************************************
-	 * End of methods synchronizing on pendingWrites.
+	 * End of methods using send queues.
 	 * **************************************************************** */
 
 	/* **************************************************************
 	 * Start of methods synchronizing on SockAddrToSockChannel.
 	 * **************************************************************** */
 
+	// not synchronized as reads need not block
 	private SocketChannel getSockAddrToSockChannel(InetSocketAddress isa) {
-		synchronized (this.sockAddrToSockChannel) {
-			return this.sockAddrToSockChannel.get(isa);
-		}
+		return this.sockAddrToSockChannel.get(isa);
 	}
 
 	private void putSockAddrToSockChannel(InetSocketAddress isa,
@@ -1543,7 +1789,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 					socketChannel);
 			if (prevChannel != null) {
 				//cleanup(prevChannel.keyFor(this.selector), prevChannel);
-				cleanupSSL(prevChannel.keyFor(this.selector));
+				cleanupSSL(prevChannel.keyFor(this.getShard(isa).selector));
 			}
 		}
 	}
@@ -1575,7 +1821,9 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 				this.putSockAddrToSockChannel(
 						(InetSocketAddress) socketChannel.getRemoteAddress(),
 						socketChannel); // replace existing with newly accepted
-				socketChannel.register(this.selector, SelectionKey.OP_READ
+				socketChannel.register(this.getShard(
+						(InetSocketAddress) socketChannel.getRemoteAddress()).selector,
+						SelectionKey.OP_READ
 				// wait till handshake complete for SSL writes
 						| (isSSL() ? 0 : SelectionKey.OP_WRITE));
 			} catch (ClosedChannelException e) {
@@ -1637,32 +1885,42 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	/* **************************************************************
 	 * Start of methods synchronizing on pendingConnects.
 	 * **************************************************************** */
-	private void addPendingConnect(SocketChannel socketChannel) {
-		synchronized (this.pendingConnects) {
-			this.pendingConnects.add(new ChangeRequest(socketChannel,
-					ChangeRequest.REGISTER, SelectionKey.OP_CONNECT));
+	/* Also wakes up the selector as enqueueSend no longer does so for every
+	 * message. */
+	private void addPendingConnect(InetSocketAddress isa,
+			SocketChannel socketChannel) {
+		this.addPendingChange(this.getShard(isa), new ChangeRequest(
+				socketChannel, ChangeRequest.REGISTER, SelectionKey.OP_CONNECT));
+	}
+
+	// also wakes up the selector as the caller may be another selector thread
+	private void addPendingChange(SelectorShard shard, ChangeRequest change) {
+		synchronized (shard.pendingConnects) {
+			shard.pendingConnects.add(change);
 		}
+		shard.selector.wakeup();
 	}
 
 	/* Process any pending connect requests to ensure that when the socket is
 	 * connectable, finishConnect is called. */
-	private void processPendingConnects() {
-		if (this.pendingConnects.isEmpty())
+	private void processPendingConnects(SelectorShard shard) {
+		LinkedList<ChangeRequest> pendingConnects = shard.pendingConnects;
+		if (pendingConnects.isEmpty())
 			return;
-		synchronized (this.pendingConnects) {
-			Iterator<ChangeRequest> changes = this.pendingConnects.iterator();
+		synchronized (pendingConnects) {
+			Iterator<ChangeRequest> changes = pendingConnects.iterator();
 			while (changes.hasNext()) {
 				ChangeRequest change = (ChangeRequest) changes.next();
 				log.log(Level.FINEST, "{0} processing connect event {1}",
 						new Object[] { this, change });
-				SelectionKey key = change.socket.keyFor(this.selector);
+				SelectionKey key = change.socket.keyFor(shard.selector);
 				switch (change.type) {
 				case ChangeRequest.CHANGEOPS:
 					key.interestOps(change.ops);
 					break;
 				case ChangeRequest.REGISTER:
 					try {
-						change.socket.register(this.selector, change.ops);
+						change.socket.register(shard.selector, change.ops);
 					} catch (ClosedChannelException cce) {
 						log.severe("Socket channel likely closed before connect finished");
 						//cleanup(key, (AbstractSelectableChannel) key.channel());
@@ -1670,9 +1928,26 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 						cce.printStackTrace();
 					}
 					break;
+				// channel accepted by another selector thread
+				case ChangeRequest.ACCEPT:
+					try {
+						key = change.socket.register(shard.selector,
+								change.ops, new AlternatingByteBuffer());
+						registerSSL(key, false);
+					} catch (IOException ioe) {
+						log.log(Level.WARNING,
+								"{0} unable to register accepted channel {1}: {2}",
+								new Object[] { this, change.socket,
+										ioe.getMessage() });
+						if (key != null)
+							cleanupSSL(key);
+						else
+							cleanup(null, change.socket);
+					}
+					break;
 				}
 			}
-			this.pendingConnects.clear();
+			pendingConnects.clear();
 		}
 	}
 
@@ -1778,7 +2053,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		// selecting thread. As part of the registration we'll register
 		// an interest in connection events. These are raised when a channel
 		// is ready to complete connection establishment.
-		addPendingConnect(socketChannel); // synchronized
+		addPendingConnect(isa, socketChannel); // synchronized
 
 		return socketChannel;
 	}
@@ -1803,10 +2078,15 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 	 * exactly to the buffers (partially or wholly) written to the underlying
 	 * TCP socket but not yet sent to the other end. */
 	private void removePartialBuffers(InetSocketAddress isa) {
-		LinkedBlockingQueue<ByteBuffer> sendQueue = this.sendQueues.get(isa);
+		SendQueue sendQueue = this.getShard(isa).sendQueues.get(isa);
 		if (sendQueue == null || sendQueue.isEmpty())
 			return;
-		synchronized (sendQueue) {
+		// only the writer may touch the head, but writers never block
+		while (!sendQueue.tryWrite())
+			Thread.yield();
+		try {
+			if (sendQueue.isEmpty())
+				return;
 			ByteBuffer bbuf = ByteBuffer.allocate(HEADER_SIZE);
 			Util.put(bbuf, sendQueue.peek());
 			sendQueue.peek().rewind();
@@ -1822,6 +2102,8 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 							+ " initiated connection and removed partial unsent packet in send queue to "
 							+ isa);
 			}
+		} finally {
+			sendQueue.doneWriting();
 		}
 	}
 
@@ -1938,6 +2220,7 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 
 		static final int REGISTER = 1;
 		static final int CHANGEOPS = 2;
+		static final int ACCEPT = 3;
 
 		final SocketChannel socket;
 		final int type;
@@ -1954,18 +2237,84 @@ public class NIOTransport<NodeIDType> implements Runnable, HandshakeCallback {
 		}
 	}
 
+	/* State owned by a single selector thread. The socket channel to a given
+	 * InetSocketAddress is always registered with the selector of the shard
+	 * returned by getShard(InetSocketAddress), so all of the state below for
+	 * that destination is touched by (at most) that one selector thread and
+	 * application threads sending to that destination. */
+	private class SelectorShard implements Runnable {
+		final int index;
+		final Selector selector;
+		final ByteBuffer writeBuffer = ByteBuffer
+				.allocateDirect(WRITE_BUFFER_SIZE);
+
+		// List of pending connects on which finishConnect needs to be called.
+		final LinkedList<ChangeRequest> pendingConnects = new LinkedList<ChangeRequest>();
+
+		/* The key is a socket address and the value is a list of messages to
+		 * be sent to that socket address. */
+		final ConcurrentHashMap<InetSocketAddress, SendQueue> sendQueues = new ConcurrentHashMap<InetSocketAddress, SendQueue>();
+
+		final ConcurrentHashMap<SelectionKey, ByteBuffer> readBuffers = new ConcurrentHashMap<SelectionKey, ByteBuffer>();
+
+		final ConcurrentHashMap<SelectionKey, AlternatingByteBuffer> congested = new ConcurrentHashMap<SelectionKey, AlternatingByteBuffer>();
+
+		long lastRegisterWriteInterestsInvoked = 0;
+		Thread thread = null;
+
+		SelectorShard(int index, Selector selector) {
+			this.index = index;
+			this.selector = selector;
+		}
+
+		// only for shards other than the first
+		void start(String name) {
+			(this.thread = new Thread(this)).setName(name + ":" + this.index);
+			this.thread.start();
+		}
+
+		public void run() {
+			while (!isStopped())
+				NIOTransport.this.selectOnce(this);
+			try {
+				this.selector.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+
+	private SelectorShard getShard(InetSocketAddress isa) {
+		return this.shards.length == 1 || isa == null ? this.shards[0]
+				: this.shards[(isa.hashCode() & Integer.MAX_VALUE)
+						% this.shards.length];
+	}
+
+	private SelectorShard getShard(SelectionKey key) {
+		for (SelectorShard shard : this.shards)
+			if (shard.selector == key.selector())
+				return shard;
+		return this.shards[0];
+	}
+
+	private SelectionKey keyFor(SocketChannel socketChannel) {
+		SelectionKey key = null;
+		for (SelectorShard shard : this.shards)
+			if ((key = socketChannel.keyFor(shard.selector)) != null)
+				return key;
+		return null;
+	}
+
 	/* ********* Testing methods below ********************* */
 
 	/* Used only for testing to print pending messages if any at the end of
 	 * tests. */
 	protected int getPendingSize() {
-		synchronized (this.sendQueues) {
-			int numPending = 0;
-			for (LinkedBlockingQueue<ByteBuffer> arr : this.sendQueues.values()) {
-				numPending += arr.size();
-			}
-			return numPending;
-		}
+		int numPending = 0;
+		for (SelectorShard shard : this.shards)
+			for (SendQueue sendQueue : shard.sendQueues.values())
+				numPending += sendQueue.size();
+		return numPending;
 	}
 
 	/**
@@ -0,0 +1,301 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.nio;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import edu.umass.cs.nio.interfaces.PacketDemultiplexer;
+import edu.umass.cs.nio.nioutils.NIOHeader;
+
+/**
+ * @author arun
+ *
+ * @param <MessageType>
+ *
+ *            Hands off received messages from NIO threads to a fixed set of
+ *            worker threads for {@link AbstractPacketDemultiplexer}. Each
+ *            worker has its own queue made of bounded ring buffers, so a
+ *            dispatch is a compare-and-set and a store with no allocation or
+ *            locking in the common case. Messages dispatched with equal keys
+ *            go to the same worker and are therefore handled one at a time in
+ *            the order in which any single thread dispatched them. Messages
+ *            dispatched without a key are spread round-robin.
+ *
+ *            A full ring is closed and chained to a fresh one instead of
+ *            blocking the dispatching thread, which may be a selector thread
+ *            or, for loopback sends, a worker itself. Workers handle up to
+ *            {@link #MAX_BATCH} messages between checks for shutdown and park
+ *            only when their queue is empty.
+ */
+class PacketDispatcher<MessageType> {
+
+	/**
+	 * Number of messages per ring buffer.
+	 */
+	static final int RING_SIZE = 4096;
+
+	/**
+	 * Maximum number of messages a worker handles back to back.
+	 */
+	static final int MAX_BATCH = 256;
+
+	// spins before a worker with an empty queue parks
+	private static final int MAX_SPINS = 64;
+
+	private final AbstractPacketDemultiplexer<MessageType> demux;
+	private int numWorkers;
+	private volatile Worker[] workers = null;
+	private volatile boolean stopped = false;
+	// races are harmless as it only spreads unkeyed messages
+	private int nextWorker = 0;
+
+	PacketDispatcher(AbstractPacketDemultiplexer<MessageType> demux,
+			int numWorkers) {
+		this.demux = demux;
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * The number of workers can only be changed before the first dispatch as
+	 * changing it thereafter would break the affinity of keys to workers.
+	 *
+	 * @param numWorkers
+	 * @return True if changed.
+	 */
+	synchronized boolean setNumWorkers(int numWorkers) {
+		if (this.workers != null)
+			return false;
+		this.numWorkers = numWorkers;
+		return true;
+	}
+
+	/**
+	 * @param key
+	 *            Messages with equal non-null keys are handled by the same
+	 *            worker in dispatch order.
+	 * @param message
+	 * @param pd
+	 * @param header
+	 * @return False if stopped.
+	 */
+	boolean dispatch(Object key, MessageType message,
+			PacketDemultiplexer<MessageType> pd, NIOHeader header) {
+		if (this.stopped)
+			return false;
+		Worker[] workers = this.workers != null ? this.workers : this
+				.start();
+		Worker worker = workers[key != null ? spread(key.hashCode())
+				% workers.length : (this.nextWorker++ & Integer.MAX_VALUE)
+				% workers.length];
+		worker.enqueue(message, pd, header);
+		if (worker.parked)
+			LockSupport.unpark(worker.thread);
+		return true;
+	}
+
+	private static int spread(int h) {
+		return (h ^ (h >>> 16)) & Integer.MAX_VALUE;
+	}
+
+	// workers are created lazily so that they pick up the demux's name
+	private synchronized Worker[] start() {
+		if (this.workers != null)
+			return this.workers;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Worker[] workers = new PacketDispatcher.Worker[this.numWorkers];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker();
+			(workers[i].thread = Executors.defaultThreadFactory().newThread(
+					workers[i])).setName(this.demux.toString());
+			workers[i].thread.start();
+		}
+		return this.workers = workers;
+	}
+
+	/**
+	 * Already dispatched messages are handled before workers exit.
+	 */
+	void stop() {
+		this.stopped = true;
+		Worker[] workers = this.workers;
+		if (workers != null)
+			for (Worker worker : workers)
+				LockSupport.unpark(worker.thread);
+	}
+
+	/**
+	 * @return The number of dispatched messages not yet handled.
+	 */
+	long getPending() {
+		long pending = 0;
+		Worker[] workers = this.workers;
+		if (workers != null)
+			for (Worker worker : workers)
+				pending += worker.dispatched.get() - worker.handled;
+		return pending;
+	}
+
+	/* A bounded ring buffer with many producers and a single consumer. A
+	 * producer claims a position by incrementing tail and publishes the
+	 * message by advancing the slot's sequence number. A producer that finds
+	 * the ring full closes it by setting CLOSED in tail so that no position
+	 * can be claimed thereafter. */
+	private static final class Ring {
+		private static final long CLOSED = 1L << 62;
+		private static final int MASK = RING_SIZE - 1;
+
+		private final AtomicLong tail = new AtomicLong(0);
+		private final AtomicLongArray seq = new AtomicLongArray(RING_SIZE);
+		private final Object[] messages = new Object[RING_SIZE];
+		private final Object[] pds = new Object[RING_SIZE];
+		private final NIOHeader[] headers = new NIOHeader[RING_SIZE];
+		volatile Ring next = null;
+		// accessed only by the consumer
+		private long head = 0;
+
+		Ring() {
+			for (int i = 0; i < RING_SIZE; i++)
+				this.seq.lazySet(i, i);
+		}
+
+		boolean offer(Object message, Object pd, NIOHeader header) {
+			for (long t;;) {
+				if (((t = this.tail.get()) & CLOSED) != 0)
+					return false;
+				int i = (int) t & MASK;
+				long s = this.seq.get(i);
+				if (s == t) {
+					if (this.tail.compareAndSet(t, t + 1)) {
+						this.messages[i] = message;
+						this.pds[i] = pd;
+						this.headers[i] = header;
+						// publishes the fields above
+						this.seq.set(i, t + 1);
+						return true;
+					}
+				}
+				// slot not yet consumed from the previous lap
+				else if (s < t && this.tail.compareAndSet(t, t | CLOSED))
+					return false;
+			}
+		}
+
+		/**
+		 * @return Slot index of the next published message or -1 if none.
+		 */
+		int peek() {
+			int i = (int) this.head & MASK;
+			return this.seq.get(i) == this.head + 1 ? i : -1;
+		}
+
+		void release(int i) {
+			this.messages[i] = this.pds[i] = this.headers[i] = null;
+			this.seq.lazySet(i, this.head + RING_SIZE);
+			this.head++;
+		}
+
+		// closed and every claimed position consumed
+		boolean isExhausted() {
+			return this.tail.get() == (this.head | CLOSED);
+		}
+	}
+
+	/* The updated fields are not private because Java 8 checks updater access
+	 * against the nested class itself. */
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<PacketDispatcher.Worker, Ring> TAIL_RING = AtomicReferenceFieldUpdater
+			.newUpdater(PacketDispatcher.Worker.class, Ring.class, "tailRing");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Ring, Ring> NEXT = AtomicReferenceFieldUpdater
+			.newUpdater(Ring.class, Ring.class, "next");
+
+	private class Worker implements Runnable {
+		// ring that producers offer to
+		volatile Ring tailRing = new Ring();
+		// ring that the worker consumes from
+		private Ring headRing = this.tailRing;
+		private final AtomicLong dispatched = new AtomicLong(0);
+		private volatile long handled = 0;
+		private volatile boolean parked = false;
+		private Thread thread;
+
+		void enqueue(MessageType message, PacketDemultiplexer<MessageType> pd,
+				NIOHeader header) {
+			this.dispatched.incrementAndGet();
+			for (Ring ring = this.tailRing; !ring.offer(message, pd, header);) {
+				Ring next = ring.next;
+				if (next == null
+						&& !NEXT.compareAndSet(ring, null, next = new Ring()))
+					next = ring.next;
+				TAIL_RING.compareAndSet(this, ring, next);
+				ring = next;
+			}
+		}
+
+		// handles at most MAX_BATCH messages and returns the number handled
+		@SuppressWarnings("unchecked")
+		private int drain() {
+			int count = 0;
+			for (int i; count < MAX_BATCH;) {
+				Ring ring = this.headRing;
+				if ((i = ring.peek()) >= 0) {
+					MessageType message = (MessageType) ring.messages[i];
+					PacketDemultiplexer<MessageType> pd = (PacketDemultiplexer<MessageType>) ring.pds[i];
+					NIOHeader header = ring.headers[i];
+					ring.release(i);
+					PacketDispatcher.this.demux.handle(message, pd, header);
+					count++;
+				} else if (ring.isExhausted() && ring.next != null)
+					this.headRing = ring.next;
+				else
+					break;
+			}
+			if (count > 0)
+				this.handled += count;
+			return count;
+		}
+
+		@Override
+		public void run() {
+			for (int spins = 0;;) {
+				if (this.drain() > 0)
+					spins = 0;
+				else if (PacketDispatcher.this.stopped
+						&& this.handled == this.dispatched.get())
+					break;
+				else if (spins++ < MAX_SPINS)
+					Thread.yield();
+				else {
+					this.parked = true;
+					// re-check after parked is visible to producers
+					if (this.handled == this.dispatched.get()
+							&& !PacketDispatcher.this.stopped)
+						LockSupport.park(this);
+					this.parked = false;
+					spins = 0;
+				}
+			}
+			AbstractPacketDemultiplexer.log.log(Level.FINE, "{0} exiting",
+					new Object[] { this.thread.getName() });
+		}
+	}
+}
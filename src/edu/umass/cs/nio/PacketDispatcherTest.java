@@ -0,0 +1,256 @@
+package edu.umass.cs.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.utils.DefaultTest;
+import edu.umass.cs.utils.Util;
+
+/**
+ * Test class for {@link PacketDispatcher} as used by
+ * {@link AbstractPacketDemultiplexer}.
+ */
+public class PacketDispatcherTest extends DefaultTest {
+
+	private static final int NUM_THREADS = 4;
+
+	private static final IntegerPacketType TYPE = new IntegerPacketType() {
+		@Override
+		public int getInt() {
+			return 0;
+		}
+	};
+
+	// message = {producer, key, sequence number, scheduled arrival time}
+	private static byte[] makeMessage(int producer, int key, int seq,
+			long arrival) {
+		return ByteBuffer.allocate(20).putInt(producer).putInt(key)
+				.putInt(seq).putLong(arrival).array();
+	}
+
+	/* Records the arrival-to-handling latency of each message and checks that
+	 * messages of the same producer and key are handled in order. */
+	private static class Demux extends AbstractPacketDemultiplexer<byte[]> {
+		final boolean ordered;
+		final long[] latencies;
+		final int[][] last;
+		final AtomicInteger outOfOrder = new AtomicInteger(0);
+		CountDownLatch gate = null;
+
+		Demux(boolean ordered, int numMessages, int numProducers,
+				int numKeys) {
+			super(NUM_THREADS);
+			this.ordered = ordered;
+			this.latencies = new long[numMessages];
+			this.last = new int[numProducers][numKeys];
+			for (int[] seqs : this.last)
+				Arrays.fill(seqs, -1);
+			this.register(TYPE);
+		}
+
+		@Override
+		public boolean handleMessage(byte[] message, NIOHeader header) {
+			ByteBuffer bbuf = ByteBuffer.wrap(message);
+			int producer = bbuf.getInt(), key = bbuf.getInt(), seq = bbuf
+					.getInt();
+			this.latencies[seq] = System.nanoTime() - bbuf.getLong();
+			if (this.gate != null && seq == 0)
+				try {
+					this.gate.await();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			if (this.ordered && this.last[producer][key] >= seq)
+				this.outOfOrder.incrementAndGet();
+			this.last[producer][key] = seq;
+			return true;
+		}
+
+		@Override
+		protected Integer getPacketType(byte[] message) {
+			return 0;
+		}
+
+		@Override
+		protected byte[] processHeader(byte[] message, NIOHeader header) {
+			return message;
+		}
+
+		@Override
+		protected boolean matchesType(Object message) {
+			return message instanceof byte[];
+		}
+
+		@Override
+		public boolean isOrderPreserving(byte[] message) {
+			return this.ordered;
+		}
+
+		@Override
+		protected Object getOrderingKey(byte[] message) {
+			return ByteBuffer.wrap(message).getInt(4);
+		}
+
+		void await() throws InterruptedException {
+			while (this.getDispatcher().getPending() > 0)
+				Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Order preserving messages with the same key from the same producer are
+	 * handled in order even when a blocked worker's ring fills up and spills
+	 * into chained rings.
+	 *
+	 * @throws InterruptedException
+	 * @throws JSONException
+	 */
+	@Test
+	public void testOrderPerKey() throws InterruptedException, JSONException {
+		final int numProducers = 2, numKeys = 64, perProducer = 100 * 1000;
+		final Demux demux = new Demux(true, numProducers * perProducer,
+				numProducers, numKeys);
+		demux.gate = new CountDownLatch(1);
+		final AtomicInteger rejected = new AtomicInteger(0);
+		Thread[] producers = new Thread[numProducers];
+		for (int p = 0; p < numProducers; p++) {
+			final int producer = p;
+			(producers[p] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < perProducer; i++) {
+							int seq = producer * perProducer + i;
+							if (!demux.handleMessageSuper(
+									makeMessage(producer, seq % numKeys, seq,
+											System.nanoTime()), null))
+								rejected.incrementAndGet();
+						}
+					} catch (JSONException e) {
+						e.printStackTrace();
+					}
+				}
+			}).start();
+		}
+		for (Thread producer : producers)
+			producer.join();
+		// many more messages than a ring holds are pending for a worker
+		Assert.assertTrue(demux.getDispatcher().getPending() > PacketDispatcher.RING_SIZE);
+		demux.gate.countDown();
+		demux.await();
+		demux.stop();
+		Assert.assertEquals(0, rejected.get());
+		Assert.assertEquals(0, demux.outOfOrder.get());
+		for (int p = 0; p < numProducers; p++)
+			for (int i = perProducer - numKeys; i < perProducer; i++) {
+				int seq = p * perProducer + i;
+				Assert.assertEquals(seq, demux.last[p][seq % numKeys]);
+			}
+	}
+
+	private static String percentiles(long[] latencies) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		ArrayList<String> list = new ArrayList<String>();
+		for (double p : new double[] { 0.5, 0.99 })
+			list.add("p" + (int) (p * 100) + "="
+					+ Util.df(sorted[(int) (p * (sorted.length - 1))] / 1000.0)
+					+ "us");
+		return list.toString();
+	}
+
+	/* Delivers n messages from a single thread, as a selector thread would,
+	 * at the given rate or as fast as possible if rate is 0, and returns the
+	 * achieved rate. If executor is non-null, messages are handed off as
+	 * AbstractPacketDemultiplexer used to, else through handleMessageSuper. */
+	private static long deliver(final Demux demux, int n, long rate,
+			ScheduledThreadPoolExecutor executor) throws JSONException,
+			InterruptedException {
+		int batch = 100;
+		long completed = executor != null ? executor.getCompletedTaskCount()
+				+ n : 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			// schedule arrivals in batches of 100 to be able to pace
+			long arrival = rate > 0 ? start + (i / batch) * batch
+					* 1000000000L / rate : System.nanoTime();
+			if (rate > 0 && i % batch == 0)
+				while (System.nanoTime() < arrival)
+					Thread.yield();
+			final byte[] message = makeMessage(0, i % 64, i, arrival);
+			if (executor != null)
+				executor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						demux.handleMessage(message, null);
+					}
+				}, 0, TimeUnit.MILLISECONDS);
+			else
+				demux.handleMessageSuper(message, null);
+		}
+		if (executor != null)
+			while (executor.getCompletedTaskCount() < completed)
+				Thread.sleep(1);
+		else
+			demux.await();
+		return n * 1000000000L / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Prints the demultiplexing throughput and the p99 arrival-to-handling
+	 * latency at 1M messages/s when messages are handed off through a
+	 * ScheduledThreadPoolExecutor as AbstractPacketDemultiplexer used to and
+	 * through its {@link PacketDispatcher}.
+	 *
+	 * @throws JSONException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testThroughputAndLatency() throws JSONException,
+			InterruptedException {
+		int n = 2 * 1000 * 1000;
+		long rate = 1000 * 1000;
+		String[] names = { "scheduled", "dispatched" };
+		for (int j = 0; j < names.length; j++) {
+			boolean scheduled = j == 0;
+			ScheduledThreadPoolExecutor executor = scheduled ? (ScheduledThreadPoolExecutor) Executors
+					.newScheduledThreadPool(NUM_THREADS) : null;
+			Demux demux = new Demux(false, n, 1, 64);
+			// warm up
+			deliver(demux, n, 0, executor);
+			long throughput = deliver(demux, n, 0, executor);
+			long achieved = deliver(demux, n, rate, executor);
+			if (scheduled)
+				executor.shutdown();
+			demux.stop();
+			System.out.print(names[j] + ": max_rate=" + throughput
+					+ "/s; at " + achieved + "/s "
+					+ percentiles(demux.latencies) + "; ");
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(PacketDispatcherTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+package edu.umass.cs.nio.nioutils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author arun
+ *
+ *         A pool of direct or heap byte buffers organized in power-of-two size
+ *         classes. {@link #acquire(int)} returns a cleared buffer whose limit
+ *         is the requested size and whose capacity is the smallest size class
+ *         no smaller than that.
+ *
+ *         A pooled buffer has exactly one owner at any time, e.g., a send queue
+ *         or a selector thread's read state. The owner must either
+ *         {@link #release(ByteBuffer)} it exactly once when it is done or
+ *         simply drop it, in which case it is garbage collected as usual.
+ *         Releasing a buffer that is still referenced elsewhere will cause it
+ *         to be overwritten by its next owner.
+ */
+public class ByteBufferPool {
+
+	// 256 bytes
+	private static final int MIN_SIZE_CLASS = 8;
+
+	private final boolean direct;
+	private final int maxSizeClass;
+	private final int[] maxFree;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private final AtomicInteger[] numFree;
+
+	/**
+	 * @param direct
+	 *            True if buffers should be allocated using
+	 *            {@link ByteBuffer#allocateDirect(int)}.
+	 * @param maxBufferSize
+	 *            Requests bigger than this size are allocated but never
+	 *            pooled.
+	 * @param maxPooledBytesPerSizeClass
+	 *            Upper bound on the total capacity of free buffers retained in
+	 *            each size class (at least one buffer is retained).
+	 */
+	public ByteBufferPool(boolean direct, int maxBufferSize,
+			int maxPooledBytesPerSizeClass) {
+		this.direct = direct;
+		this.maxSizeClass = Math.max(MIN_SIZE_CLASS, sizeClass(maxBufferSize));
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		ConcurrentLinkedQueue<ByteBuffer>[] free = new ConcurrentLinkedQueue[this.maxSizeClass + 1];
+		this.free = free;
+		this.numFree = new AtomicInteger[this.maxSizeClass + 1];
+		this.maxFree = new int[this.maxSizeClass + 1];
+		for (int i = MIN_SIZE_CLASS; i <= this.maxSizeClass; i++) {
+			this.free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			this.numFree[i] = new AtomicInteger(0);
+			this.maxFree[i] = Math.max(1, maxPooledBytesPerSizeClass >> i);
+		}
+	}
+
+	private static int sizeClass(int size) {
+		return Math.max(MIN_SIZE_CLASS,
+				Integer.SIZE - Integer.numberOfLeadingZeros(size - 1));
+	}
+
+	/**
+	 * @param size
+	 * @return A buffer with position 0 and limit {@code size}.
+	 */
+	public ByteBuffer acquire(int size) {
+		int sc = sizeClass(size);
+		if (sc > this.maxSizeClass)
+			return this.allocate(size);
+
+		ByteBuffer buf = this.free[sc].poll();
+		if (buf != null) {
+			this.numFree[sc].decrementAndGet();
+			NIOInstrumenter.incrPoolHits();
+			buf.clear();
+		} else
+			buf = this.allocate(1 << sc);
+		buf.limit(size);
+		return buf;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		NIOInstrumenter.incrBytesAllocated(capacity);
+		return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+				.allocate(capacity);
+	}
+
+	/**
+	 * Returns {@code buf} to the pool. Buffers that could not have been
+	 * allocated by this pool are ignored.
+	 *
+	 * @param buf
+	 */
+	public void release(ByteBuffer buf) {
+		if (buf == null || buf.isDirect() != this.direct
+				|| buf.isReadOnly() || Integer.bitCount(buf.capacity()) != 1)
+			return;
+		int sc = Integer.numberOfTrailingZeros(buf.capacity());
+		if (sc < MIN_SIZE_CLASS || sc > this.maxSizeClass)
+			return;
+		// best-effort bound on the number of free buffers
+		if (this.numFree[sc].incrementAndGet() <= this.maxFree[sc])
+			this.free[sc].offer(buf);
+		else
+			this.numFree[sc].decrementAndGet();
+	}
+
+	/**
+	 * @return Total capacity of free buffers currently in the pool.
+	 */
+	public long getFreeBytes() {
+		long total = 0;
+		for (int i = MIN_SIZE_CLASS; i <= this.maxSizeClass; i++)
+			total += (long) this.numFree[i].get() << i;
+		return total;
+	}
+}
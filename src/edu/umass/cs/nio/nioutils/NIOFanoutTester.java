@@ -0,0 +1,142 @@
+package edu.umass.cs.nio.nioutils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
+import edu.umass.cs.nio.interfaces.DataProcessingWorker;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A local throughput tester for contended sends, along the lines of
+ *         {@link NIOSelectorTester}. Many application threads share a single
+ *         sending NIOTransport and send round-robin to a number of peer
+ *         NIOTransports, so that each per-destination send queue has many
+ *         concurrent producers. Reports messages/sec received by all peers
+ *         together. Usage:
+ *
+ *         NIOFanoutTester [numSenders [numPeers [numMessagesPerSender
+ *         [numRuns]]]]
+ */
+public class NIOFanoutTester {
+
+	private static final int DEFAULT_NUM_SENDERS = 32;
+	private static final int DEFAULT_NUM_PEERS = 16;
+	private static final int DEFAULT_NUM_MESSAGES = 50000;
+	private static final int DEFAULT_NUM_RUNS = 3;
+	private static final int MSG_SIZE = 100;
+	private static final long TIMEOUT = 60000;
+
+	/**
+	 * @param numSenders
+	 * @param numPeers
+	 * @param numMessages
+	 * @param port
+	 * @return Received messages/sec.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static double test(int numSenders, final int numPeers,
+			final int numMessages, int port) throws IOException,
+			InterruptedException {
+		final AtomicLong count = new AtomicLong(0);
+		final long total = (long) numSenders * numMessages;
+		final byte[] msg = new byte[MSG_SIZE];
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		NIOTransport<Integer>[] peers = new NIOTransport[numPeers];
+		final InetSocketAddress[] peerISAs = new InetSocketAddress[numPeers];
+		for (int i = 0; i < numPeers; i++) {
+			peerISAs[i] = new InetSocketAddress(
+					InetAddress.getLoopbackAddress(), port + i);
+			peers[i] = new NIOTransport<Integer>(peerISAs[i].getAddress(),
+					port + i, new NIOSelectorTester.DPWCounter(count),
+					SSL_MODES.CLEAR);
+		}
+		final NIOTransport<Integer> sender = new NIOTransport<Integer>(0,
+				new DataProcessingWorker() {
+					@Override
+					public void processData(SocketChannel socket,
+							ByteBuffer incoming) {
+						incoming.position(incoming.limit());
+					}
+
+					@Override
+					public void demultiplexMessage(Object message) {
+						throw new RuntimeException("Should not get here");
+					}
+				});
+
+		Thread[] senders = new Thread[numSenders];
+		for (int i = 0; i < numSenders; i++) {
+			final int offset = i;
+			senders[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < numMessages; j++)
+							while (sender.send(
+									peerISAs[(offset + j) % numPeers], msg) <= 0)
+								Thread.yield();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		long t = System.currentTimeMillis();
+		for (Thread s : senders)
+			s.start();
+		synchronized (count) {
+			while (count.get() < total
+					&& System.currentTimeMillis() - t < TIMEOUT)
+				count.wait(100);
+		}
+		long elapsed = System.currentTimeMillis() - t;
+		double rate = count.get() * 1000.0 / elapsed;
+		System.out.println("numSenders=" + numSenders + " numPeers="
+				+ numPeers + ": received " + count.get() + "/" + total
+				+ " messages in " + elapsed + "ms = " + Util.df(rate) + "/sec");
+
+		for (Thread s : senders)
+			s.join();
+		sender.stop();
+		for (NIOTransport<Integer> peer : peers)
+			peer.stop();
+		return rate;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int numSenders = args.length > 0 ? Integer.valueOf(args[0])
+				: DEFAULT_NUM_SENDERS;
+		int numPeers = args.length > 1 ? Integer.valueOf(args[1])
+				: DEFAULT_NUM_PEERS;
+		int numMessages = args.length > 2 ? Integer.valueOf(args[2])
+				: DEFAULT_NUM_MESSAGES;
+		int numRuns = args.length > 3 ? Integer.valueOf(args[3])
+				: DEFAULT_NUM_RUNS;
+
+		new NIOInstrumenter().enable();
+		int port = SampleNodeConfig.DEFAULT_START_PORT + 200;
+		// the first run is a warmup
+		for (int i = 0; i < numRuns; i++) {
+			test(numSenders, numPeers, numMessages, port);
+			port += numPeers;
+			Thread.sleep(1000);
+		}
+		System.out.println(NIOInstrumenter.getJSONStats());
+	}
+}
@@ -49,6 +49,8 @@ public class NIOInstrumenter {
 	private static int totalConnAccepted = 0;
 	private static int totalConnInitiated = 0;
 	private static int totalJSONRcvd = 0;
+	private static long totalBytesAllocated = 0;
+	private static int totalPoolHits = 0;
 	private static double averageDelay = 0;
 	private static boolean enabled = false;
 
@@ -186,6 +188,38 @@ public class NIOInstrumenter {
 			}
 	}
 
+	/**
+	 * @param allocated
+	 *            Bytes of buffer space allocated by NIOTransport.
+	 */
+	public static void incrBytesAllocated(int allocated) {
+		if (enabled)
+			synchronized (NIOInstrumenter.class) {
+				totalBytesAllocated += allocated;
+			}
+	}
+
+	/**
+	 * Buffer requests satisfied from a {@link ByteBufferPool} without
+	 * allocation.
+	 */
+	public static void incrPoolHits() {
+		if (enabled)
+			synchronized (NIOInstrumenter.class) {
+				totalPoolHits++;
+			}
+	}
+
+	/**
+	 * @return Bytes of buffer space allocated by NIOTransport per message sent
+	 *         or received.
+	 */
+	public static double getBytesAllocatedPerMessage() {
+		synchronized (NIOInstrumenter.class) {
+			return totalBytesAllocated * 1.0 / Math.max(1, totalSent + totalRcvd);
+		}
+	}
+
 	/**
 	 * @param msg
 	 * @throws JSONException
@@ -274,7 +308,11 @@ public class NIOInstrumenter {
 						+ totalRcvd + " | bytesSent=" + totalBytesSent
 						+ " | bytesRcvd=" + totalBytesRcvd
 						+ " | totalEncrBytesSent=" + totalEncrBytesSent
-						+ " | totalEncrBytesRcvd=" + totalEncrBytesRcvd + "]]";
+						+ " | totalEncrBytesRcvd=" + totalEncrBytesRcvd
+						+ " | bytesAllocated=" + totalBytesAllocated
+						+ " | poolHits=" + totalPoolHits
+						+ " | bytesAllocatedPerMsg="
+						+ Util.df(getBytesAllocatedPerMessage()) + "]]";
 			}
 		return null;
 	}
@@ -290,6 +328,10 @@ public class NIOInstrumenter {
 						+ (totalSent - totalRcvd) : "") + "]"
 				+ "\n\t [totalConnInitiated = " + totalConnInitiated
 				+ ", totalConnAccepted = " + totalConnAccepted + "]"
+				+ "\n\t [totalBytesAllocated = " + totalBytesAllocated
+				+ ", totalPoolHits = " + totalPoolHits
+				+ ", bytesAllocatedPerMsg = "
+				+ Util.df(getBytesAllocatedPerMessage()) + "]"
 				+ "\nJSONMessageWorker: [totalJSONRcvd = " + totalJSONRcvd
 				+ "]" + "]";
 	}
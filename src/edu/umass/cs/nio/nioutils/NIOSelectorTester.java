@@ -0,0 +1,171 @@
+package edu.umass.cs.nio.nioutils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.nio.SSLDataProcessingWorker.SSL_MODES;
+import edu.umass.cs.nio.interfaces.DataProcessingWorker;
+import edu.umass.cs.utils.Util;
+
+/**
+ * @author arun
+ *
+ *         A local throughput tester for multiple selector threads in
+ *         NIOTransport, along the lines of {@link NIOBSTester}. A single echo
+ *         server with a varying number of selector threads serves many
+ *         clients, each with its own connection, that each send a fixed
+ *         number of messages. The echo server replies on the accepted
+ *         connection, so the reply path also exercises the hand-off of
+ *         accepted connections across selector threads. Usage:
+ *
+ *         NIOSelectorTester [numClients [numMessagesPerClient [selectorCounts
+ *         ...]]]
+ */
+public class NIOSelectorTester {
+
+	private static final int DEFAULT_NUM_CLIENTS = 32;
+	private static final int DEFAULT_NUM_MESSAGES = 100000;
+	private static final int MSG_SIZE = 100;
+	private static final long TIMEOUT = 60000;
+
+	static class DPWEcho implements DataProcessingWorker {
+		NIOTransport<Integer> niot = null;
+
+		@Override
+		public void processData(SocketChannel socket, ByteBuffer incoming) {
+			byte[] buf = new byte[incoming.remaining()];
+			incoming.get(buf);
+			try {
+				InetSocketAddress sender = (InetSocketAddress) socket
+						.getRemoteAddress();
+				while (niot.send(sender, buf) <= 0)
+					Thread.yield();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void demultiplexMessage(Object message) {
+			throw new RuntimeException("Should not get here");
+		}
+	}
+
+	static class DPWCounter implements DataProcessingWorker {
+		final AtomicLong count;
+
+		DPWCounter(AtomicLong count) {
+			this.count = count;
+		}
+
+		@Override
+		public void processData(SocketChannel socket, ByteBuffer incoming) {
+			incoming.position(incoming.limit());
+			synchronized (this.count) {
+				if (this.count.incrementAndGet() % 1000 == 0)
+					this.count.notify();
+			}
+		}
+
+		@Override
+		public void demultiplexMessage(Object message) {
+			throw new RuntimeException("Should not get here");
+		}
+	}
+
+	/**
+	 * @param numSelectors
+	 * @param numClients
+	 * @param numMessages
+	 * @param port
+	 * @return Echoed messages/sec.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static double test(int numSelectors, int numClients,
+			final int numMessages, int port) throws IOException,
+			InterruptedException {
+		final AtomicLong count = new AtomicLong(0);
+		final long total = (long) numClients * numMessages;
+		final InetSocketAddress serverISA = new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), port);
+		final byte[] msg = new byte[MSG_SIZE];
+
+		// only the server gets multiple selector threads
+		NIOTransport.setNumSelectors(numSelectors);
+		DPWEcho echo = new DPWEcho();
+		NIOTransport<Integer> server = new NIOTransport<Integer>(
+				serverISA.getAddress(), port, echo, SSL_MODES.CLEAR);
+		echo.niot = server;
+		NIOTransport.setNumSelectors(NIOTransport.DEFAULT_NUM_SELECTORS);
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final NIOTransport<Integer>[] clients = new NIOTransport[numClients];
+		Thread[] senders = new Thread[numClients];
+		for (int i = 0; i < numClients; i++) {
+			final NIOTransport<Integer> client = clients[i] = new NIOTransport<Integer>(
+					0, new DPWCounter(count));
+			senders[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < numMessages; j++)
+							while (client.send(serverISA, msg) <= 0)
+								Thread.yield();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		long t = System.currentTimeMillis();
+		for (Thread sender : senders)
+			sender.start();
+		synchronized (count) {
+			while (count.get() < total
+					&& System.currentTimeMillis() - t < TIMEOUT)
+				count.wait(100);
+		}
+		long elapsed = System.currentTimeMillis() - t;
+		double rate = count.get() * 1000.0 / elapsed;
+		System.out.println("numSelectors=" + numSelectors + " numClients="
+				+ numClients + ": echoed " + count.get() + "/" + total
+				+ " messages in " + elapsed + "ms = " + Util.df(rate)
+				+ "/sec");
+
+		for (NIOTransport<Integer> client : clients)
+			client.stop();
+		server.stop();
+		return rate;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int numClients = args.length > 0 ? Integer.valueOf(args[0])
+				: DEFAULT_NUM_CLIENTS;
+		int numMessages = args.length > 1 ? Integer.valueOf(args[1])
+				: DEFAULT_NUM_MESSAGES;
+		int[] selectorCounts = args.length > 2 ? new int[args.length - 2]
+				: new int[] { 1, 2, 4, 8 };
+		for (int i = 2; i < args.length; i++)
+			selectorCounts[i - 2] = Integer.valueOf(args[i]);
+
+		new NIOInstrumenter().enable();
+		int port = SampleNodeConfig.DEFAULT_START_PORT + 100;
+		for (int numSelectors : selectorCounts) {
+			test(numSelectors, numClients, numMessages, port++);
+			Thread.sleep(1000);
+		}
+		System.out.println(NIOInstrumenter.getJSONStats());
+	}
+}
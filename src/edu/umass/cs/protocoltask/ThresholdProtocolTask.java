@@ -107,6 +107,19 @@ public abstract class ThresholdProtocolTask<NodeIDType, EventType, KeyType>
 		return null;
 	}
 
+	/**
+	 * Invoked after an event that is not a valid response by itself, e.g., a
+	 * part of a response that is received in parts.
+	 * 
+	 * @param event
+	 * @return Messaging tasks to be performed, e.g., requests for the remaining
+	 *         parts. Default is none.
+	 */
+	protected GenericMessagingTask<NodeIDType, ?>[] handlePartialEvent(
+			ProtocolEvent<EventType, KeyType> event) {
+		return null;
+	}
+
 	/**
 	 * This method automatically keeps track of senders from which we have
 	 * already received valid responses in order to keep track of whether the
@@ -136,7 +149,8 @@ public abstract class ThresholdProtocolTask<NodeIDType, EventType, KeyType>
 				else
 					ProtocolExecutor.enqueueCancel(this.getKey());
 			}
-		}
+		} else if (!validResponse)
+			mtasks = this.handlePartialEvent(event);
 		return mtasks;
 	}
 
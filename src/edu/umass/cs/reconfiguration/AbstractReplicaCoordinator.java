@@ -29,6 +29,8 @@ import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParser;
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParserBytes;
+import edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable;
+import edu.umass.cs.gigapaxos.interfaces.CheckpointProducer;
 import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
 import edu.umass.cs.gigapaxos.interfaces.GigapaxosShutdownable;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
@@ -77,7 +79,7 @@ import edu.umass.cs.reconfiguration.reconfigurationutils.TrivialRepliconfigurabl
  */
 public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 		Repliconfigurable, ReplicaCoordinator<NodeIDType>,
-		AppRequestParserBytes {
+		AppRequestParserBytes, AsyncCheckpointable {
 	protected final Repliconfigurable app;
 	private final ConcurrentHashMap<IntegerPacketType, Boolean> coordinationTypes = new ConcurrentHashMap<IntegerPacketType, Boolean>();
 
@@ -410,6 +412,18 @@ public abstract class AbstractReplicaCoordinator<NodeIDType> implements
 				: app.checkpoint(name);
 	}
 
+	/* Forwards to the underlying app so that paxos, whose app is this
+	 * coordinator, can checkpoint asynchronously if the app supports it.
+	 * Names whose state comes from stopCallback.preCheckpoint are always
+	 * checkpointed synchronously by returning null. */
+	@Override
+	public CheckpointProducer checkpointAsync(String name) {
+		return (this.stopCallback == null || this.stopCallback
+				.preCheckpoint(name) == null)
+				&& app instanceof AsyncCheckpointable ? ((AsyncCheckpointable) app)
+				.checkpointAsync(name) : null;
+	}
+
 	@Override
 	public boolean restore(String name, String state) {
 		return this.stopCallback != null
@@ -0,0 +1,174 @@
+package edu.umass.cs.reconfiguration;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable;
+import edu.umass.cs.gigapaxos.interfaces.CheckpointProducer;
+import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.Replicable;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.interfaces.ReconfiguratorCallback;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Test class for {@link AbstractReplicaCoordinator} forwarding of
+ * {@link AsyncCheckpointable} to the underlying app.
+ */
+public class AbstractReplicaCoordinatorTest extends DefaultTest {
+
+	private static final String SPECIAL_NAME = "special";
+
+	private static class TestApp implements Replicable {
+		@Override
+		public boolean execute(Request request) {
+			return true;
+		}
+
+		@Override
+		public boolean execute(Request request, boolean doNotReplyToClient) {
+			return true;
+		}
+
+		@Override
+		public Request getRequest(String stringified) {
+			return null;
+		}
+
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return new HashSet<IntegerPacketType>();
+		}
+
+		@Override
+		public String checkpoint(String name) {
+			return "state";
+		}
+
+		@Override
+		public boolean restore(String name, String state) {
+			return true;
+		}
+	}
+
+	private static class TestAsyncApp extends TestApp implements
+			AsyncCheckpointable {
+		final CheckpointProducer producer = new CheckpointProducer() {
+			@Override
+			public void writeTo(WritableByteChannel out, FileChannel previous)
+					throws IOException {
+			}
+		};
+
+		@Override
+		public CheckpointProducer checkpointAsync(String name) {
+			return this.producer;
+		}
+	}
+
+	private static class TestCoordinator extends
+			AbstractReplicaCoordinator<Integer> {
+		TestCoordinator(Replicable app) {
+			super(app);
+		}
+
+		TestCoordinator withStopCallback() {
+			this.setStopCallback(new ReconfiguratorCallback() {
+				@Override
+				public void executed(Request request, boolean handled) {
+				}
+
+				@Override
+				public boolean preExecuted(Request request) {
+					return false;
+				}
+
+				@Override
+				public String preCheckpoint(String name) {
+					return name.equals(SPECIAL_NAME) ? "special_state" : null;
+				}
+			});
+			return this;
+		}
+
+		@Override
+		public boolean coordinateRequest(Request request,
+				ExecutedCallback callback) {
+			return false;
+		}
+
+		@Override
+		public boolean createReplicaGroup(String serviceName, int epoch,
+				String state, Set<Integer> nodes) {
+			return false;
+		}
+
+		@Override
+		public boolean deleteReplicaGroup(String serviceName, int epoch) {
+			return false;
+		}
+
+		@Override
+		public Set<Integer> getReplicaGroup(String serviceName) {
+			return null;
+		}
+
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return this.app.getRequestTypes();
+		}
+	}
+
+	/**
+	 * The coordinator, also when wrapped by {@link LargeCheckpointer} as
+	 * paxos does, forwards asynchronous checkpoints to an
+	 * {@link AsyncCheckpointable} app.
+	 */
+	@Test
+	public void testForwardsAsyncCheckpoint() {
+		TestAsyncApp app = new TestAsyncApp();
+		Replicable wrapped = LargeCheckpointer.wrap(new TestCoordinator(app),
+				null);
+		Assert.assertTrue(wrapped instanceof AsyncCheckpointable);
+		Assert.assertSame(app.producer,
+				((AsyncCheckpointable) wrapped).checkpointAsync("name"));
+	}
+
+	/**
+	 * The coordinator declines asynchronous checkpoints for apps that are not
+	 * {@link AsyncCheckpointable} and for names whose state comes from the
+	 * stop callback.
+	 */
+	@Test
+	public void testDeclinesAsyncCheckpoint() {
+		Assert.assertNull(new TestCoordinator(new TestApp())
+				.checkpointAsync("name"));
+		TestAsyncApp app = new TestAsyncApp();
+		TestCoordinator coordinator = new TestCoordinator(app)
+				.withStopCallback();
+		Assert.assertNull(coordinator.checkpointAsync(SPECIAL_NAME));
+		Assert.assertSame(app.producer, coordinator.checkpointAsync("name"));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(AbstractReplicaCoordinatorTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
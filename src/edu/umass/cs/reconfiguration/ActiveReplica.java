@@ -27,6 +27,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -987,6 +988,10 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 				new Object[] { this, deleted ? "" : "*NOT*",
 						ackDrop.getSummary(), ackDrop.getInitiator() });
 		this.garbageCollectPendingTasks(dropEpoch);
+		synchronized (this.servedFinalStates) {
+			this.servedFinalStates.remove(dropEpoch.getServiceName() + ":"
+					+ dropEpoch.getEpochNumber());
+		}
 		return deleted ? mtask.toArray() : null;
 	}
 
@@ -1053,6 +1058,8 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 			ProtocolTask<NodeIDType, ReconfigurationPacket.PacketType, String>[] ptasks) {
 		RequestEpochFinalState<NodeIDType> request = (RequestEpochFinalState<NodeIDType>) event;
 		this.logEvent(event);
+		if (request.isChunked())
+			return this.getEpochFinalStateChunk(request);
 		StringContainer stateContainer = this.getFinalStateContainer(
 				request.getServiceName(), request.getEpochNumber());
 		if (stateContainer == null) {
@@ -1075,6 +1082,62 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 		return (mtask != null ? mtask.toArray() : null);
 	}
 
+	/* Final states recently served in chunks along with their checksums so
+	 * that the state is not fetched and checksummed again for every chunk. */
+	private static final int MAX_SERVED_FINAL_STATES = 4;
+	private final LinkedHashMap<String, Object[]> servedFinalStates = new LinkedHashMap<String, Object[]>(
+			MAX_SERVED_FINAL_STATES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Object[]> eldest) {
+			return this.size() > MAX_SERVED_FINAL_STATES;
+		}
+	};
+
+	private GenericMessagingTask<NodeIDType, ?>[] getEpochFinalStateChunk(
+			RequestEpochFinalState<NodeIDType> request) {
+		String key = request.getServiceName() + ":" + request.getEpochNumber();
+		Object[] served = null;
+		synchronized (this.servedFinalStates) {
+			served = this.servedFinalStates.get(key);
+		}
+		if (served == null) {
+			StringContainer stateContainer = this.getFinalStateContainer(
+					request.getServiceName(), request.getEpochNumber());
+			if (stateContainer == null) {
+				log.log(Level.INFO,
+						"{0} ####did not find any epoch final state for#### {1}",
+						new Object[] { this, request.getSummary() });
+				return null;
+			}
+			if (stateContainer.state == null)
+				// nothing to chunk
+				return new GenericMessagingTask<NodeIDType, EpochFinalState<NodeIDType>>(
+						request.getInitiator(), new EpochFinalState<NodeIDType>(
+								request.getInitiator(),
+								request.getServiceName(),
+								request.getEpochNumber(), null, this.getMyID()))
+						.toArray();
+			served = new Object[] { stateContainer.state,
+					EpochFinalState.checksum(stateContainer.state) };
+			synchronized (this.servedFinalStates) {
+				this.servedFinalStates.put(key, served);
+			}
+		}
+		String state = (String) served[0];
+		int offset = Math.min(request.getOffset(), state.length());
+		EpochFinalState<NodeIDType> chunk = new EpochFinalState<NodeIDType>(
+				request.getInitiator(), request.getServiceName(),
+				request.getEpochNumber(), state.substring(offset,
+						(int) Math.min((long) offset + request.getChunkSize(),
+								state.length())), this.getMyID(), offset,
+				state.length(), (Long) served[1]);
+		log.log(Level.FINE, "{0} returning epoch final state chunk to {1} {2}",
+				new Object[] { this, request.getKey(), chunk.getSummary() });
+		return new GenericMessagingTask<NodeIDType, EpochFinalState<NodeIDType>>(
+				request.getInitiator(), chunk).toArray();
+	}
+
 	private StringContainer getFinalStateContainer(String name, int epoch) {
 		if (this.appCoordinator instanceof PaxosReplicaCoordinator)
 			return ((PaxosReplicaCoordinator<NodeIDType>) (this.appCoordinator))
@@ -1271,12 +1334,13 @@ public class ActiveReplica<NodeIDType> implements ReconfiguratorCallback,
 		if (this.noReporting)
 			return;
 
-		String name = request.getServiceName();
 		if (request instanceof ReconfigurableRequest
 				&& ((ReconfigurableRequest) request).isStop())
 			return; // no reporting on stop
-		if (this.demandProfiler.shouldSendDemandReport(request, sender))
-			report(this.demandProfiler.pluckDemandProfile(name));
+		AbstractDemandProfile demand = this.demandProfiler.register(request,
+				sender);
+		if (demand != null)
+			report(demand);
 		else
 			report(this.demandProfiler.trim());
 		if (instrument(Instrument.updateDemandStats))
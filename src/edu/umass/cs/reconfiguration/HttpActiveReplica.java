@@ -1,15 +1,16 @@
 package edu.umass.cs.reconfiguration;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.Query;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
-import com.google.cloud.firestore.QuerySnapshot;
-import com.google.firebase.cloud.FirestoreClient;
-import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.reconfiguration.examples.DispatcherApp;
-import edu.umass.cs.utils.FullHttpRequestSerializer;
+import edu.umass.cs.reconfiguration.http.CachingServiceNameResolver;
+import edu.umass.cs.reconfiguration.http.FirestoreServiceNameResolver;
+import edu.umass.cs.reconfiguration.http.HttpAppRequest;
+import edu.umass.cs.reconfiguration.http.PropertiesServiceNameResolver;
+import edu.umass.cs.reconfiguration.http.ServiceNameResolver;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -21,14 +22,50 @@ import okhttp3.internal.http.HttpMethod;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 class HttpActiveReplica {
 
+    /**
+     * Class name of the {@link ServiceNameResolver} used to map virtual hosts
+     * to service names. Defaults to {@link PropertiesServiceNameResolver} if
+     * {@link PropertiesServiceNameResolver#FILE_PROPERTY} is set and to
+     * {@link FirestoreServiceNameResolver} otherwise.
+     */
+    static final String RESOLVER_PROPERTY = "http.activeReplica.serviceNameResolver";
+
+    /* HttpServerCodec defaults, made explicit as they bound the request line
+     * and headers that travel along with the body. */
+    static final int MAX_INITIAL_LINE_LENGTH = 4096;
+    static final int MAX_HEADER_SIZE = 8192;
+    static final int MAX_CHUNK_SIZE = 8192;
+
+    /**
+     * Upper bound on everything in a proposed request other than the body,
+     * i.e., the paxos packet fields, the fixed {@link HttpAppRequest} fields
+     * and service name, and the request line and headers. The latter may
+     * take up to thrice their size on the wire as each string gets a length
+     * prefix and each ISO-8859-1 character up to two bytes in UTF-8.
+     */
+    static final int MAX_REQUEST_OVERHEAD = RequestPacket.SIZE_ESTIMATE + 1024
+            + 3 * (MAX_INITIAL_LINE_LENGTH + MAX_HEADER_SIZE);
+
+    /**
+     * Requests with bigger bodies are rejected with 413. Bodies are
+     * accumulated as they stream in rather than aggregated, so this limit is
+     * only about how big a request value paxos should accept, which can be
+     * no more than {@link NIOTransport#MAX_PAYLOAD_SIZE} including
+     * {@link #MAX_REQUEST_OVERHEAD}. Larger configured values are clamped.
+     */
+    static final int MAX_CONTENT_LENGTH = Math.min(
+            Integer.getInteger("http.activeReplica.maxContentLength", Integer.MAX_VALUE),
+            NIOTransport.MAX_PAYLOAD_SIZE - MAX_REQUEST_OVERHEAD);
+
     HttpActiveReplica(AbstractReplicaCoordinator appCoordinator, ActiveReplica activeReplica) {
+        // shared by all connections so that each virtual host is looked up once
+        CachingServiceNameResolver serviceNames = createServiceNameResolver();
         NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
         NioEventLoopGroup workerGroup = new NioEventLoopGroup();
         ServerBootstrap b = new ServerBootstrap();
@@ -39,9 +76,8 @@ class HttpActiveReplica {
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
                         ChannelPipeline p = ch.pipeline();
-                        p.addLast(new HttpServerCodec());
-                        p.addLast(new HttpObjectAggregator(65536));
-                        p.addLast(new ActiveReplicaHttpHandler(appCoordinator, activeReplica));
+                        p.addLast(new HttpServerCodec(MAX_INITIAL_LINE_LENGTH, MAX_HEADER_SIZE, MAX_CHUNK_SIZE));
+                        p.addLast(new ActiveReplicaHttpHandler(appCoordinator, activeReplica, serviceNames));
                     }
                 });
 
@@ -59,38 +95,106 @@ class HttpActiveReplica {
         }
     }
 
-    private static class ActiveReplicaHttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    private static CachingServiceNameResolver createServiceNameResolver() {
+        String resolverClass = System.getProperty(RESOLVER_PROPERTY);
+        ServiceNameResolver resolver;
+        try {
+            resolver = resolverClass != null
+                    ? (ServiceNameResolver) Class.forName(resolverClass).getDeclaredConstructor().newInstance()
+                    : System.getProperty(PropertiesServiceNameResolver.FILE_PROPERTY) != null
+                    ? new PropertiesServiceNameResolver()
+                    : new FirestoreServiceNameResolver();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new RuntimeException("Unable to instantiate " + RESOLVER_PROPERTY + "=" + resolverClass, e);
+        }
+        return new CachingServiceNameResolver(resolver,
+                Long.getLong("http.activeReplica.serviceNameTTL", 60000),
+                Long.getLong("http.activeReplica.serviceNameNegativeTTL", 5000),
+                Integer.getInteger("http.activeReplica.serviceNameCacheSize", 100000),
+                Integer.getInteger("http.activeReplica.serviceNameResolverThreads", 4));
+    }
+
+    /* Not shared across channels as it holds the request being received. */
+    static class ActiveReplicaHttpHandler extends SimpleChannelInboundHandler<HttpObject> {
 
         private AbstractReplicaCoordinator appCoordinator;
 
         private ActiveReplica activeReplica;
 
-        ActiveReplicaHttpHandler(AbstractReplicaCoordinator appCoordinator, ActiveReplica activeReplica) {
+        private CachingServiceNameResolver serviceNames;
+
+        private HttpRequest request = null;
+
+        private ByteBuf body = null;
+
+        ActiveReplicaHttpHandler(AbstractReplicaCoordinator appCoordinator, ActiveReplica activeReplica,
+                                 CachingServiceNameResolver serviceNames) {
             this.appCoordinator = appCoordinator;
             this.activeReplica = activeReplica;
+            this.serviceNames = serviceNames;
         }
 
+        /* Copies each content chunk once into an unpooled heap buffer, presized
+         * using Content-Length if known, and releases the chunk right away
+         * upon return, so large bodies never need to be held twice. */
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
-            String virtualHost = request.headers().get("Host");
-            String value = FullHttpRequestSerializer.encode(request);
-
-            String serviceName = getServiceName(virtualHost);
-            if (serviceName == null) {
-                HttpResponseStatus status = HttpResponseStatus.valueOf(404);
-                FullHttpResponse response = new DefaultFullHttpResponse(
-                        HTTP_1_1, status);
-                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-                HttpUtil.setContentLength(response, response.content().readableBytes());
-                ChannelFuture flushPromise = ctx.writeAndFlush(response);
-                flushPromise.addListener(ChannelFutureListener.CLOSE);
+        protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+            if (msg.decoderResult().isFailure()) {
+                this.request = null;
+                sendError(ctx, HttpResponseStatus.BAD_REQUEST);
                 return;
             }
+            if (msg instanceof HttpRequest) {
+                this.request = (HttpRequest) msg;
+                long contentLength = HttpUtil.getContentLength(this.request, -1L);
+                if (contentLength > MAX_CONTENT_LENGTH) {
+                    this.request = null;
+                    sendError(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+                if (HttpUtil.is100ContinueExpected(this.request))
+                    ctx.writeAndFlush(new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.CONTINUE));
+                this.body = Unpooled.buffer(contentLength > 0 ? (int) contentLength : 0, MAX_CONTENT_LENGTH);
+            }
+            if (msg instanceof HttpContent && this.request != null) {
+                ByteBuf content = ((HttpContent) msg).content();
+                if (content.readableBytes() > this.body.maxWritableBytes()) {
+                    this.request = null;
+                    this.body = null;
+                    sendError(ctx, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+                this.body.writeBytes(content);
+                if (msg instanceof LastHttpContent) {
+                    this.handleRequest(ctx, this.request, this.body);
+                    this.request = null;
+                    this.body = null;
+                }
+            }
+        }
 
-            AppRequest appRequest = new AppRequest(serviceName, value, AppRequest.PacketType.DEFAULT_APP_REQUEST, false);
-            appRequest.setNeedsCoordination(HttpMethod.permitsRequestBody(request.method().toString()));
-            InetAddress sender = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+        private void handleRequest(ChannelHandlerContext ctx, HttpRequest request, ByteBuf body) {
+            String virtualHost = request.headers().get(HttpHeaderNames.HOST);
+            boolean needsCoordination = HttpMethod.permitsRequestBody(request.method().toString());
+            InetSocketAddress sender = (InetSocketAddress) ctx.channel().remoteAddress();
 
+            /* Completes right away if cached and otherwise on a lookup thread.
+             * A failed lookup is a miss. */
+            serviceNames.resolveAsync(virtualHost).whenComplete((serviceName, e) -> {
+                if (serviceName == null) {
+                    sendError(ctx, HttpResponseStatus.NOT_FOUND);
+                    return;
+                }
+                HttpAppRequest appRequest = new HttpAppRequest(serviceName,
+                        ThreadLocalRandom.current().nextLong(Long.MAX_VALUE), request.method().name(),
+                        request.uri(), request.protocolVersion().text(), request.headers(), body)
+                        .setClientAddress(sender);
+                appRequest.setNeedsCoordination(needsCoordination);
+                coordinate(ctx, appRequest, sender.getAddress());
+            });
+        }
+
+        private void coordinate(ChannelHandlerContext ctx, HttpAppRequest appRequest, InetAddress sender) {
             DispatcherApp.channelMap.put(appRequest.getRequestID(), ctx);
             appCoordinator.handleIncoming(appRequest, (_request, handled) -> {
                 activeReplica.updateDemandStats(appRequest, sender);
@@ -98,21 +202,14 @@ class HttpActiveReplica {
             });
         }
 
-        private String getServiceName(String virtualHost) {
-            final Firestore db = FirestoreClient.getFirestore();
-            final Query query = db.collection("services").whereEqualTo("virtualHost", virtualHost);
-            final ApiFuture<QuerySnapshot> querySnapshot = query.get();
-            final List<QueryDocumentSnapshot> documents;
-            try {
-                documents = querySnapshot.get().getDocuments();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-                return null;
-            }
-            if (documents.isEmpty()) {
-                return null;
-            }
-            return documents.get(0).getData().get("serviceName").toString();
+        // may be invoked on a lookup thread, so it doesn't touch request or body
+        private static void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+            FullHttpResponse response = new DefaultFullHttpResponse(
+                    HTTP_1_1, status);
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            ChannelFuture flushPromise = ctx.writeAndFlush(response);
+            flushPromise.addListener(ChannelFutureListener.CLOSE);
         }
     }
 }
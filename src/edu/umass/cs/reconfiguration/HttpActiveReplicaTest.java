@@ -0,0 +1,108 @@
+package edu.umass.cs.reconfiguration;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.paxospackets.RequestPacket;
+import edu.umass.cs.nio.NIOTransport;
+import edu.umass.cs.reconfiguration.http.HttpAppRequest;
+import edu.umass.cs.utils.DefaultTest;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Test class for the request size limit of {@link HttpActiveReplica}.
+ */
+public class HttpActiveReplicaTest extends DefaultTest {
+
+	private static EmbeddedChannel getChannel() {
+		return new EmbeddedChannel(
+				new HttpActiveReplica.ActiveReplicaHttpHandler(null, null,
+						null));
+	}
+
+	private static void assertTooLarge(EmbeddedChannel channel) {
+		Object response = channel.readOutbound();
+		Assert.assertTrue(response instanceof HttpResponse);
+		Assert.assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE,
+				((HttpResponse) response).status());
+		Assert.assertFalse(channel.isOpen());
+	}
+
+	/**
+	 * A request declaring a body just over the limit is rejected before its
+	 * body is received.
+	 */
+	@Test
+	public void testContentLengthJustOverLimit() {
+		EmbeddedChannel channel = getChannel();
+		DefaultHttpRequest request = new DefaultHttpRequest(
+				HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+		HttpUtil.setContentLength(request,
+				HttpActiveReplica.MAX_CONTENT_LENGTH + 1);
+		channel.writeInbound(request);
+		assertTooLarge(channel);
+	}
+
+	/**
+	 * A chunked request whose body grows just over the limit is rejected.
+	 */
+	@Test
+	public void testChunkedBodyJustOverLimit() {
+		EmbeddedChannel channel = getChannel();
+		DefaultHttpRequest request = new DefaultHttpRequest(
+				HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+		HttpUtil.setTransferEncodingChunked(request, true);
+		channel.writeInbound(request);
+		channel.writeInbound(new DefaultHttpContent(Unpooled
+				.wrappedBuffer(new byte[HttpActiveReplica.MAX_CONTENT_LENGTH])));
+		Assert.assertNull(channel.readOutbound());
+		channel.writeInbound(new DefaultHttpContent(Unpooled
+				.wrappedBuffer(new byte[1])));
+		assertTooLarge(channel);
+	}
+
+	/**
+	 * A body at the limit with request line and headers as big as the codec
+	 * allows still fits in a paxos packet.
+	 */
+	@Test
+	public void testLimitFitsPayload() {
+		Assert.assertTrue(HttpActiveReplica.MAX_CONTENT_LENGTH
+				+ HttpActiveReplica.MAX_REQUEST_OVERHEAD <= NIOTransport.MAX_PAYLOAD_SIZE);
+		HttpHeaders headers = new DefaultHttpHeaders(false);
+		// "h:\r\n" is the shortest header line
+		for (int i = 0; i < HttpActiveReplica.MAX_HEADER_SIZE / 4; i++)
+			headers.add("h", "");
+		String uri = new String(new char[HttpActiveReplica.MAX_INITIAL_LINE_LENGTH
+				- "GET  HTTP/1.1\r\n".length()]).replace('\0', '\u00ff');
+		HttpAppRequest appRequest = new HttpAppRequest("name", 0,
+				HttpMethod.GET.name(), uri, HttpVersion.HTTP_1_1.text(),
+				headers, Unpooled.wrappedBuffer(new byte[HttpActiveReplica.MAX_CONTENT_LENGTH]));
+		Assert.assertTrue(appRequest.toBytes().length
+				+ RequestPacket.SIZE_ESTIMATE <= NIOTransport.MAX_PAYLOAD_SIZE);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(HttpActiveReplicaTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
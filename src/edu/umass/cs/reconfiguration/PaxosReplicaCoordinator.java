@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 
 import edu.umass.cs.gigapaxos.PaxosManager;
 import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.ReadOnlyRequest;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.GigapaxosShutdownable;
@@ -37,6 +38,7 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
 import edu.umass.cs.reconfiguration.interfaces.ReconfigurableRequest;
 import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.ReplicableClientRequest;
 import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 
 /**
@@ -131,16 +133,29 @@ public class PaxosReplicaCoordinator<NodeIDType> extends
 	private String propose(String paxosID, Request request,
 			ExecutedCallback callback) {
 		String proposee = null;
+		ReadOnlyRequest readOnly = null;
 		if (request instanceof ReconfigurableRequest
 				&& ((ReconfigurableRequest) request).isStop())
 			proposee = this.paxosManager.proposeStop(paxosID,
 					((ReconfigurableRequest) request).getEpochNumber(),
 					request, callback);
-		else
+		// local read if I hold the leader lease, else ordered like writes
+		else if ((readOnly = getReadOnly(request)) == null
+				|| (proposee = this.paxosManager.executeReadOnly(paxosID,
+						readOnly, callback)) == null)
 			proposee = this.paxosManager.propose(paxosID, request, callback);
 		return proposee;
 	}
 
+	// app request to read locally if any, unwrapped like its ordered version
+	private static ReadOnlyRequest getReadOnly(Request request) {
+		if (request instanceof ReplicableClientRequest)
+			request = ((ReplicableClientRequest) request).getRequest();
+		return request instanceof ReadOnlyRequest
+				&& ((ReadOnlyRequest) request).isReadOnly() ? (ReadOnlyRequest) request
+				: null;
+	}
+
 	// in case paxosGroupID is not the same as the name in the request
 	/**
 	 * @param paxosGroupID
@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -77,9 +78,9 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	static {
 		ReconfigurationConfig.load();
 	}
-	/* Could be any high value coz we clear cached entry upon error or deletion.
-	 * Having it too small means more query overhead (and potentially marginally
-	 * improved responsiveness to replica failures). */
+	/* Refresh interval for the set of all active replicas used for anycast.
+	 * Actives of other names are not refreshed periodically as we clear the
+	 * cached entry upon error or deletion. */
 	private static final long MIN_REQUEST_ACTIVES_INTERVAL = 60000;
 
 	/**
@@ -206,9 +207,11 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	private final GCConcurrentHashMap<String, RequestCallback> callbacksSRP = new GCConcurrentHashMap<String, RequestCallback>(
 			crpGCCallback, SRP_GC_TIMEOUT);
 
-	// name->actives map
-	private final GCConcurrentHashMap<String, ActivesInfo> activeReplicas = new GCConcurrentHashMap<String, ActivesInfo>(
-			defaultGCCallback, MIN_REQUEST_ACTIVES_INTERVAL);
+	/* name->actives map. Entries are not aged out but are replaced upon
+	 * learning of a newer epoch and removed upon an ActiveReplicaError or a
+	 * deletion, so steady-state sends to a name never contact reconfigurators.
+	 * Lookups are lock-free and updates are compare-and-set. */
+	private final ConcurrentHashMap<String, ActivesInfo> activeReplicas = new ConcurrentHashMap<String, ActivesInfo>();
 	// name->unsent app requests for which active replicas are not yet known
 	private final GCConcurrentHashMap<String, LinkedBlockingQueue<RequestAndCallback>> requestsPendingActives = new GCConcurrentHashMap<String, LinkedBlockingQueue<RequestAndCallback>>(
 			defaultGCCallback, getCRPTimeout(DEFAULT_GC_TIMEOUT)); // FIXME: long timeout version
@@ -259,13 +262,17 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	private static int maxOutstandingCRPRequests = 4096;
 
 	class ActivesInfo {
+		// null until the response to a query arrives
 		final Set<InetSocketAddress> actives;
 		// last queried time used to rate limit RequestActiveReplicas queries
 		final long createTime;
+		// epoch of actives or -1 if unknown
+		final int epoch;
 
-		ActivesInfo(Set<InetSocketAddress> actives, long createTime) {
+		ActivesInfo(Set<InetSocketAddress> actives, long createTime, int epoch) {
 			this.actives = actives;
 			this.createTime = createTime;
+			this.epoch = epoch;
 		}
 	}
 
@@ -360,7 +367,6 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	 * @param timeout
 	 */
 	public final void setGCTimeout(long timeout) {
-		this.activeReplicas.setGCTimeout(timeout);
 		this.callbacks.setGCTimeout(timeout);
 		this.callbacksCRP.setGCTimeout(timeout);
 		this.requestsPendingActives.setGCTimeout(timeout);
@@ -555,16 +561,25 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 								.get(((ActiveReplicaError) response)
 										.getRequestID())) != null
 						&& callback instanceof ReconfigurableAppClientAsync.RequestAndCallback) {
+					RequestAndCallback requestAndCallback = (RequestAndCallback) callback;
 					ActivesInfo activesInfo = ReconfigurableAppClientAsync.this.activeReplicas
 							.get(response.getServiceName());
-					if (activesInfo != null
-							&& activesInfo.actives != null
-							&& ((RequestAndCallback) callback)
-									.incrActiveReplicaErrors() < activesInfo.actives
-									.size()/2 + 1)
+					/* Invalidate cached actives upon the first error but
+					 * retry with the rest of the ones the request was sent to,
+					 * so that subsequent requests learn the current epoch's
+					 * actives. */
+					if (requestAndCallback.actives == null && activesInfo != null
+							&& activesInfo.actives != null) {
+						requestAndCallback.actives = activesInfo.actives;
+						ReconfigurableAppClientAsync.this.invalidateActives(
+								response.getServiceName(), activesInfo);
+					}
+					if (requestAndCallback.actives != null
+							&& requestAndCallback.incrActiveReplicaErrors() < requestAndCallback.actives
+									.size() / 2 + 1)
 						try {
-							InetSocketAddress untried = ((RequestAndCallback) callback)
-									.getUntried(activesInfo.actives);
+							InetSocketAddress untried = requestAndCallback
+									.getUntried(requestAndCallback.actives);
 							ReconfigurableAppClientAsync.log.log(Level.INFO,
 									"{0} received {1}; retrying with  replica {2}; attempts={3}",
 									new Object[] { this, response.getSummary(),
@@ -1257,6 +1272,8 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		int heardFromRCs = 0; // for request actives
 		int activeReplicaErrors = 0; // for app requests
 		LinkedHashSet<InetSocketAddress> tried;
+		// actives being retried after an ActiveReplicaError
+		Set<InetSocketAddress> actives;
 
 		RequestAndCallback(ClientRequest request, Callback<Request, V> callback) {
 			this(request, callback, null);
@@ -1356,42 +1373,22 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 	 */
 	public RequestFuture<V> sendRequestAnycast(ClientRequest request,
 			Callback<Request, V> callback) throws IOException {
-		Set<InetSocketAddress> actives = null;
-		ActivesInfo activesInfo = null;
-		synchronized (this.activeReplicas) {
-			if ((activesInfo = this.activeReplicas.get(ALL_ACTIVES)) != null
-					&& (actives = activesInfo.actives) != null
-					&& this.queriedActivesRecently(ALL_ACTIVES))
-				return this.sendRequest(request, (InetSocketAddress)Util.selectRandom(actives),
-						callback);
-			// else
-			RequestCallbackFuture<V> future;
-			this.enqueueAndQueryForActives(new RequestAndCallback(request,
-					future = (callback instanceof RequestCallbackFuture ? (RequestCallbackFuture<V>) callback
-							: new RequestCallbackFuture<V>(request, callback))), true, true);
-			return future; //request.getRequestID();
-		}
-	}
-
-	private boolean queriedActivesRecently(String name) {
-		Long lastQueriedTime = null;
-		ActivesInfo activesInfo = null;
-		if ((activesInfo = this.activeReplicas.get(name)) != null
-				&& (lastQueriedTime = activesInfo.createTime) != null
-				// shorter timeout until we have some actives
-				&& ((activesInfo.actives == null && System.currentTimeMillis()
-						- lastQueriedTime < getCRPTimeout(DEFAULT_GC_TIMEOUT) / 2)
-				// longer timeout once we have some actives
-				|| (activesInfo.actives != null && System.currentTimeMillis()
-						- lastQueriedTime < MIN_REQUEST_ACTIVES_INTERVAL))) {
-
-			return true;
+		ActivesInfo activesInfo = this.activeReplicas.get(ALL_ACTIVES);
+		if (activesInfo != null && activesInfo.actives != null) {
+			/* The set of all actives changes with the node config, not with
+			 * the epoch of any name, so we refresh it in the background. */
+			if (System.currentTimeMillis() - activesInfo.createTime > MIN_REQUEST_ACTIVES_INTERVAL)
+				this.queryForActives(ALL_ACTIVES, activesInfo);
+			return this.sendRequest(request,
+					(InetSocketAddress) Util.selectRandom(activesInfo.actives),
+					callback);
 		}
-		if (lastQueriedTime != null)
-			ReconfigurationConfig.getLogger().log(Level.FINEST,
-					"{0} last queried time for {1} is {2}",
-					new Object[] { this, name, lastQueriedTime });
-		return false;
+		// else
+		RequestCallbackFuture<V> future;
+		this.enqueueAndQueryForActives(new RequestAndCallback(request,
+				future = (callback instanceof RequestCallbackFuture ? (RequestCallbackFuture<V>) callback
+						: new RequestCallbackFuture<V>(request, callback))), true);
+		return future; //request.getRequestID();
 	}
 
 	/**
@@ -1405,34 +1402,41 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 			Callback<Request, V> callback, NearestServerSelector redirector)
 			throws IOException {
 
-		Set<InetSocketAddress> actives = null;
-		ActivesInfo activesInfo = null;
-		synchronized (this.activeReplicas) {
-			// lookup actives in the cache first
-			if ((activesInfo = this.activeReplicas
-					.get(request.getServiceName())) != null
-					&& (actives = activesInfo.actives) != null
-					&& this.queriedActivesRecently(request.getServiceName()))
-				return this.sendRequest(
-						request,
-						redirector != null ? redirector.getNearest(actives)
-								: (InetSocketAddress) (Util
-										.selectRandom(actives)), callback);
-
-			RequestCallbackFuture<V> future;
-			// else enqueue them
-			this.enqueueAndQueryForActives(new RequestAndCallback(request,
-					future = (callback instanceof RequestCallbackFuture ? (RequestCallbackFuture<V>) callback
-							: new RequestCallbackFuture<V>(request, callback))
-					, redirector), false, false);
-			return (RequestFuture<V>)future;//request.getRequestID();
-		}
-	}
-
-	private boolean enqueueAndQueryForActives(RequestAndCallback rc,
-			boolean force, boolean anycast) throws IOException {
+		// lookup actives in the cache first
+		ActivesInfo activesInfo = this.activeReplicas.get(request
+				.getServiceName());
+		if (activesInfo != null && activesInfo.actives != null)
+			return this.sendRequest(
+					request,
+					redirector != null ? redirector
+							.getNearest(activesInfo.actives)
+							: (InetSocketAddress) (Util
+									.selectRandom(activesInfo.actives)),
+					callback);
+
+		RequestCallbackFuture<V> future;
+		// else enqueue them
+		this.enqueueAndQueryForActives(new RequestAndCallback(request,
+				future = (callback instanceof RequestCallbackFuture ? (RequestCallbackFuture<V>) callback
+						: new RequestCallbackFuture<V>(request, callback))
+				, redirector), false);
+		return (RequestFuture<V>)future;//request.getRequestID();
+	}
+
+	/* Invariant: a request enqueued here is either released below or by
+	 * sendRequestsPendingActives upon a response to a query that is sent out
+	 * below or was recently sent. The lookup after enqueueing ensures that a
+	 * response that arrived after the caller's lookup but before the enqueue
+	 * does not leave the request stranded. */
+	boolean enqueueAndQueryForActives(RequestAndCallback rc,
+			boolean anycast) throws IOException {
+		String name = anycast ? ALL_ACTIVES : rc.request.getServiceName();
 		boolean queued = this.enqueue(rc, anycast);
-		this.queryForActives(rc.request, force, anycast);
+		ActivesInfo activesInfo = this.activeReplicas.get(name);
+		if (activesInfo != null && activesInfo.actives != null)
+			this.releaseRequestsPendingActives(name, activesInfo.actives);
+		else
+			this.queryForActives(name, activesInfo);
 		return queued;
 	}
 
@@ -1447,31 +1451,60 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		return pending.add(rc);
 	}
 
-	private void queryForActives(Request request, boolean forceRefresh,
-			boolean anycast) throws IOException {
-		String name = anycast ? ALL_ACTIVES : request.getServiceName();
-		if (forceRefresh || !this.queriedActivesRecently(name)) {
-			if (forceRefresh) {
-				this.activeReplicas.remove(name);
-				this.mostRecentlyWrittenMap.remove(name);
-			}
-			ReconfigurationConfig.getLogger().log(Level.FINE,
-					"{0} requesting active replicas for {1}",
-					new Object[] { this, name });
-			this.sendRequesNullCallback(new RequestActiveReplicas(name));
-			// this.lastQueriedActives.put(name, System.currentTimeMillis());
-			this.activeReplicas.put(name,
-					new ActivesInfo(null, System.currentTimeMillis()));
-		} else {
-			Level level = Level.FINER;
-			log.log(level,
-					"{0} not querying for actives for enqueued request {1}",
-					new Object[] { this,
-							request.getSummary(log.isLoggable(level)),
-							forceRefresh, queriedActivesRecently(name) });
+	/* Sends a RequestActiveReplicas for name unless one is already
+	 * outstanding. Of concurrent callers that found the same activesInfo,
+	 * only the one that replaces it with a freshly timestamped entry sends
+	 * the query. */
+	private void queryForActives(String name, ActivesInfo activesInfo)
+			throws IOException {
+		if (activesInfo != null
+				&& activesInfo.actives == null
+				&& System.currentTimeMillis() - activesInfo.createTime < getCRPTimeout(DEFAULT_GC_TIMEOUT) / 2) {
+			log.log(Level.FINER,
+					"{0} not querying for actives for {1} as already queried {2}ms back",
+					new Object[] { this, name,
+							System.currentTimeMillis() - activesInfo.createTime });
+			return;
+		}
+		ActivesInfo queried = activesInfo == null ? new ActivesInfo(null,
+				System.currentTimeMillis(), -1) : new ActivesInfo(
+				activesInfo.actives, System.currentTimeMillis(),
+				activesInfo.epoch);
+		if (activesInfo == null ? this.activeReplicas.putIfAbsent(name,
+				queried) != null : !this.activeReplicas.replace(name,
+				activesInfo, queried))
+			return;
+		ReconfigurationConfig.getLogger().log(Level.FINE,
+				"{0} requesting active replicas for {1}",
+				new Object[] { this, name });
+		this.sendRequesNullCallback(new RequestActiveReplicas(name));
+	}
+
+	/* Caches activesInfo unless actives with a higher epoch are already
+	 * cached, which can happen if responses to queries get reordered, and
+	 * returns the cached entry. Entries are removed rather than marked upon
+	 * invalidation as the epoch numbers of a deleted and re-created name are
+	 * not comparable. */
+	private ActivesInfo putActives(String name, ActivesInfo activesInfo) {
+		for (ActivesInfo cached;;) {
+			if ((cached = this.activeReplicas.get(name)) != null
+					&& cached.actives != null && cached.epoch > activesInfo.epoch
+					&& activesInfo.epoch >= 0)
+				return cached;
+			if (cached == null ? this.activeReplicas.putIfAbsent(name,
+					activesInfo) == null : this.activeReplicas.replace(name,
+					cached, activesInfo))
+				return activesInfo;
 		}
 	}
 
+	/* Removes activesInfo if it is still the cached entry for name so that
+	 * the next request for name queries for actives afresh. */
+	private boolean invalidateActives(String name, ActivesInfo activesInfo) {
+		this.mostRecentlyWrittenMap.remove(name);
+		return this.activeReplicas.remove(name, activesInfo);
+	}
+
 	private void sendRequestsPendingActives(RequestActiveReplicas response) {
 		// learn sample latency
 		this.e2eRedirector.learnSample(response.getSender(),
@@ -1479,24 +1512,26 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 
 		/* Invariants: (1) If a request is enqueued for querying for actives, at
 		 * least one request for active replicas will be subsequently sent out
-		 * or was recently (< MIN_REQUEST_ACTIVES_INTERVAL) sent. (2) If a
-		 * successful (nonempty) response to an active replicas request arrives,
-		 * it will unpend all pending requests to the corresponding name that
-		 * were issued before the activeReplicas.put below. */
+		 * or was recently sent. (2) If a successful (nonempty) response to an
+		 * active replicas request arrives, it will unpend all pending requests
+		 * to the corresponding name that were enqueued before the putActives
+		 * below. */
 		Set<InetSocketAddress> actives = response.getActives();
 		if (actives != null && !actives.isEmpty()) {
-			synchronized (this.activeReplicas) {
-				this.activeReplicas.put(response.getServiceName(),
-						new ActivesInfo(actives, response.getCreateTime()));
-			}
+			ActivesInfo cached = this.putActives(response.getServiceName(),
+					new ActivesInfo(actives, response.getCreateTime(), response
+							.getActivesEpoch()));
 			if (this.mostRecentlyWrittenMap.contains(response.getServiceName())
-					&& !actives.contains(this.mostRecentlyWrittenMap
+					&& !cached.actives.contains(this.mostRecentlyWrittenMap
 							.get(response.getServiceName())))
 				this.mostRecentlyWrittenMap.remove(response.getServiceName());
-		} else {
-			this.activeReplicas.remove(response.getServiceName());
-			this.mostRecentlyWrittenMap.remove(response.getServiceName());
+			this.releaseRequestsPendingActives(response.getServiceName(),
+					cached.actives);
+			return;
 		}
+		// else
+		this.activeReplicas.remove(response.getServiceName());
+		this.mostRecentlyWrittenMap.remove(response.getServiceName());
 
 		if (!this.requestsPendingActives.containsKey(response.getServiceName())) {
 			log.log(Level.FINE,
@@ -1506,7 +1541,7 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 		}
 		// else
 		log.log(Level.FINE,
-				"{0} trying to release requests pending actives for {1} : {2}",
+				"{0} received no actives for requests pending actives for {1} : {2}",
 				new Object[] {
 						this,
 						response.getSummary(),
@@ -1522,119 +1557,125 @@ public abstract class ReconfigurableAppClientAsync<V> implements
 			if (pendingRequests.isEmpty())
 				this.requestsPendingActives.remove(response.getServiceName());
 			else
-				for (Iterator<RequestAndCallback> reqIter = this.requestsPendingActives
-						.get(response.getServiceName()).iterator(); reqIter
-						.hasNext();) {
+				for (Iterator<RequestAndCallback> reqIter = pendingRequests
+						.iterator(); reqIter.hasNext();) {
 					RequestAndCallback rc = reqIter.next();
-					if (rc.isExpired()) {
-						/* Drop silently. The app must have assumed a timeout
-						 * anyway by now. This is the case when a request
-						 * pending actives has spent more time waiting for
-						 * actives than the app request timeout, so it makes
-						 * sense to drop it rather than send it out just because
-						 * we can and potentially confuse the app with
-						 * potentially duplicate executions. This scenario can
-						 * happen when the first request's RequestActiveReplicas
-						 * fails and then a subsequent request's
-						 * RequestActiveReplicas much later succeeds promptly,
-						 * so we are in a position where we can send out both
-						 * the old and new requests.
-						 * 
-						 * Note that the first request may not necessarily get
-						 * garbage collected by GCConcurrentHashMap even if
-						 * CRP_GC_TIMEOUT is less than APP_REQUEST_TIMEOUT as GC
-						 * is done only when really needed. */
-
+					// see releaseRequestsPendingActives
+					if (rc.isExpired())
 						continue;
-					}
 					// request not expired if here
-					if (actives != null && !actives.isEmpty()) {
-						// release requests pending actives
-						try {
-							this.sendRequest(
-									rc.request,
-									rc.redirector != null ? rc.redirector
-											.getNearest(actives)
-											: (InetSocketAddress) (Util
-													.selectRandom(actives)),
-									rc.callback);
-						} catch (IOException e) {
-							log.log(Level.WARNING,
-									"{0} encountered IOException while trying "
-											+ "to release requests pending {1}",
-									new Object[] { this, response.getSummary() });
-							e.printStackTrace();
-						}
-					} else {
-						assert (response.getHashRCs() != null && !response
-								.getHashRCs().isEmpty());
-						Set<RequestAndCallback> removals = new HashSet<RequestAndCallback>();
-						for (RequestAndCallback pendingRequest : pendingRequests)
-							// retry once with rest of the reconfigurators
-							if (response.getHashRCs() != null
-									&& pendingRequest.incrHeardFromRCs() == 0
-									&& response.getHashRCs().size() > 1) {
-								response.getHashRCs().remove(
-										response.getSender());
-								log.log(Level.FINE,
-										"{0} received no actives from {1} for name {2}; trying other reconfigurators {3}",
-										new Object[] { this,
-												response.getSender(),
-												response.getServiceName(),
-												response.getHashRCs() });
-								try {
-									for (InetSocketAddress reconfigurator : response
-											.getHashRCs())
-										this.sendRequest(
-												new RequestActiveReplicas(
-														response.getServiceName()),
-												Util.offsetPort(reconfigurator, getServerPortOffset()));
-								} catch (IOException e) {
-									e.printStackTrace();
-									// do nothing
-								}
-							} else if (pendingRequest.heardFromRCs/* incrHeardFromRCs(
-																 * ) */< response
-									.getHashRCs().size() / 2 + 1) {
-								// do nothing but wait to hear from majority
-								log.log(Level.INFO,
-										"{0} received no actives from {1} for name {2}",
-										new Object[] { this,
-												response.getSender(),
-												response.getServiceName() });
-							} else {
-								/* name does not exist, so send error to all
-								 * pending requests except ones to be retried */
-								log.log(Level.FINE,
-										"{0} returning {1} to pending request callbacks {2}",
-										new Object[] {
-												this,
-												ClientReconfigurationPacket.ResponseCodes.ACTIVE_REPLICA_EXCEPTION,
-												pendingRequests });
-								pendingRequest.callback
-										.processResponse(new ActiveReplicaError(
-												response.getServiceName(),
-												pendingRequest.request
-														.getRequestID(),
-												response).setResponseMessage(ClientReconfigurationPacket.ResponseCodes.ACTIVE_REPLICA_EXCEPTION
-												+ ": No active replicas found for name \""
-												+ response.getServiceName()
-												+ "\" at replica "
-												+ response.getSender()
-												+ " likely because the name doesn't exist or because this name or"
-												+ " active replicas or reconfigurators are being reconfigured: "
-												+ pendingRequest.request
-														.getSummary()));
-								removals.add(pendingRequest);
+					assert (response.getHashRCs() != null && !response
+							.getHashRCs().isEmpty());
+					Set<RequestAndCallback> removals = new HashSet<RequestAndCallback>();
+					for (RequestAndCallback pendingRequest : pendingRequests)
+						// retry once with rest of the reconfigurators
+						if (response.getHashRCs() != null
+								&& pendingRequest.incrHeardFromRCs() == 0
+								&& response.getHashRCs().size() > 1) {
+							response.getHashRCs().remove(response.getSender());
+							log.log(Level.FINE,
+									"{0} received no actives from {1} for name {2}; trying other reconfigurators {3}",
+									new Object[] { this, response.getSender(),
+											response.getServiceName(),
+											response.getHashRCs() });
+							try {
+								for (InetSocketAddress reconfigurator : response
+										.getHashRCs())
+									this.sendRequest(
+											new RequestActiveReplicas(response
+													.getServiceName()),
+											Util.offsetPort(reconfigurator,
+													getServerPortOffset()));
+							} catch (IOException e) {
+								e.printStackTrace();
+								// do nothing
 							}
-						pendingRequests.removeAll(removals);
-						break;
-					}
-					reqIter.remove();
+						} else if (pendingRequest.heardFromRCs/* incrHeardFromRCs(
+															 * ) */< response
+								.getHashRCs().size() / 2 + 1) {
+							// do nothing but wait to hear from majority
+							log.log(Level.INFO,
+									"{0} received no actives from {1} for name {2}",
+									new Object[] { this, response.getSender(),
+											response.getServiceName() });
+						} else {
+							/* name does not exist, so send error to all
+							 * pending requests except ones to be retried */
+							log.log(Level.FINE,
+									"{0} returning {1} to pending request callbacks {2}",
+									new Object[] {
+											this,
+											ClientReconfigurationPacket.ResponseCodes.ACTIVE_REPLICA_EXCEPTION,
+											pendingRequests });
+							pendingRequest.callback
+									.processResponse(new ActiveReplicaError(
+											response.getServiceName(),
+											pendingRequest.request
+													.getRequestID(), response)
+											.setResponseMessage(ClientReconfigurationPacket.ResponseCodes.ACTIVE_REPLICA_EXCEPTION
+													+ ": No active replicas found for name \""
+													+ response.getServiceName()
+													+ "\" at replica "
+													+ response.getSender()
+													+ " likely because the name doesn't exist or because this name or"
+													+ " active replicas or reconfigurators are being reconfigured: "
+													+ pendingRequest.request
+															.getSummary()));
+							removals.add(pendingRequest);
+						}
+					pendingRequests.removeAll(removals);
+					break;
 				}
 		}
 	}
 
+	/* Sends out requests pending actives for name. Concurrent callers poll
+	 * disjoint requests from the queue, so no locking is needed. */
+	private void releaseRequestsPendingActives(String name,
+			Set<InetSocketAddress> actives) {
+		LinkedBlockingQueue<RequestAndCallback> pendingRequests = this.requestsPendingActives
+				.get(name);
+		if (pendingRequests == null || pendingRequests.isEmpty())
+			return;
+		log.log(Level.FINE,
+				"{0} releasing requests pending actives for {1} : {2}",
+				new Object[] { this, name,
+						Util.truncatedLog(pendingRequests, 8) });
+		for (RequestAndCallback rc; (rc = pendingRequests.poll()) != null;) {
+			if (rc.isExpired()) {
+				/* Drop silently. The app must have assumed a timeout anyway by
+				 * now. This is the case when a request pending actives has
+				 * spent more time waiting for actives than the app request
+				 * timeout, so it makes sense to drop it rather than send it
+				 * out just because we can and potentially confuse the app with
+				 * potentially duplicate executions. This scenario can happen
+				 * when the first request's RequestActiveReplicas fails and then
+				 * a subsequent request's RequestActiveReplicas much later
+				 * succeeds promptly, so we are in a position where we can send
+				 * out both the old and new requests.
+				 * 
+				 * Note that the first request may not necessarily get garbage
+				 * collected by GCConcurrentHashMap even if CRP_GC_TIMEOUT is
+				 * less than APP_REQUEST_TIMEOUT as GC is done only when really
+				 * needed. */
+				continue;
+			}
+			try {
+				this.sendRequest(
+						rc.request,
+						rc.redirector != null ? rc.redirector
+								.getNearest(actives) : (InetSocketAddress) (Util
+								.selectRandom(actives)), rc.callback);
+			} catch (IOException e) {
+				log.log(Level.WARNING,
+						"{0} encountered IOException while trying "
+								+ "to release requests pending actives for {1}",
+						new Object[] { this, name });
+				e.printStackTrace();
+			}
+		}
+	}
+
 	// also update e2e redirector if we are actively probing anyway
 	private void updateE2ERedirector(EchoRequest response) {
 		if (response.isRequest())
@@ -0,0 +1,318 @@
+package edu.umass.cs.reconfiguration;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.Callback;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.SSLDataProcessingWorker;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.reconfiguration.examples.noopsimple.NoopApp;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.ActiveReplicaError;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.RequestActiveReplicas;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Tests the actives cache of {@link ReconfigurableAppClientAsync} against a
+ * fake reconfigurator and fake active replicas that only record what the
+ * client sends them. Responses are handed directly to the client's
+ * demultiplexer, so their order is up to each test.
+ */
+public class ReconfigurableAppClientAsyncTest extends DefaultTest {
+
+	private static final long TIMEOUT = 2000;
+
+	private static class TestClient extends
+			ReconfigurableAppClientAsync<Request> {
+
+		TestClient(Set<InetSocketAddress> reconfigurators) throws IOException {
+			super(reconfigurators, SSLDataProcessingWorker.SSL_MODES.CLEAR, 0,
+					false);
+		}
+
+		@Override
+		public Request getRequest(String stringified)
+				throws RequestParseException {
+			try {
+				return NoopApp.staticGetRequest(stringified);
+			} catch (JSONException e) {
+				throw new RequestParseException(e);
+			}
+		}
+
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return NoopApp.staticGetRequestTypes();
+		}
+	}
+
+	private static TestClient client;
+	private static ReconfigurableAppClientAsync<Request>.ClientPacketDemultiplexer demultiplexer;
+
+	// parses requests received by the fake servers
+	private static TestClient parser;
+	private static final ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<Request>> received = new ConcurrentHashMap<InetSocketAddress, LinkedBlockingQueue<Request>>();
+	private static final Set<MessageNIOTransport<String, Request>> servers = new HashSet<MessageNIOTransport<String, Request>>();
+
+	private static InetSocketAddress reconfigurator;
+	private static final InetSocketAddress[] actives = new InetSocketAddress[3];
+
+	private static InetSocketAddress startServer() throws IOException {
+		final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+		MessageNIOTransport<String, Request> server = new MessageNIOTransport<String, Request>(
+				InetAddress.getLoopbackAddress(), 0,
+				parser.new ClientPacketDemultiplexer(parser.getRequestTypes()) {
+					@Override
+					public boolean handleMessage(Request request,
+							NIOHeader header) {
+						queue.add(request);
+						return true;
+					}
+				});
+		servers.add(server);
+		received.put(server.getListeningSocketAddress(), queue);
+		return server.getListeningSocketAddress();
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@BeforeClass
+	public static void setup() throws IOException {
+		parser = new TestClient(Collections.singleton(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), 0)));
+		reconfigurator = startServer();
+		for (int i = 0; i < actives.length; i++)
+			actives[i] = startServer();
+		client = new TestClient(Collections.singleton(reconfigurator));
+		demultiplexer = client.new ClientPacketDemultiplexer(
+				client.getRequestTypes());
+	}
+
+	/**
+	 *
+	 */
+	@AfterClass
+	public static void teardown() {
+		client.close();
+		parser.close();
+		for (MessageNIOTransport<String, Request> server : servers)
+			server.stop();
+	}
+
+	private static final AtomicInteger nameCounter = new AtomicInteger();
+
+	private static String getName() {
+		return ReconfigurableAppClientAsyncTest.class.getSimpleName()
+				+ nameCounter.incrementAndGet();
+	}
+
+	private static AppRequest send(String name) throws IOException {
+		AppRequest request = new AppRequest(name, "v",
+				AppRequest.PacketType.DEFAULT_APP_REQUEST, false);
+		client.sendRequest(request, new Callback<Request, Request>() {
+			@Override
+			public Request processResponse(Request response) {
+				return response;
+			}
+		});
+		return request;
+	}
+
+	private static void respond(String name, int epoch,
+			InetSocketAddress... replicas) {
+		demultiplexer.handleMessage(
+				new RequestActiveReplicas(reconfigurator, name, 0).setActives(
+						new HashSet<InetSocketAddress>(Arrays.asList(replicas)),
+						epoch), null);
+	}
+
+	/* Returns true if the reconfigurator receives a RequestActiveReplicas for
+	 * name within timeout. */
+	private static boolean queried(String name, long timeout)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Request request; (request = received.get(reconfigurator).poll(
+				Math.max(deadline - System.currentTimeMillis(), 0),
+				TimeUnit.MILLISECONDS)) != null;)
+			if (request instanceof RequestActiveReplicas
+					&& request.getServiceName().equals(name))
+				return true;
+		return false;
+	}
+
+	// request ID to the active it was last received at
+	private static final ConcurrentHashMap<Long, InetSocketAddress> recipients = new ConcurrentHashMap<Long, InetSocketAddress>();
+
+	/* Returns the active that receives the request with the given ID within
+	 * timeout, or null. A request retransmitted to another active can be
+	 * looked up again once its previous recipient has been returned. */
+	private static InetSocketAddress receiver(long requestID, long timeout)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		InetSocketAddress recipient = null;
+		while ((recipient = recipients.remove(requestID)) == null
+				&& System.currentTimeMillis() < deadline) {
+			for (InetSocketAddress active : actives)
+				for (Request request; (request = received.get(active).poll()) != null;)
+					if (request instanceof AppRequest)
+						recipients.put(((AppRequest) request).getRequestID(),
+								active);
+			Thread.sleep(10);
+		}
+		return recipient;
+	}
+
+	/**
+	 * A response carrying a lower epoch than the cached actives, as when
+	 * responses to queries get reordered, leaves the cache unchanged.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testReorderedResponseKeepsCache() throws IOException,
+			InterruptedException {
+		String name = getName();
+		AppRequest request = send(name);
+		Assert.assertTrue(queried(name, TIMEOUT));
+		respond(name, 2, actives[2]);
+		Assert.assertEquals(actives[2],
+				receiver(request.getRequestID(), TIMEOUT));
+
+		respond(name, 1, actives[1]);
+		request = send(name);
+		Assert.assertEquals(actives[2],
+				receiver(request.getRequestID(), TIMEOUT));
+		Assert.assertFalse(queried(name, TIMEOUT / 4));
+	}
+
+	/**
+	 * A request enqueued after a response that raced with its cache lookup is
+	 * released without querying again.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testRequestEnqueuedAfterResponseIsReleased()
+			throws IOException, InterruptedException {
+		String name = getName();
+		// response arrives after the lookup missed but before the enqueue
+		respond(name, 0, actives[1]);
+		AppRequest request = new AppRequest(name, "v",
+				AppRequest.PacketType.DEFAULT_APP_REQUEST, false);
+		client.enqueueAndQueryForActives(
+				client.new RequestAndCallback(request,
+						new Callback<Request, Request>() {
+							@Override
+							public Request processResponse(Request response) {
+								return response;
+							}
+						}), false);
+		Assert.assertEquals(actives[1],
+				receiver(request.getRequestID(), TIMEOUT));
+		Assert.assertFalse(queried(name, TIMEOUT / 4));
+	}
+
+	/**
+	 * An ActiveReplicaError removes the cached actives but the request is
+	 * retried with another of the actives it was sent to.
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testActiveReplicaErrorRetriesAndInvalidates()
+			throws IOException, InterruptedException {
+		String name = getName();
+		AppRequest request = send(name);
+		Assert.assertTrue(queried(name, TIMEOUT));
+		respond(name, 1, actives);
+		InetSocketAddress first = receiver(request.getRequestID(), TIMEOUT);
+		Assert.assertNotNull(first);
+
+		demultiplexer.handleMessage(new ActiveReplicaError(first, name,
+				request.getRequestID()), null);
+		InetSocketAddress retried = receiver(request.getRequestID(), TIMEOUT);
+		Assert.assertNotNull(retried);
+		Assert.assertNotEquals(first, retried);
+		Assert.assertFalse(queried(name, TIMEOUT / 4));
+
+		send(name);
+		Assert.assertTrue(queried(name, TIMEOUT));
+	}
+
+	/**
+	 * Concurrent requests for a name whose actives are not cached send a
+	 * single RequestActiveReplicas and are all released by its response.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentMissesQueryOnce() throws InterruptedException {
+		final String name = getName();
+		final int numThreads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final Set<Long> requestIDs = Collections
+				.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++)
+			(threads[i] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						requestIDs.add(send(name).getRequestID());
+					} catch (IOException | InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}).start();
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(numThreads, requestIDs.size());
+
+		Assert.assertTrue(queried(name, TIMEOUT));
+		Assert.assertFalse(queried(name, TIMEOUT / 4));
+
+		respond(name, 0, actives[1]);
+		for (long requestID : requestIDs)
+			Assert.assertEquals(actives[1], receiver(requestID, TIMEOUT));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore
+				.runClasses(ReconfigurableAppClientAsyncTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -34,6 +34,7 @@ import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.nio.AbstractPacketDemultiplexer;
 import edu.umass.cs.nio.JSONMessenger;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.NIOTransport;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.nioutils.NIOInstrumenter;
 import edu.umass.cs.reconfiguration.interfaces.ReconfigurableNodeConfig;
@@ -252,6 +253,7 @@ public abstract class ReconfigurableNode<NodeIDType> {
 		InetSocketAddress isa = new InetSocketAddress(
 				nodeConfig.getNodeAddress(myID), nodeConfig.getNodePort(myID));
 		// else we have something to start
+		NIOTransport.setNumSelectors(Config.getGlobalInt(PC.NIO_NUM_SELECTORS));
 		messenger = (new JSONMessenger<NodeIDType>(
 				(niot = new MessageNIOTransport<NodeIDType, JSONObject>(
 						ReconfigurableNode.this.myID,
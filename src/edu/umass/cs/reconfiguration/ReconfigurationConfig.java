@@ -147,6 +147,15 @@ public class ReconfigurationConfig {
 		 */
 		DEMAND_PROFILE_TYPE("edu.umass.cs.reconfiguration.reconfigurationutils.DemandProfile"),
 
+		/**
+		 * Location database used by
+		 * {@link edu.umass.cs.reconfiguration.reconfigurationutils.GeoIpDemandProfile}.
+		 * Either a MaxMind city database or, if the name ends in ".csv", a
+		 * file with lines of the form "prefix,latitude,longitude" as in
+		 * tests/geoip/locations.csv.
+		 */
+		GEOIP_DATABASE("GeoLite2-City.mmdb"),
+
 		/**
 		 * Directory where reconfiguration DB is maintained when an embedded DB
 		 * is used. Can not be changed via properties file.
@@ -232,6 +241,16 @@ public class ReconfigurationConfig {
 		 */
 		STOP_TASK_RESTART_PERIOD(2000),
 
+		/**
+		 * Maximum number of characters of a previous epoch's final state sent
+		 * in a single message. Larger final states are fetched in chunks in
+		 * parallel from the previous epoch's replicas. 0 disables chunking.
+		 * States much larger than this are better transferred as checkpoint
+		 * handles using
+		 * {@link edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer}.
+		 */
+		EPOCH_FINAL_STATE_CHUNK_SIZE(256 * 1024),
+
 		/**
 		 * Maximum string length of a demand profile message.
 		 */
@@ -243,6 +262,13 @@ public class ReconfigurationConfig {
 		 */
 		COMBINE_DEMAND_STATS(false),
 
+		/**
+		 * Period (ms) at which demand reports and pending reconfiguration
+		 * markers buffered in memory by a reconfigurator are batch-written to
+		 * its demand profile and pending tables.
+		 */
+		DEMAND_STATS_FLUSH_PERIOD(1000),
+
 		/**
 		 * If true, reconfiguration consists of committing an intent and then a
 		 * complete both via paxos. If false, reconfiguration for non-RC-group
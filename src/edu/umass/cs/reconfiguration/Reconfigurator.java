@@ -985,7 +985,7 @@ public class Reconfigurator<NodeIDType> implements
 			activeIPs.add(this.consistentNodeConfig.getNodeSocketAddress(node));
 		// to support different client facing ports
 		request.setActives(modifyPortsForSSL(activeIPs,
-				receivedOnSSLPort(request)));
+				receivedOnSSLPort(request)), record.getEpoch());
 		// this.sendClientReconfigurationPacket
 		callback.processResponse(request.makeResponse());
 		/* We message using sendActiveReplicasToClient above as opposed to
@@ -44,14 +44,19 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -129,6 +134,10 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	private static final boolean COMBINE_DEMAND_STATS = Config
 			.getGlobalBoolean(RC.COMBINE_DEMAND_STATS);// false;
+	private static final long DEMAND_STATS_FLUSH_PERIOD = Config
+			.getGlobalLong(RC.DEMAND_STATS_FLUSH_PERIOD);
+	// maximum number of names in a single demand table select
+	private static final int MAX_DEMAND_READ_BATCH_SIZE = 256;
 	private static final String CHECKPOINT_TRANSFER_DIR = "paxos_large_checkpoints";
 	private static final String FINAL_CHECKPOINT_TRANSFER_DIR = "final_checkpoints";
 
@@ -209,6 +218,37 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	private StringLocker stringLocker = new StringLocker();
 
+	/* Locks for read-modify-writes of a single RC record, striped by name so
+	 * that they need no per-name state. A record lock is acquired after,
+	 * never before, "this" or a stringLocker lock, and no record lock holder
+	 * other than one holding "this" acquires another record lock. */
+	private final Object[] recordLocks = new Object[RECORD_LOCK_STRIPES];
+
+	/* Names of RC records put into rcRecords since they were last written to
+	 * the DB, each mapped to a stamp that changes upon every put. DiskMap has
+	 * no notion of dirty entries, so rcRecords.commit() hands over every
+	 * in-memory record, and only these need to be written. */
+	private final ConcurrentHashMap<String, Long> dirtyRecords = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong dirtyStamp = new AtomicLong();
+
+	/* Demand reports not yet written to the demand table, merged per name if
+	 * COMBINE_DEMAND_STATS is set, else the latest per name. A buffered
+	 * profile is mutated only while holding its monitor. */
+	private final ConcurrentHashMap<String, AbstractDemandProfile> pendingDemand = new ConcurrentHashMap<String, AbstractDemandProfile>();
+
+	// held while writing a chunk of pendingDemand to the demand table
+	private final Object demandFlushLock = new Object();
+
+	/* Pending table changes not yet written to the DB, true to mark and false
+	 * to unmark a name as having a pending reconfiguration, the latest per
+	 * name. Like RC records cached in rcRecords, these need to be in the DB
+	 * only as of the latest checkpoint as paxos will replay the decisions
+	 * since then upon recovery. */
+	private final ConcurrentHashMap<String, Boolean> pendingWrites = new ConcurrentHashMap<String, Boolean>();
+
+	// held while writing a chunk of pendingWrites to the pending table
+	private final Object pendingFlushLock = new Object();
+
 	private ScheduledExecutorService executor;
 	Future<?> checkpointServerFuture = null;
 
@@ -217,6 +257,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	private static final Logger log = (ReconfigurationConfig.getLogger());
 	private static final int MAX_DB_BATCH_SIZE = Config
 			.getGlobalInt(PC.MAX_DB_BATCH_SIZE);
+	private static final int RECORD_LOCK_STRIPES = 256;
 
 	/**
 	 * @param myID
@@ -229,6 +270,8 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		logDirectory = (logDir == null ? SQLReconfiguratorDB.LOG_DIRECTORY
 				: logDir) + "/";
 		addDerbyPersistentReconfiguratorDB(this);
+		for (int i = 0; i < this.recordLocks.length; i++)
+			this.recordLocks[i] = new Object();
 
 		this.rcRecords = USE_DISK_MAP ? new DiskMap<String, ReconfigurationRecord<NodeIDType>>(
 				Config.getGlobalInt(PC.PINSTANCES_CAPACITY)) {
@@ -288,100 +331,182 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return this;
 	}
 
+	/* Group-commits toCommit in chunks of at most MAX_DB_BATCH_SIZE names,
+	 * each chunk in a single transaction comprising a batched update, a
+	 * batched insert of the names that did not exist, and batched deletes for
+	 * removals. Names in a chunk that could not be committed as a batch are
+	 * committed individually. Records that are not dirty are already in the
+	 * DB and are skipped. */
 	private Set<String> putReconfigurationRecordDB(
 			Map<String, ReconfigurationRecord<NodeIDType>> toCommit) {
+		Set<String> committed = new HashSet<String>();
+		Map<String, Long> stamps = new HashMap<String, Long>();
+		ArrayList<String> chunk = new ArrayList<String>();
+		for (String name : toCommit.keySet()) {
+			if (toCommit.get(name) != null) {
+				Long stamp = this.dirtyRecords.get(name);
+				if (stamp == null) {
+					committed.add(name);
+					continue;
+				}
+				stamps.put(name, stamp);
+			}
+			chunk.add(name);
+			if (chunk.size() == MAX_DB_BATCH_SIZE) {
+				committed.addAll(this.putReconfigurationRecordBatch(toCommit,
+						chunk));
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty())
+			committed.addAll(this.putReconfigurationRecordBatch(toCommit, chunk));
+
+		log.log(Level.FINE,
+				"{0} batch-committed {1}({2}) out of {3}({4})",
+				new Object[] { this, committed.size(), Util.truncatedLog(committed, 64),
+						toCommit.size(), Util.truncatedLog(toCommit.keySet(), 64) });
+		committed.addAll(this.putReconfigurationRecordIndividually(this.diff(
+				toCommit, committed)));
+		log.log(Level.FINE,
+				"{0} committed {1}({2}) out of {3}({4})",
+				new Object[] { this, committed.size(), Util.truncatedLog(committed, 64),
+						toCommit.size(), Util.truncatedLog(toCommit.keySet(), 64) });
+		// unless put again meanwhile
+		for (Map.Entry<String, Long> stamp : stamps.entrySet())
+			if (committed.contains(stamp.getKey()))
+				this.dirtyRecords.remove(stamp.getKey(), stamp.getValue());
+		return committed;
+	}
+
+	private Set<String> putReconfigurationRecordBatch(
+			Map<String, ReconfigurationRecord<NodeIDType>> toCommit,
+			List<String> names) {
 		String updateCmd = "update " + getRCRecordTable() + " set "
 				+ Columns.RC_GROUP_NAME.toString() + "=?, "
 				+ Columns.STRINGIFIED_RECORD.toString() + "=? where "
 				+ Columns.SERVICE_NAME.toString() + "=?";
+		String insertCmd = "insert into " + getRCRecordTable() + " ("
+				+ Columns.RC_GROUP_NAME.toString() + ", "
+				+ Columns.STRINGIFIED_RECORD.toString() + ", "
+				+ Columns.SERVICE_NAME.toString() + " ) values (?,?,?)";
+		String deleteCmd = "delete from " + getRCRecordTable() + " where "
+				+ Columns.SERVICE_NAME.toString() + "=?";
+		String deleteDemandCmd = "delete from " + getDemandTable() + " where "
+				+ Columns.SERVICE_NAME.toString() + "=?";
 		String cmd = updateCmd;
 
-		PreparedStatement pstmt = null;
+		PreparedStatement updatePS = null, insertPS = null, deletePS = null, deleteDemandPS = null;
 		Connection conn = null;
-		Set<String> committed = new HashSet<String>();
-		String[] keys = toCommit.keySet().toArray(new String[0]);
+		ArrayList<String> updated = new ArrayList<String>();
+		ArrayList<String> deleted = new ArrayList<String>();
+		long t = System.currentTimeMillis();
 		try {
-			ArrayList<String> batch = new ArrayList<String>();
-			for (int i = 0; i < keys.length; i++) {
-				String name = keys[i];
-				if (conn == null) {
-					conn = this.getDefaultConn();
-					conn.setAutoCommit(false);
-					pstmt = conn.prepareStatement(updateCmd);
-				}
+			conn = this.getDefaultConn();
+			conn.setAutoCommit(false);
+			for (String name : names) {
+				ReconfigurationRecord<NodeIDType> record = toCommit.get(name);
 				// removal
-				if (toCommit.get(name) == null) {
-					this.deleteReconfigurationRecordDB(name);
-					log.log(Level.INFO, "{0} deleted RC record {1}",
-							new Object[] { this, name });
-					committed.add(name);
+				if (record == null) {
+					deleted.add(name);
 					continue;
 				}
 				// else update/insert
-				String rcGroupName = toCommit.get(name).getRCGroupName();
-				if (rcGroupName == null)
-					rcGroupName = this.getRCGroupName(name);
-				pstmt.setString(1, rcGroupName);
-				if (RC_RECORD_CLOB_OPTION)
-					pstmt.setClob(2,
-							new StringReader((toCommit.get(name)).toString()));
-				else
-					pstmt.setString(2, (toCommit.get(name)).toString());
-				pstmt.setString(3, name);
-				pstmt.addBatch();
-				batch.add(name);
+				if (updatePS == null)
+					updatePS = conn.prepareStatement(cmd = updateCmd);
+				this.setRecordParameters(updatePS, record, name);
+				updatePS.addBatch();
+				updated.add(name);
+			}
 
-				int[] executed = new int[batch.size()];
-				if ((i + 1) % MAX_DB_BATCH_SIZE == 0
-						|| (i + 1) == toCommit.size()) {
-					executed = pstmt.executeBatch();
-					assert (executed.length == batch.size());
-					conn.commit();
-					pstmt.clearBatch();
-					for (int j = 0; j < executed.length; j++) {
-						if (executed[j] > 0) {
-							log.log(Level.FINE,
-									"{0}:{1} updated RC DB record to {2}",
-									new Object[] {
-											this, toCommit.get(batch.get(j)).getRCGroupName(),
-											toCommit.get(batch.get(j))
-													.getSummary() });
-							committed.add(batch.get(j));
-						} else
-							log.log(Level.FINE,
-									"{0}:{1} unable to update RC record {2} (executed={3}), will try insert",
-									new Object[] { this, toCommit.get(batch.get(j)).getRCGroupName(), batch.get(j),
-											executed[j] });
+			// insert those that did not exist
+			ArrayList<String> inserted = new ArrayList<String>();
+			if (updatePS != null) {
+				int[] executed = updatePS.executeBatch();
+				assert (executed.length == updated.size());
+				for (int j = 0; j < executed.length; j++)
+					if (executed[j] <= 0) {
+						if (insertPS == null)
+							insertPS = conn.prepareStatement(cmd = insertCmd);
+						this.setRecordParameters(insertPS,
+								toCommit.get(updated.get(j)), updated.get(j));
+						insertPS.addBatch();
+						inserted.add(updated.get(j));
 					}
-					batch.clear();
+			}
+			if (insertPS != null)
+				insertPS.executeBatch();
+
+			if (!deleted.isEmpty()) {
+				deletePS = conn.prepareStatement(cmd = deleteCmd);
+				deleteDemandPS = conn.prepareStatement(cmd = deleteDemandCmd);
+				for (String name : deleted) {
+					deletePS.setString(1, name);
+					deletePS.addBatch();
+					deleteDemandPS.setString(1, name);
+					deleteDemandPS.addBatch();
+				}
+				deletePS.executeBatch();
+				synchronized (this.demandFlushLock) {
+					for (String name : deleted)
+						this.pendingDemand.remove(name);
+					deleteDemandPS.executeBatch();
+					conn.commit();
 				}
+			} else
+				conn.commit();
+
+			for (String name : deleted) {
+				this.setPending(name, false);
+				log.log(Level.INFO, "{0} deleted RC record {1}", new Object[] {
+						this, name });
 			}
+			log.log(Level.FINE,
+					"{0} group-committed {1} updates, {2} inserts, and {3} deletes in {4} ms",
+					new Object[] { this, updated.size() - inserted.size(),
+							inserted.size(), deleted.size(),
+							(System.currentTimeMillis() - t) });
+			Set<String> committed = new HashSet<String>(updated);
+			committed.addAll(deleted);
+			return committed;
 		} catch (SQLException sqle) {
-			log.severe("SQLException while inserting RC record using " + cmd);
+			log.severe("SQLException while group-committing RC records using "
+					+ cmd);
 			sqle.printStackTrace();
+			try {
+				if (conn != null)
+					conn.rollback();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
 		} finally {
-			cleanup(pstmt);
+			cleanup(updatePS);
+			cleanup(insertPS);
+			cleanup(deletePS);
+			cleanup(deleteDemandPS);
 			cleanup(conn);
 		}
+		return new HashSet<String>();
+	}
 
-		log.log(Level.FINE,
-				"{0} batch-committed {1}({2}) out of {3}({4})",
-				new Object[] { this, committed.size(), committed,
-						toCommit.size(), toCommit.keySet() });
-		committed.addAll(this.putReconfigurationRecordIndividually(this.diff(
-				toCommit, committed)));
-		log.log(Level.FINE,
-				"{0} committed {1}({2}) out of {3}({4})",
-				new Object[] { this, committed.size(), Util.truncatedLog(committed, 64),
-						toCommit.size(), Util.truncatedLog(toCommit.keySet(), 64) });
-		return committed;
+	private void setRecordParameters(PreparedStatement pstmt,
+			ReconfigurationRecord<NodeIDType> record, String name)
+			throws SQLException {
+		String rcGroupName = record.getRCGroupName();
+		if (rcGroupName == null)
+			rcGroupName = this.getRCGroupName(name);
+		pstmt.setString(1, rcGroupName);
+		if (RC_RECORD_CLOB_OPTION)
+			pstmt.setClob(2, new StringReader(record.toString()));
+		else
+			pstmt.setString(2, record.toString());
+		pstmt.setString(3, name);
 	}
 
 	private Map<String, ReconfigurationRecord<NodeIDType>> diff(
 			Map<String, ReconfigurationRecord<NodeIDType>> map, Set<String> set) {
 		Map<String, ReconfigurationRecord<NodeIDType>> diffMap = new HashMap<String, ReconfigurationRecord<NodeIDType>>();
 		for (String s : map.keySet())
-			if (!set.contains(s) && map.get(s) != null)
+			if (!set.contains(s))
 				diffMap.put(s, map.get(s));
 		return diffMap;
 	}
@@ -394,15 +519,14 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 						toCommit.keySet() });
 		Set<String> committed = new HashSet<String>();
 		for (String name : toCommit.keySet()) {
-			String rcGroupName = toCommit.get(name).getRCGroupName();
-			if (rcGroupName == null)
-				rcGroupName = this.getRCGroupName(name);
-
 			if (toCommit.get(name) == null) {
 				this.deleteReconfigurationRecordDB(name);
 				log.log(Level.INFO, "{0} deleted RC record {1}", new Object[] {
 						this, name });
 			} else {
+				String rcGroupName = toCommit.get(name).getRCGroupName();
+				if (rcGroupName == null)
+					rcGroupName = this.getRCGroupName(name);
 				this.putReconfigurationRecordDB(toCommit.get(name), rcGroupName);
 				log.log(Level.FINE, "{0} individually committed {1}/{2} : {3}",
 						new Object[] { this, name,
@@ -424,10 +548,17 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		this(myID, nc, null);
 	}
 
+	private Object getRecordLock(String name) {
+		return this.recordLocks[(name.hashCode() & Integer.MAX_VALUE)
+				% this.recordLocks.length];
+	}
+
 	/******************** Start of overridden methods *********************/
 
+	/* Needs no lock as rcRecords is a concurrent map and a DB read is atomic.
+	 * Callers that modify the returned record must hold its record lock. */
 	@Override
-	public synchronized ReconfigurationRecord<NodeIDType> getReconfigurationRecord(
+	public ReconfigurationRecord<NodeIDType> getReconfigurationRecord(
 			String name) {
 		if (USE_DISK_MAP)
 			return this.rcRecords.get(name);
@@ -435,7 +566,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 			return this.getReconfigurationRecordDB(name);
 	}
 
-	private ReconfigurationRecord<NodeIDType> getReconfigurationRecordDB(
+	ReconfigurationRecord<NodeIDType> getReconfigurationRecordDB(
 			String name) {
 		long t0 = System.currentTimeMillis();
 		PreparedStatement pstmt = null;
@@ -466,47 +597,146 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return rcRecord;
 	}
 
+	/* Demand reports are only merged in memory here and written to the demand
+	 * table in batches by flushDemandStats, so a report costs no database
+	 * access and takes no lock other than that of the name's hash bin. */
 	@Override
-	public synchronized boolean updateDemandStats(
-			DemandReport<NodeIDType> report) {
-		JSONObject update = report.getStats();
-		JSONObject historic = getDemandStatsJSON(report.getServiceName());
-		JSONObject combined = null;
+	public boolean updateDemandStats(DemandReport<NodeIDType> report) {
+		final AbstractDemandProfile update = AbstractDemandProfile
+				.createDemandProfile(report.getStats());
+		if (update == null)
+			return false;
+		this.pendingDemand.compute(report.getServiceName(),
+				new BiFunction<String, AbstractDemandProfile, AbstractDemandProfile>() {
+					@Override
+					public AbstractDemandProfile apply(String name,
+							AbstractDemandProfile pending) {
+						if (pending == null || !shouldCombineStats())
+							return update;
+						synchronized (pending) {
+							pending.combine(update);
+						}
+						return pending;
+					}
+				});
+		return true;
+	}
+
+	/* Writes buffered demand reports to the demand table in chunks of at most
+	 * MAX_DB_BATCH_SIZE names. Readers that miss in pendingDemand wait for
+	 * the chunk being written so that they never miss a report in transit. */
+	private void flushDemandStats() {
+		for (boolean more = !this.pendingDemand.isEmpty(); more;)
+			synchronized (this.demandFlushLock) {
+				Map<String, AbstractDemandProfile> chunk = new HashMap<String, AbstractDemandProfile>();
+				for (Iterator<String> iter = this.pendingDemand.keySet()
+						.iterator(); iter.hasNext()
+						&& chunk.size() < MAX_DB_BATCH_SIZE;) {
+					String name = iter.next();
+					AbstractDemandProfile profile = this.pendingDemand
+							.remove(name);
+					if (profile != null)
+						chunk.put(name, profile);
+				}
+				more = chunk.size() >= MAX_DB_BATCH_SIZE;
+				if (!chunk.isEmpty())
+					this.putDemandStatsDB(chunk);
+			}
+	}
+
+	/* Updates or else inserts the demand profiles in a single transaction,
+	 * combining them with the historic profiles in the demand table first if
+	 * COMBINE_DEMAND_STATS is set. */
+	private void putDemandStatsDB(Map<String, AbstractDemandProfile> profiles) {
+		Map<String, JSONObject> historic = shouldCombineStats() ? this
+				.getDemandStatsJSON(profiles.keySet())
+				: new HashMap<String, JSONObject>();
+		String[] names = profiles.keySet().toArray(new String[0]);
+		String[] stats = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			AbstractDemandProfile combined = historic.containsKey(names[i]) ? AbstractDemandProfile
+					.createDemandProfile(historic.get(names[i])) : null;
+			if (combined != null)
+				combined.combine(profiles.get(names[i]));
+			else
+				combined = profiles.get(names[i]);
+			stats[i] = combined.getDemandStats().toString();
+		}
+
 		String insertCmd = "insert into " + getDemandTable() + " ("
 				+ Columns.DEMAND_PROFILE.toString() + ", "
 				+ Columns.SERVICE_NAME.toString() + " ) values (?,?)";
 		String updateCmd = "update " + getDemandTable() + " set "
 				+ Columns.DEMAND_PROFILE.toString() + "=? where "
 				+ Columns.SERVICE_NAME.toString() + "=?";
-		String cmd = historic != null ? updateCmd : insertCmd;
-		combined = update;
-		if (historic != null && shouldCombineStats())
-			combined = combineStats(historic, update);
-
-		PreparedStatement insertCP = null;
+		String cmd = updateCmd;
+		PreparedStatement updateDP = null, insertDP = null;
 		Connection conn = null;
+		long t = System.currentTimeMillis();
 		try {
 			conn = this.getDefaultConn();
-			insertCP = conn.prepareStatement(cmd);
-			if (DEMAND_PROFILE_CLOB_OPTION)
-				insertCP.setClob(1, new StringReader(combined.toString()));
-			else
-				insertCP.setString(1, combined.toString());
-			insertCP.setString(2, report.getServiceName());
-			insertCP.executeUpdate();
-			// conn.commit();
+			conn.setAutoCommit(false);
+			updateDP = conn.prepareStatement(updateCmd);
+			for (int i = 0; i < names.length; i++) {
+				this.setDemandProfile(updateDP, names[i], stats[i]);
+				updateDP.addBatch();
+			}
+			int[] executed = updateDP.executeBatch();
+			int inserts = 0;
+			for (int i = 0; i < executed.length; i++)
+				if (executed[i] == 0) {
+					if (insertDP == null)
+						insertDP = conn.prepareStatement(cmd = insertCmd);
+					this.setDemandProfile(insertDP, names[i], stats[i]);
+					insertDP.addBatch();
+					inserts++;
+				}
+			if (insertDP != null)
+				insertDP.executeBatch();
+			conn.commit();
+			log.log(Level.FINE,
+					"{0} batch-wrote {1} demand profiles ({2} new) in {3} ms",
+					new Object[] { this, names.length, inserts,
+							(System.currentTimeMillis() - t) });
 		} catch (SQLException sqle) {
-			log.severe("SQLException while updating stats using " + cmd);
+			log.severe("SQLException while batch-writing demand stats using "
+					+ cmd);
 			sqle.printStackTrace();
 		} finally {
-			cleanup(insertCP);
+			cleanup(updateDP);
+			cleanup(insertDP);
 			cleanup(conn);
 		}
-		return true;
+	}
+
+	private void setDemandProfile(PreparedStatement pstmt, String name,
+			String stats) throws SQLException {
+		if (DEMAND_PROFILE_CLOB_OPTION)
+			pstmt.setClob(1, new StringReader(stats));
+		else
+			pstmt.setString(1, stats);
+		pstmt.setString(2, name);
+	}
+
+	private JSONObject getPendingDemandStats(String name) {
+		AbstractDemandProfile pending = this.pendingDemand.get(name);
+		if (pending == null)
+			return null;
+		synchronized (pending) {
+			return pending.getDemandStats();
+		}
+	}
+
+	// drops buffered demand too and can not race with a flush of name
+	private void deleteDemandStats(String name) {
+		synchronized (this.demandFlushLock) {
+			this.pendingDemand.remove(name);
+			this.deleteReconfigurationRecord(name, this.getDemandTable());
+		}
 	}
 
 	@Override
-	public synchronized boolean setState(String name, int epoch,
+	public boolean setState(String name, int epoch,
 			ReconfigurationRecord.RCStates state) {
 		return this.setStateMerge(name, epoch, state, null, null);
 	}
@@ -516,81 +746,81 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	 * READY usually to WAIT_ACK_STOP. */
 
 	@Override
-	public synchronized boolean setStateMerge(String name, int epoch,
+	public boolean setStateMerge(String name, int epoch,
 			ReconfigurationRecord.RCStates state, Set<NodeIDType> newActives,
 			Set<String> mergees) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		if (record == null)
-			return false;
+		synchronized (this.getRecordLock(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			if (record == null)
+				return false;
 
-		log.log(Level.INFO,
-				"==============================> {0} {1} {2}:{3} -> {4}:{5} {6} {7} {8}",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), epoch, state,
-						record.getNewActives(),
-						mergees != null && !mergees.isEmpty() ? mergees : "",
-						isUnclean(record) ? "(unclean)" : "" });
-
-		record.setStateMerge(name, epoch, state, mergees);
-		// setStateInitReconfiguration used for intent
-		assert (state.equals(RCStates.READY)
-				|| state.equals(RCStates.READY_READY) || state
-					.equals(RCStates.WAIT_DELETE));
-		if (record.isReady()) {
-			record.setActivesToNewActives(newActives);
-			/* The list of pending reconfigurations is stored persistently so
-			 * that we can resume the most recent incomplete reconfiguration
-			 * upon recovery. The ones before the most recent will be handled by
-			 * paxos roll forward automatically. The reason paxos is not enough
-			 * for the most recent one is because reconfiguration is (at least)
-			 * a two step process consisting of an "intent" followed by a
-			 * "complete" operation. Paxos will blindly replay all committed
-			 * operations but has no way of knowing application-specific
-			 * information like the fact that an intent has to be followed by
-			 * complete. So if the node crashes after an intent but before the
-			 * corresponding complete, the app has to redo just that last step.
-			 * 
-			 * FIXME: setPending is invoked twice during each reconfiguration,
-			 * which touches the DB and slows down reconfiguration. But we can
-			 * not simply use DiskMap like for the main records table because
-			 * the pending table is not backed up by paxos. One fix is to use
-			 * DiskMap and also include the pending table information in paxos
-			 * checkpoints so that paxos can restore it upon recovery. Then,
-			 * reconfiguration can proceed essentially at half of paxos
-			 * throughput. */
-			if (record.isReconfigurationReady())
-				this.setPending(name, false);
-			/* Trimming RC epochs is needed only for the NODE_CONFIG record. It
-			 * removes entries for deleted RC nodes. The entries maintain the
-			 * current epoch number for the group corresponding to each RC node
-			 * in NODE_CONFIG. This information is needed in order for nodes to
-			 * know from what current epoch number to reconfigure to the next
-			 * epoch number when the corresponding RC groups may be out of date
-			 * locally or may not even exist locally. A simpler alternative is
-			 * to force all RC groups to reconfigure upon the addition or
-			 * deletion of any RC nodes so that RC group epoch numbers are
-			 * always identical to the NODE_CONFIG epoch number, but this is
-			 * unsatisfying as it does not preserve the "consistent hashing"
-			 * like property for reconfigurations, i.e., ideally only
-			 * reconfigurators on the ring near an added or deleted
-			 * reconfigurator should be affected. Note that even a "trivial"
-			 * reconfiguration, i.e., when there is no actual change in an RC
-			 * group, must go through the stop, start, drop sequence for
-			 * correctness, and that process involves checkpointing and
-			 * restoring locally from the checkpoint. Even though the
-			 * checkpoints are local, it can take a long time for a large number
-			 * of records, so it is better avoided when not needed.
-			 * 
-			 * A downside of allowing different epoch numbers for different
-			 * groups is that manual intervention if ever needed will be
-			 * harrowing. It is much simpler to track out of date RC nodes when
-			 * all RC group epoch numbers are known to be identical to the
-			 * NODE_CONFIG epoch number. */
-			record.trimRCEpochs();
-		}
-		this.putReconfigurationRecord(record);
-		return true;
+			log.log(Level.INFO,
+					"==============================> {0} {1} {2}:{3} -> {4}:{5} {6} {7} {8}",
+					new Object[] { this, record.getName(), record.getEpoch(),
+							record.getState(), epoch, state,
+							record.getNewActives(),
+							mergees != null && !mergees.isEmpty() ? mergees : "",
+							isUnclean(record) ? "(unclean)" : "" });
+
+			record.setStateMerge(name, epoch, state, mergees);
+			// setStateInitReconfiguration used for intent
+			assert (state.equals(RCStates.READY)
+					|| state.equals(RCStates.READY_READY) || state
+						.equals(RCStates.WAIT_DELETE));
+			if (record.isReady()) {
+				record.setActivesToNewActives(newActives);
+				/* The list of pending reconfigurations is stored persistently so
+				 * that we can resume the most recent incomplete reconfiguration
+				 * upon recovery. The ones before the most recent will be handled by
+				 * paxos roll forward automatically. The reason paxos is not enough
+				 * for the most recent one is because reconfiguration is (at least)
+				 * a two step process consisting of an "intent" followed by a
+				 * "complete" operation. Paxos will blindly replay all committed
+				 * operations but has no way of knowing application-specific
+				 * information like the fact that an intent has to be followed by
+				 * complete. So if the node crashes after an intent but before the
+				 * corresponding complete, the app has to redo just that last step.
+				 * 
+				 * setPending is invoked twice during each reconfiguration, so it
+				 * only buffers the change in memory. The pending table is not
+				 * backed up by paxos checkpoints, but buffered changes are written
+				 * to the DB upon every checkpoint, so paxos roll forward from the
+				 * checkpoint upon recovery will redo any setPending calls whose
+				 * changes were lost. */
+				if (record.isReconfigurationReady())
+					this.setPending(name, false);
+				/* Trimming RC epochs is needed only for the NODE_CONFIG record. It
+				 * removes entries for deleted RC nodes. The entries maintain the
+				 * current epoch number for the group corresponding to each RC node
+				 * in NODE_CONFIG. This information is needed in order for nodes to
+				 * know from what current epoch number to reconfigure to the next
+				 * epoch number when the corresponding RC groups may be out of date
+				 * locally or may not even exist locally. A simpler alternative is
+				 * to force all RC groups to reconfigure upon the addition or
+				 * deletion of any RC nodes so that RC group epoch numbers are
+				 * always identical to the NODE_CONFIG epoch number, but this is
+				 * unsatisfying as it does not preserve the "consistent hashing"
+				 * like property for reconfigurations, i.e., ideally only
+				 * reconfigurators on the ring near an added or deleted
+				 * reconfigurator should be affected. Note that even a "trivial"
+				 * reconfiguration, i.e., when there is no actual change in an RC
+				 * group, must go through the stop, start, drop sequence for
+				 * correctness, and that process involves checkpointing and
+				 * restoring locally from the checkpoint. Even though the
+				 * checkpoints are local, it can take a long time for a large number
+				 * of records, so it is better avoided when not needed.
+				 * 
+				 * A downside of allowing different epoch numbers for different
+				 * groups is that manual intervention if ever needed will be
+				 * harrowing. It is much simpler to track out of date RC nodes when
+				 * all RC group epoch numbers are known to be identical to the
+				 * NODE_CONFIG epoch number. */
+				record.trimRCEpochs();
+			}
+			this.putReconfigurationRecord(record);
+			return true;
+		}
 	}
 
 	private boolean isUnclean(ReconfigurationRecord<?> record) {
@@ -601,62 +831,73 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	 * only be changed to WAIT_ACK_STOP. The epoch argument must also match the
 	 * current epoch number. */
 	@Override
-	public synchronized boolean setStateInitReconfiguration(String name,
+	public boolean setStateInitReconfiguration(String name,
 			int epoch, RCStates state, Set<NodeIDType> newActives) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		assert (record != null && ((!TWO_PAXOS_RC && epoch - record.getEpoch() >= 0) || epoch
-				- record.getEpoch() == 0)) : epoch + "!=" + record.getEpoch()
-				+ " at " + myID + " for " + record.getSummary();
-		if (!record.isReady()) {
-			log.log(Level.WARNING,
-					"{0} {1}:{2} not ready for transition to {3}:{4}:{5}",
+		synchronized (this.getRecordLock(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			assert (record != null && ((!TWO_PAXOS_RC && epoch - record.getEpoch() >= 0) || epoch
+					- record.getEpoch() == 0)) : epoch + "!=" + record.getEpoch()
+					+ " at " + myID + " for " + record.getSummary();
+			if (!record.isReady()) {
+				log.log(Level.WARNING,
+						"{0} {1}:{2} not ready for transition to {3}:{4}:{5}",
+						new Object[] { this, record.getName(), record.getEpoch(),
+								name, epoch, state });
+				return false;
+			}
+			assert (state.equals(RCStates.WAIT_ACK_STOP));
+			log.log(Level.INFO,
+					"==============================> {0} {1} {2}:{3} -> {4}:{5} {6}",
 					new Object[] { this, record.getName(), record.getEpoch(),
-							name, epoch, state });
-			return false;
+							record.getState(), epoch, state, newActives });
+			record.setState(name, epoch, state, newActives);
+			// during recovery, we can already have the reconfiguration pending
+			this.setPending(name, true, true);
+			this.putReconfigurationRecord(record);
+
+			record = this.getReconfigurationRecord(name);
+			assert (!name.equals(AbstractReconfiguratorDB.RecordNames.RC_NODES
+					.toString()) || !record.getActiveReplicas().equals(
+					record.getNewActives()));
+			return true;
 		}
-		assert (state.equals(RCStates.WAIT_ACK_STOP));
-		log.log(Level.INFO,
-				"==============================> {0} {1} {2}:{3} -> {4}:{5} {6}",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), epoch, state, newActives });
-		record.setState(name, epoch, state, newActives);
-		// during recovery, we can already have the reconfiguration pending
-		this.setPending(name, true, true);
-		this.putReconfigurationRecord(record);
-
-		record = this.getReconfigurationRecord(name);
-		assert (!name.equals(AbstractReconfiguratorDB.RecordNames.RC_NODES
-				.toString()) || !record.getActiveReplicas().equals(
-				record.getNewActives()));
-		return true;
 	}
 
 	private static final boolean USE_DISK_MAP = Config
 			.getGlobalBoolean(RC.USE_DISK_MAP_RCDB);
 
-	private synchronized void putReconfigurationRecord(
+	private void putReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> rcRecord) {
-		if (USE_DISK_MAP)
-			this.rcRecords.put(rcRecord.getName(), rcRecord);
-		else
-			this.putReconfigurationRecordDB(rcRecord,
-					this.getRCGroupName(rcRecord.getName()));
+		synchronized (this.getRecordLock(rcRecord.getName())) {
+			if (USE_DISK_MAP) {
+				this.markDirty(rcRecord.getName());
+				this.rcRecords.put(rcRecord.getName(), rcRecord);
+			} else
+				this.putReconfigurationRecordDB(rcRecord,
+						this.getRCGroupName(rcRecord.getName()));
+		}
 	}
 
-	private synchronized void putReconfigurationRecord(
+	private void putReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> rcRecord, String rcGroupName) {
-		if (USE_DISK_MAP) {
-			this.rcRecords.put(rcRecord.getName(),
-					rcRecord.setRCGroupName(rcGroupName));
-		} else
-			this.putReconfigurationRecordDB(rcRecord, rcGroupName);
+		synchronized (this.getRecordLock(rcRecord.getName())) {
+			if (USE_DISK_MAP) {
+				rcRecord.setRCGroupName(rcGroupName);
+				this.markDirty(rcRecord.getName());
+				this.rcRecords.put(rcRecord.getName(), rcRecord);
+			} else
+				this.putReconfigurationRecordDB(rcRecord, rcGroupName);
+		}
+	}
+
+	// must be invoked after the record is modified and before it is put
+	private void markDirty(String name) {
+		this.dirtyRecords.put(name, this.dirtyStamp.incrementAndGet());
 	}
 
 	private void putReconfigurationRecordDB(
 			ReconfigurationRecord<NodeIDType> rcRecord, String rcGroupName) {
-		ReconfigurationRecord<NodeIDType> prev = this
-				.getReconfigurationRecordDB(rcRecord.getName());
 		String insertCmd = "insert into " + getRCRecordTable() + " ("
 				+ Columns.RC_GROUP_NAME.toString() + ", "
 				+ Columns.STRINGIFIED_RECORD.toString() + ", "
@@ -665,7 +906,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 				+ Columns.RC_GROUP_NAME.toString() + "=?, "
 				+ Columns.STRINGIFIED_RECORD.toString() + "=? where "
 				+ Columns.SERVICE_NAME.toString() + "=?";
-		String cmd = prev != null ? updateCmd : insertCmd;
+		String cmd = updateCmd;
 
 		rcRecord.setRCGroupName(rcGroupName);
 
@@ -673,14 +914,16 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		Connection conn = null;
 		try {
 			conn = this.getDefaultConn();
+			// update and insert only if absent instead of selecting first
 			insertCP = conn.prepareStatement(cmd);
-			insertCP.setString(1, rcGroupName);
-			if (RC_RECORD_CLOB_OPTION)
-				insertCP.setClob(2, new StringReader(rcRecord.toString()));
-			else
-				insertCP.setString(2, rcRecord.toString());
-			insertCP.setString(3, rcRecord.getName());
-			insertCP.executeUpdate();
+			this.setRecordParameters(insertCP, rcRecord, rcRecord.getName());
+			if (insertCP.executeUpdate() == 0) {
+				insertCP.close();
+				insertCP = conn.prepareStatement(cmd = insertCmd);
+				this.setRecordParameters(insertCP, rcRecord,
+						rcRecord.getName());
+				insertCP.executeUpdate();
+			}
 			// conn.commit();
 		} catch (SQLException sqle) {
 			log.severe("SQLException while inserting RC record using " + cmd);
@@ -749,17 +992,20 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized boolean deleteReconfigurationRecord(String name,
+	public boolean deleteReconfigurationRecord(String name,
 			int epoch) {
-		if (USE_DISK_MAP) {
-			ReconfigurationRecord<NodeIDType> record = this
-					.getReconfigurationRecord(name);
-			if (record != null && record.getEpoch() == epoch)
-				return this.rcRecords.remove(name) != null;
-			else
-				return false;
-		} else
-			return this.deleteReconfigurationRecordDB(name, epoch);
+		synchronized (this.getRecordLock(name)) {
+			if (USE_DISK_MAP) {
+				ReconfigurationRecord<NodeIDType> record = this
+						.getReconfigurationRecord(name);
+				if (record != null && record.getEpoch() == epoch) {
+					this.dirtyRecords.remove(name);
+					return this.rcRecords.remove(name) != null;
+				} else
+					return false;
+			} else
+				return this.deleteReconfigurationRecordDB(name, epoch);
+		}
 	}
 
 	private boolean deleteReconfigurationRecordDB(String name,
@@ -776,8 +1022,8 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 				new Object[] { this, name });
 		boolean deleted = this.deleteReconfigurationRecord(name,
 				this.getRCRecordTable());
-		this.deleteReconfigurationRecord(name, this.getPendingTable());
-		this.deleteReconfigurationRecord(name, this.getDemandTable());
+		this.setPending(name, false);
+		this.deleteDemandStats(name);
 		return deleted;
 	}
 
@@ -786,41 +1032,45 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized boolean markDeleteReconfigurationRecord(String name,
+	public boolean markDeleteReconfigurationRecord(String name,
 			int epoch) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		if (record == null)
-			return false;
-		assert (record.getEpoch() == epoch);
+		synchronized (this.getRecordLock(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			if (record == null)
+				return false;
+			assert (record.getEpoch() == epoch);
 
-		// READY possible under merge operations
-		assert (record.getState().equals(RCStates.WAIT_ACK_STOP)) : record;
-		log.log(Level.INFO, MyLogger.FORMAT[4], new Object[] {
-				"==============================> ", this, name, " ->",
-				"DELETE PENDING" });
+			// READY possible under merge operations
+			assert (record.getState().equals(RCStates.WAIT_ACK_STOP)) : record;
+			log.log(Level.INFO, MyLogger.FORMAT[4], new Object[] {
+					"==============================> ", this, name, " ->",
+					"DELETE PENDING" });
 
-		record.setState(name, epoch, RCStates.WAIT_DELETE);
-		this.putReconfigurationRecord(record);
+			record.setState(name, epoch, RCStates.WAIT_DELETE);
+			this.putReconfigurationRecord(record);
 
-		// not necessary to delete demand right here
-		this.deleteReconfigurationRecord(name, this.getDemandTable());
-		return true;
+			// not necessary to delete demand right here
+			this.deleteDemandStats(name);
+			return true;
+		}
 	}
 
 	// This also sets newActives
 	@Override
-	public synchronized ReconfigurationRecord<NodeIDType> createReconfigurationRecord(
+	public ReconfigurationRecord<NodeIDType> createReconfigurationRecord(
 			ReconfigurationRecord<NodeIDType> record) {
-		if (this.getReconfigurationRecord(record.getName()) != null)
-			return null;
-		log.log(Level.INFO,
-				"==============================> {0} [] -> {1}:{2} {3} {4} ",
-				new Object[] { this, record.getName(), record.getEpoch(),
-						record.getState(), record.getNewActives() });
-		this.putReconfigurationRecord(record);
-		// put will be successful or throw an exception
-		return record;
+		synchronized (this.getRecordLock(record.getName())) {
+			if (this.getReconfigurationRecord(record.getName()) != null)
+				return null;
+			log.log(Level.INFO,
+					"==============================> {0} [] -> {1}:{2} {3} {4} ",
+					new Object[] { this, record.getName(), record.getEpoch(),
+							record.getState(), record.getNewActives() });
+			this.putReconfigurationRecord(record);
+			// put will be successful or throw an exception
+			return record;
+		}
 	}
 
 	/******************** Incomplete paxos methods below **************/
@@ -840,6 +1090,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 								this.rcRecords });
 				this.rcRecords.commit();
 			}
+			this.flushPendingWrites();
 
 			PreparedStatement pstmt = null;
 			ResultSet recordRS = null;
@@ -992,12 +1243,24 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	@Override
 	public String getDemandStats(String name) {
-		JSONObject stats = this.getDemandStatsJSON(name);
+		JSONObject pending = this.getPendingDemandStats(name);
+		if (pending != null && !shouldCombineStats())
+			return pending.toString();
+		JSONObject historic = null;
+		// so that reports being flushed are counted exactly once
+		synchronized (this.demandFlushLock) {
+			historic = this.getDemandStatsJSON(name);
+			pending = this.getPendingDemandStats(name);
+		}
+		JSONObject stats = pending == null ? historic
+				: historic == null || !shouldCombineStats() ? pending
+						: combineStats(historic, pending);
 		return stats != null ? stats.toString() : null;
 	}
 
 	@Override
 	public String[] getPendingReconfigurations() {
+		this.flushPendingWrites();
 		PreparedStatement pstmt = null;
 		ResultSet recordRS = null;
 		Connection conn = null;
@@ -1025,24 +1288,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	@Override
 	public void removePending(String name) {
-		PreparedStatement pstmt = null;
-		ResultSet recordRS = null;
-		Connection conn = null;
-		try {
-			conn = this.getDefaultConn();
-			pstmt = conn.prepareStatement("delete from " + getPendingTable()
-					+ " where " + Columns.SERVICE_NAME.toString() + "='" + name
-					+ "'");
-			pstmt.execute();
-		} catch (SQLException e) {
-			log.severe(
-					this.myID
-					+ " SQLException while removing unnecessary pending reconfiguration entries");
-			e.printStackTrace();
-		} finally {
-			cleanup(pstmt, recordRS);
-			cleanup(conn);
-		}
+		this.setPending(name, false);
 	}
 
 	/******************** End of overridden methods *********************/
@@ -1053,33 +1299,87 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return this.setPending(name, set, false);
 	}
 
+	/* Only buffers the change in pendingWrites as all changes are written to
+	 * the pending table in batches by flushPendingWrites. Exceptions can no
+	 * longer occur here, so suppressExceptions is unused. */
 	private boolean setPending(String name, boolean set,
 			boolean suppressExceptions) {
-		String cmd = "insert into " + getPendingTable() + " ("
-				+ Columns.SERVICE_NAME.toString() + " ) values (?)";
-		if (!set)
-			cmd = "delete from " + getPendingTable() + " where "
-					+ Columns.SERVICE_NAME.toString() + "=?";
+		this.pendingWrites.put(name, set);
+		return true;
+	}
 
-		PreparedStatement insertCP = null;
+	/* Writes buffered pending table changes in chunks of at most
+	 * MAX_DB_BATCH_SIZE names, each in a single transaction. Changes that
+	 * could not be written are restored unless superseded meanwhile. */
+	private void flushPendingWrites() {
+		for (boolean more = !this.pendingWrites.isEmpty(); more;)
+			synchronized (this.pendingFlushLock) {
+				Map<String, Boolean> chunk = new HashMap<String, Boolean>();
+				for (Iterator<Map.Entry<String, Boolean>> iter = this.pendingWrites
+						.entrySet().iterator(); iter.hasNext()
+						&& chunk.size() < MAX_DB_BATCH_SIZE;) {
+					Map.Entry<String, Boolean> entry = iter.next();
+					if (this.pendingWrites.remove(entry.getKey(),
+							entry.getValue()))
+						chunk.put(entry.getKey(), entry.getValue());
+				}
+				more = chunk.size() >= MAX_DB_BATCH_SIZE;
+				if (!chunk.isEmpty() && !this.putPendingDB(chunk)) {
+					for (Map.Entry<String, Boolean> entry : chunk.entrySet())
+						this.pendingWrites.putIfAbsent(entry.getKey(),
+								entry.getValue());
+					break;
+				}
+			}
+	}
+
+	/* Deletes all names in pending and then inserts those marked, so that
+	 * marking an already marked name is not an error. */
+	private boolean putPendingDB(Map<String, Boolean> pending) {
+		String deleteCmd = "delete from " + getPendingTable() + " where "
+				+ Columns.SERVICE_NAME.toString() + "=?";
+		String insertCmd = "insert into " + getPendingTable() + " ("
+				+ Columns.SERVICE_NAME.toString() + " ) values (?)";
+		String cmd = deleteCmd;
+		PreparedStatement deletePS = null, insertPS = null;
 		Connection conn = null;
+		long t = System.currentTimeMillis();
+		int inserts = 0;
 		try {
 			conn = this.getDefaultConn();
-			insertCP = conn.prepareStatement(cmd);
-			insertCP.setString(1, name);
-			insertCP.executeUpdate();
-			// conn.commit();
-		} catch (SQLException sqle) {
-			if (!suppressExceptions) {
-				log.severe("SQLException while modifying pending table with "
-						+ name + ":" + set);
-				sqle.printStackTrace();
+			conn.setAutoCommit(false);
+			deletePS = conn.prepareStatement(deleteCmd);
+			for (String name : pending.keySet()) {
+				deletePS.setString(1, name);
+				deletePS.addBatch();
 			}
+			deletePS.executeBatch();
+			for (Map.Entry<String, Boolean> entry : pending.entrySet())
+				if (entry.getValue()) {
+					if (insertPS == null)
+						insertPS = conn.prepareStatement(cmd = insertCmd);
+					insertPS.setString(1, entry.getKey());
+					insertPS.addBatch();
+					inserts++;
+				}
+			if (insertPS != null)
+				insertPS.executeBatch();
+			conn.commit();
+			log.log(Level.FINE,
+					"{0} batch-wrote {1} pending table changes ({2} marked) in {3} ms",
+					new Object[] { this, pending.size(), inserts,
+							(System.currentTimeMillis() - t) });
+			return true;
+		} catch (SQLException sqle) {
+			log.severe("SQLException while batch-modifying pending table using "
+					+ cmd);
+			sqle.printStackTrace();
 		} finally {
-			cleanup(insertCP);
+			cleanup(deletePS);
+			cleanup(insertPS);
 			cleanup(conn);
 		}
-		return true;
+		return false;
 	}
 
 	private boolean deleteReconfigurationRecord(String name, String table) {
@@ -1132,6 +1432,47 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return demandStats;
 	}
 
+	private Map<String, JSONObject> getDemandStatsJSON(Set<String> names) {
+		String[] keys = names.toArray(new String[0]);
+		Map<String, JSONObject> demandStats = new HashMap<String, JSONObject>();
+		PreparedStatement pstmt = null;
+		ResultSet recordRS = null;
+		Connection conn = null;
+		try {
+			conn = this.getDefaultConn();
+			for (int i = 0; i < keys.length; i += MAX_DEMAND_READ_BATCH_SIZE) {
+				int n = Math.min(MAX_DEMAND_READ_BATCH_SIZE, keys.length - i);
+				// only the last chunk can be smaller
+				if (pstmt == null || n < MAX_DEMAND_READ_BATCH_SIZE) {
+					cleanup(pstmt);
+					String cmd = "select " + Columns.SERVICE_NAME.toString()
+							+ ", " + Columns.DEMAND_PROFILE.toString()
+							+ " from " + getDemandTable() + " where "
+							+ Columns.SERVICE_NAME.toString() + " in (?";
+					for (int j = 1; j < n; j++)
+						cmd += ",?";
+					pstmt = conn.prepareStatement(cmd + ")");
+				}
+				for (int j = 0; j < n; j++)
+					pstmt.setString(j + 1, keys[i + j]);
+				recordRS = pstmt.executeQuery();
+				while (recordRS.next())
+					demandStats.put(recordRS.getString(1), new JSONObject(
+							recordRS.getString(2)));
+				cleanup(recordRS);
+			}
+		} catch (SQLException | JSONException e) {
+			log.severe((e instanceof SQLException ? "SQL" : "JSON")
+					+ "Exception while getting demand stats for "
+					+ keys.length + " names:");
+			e.printStackTrace();
+		} finally {
+			cleanup(pstmt, recordRS);
+			cleanup(conn);
+		}
+		return demandStats;
+	}
+
 	private boolean shouldCombineStats() {
 		return COMBINE_DEMAND_STATS;
 	}
@@ -1160,7 +1501,26 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 				"{0} initializing with RC records in DB = {1}",
 				new Object[] { this,
 						this.getNodeConfigRecords(this.consistentNodeConfig) });
-		return initCheckpointServer();
+		return initCheckpointServer() && initDemandStatsFlush();
+	}
+
+	private boolean initDemandStatsFlush() {
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flushDemandStats();
+					flushPendingWrites();
+				} catch (RuntimeException e) {
+					// else subsequent flushes will be suppressed
+					log.severe(SQLReconfiguratorDB.this + " incurred " + e
+							+ " while flushing demand stats or pending table changes");
+					e.printStackTrace();
+				}
+			}
+		}, DEMAND_STATS_FLUSH_PERIOD, DEMAND_STATS_FLUSH_PERIOD,
+				TimeUnit.MILLISECONDS);
+		return true;
 	}
 
 	// used only for debugging
@@ -2009,6 +2369,8 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 					new Object[] {
 							this,
 							this.getNodeConfigRecords(this.consistentNodeConfig) });
+		this.flushDemandStats();
+		this.flushPendingWrites();
 		this.rcRecords.close(false);
 		try {
 			this.serverSock.close();
@@ -2472,37 +2834,40 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		return added;
 	}
 
-	/* The double synchronized is because we need to synchronize over "this" to
+	/* The triple synchronized is because we need to synchronize over "this" to
 	 * perform testAndSet checks over record, but we have to do that after,
 	 * never before, stringLocker lock. The stringLocker lock is so that we
 	 * don't have to lock all records in order to just synchronize a single
-	 * group's getState or updateState. */
+	 * group's getState or updateState. The record lock is innermost and keeps
+	 * single-record updates of rcGroupName out while it is being merged. */
 	@Override
 	public boolean mergeState(String rcGroupName, int epoch, String mergee,
 			int mergeeEpoch, String state) {
 		synchronized (this.stringLocker.get(rcGroupName)) {
 			synchronized (this) {
-				ReconfigurationRecord<NodeIDType> record = this
-						.getReconfigurationRecord(rcGroupName);
-
-				assert (record.getEpoch() == epoch);
-				if (!record.hasBeenMerged(mergee))
-					if (this.updateState(rcGroupName, state, mergee)) {
-						record.insertMerged(mergee);
-						this.putReconfigurationRecord(record);
-						// delete mergee RC record as it must have been stopped
-						this.setMergeeStateToWaitDelete(mergee, mergeeEpoch);
-						log.log(Level.INFO,
-								"{0} merged state from {1}:{2} into {3}:{4}",
-								new Object[] { this, mergee, mergeeEpoch,
-										rcGroupName, epoch, });
-					} else
-						log.warning(this + " attempt to merge " + mergee + ":"
-								+ mergeeEpoch + " failed.");
-				if (record.isReconfigurationReady())
-					this.setPending(rcGroupName, false, true);
-				// paxos will still always see a true return value
-				return record.hasBeenMerged(mergee);
+				synchronized (this.getRecordLock(rcGroupName)) {
+					ReconfigurationRecord<NodeIDType> record = this
+							.getReconfigurationRecord(rcGroupName);
+
+					assert (record.getEpoch() == epoch);
+					if (!record.hasBeenMerged(mergee))
+						if (this.updateState(rcGroupName, state, mergee)) {
+							record.insertMerged(mergee);
+							this.putReconfigurationRecord(record);
+							// delete mergee RC record as it must have been stopped
+							this.setMergeeStateToWaitDelete(mergee, mergeeEpoch);
+							log.log(Level.INFO,
+									"{0} merged state from {1}:{2} into {3}:{4}",
+									new Object[] { this, mergee, mergeeEpoch,
+											rcGroupName, epoch, });
+						} else
+							log.warning(this + " attempt to merge " + mergee + ":"
+									+ mergeeEpoch + " failed.");
+					if (record.isReconfigurationReady())
+						this.setPending(rcGroupName, false, true);
+					// paxos will still always see a true return value
+					return record.hasBeenMerged(mergee);
+				}
 			}
 		}
 	}
@@ -2524,13 +2889,15 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 	}
 
 	@Override
-	public synchronized void clearMerged(String rcGroupName, int epoch) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(rcGroupName, epoch);
-		if (record == null)
-			return;
-		record.clearMerged();
-		this.putReconfigurationRecord(record);
+	public void clearMerged(String rcGroupName, int epoch) {
+		synchronized (this.getRecordLock(rcGroupName)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(rcGroupName, epoch);
+			if (record == null)
+				return;
+			record.clearMerged();
+			this.putReconfigurationRecord(record);
+		}
 	}
 
 	@Override
@@ -2543,11 +2910,13 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 
 	@Override
 	public boolean mergeIntent(String name, int epoch, String mergee) {
-		ReconfigurationRecord<NodeIDType> record = this
-				.getReconfigurationRecord(name);
-		boolean added = record.addToMerge(mergee);
-		this.putReconfigurationRecord(record);
-		return added;
+		synchronized (this.getRecordLock(name)) {
+			ReconfigurationRecord<NodeIDType> record = this
+					.getReconfigurationRecord(name);
+			boolean added = record.addToMerge(mergee);
+			this.putReconfigurationRecord(record);
+			return added;
+		}
 	}
 
 	private boolean recordLongPendingDelete(
@@ -2596,7 +2965,8 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 		if (USE_DISK_MAP) {
 			boolean insertedAll = true;
 			Set<String> inserted = new HashSet<String>();
-			for (String name : nameStates.keySet())
+			for (String name : nameStates.keySet()) {
+				this.markDirty(name);
 				/* We just directly initialize with WAIT_ACK_STOP:-1 instead of
 				 * starting with READY:-1 and pretending to go through the whole
 				 * reconfiguration protocol sequence. */
@@ -2606,6 +2976,7 @@ public class SQLReconfiguratorDB<NodeIDType> extends
 										newActives, policy).setState(name, -1,
 										RCStates.WAIT_ACK_STOP)) == null))
 					inserted.add(name);
+			}
 
 			if (!insertedAll)
 				// rollback
@@ -0,0 +1,175 @@
+package edu.umass.cs.reconfiguration;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentReconfigurableNodeConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurableSampleNodeConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ReconfigurationRecord.RCStates;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Test class for {@link SQLReconfiguratorDB} RC record writes.
+ */
+public class SQLReconfiguratorDBTest extends DefaultTest {
+
+	private static SQLReconfiguratorDB<Integer> rcDB;
+	private static Set<Integer> actives;
+	private static Integer myID;
+	private static Set<Integer> reconfigurators;
+
+	/**
+	 *
+	 */
+	@BeforeClass
+	public static void setup() {
+		ReconfigurableSampleNodeConfig nc = new ReconfigurableSampleNodeConfig();
+		nc.localSetup(3);
+		ConsistentReconfigurableNodeConfig<Integer> consistentNodeConfig = new ConsistentReconfigurableNodeConfig<Integer>(
+				nc);
+		actives = consistentNodeConfig.getActiveReplicas();
+		reconfigurators = consistentNodeConfig.getReconfigurators();
+		myID = consistentNodeConfig.getReconfigurators().iterator().next();
+		rcDB = new SQLReconfiguratorDB<Integer>(myID, consistentNodeConfig);
+	}
+
+	/**
+	 *
+	 */
+	@AfterClass
+	public static void teardown() {
+		rcDB.close();
+		SQLReconfiguratorDB.dropState(myID.toString(), null);
+	}
+
+	/* Executes batched creates as a reconfigurator executes a
+	 * BatchedCreateServiceName, i.e., creates the records in WAIT_ACK_STOP
+	 * and completes them, and then checkpoints the RC group so that all
+	 * records are written to the DB. */
+	private static long create(String prefix, int numNames, int batchSize) {
+		long t = System.nanoTime();
+		for (int i = 0; i < numNames; i += batchSize) {
+			Map<String, String> nameStates = new HashMap<String, String>();
+			for (int j = i; j < Math.min(i + batchSize, numNames); j++)
+				nameStates.put(prefix + j, "initial_state");
+			Assert.assertTrue(rcDB.createReconfigurationRecords(nameStates,
+					actives,
+					ReconfigurationConfig.ReconfigureUponActivesChange.DEFAULT));
+			Assert.assertTrue(rcDB.setStateMerge(nameStates, 0,
+					RCStates.READY_READY, actives));
+		}
+		for (Integer rc : reconfigurators)
+			Assert.assertNotNull(rcDB.checkpoint(rcDB.getRCGroupName(rc)));
+		return System.nanoTime() - t;
+	}
+
+	/**
+	 * Created records are readable after they have been written to the DB,
+	 * and prints the rate of creates for increasing batch sizes up to
+	 * {@link ReconfigurationConfig.RC#MAX_BATCH_SIZE}.
+	 */
+	@Test
+	public void testBatchedCreateRate() {
+		int numNames = 10000;
+		String s = "";
+		for (int batchSize = 1; batchSize <= numNames; batchSize *= 10) {
+			String prefix = "name" + batchSize + "_";
+			long elapsed = create(prefix, numNames, batchSize);
+			for (int i = 0; i < numNames; i += numNames / 10) {
+				ReconfigurationRecord<Integer> record = rcDB
+						.getReconfigurationRecord(prefix + i);
+				Assert.assertNotNull(record);
+				Assert.assertEquals(RCStates.READY_READY, record.getState());
+				Assert.assertEquals(actives, record.getActiveReplicas());
+			}
+			s += "[" + batchSize + ":" + numNames * 1000000000L / elapsed
+					+ "/s]";
+		}
+		System.out.print(s + " ");
+	}
+
+	/**
+	 * Pending reconfigurations are recorded, and deleted records are removed
+	 * from the DB.
+	 */
+	@Test
+	public void testPendingAndDelete() {
+		int numNames = 1000;
+		String prefix = "del_";
+		create(prefix, numNames, numNames);
+		long t = System.nanoTime();
+		for (int i = 0; i < numNames; i++) {
+			String name = prefix + i;
+			Assert.assertTrue(rcDB.setStateInitReconfiguration(name, 0,
+					RCStates.WAIT_ACK_STOP, null));
+			Assert.assertTrue(rcDB.markDeleteReconfigurationRecord(name, 0));
+		}
+		Set<String> pending = new HashSet<String>(
+				Arrays.asList(rcDB.getPendingReconfigurations()));
+		for (int i = 0; i < numNames; i++)
+			Assert.assertTrue(pending.contains(prefix + i));
+		for (int i = 0; i < numNames; i++)
+			Assert.assertTrue(rcDB.deleteReconfigurationRecord(prefix + i, 0));
+		long elapsed = System.nanoTime() - t;
+		pending = new HashSet<String>(Arrays.asList(rcDB
+				.getPendingReconfigurations()));
+		for (int i = 0; i < numNames; i++) {
+			Assert.assertNull(rcDB.getReconfigurationRecord(prefix + i));
+			Assert.assertFalse(pending.contains(prefix + i));
+		}
+		System.out.print("deleted " + numNames * 1000000000L / elapsed + "/s ");
+	}
+
+	/**
+	 * A checkpoint writes records modified since the previous checkpoint to
+	 * the DB and leaves the others as they were.
+	 */
+	@Test
+	public void testCheckpointWritesModifiedRecords() {
+		int numNames = 10;
+		String prefix = "mod_";
+		create(prefix, numNames, numNames);
+		Assert.assertTrue(rcDB.setStateInitReconfiguration(prefix + 0, 0,
+				RCStates.WAIT_ACK_STOP, null));
+		for (Integer rc : reconfigurators)
+			Assert.assertNotNull(rcDB.checkpoint(rcDB.getRCGroupName(rc)));
+		Assert.assertEquals(RCStates.WAIT_ACK_STOP, rcDB
+				.getReconfigurationRecordDB(prefix + 0).getState());
+		for (int i = 1; i < numNames; i++)
+			Assert.assertEquals(RCStates.READY_READY, rcDB
+					.getReconfigurationRecordDB(prefix + i).getState());
+
+		// modified again after having been written
+		Assert.assertTrue(rcDB.setStateMerge(prefix + 0, 1, RCStates.READY,
+				null, null));
+		for (Integer rc : reconfigurators)
+			Assert.assertNotNull(rcDB.checkpoint(rcDB.getRCGroupName(rc)));
+		ReconfigurationRecord<Integer> record = rcDB
+				.getReconfigurationRecordDB(prefix + 0);
+		Assert.assertEquals(RCStates.READY, record.getState());
+		Assert.assertEquals(1, record.getEpoch());
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(SQLReconfiguratorDBTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -14,10 +14,13 @@ import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.paxosutil.LargeCheckpointer;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.nio.nioutils.NIOHeader;
+import edu.umass.cs.reconfiguration.http.HttpAppRequest;
 import edu.umass.cs.reconfiguration.interfaces.Reconfigurable;
 import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 import edu.umass.cs.utils.ContainerUtils;
 import edu.umass.cs.utils.FullHttpRequestSerializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -35,6 +38,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
@@ -47,7 +51,8 @@ public class DispatcherApp extends AbstractReconfigurablePaxosApp implements Rep
 
     private OkHttpClient httpClient = new OkHttpClient();
 
-    public static final Map<Long, ChannelHandlerContext> channelMap = new HashMap<>();
+    // accessed by netty, service name lookup, and paxos execution threads
+    public static final Map<Long, ChannelHandlerContext> channelMap = new ConcurrentHashMap<>();
 
     public DispatcherApp() {
         try (InputStream is = new FileInputStream("dk-store-firebase-adminsdk-87kqy-c3cdac3b43.json")) {
@@ -65,26 +70,47 @@ public class DispatcherApp extends AbstractReconfigurablePaxosApp implements Rep
     public boolean execute(Request _request, boolean doNotReplyToClient) {
         System.out.println("DispatcherApp.execute");
         System.out.println("_request = [" + _request + "], doNotReplyToClient = [" + doNotReplyToClient + "]");
-        if (!(_request instanceof AppRequest)) {
-            return true;
-        }
-
-        final AppRequest request = (AppRequest) _request;
-        if (request.isStop()) {
-            // TODO: handle the stop request
+        final String serviceName;
+        final long requestID;
+        final String method, uri;
+        final HttpHeaders headers;
+        final ByteBuf content;
+        if (_request instanceof HttpAppRequest) {
+            final HttpAppRequest request = (HttpAppRequest) _request;
+            if (request.isStop()) {
+                return true;
+            }
+            serviceName = request.getServiceName();
+            requestID = request.getRequestID();
+            method = request.getMethod();
+            uri = request.getUri();
+            headers = request.getHeaders();
+            content = request.getBody();
+        } else if (_request instanceof AppRequest) {
+            // string-encoded requests from before HttpAppRequest, e.g., in logs
+            final AppRequest request = (AppRequest) _request;
+            if (request.isStop()) {
+                // TODO: handle the stop request
+                return true;
+            }
+            FullHttpRequest httpRequest = FullHttpRequestSerializer.decode(request.getValue());
+            serviceName = request.getServiceName();
+            requestID = request.getRequestID();
+            method = httpRequest.method().toString();
+            uri = httpRequest.uri();
+            headers = httpRequest.headers();
+            content = httpRequest.content();
+        } else {
             return true;
         }
 
-        final String serviceName = request.getServiceName();
-
         Integer port = ContainerUtils.getPort(serviceName);
         if (port == null) {
             log.warning("cannot find a service port for " + serviceName);
             return false;
         }
 
-        FullHttpRequest httpRequest = FullHttpRequestSerializer.decode(request.getValue());
-        HttpUrl url = HttpUrl.parse("http://localhost" + httpRequest.uri()).newBuilder()
+        HttpUrl url = HttpUrl.parse("http://localhost" + uri).newBuilder()
                 .scheme("http")
                 .host("localhost")
                 .port(port)
@@ -93,33 +119,37 @@ public class DispatcherApp extends AbstractReconfigurablePaxosApp implements Rep
         okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder();
         requestBuilder.url(url);
         RequestBody body = null;
-        String contentType = httpRequest.headers().get("Content-Type", "text/html");
-        if (httpRequest.content().isReadable()) {
-            body = RequestBody.create(MediaType.get(contentType), Unpooled.copiedBuffer(httpRequest.content()).array());
+        String contentType = headers.get("Content-Type", "text/html");
+        if (content.isReadable()) {
+            // no copy if heap-backed as HttpAppRequest bodies are
+            body = content.hasArray()
+                    ? RequestBody.create(MediaType.get(contentType), content.array(),
+                    content.arrayOffset() + content.readerIndex(), content.readableBytes())
+                    : RequestBody.create(MediaType.get(contentType), ByteBufUtil.getBytes(content));
         }
-        if (body == null && HttpMethod.permitsRequestBody(httpRequest.method().toString())) {
+        if (body == null && HttpMethod.permitsRequestBody(method)) {
             body = RequestBody.create(MediaType.get(contentType), "");
         }
-        requestBuilder.method(httpRequest.method().toString(), body);
-        for (Map.Entry<String, String> entry : httpRequest.headers().entries()) {
+        requestBuilder.method(method, body);
+        for (Map.Entry<String, String> entry : headers.entries()) {
             requestBuilder.addHeader(entry.getKey(), entry.getValue());
         }
         okhttp3.Request httpClientRequest = requestBuilder.build();
 
-        try {
-            Response httpResponse = httpClient.newCall(httpClientRequest).execute();
-            if (channelMap.containsKey(request.getRequestID())) {
+        try (Response httpResponse = httpClient.newCall(httpClientRequest).execute()) {
+            ChannelHandlerContext ctx = channelMap.get(requestID);
+            if (ctx != null) {
                 HttpResponseStatus status = HttpResponseStatus.valueOf(httpResponse.code());
+                // wraps rather than copies the response body
                 FullHttpResponse response = new DefaultFullHttpResponse(
-                        HTTP_1_1, status, Unpooled.copiedBuffer(httpResponse.body().bytes()));
+                        HTTP_1_1, status, Unpooled.wrappedBuffer(httpResponse.body().bytes()));
                 for (String name : httpResponse.headers().names()) {
                     response.headers().set(name, httpResponse.headers().get(name));
                 }
                 response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
                 HttpUtil.setContentLength(response, response.content().readableBytes());
-                ChannelFuture flushPromise = channelMap.get(request.getRequestID()).writeAndFlush(response);
+                ChannelFuture flushPromise = ctx.writeAndFlush(response);
                 flushPromise.addListener(ChannelFutureListener.CLOSE);
-                httpResponse.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -232,6 +262,9 @@ public class DispatcherApp extends AbstractReconfigurablePaxosApp implements Rep
     @Override
     public Request getRequest(String stringified) throws RequestParseException {
         System.out.println("DispatcherApp.getRequest");
+        if (HttpAppRequest.couldBeHttpAppRequest(stringified)) {
+            return HttpAppRequest.fromString(stringified);
+        }
         System.out.println("stringified = [" + stringified + "]");
         try {
             return new AppRequest(new JSONObject(stringified));
@@ -243,11 +276,13 @@ public class DispatcherApp extends AbstractReconfigurablePaxosApp implements Rep
 
     @Override
     public Request getRequest(byte[] message, NIOHeader header) throws RequestParseException {
-        return null;
+        return new HttpAppRequest(message);
     }
 
     @Override
     public Set<IntegerPacketType> getRequestTypes() {
-        return new HashSet<>(Arrays.asList(AppRequest.PacketType.values()));
+        Set<IntegerPacketType> types = new HashSet<>(Arrays.asList(AppRequest.PacketType.values()));
+        types.addAll(Arrays.asList(HttpAppRequest.PacketType.values()));
+        return types;
     }
 }
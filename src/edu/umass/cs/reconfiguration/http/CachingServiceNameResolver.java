@@ -0,0 +1,189 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+
+/**
+ * @author arun
+ *
+ *         A bounded cache with time-to-live expiry in front of a possibly
+ *         blocking {@link ServiceNameResolver}. Lookups of the underlying
+ *         resolver happen only on this cache's own threads, so
+ *         {@link #resolveAsync(String)} never blocks and can be invoked on a
+ *         network event loop thread.
+ *
+ *         Negative results (no service name) are cached too but with a
+ *         separate, typically shorter, time-to-live. An expired positive
+ *         entry continues to be returned while it is being refreshed in the
+ *         background, whereas an expired negative entry is not, so that a
+ *         newly created service becomes reachable as soon as the refresh
+ *         completes. Concurrent misses for the same virtual host share a
+ *         single lookup. Failed lookups are not cached.
+ */
+public class CachingServiceNameResolver implements ServiceNameResolver {
+
+	private static final Logger log = ReconfigurationConfig.getLogger();
+
+	private static class Entry {
+		final String serviceName;
+		final long expiresAt;
+
+		Entry(String serviceName, long expiresAt) {
+			this.serviceName = serviceName;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final ServiceNameResolver resolver;
+	private final long ttl;
+	private final long negativeTTL;
+	private final int maxSize;
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentHashMap<String, CompletableFuture<String>> pending = new ConcurrentHashMap<String, CompletableFuture<String>>();
+	private final ExecutorService executor;
+
+	/**
+	 * @param resolver
+	 *            The underlying resolver.
+	 * @param ttl
+	 *            Time-to-live in milliseconds of entries with a service name.
+	 * @param negativeTTL
+	 *            Time-to-live in milliseconds of entries without one.
+	 * @param maxSize
+	 *            Maximum number of cached virtual hosts.
+	 * @param numThreads
+	 *            Number of threads for lookups of the underlying resolver.
+	 */
+	public CachingServiceNameResolver(ServiceNameResolver resolver, long ttl,
+			long negativeTTL, int maxSize, int numThreads) {
+		this.resolver = resolver;
+		this.ttl = ttl;
+		this.negativeTTL = negativeTTL;
+		this.maxSize = maxSize;
+		this.executor = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = Executors.defaultThreadFactory()
+								.newThread(r);
+						thread.setName(CachingServiceNameResolver.class
+								.getSimpleName() + thread.getId());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @param virtualHost
+	 * @return A future that is already complete if {@code virtualHost} is
+	 *         cached and otherwise completes, possibly exceptionally, on a
+	 *         lookup thread.
+	 */
+	public CompletableFuture<String> resolveAsync(String virtualHost) {
+		if (virtualHost == null)
+			return CompletableFuture.completedFuture(null);
+		Entry entry = this.cache.get(virtualHost);
+		if (entry != null && System.currentTimeMillis() < entry.expiresAt)
+			return CompletableFuture.completedFuture(entry.serviceName);
+
+		CompletableFuture<String> lookup = this.lookup(virtualHost);
+		// serve stale positive entries while refreshing
+		return entry != null && entry.serviceName != null ? CompletableFuture
+				.completedFuture(entry.serviceName) : lookup;
+	}
+
+	/**
+	 * Blocks until {@code virtualHost} is resolved if it is not cached.
+	 */
+	@Override
+	public String resolve(String virtualHost) throws IOException {
+		try {
+			return this.resolveAsync(virtualHost).get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e
+					.getCause() : new IOException(e);
+		}
+	}
+
+	private CompletableFuture<String> lookup(final String virtualHost) {
+		CompletableFuture<String> future = this.pending.get(virtualHost);
+		if (future != null)
+			return future;
+		final CompletableFuture<String> created = new CompletableFuture<String>();
+		if ((future = this.pending.putIfAbsent(virtualHost, created)) != null)
+			return future;
+
+		this.executor.execute(new Runnable() {
+			public void run() {
+				try {
+					String serviceName = resolver.resolve(virtualHost);
+					put(virtualHost, serviceName);
+					created.complete(serviceName);
+				} catch (IOException | RuntimeException e) {
+					log.log(Level.WARNING,
+							"{0} unable to resolve virtual host {1}: {2}",
+							new Object[] { CachingServiceNameResolver.this,
+									virtualHost, e });
+					created.completeExceptionally(e);
+				} finally {
+					// after put so that subsequent callers find the entry
+					pending.remove(virtualHost, created);
+				}
+			}
+		});
+		return created;
+	}
+
+	private void put(String virtualHost, String serviceName) {
+		long now = System.currentTimeMillis();
+		if (this.cache.size() >= this.maxSize && !this.cache.containsKey(virtualHost))
+			this.evict(now);
+		this.cache.put(virtualHost, new Entry(serviceName, now
+				+ (serviceName != null ? this.ttl : this.negativeTTL)));
+	}
+
+	/* Removes expired entries and, if that does not free up enough room,
+	 * arbitrary entries until the cache has at most maxSize-1 entries. */
+	private void evict(long now) {
+		for (Iterator<Map.Entry<String, Entry>> iter = this.cache.entrySet()
+				.iterator(); iter.hasNext();)
+			if (iter.next().getValue().expiresAt <= now)
+				iter.remove();
+		for (Iterator<String> iter = this.cache.keySet().iterator(); iter
+				.hasNext() && this.cache.size() >= this.maxSize;) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * @return Number of cached virtual hosts.
+	 */
+	public int size() {
+		return this.cache.size();
+	}
+
+	/**
+	 * Stops lookup threads.
+	 */
+	public void close() {
+		this.executor.shutdownNow();
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":"
+				+ this.resolver.getClass().getSimpleName();
+	}
+}
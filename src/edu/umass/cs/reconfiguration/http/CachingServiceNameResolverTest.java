@@ -0,0 +1,156 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * @author arun
+ *
+ *         Tests {@link CachingServiceNameResolver} and
+ *         {@link PropertiesServiceNameResolver} without Firestore.
+ */
+public class CachingServiceNameResolverTest extends DefaultTest {
+
+	/* Resolves "<name>.example.com" to "<name>" and counts lookups. */
+	private static class CountingResolver implements ServiceNameResolver {
+		final AtomicInteger lookups = new AtomicInteger(0);
+		volatile CountDownLatch gate = new CountDownLatch(0);
+
+		@Override
+		public String resolve(String virtualHost) throws IOException {
+			this.lookups.incrementAndGet();
+			try {
+				this.gate.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return virtualHost.endsWith(".example.com") ? virtualHost
+					.substring(0, virtualHost.indexOf('.')) : null;
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testPositiveAndNegativeCaching() throws IOException {
+		CountingResolver resolver = new CountingResolver();
+		CachingServiceNameResolver cache = new CachingServiceNameResolver(
+				resolver, 60000, 60000, 100, 1);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("a", cache.resolve("a.example.com"));
+			Assert.assertNull(cache.resolve("unknown"));
+		}
+		Assert.assertEquals(2, resolver.lookups.get());
+		Assert.assertTrue(cache.resolveAsync("a.example.com").isDone());
+		Assert.assertNull(cache.resolve(null));
+		cache.close();
+	}
+
+	/**
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testExpiry() throws IOException, InterruptedException {
+		CountingResolver resolver = new CountingResolver();
+		CachingServiceNameResolver cache = new CachingServiceNameResolver(
+				resolver, 50, 50, 100, 1);
+		Assert.assertEquals("a", cache.resolve("a.example.com"));
+		Assert.assertNull(cache.resolve("unknown"));
+		Thread.sleep(100);
+
+		// stale positive entry served without waiting for the refresh
+		resolver.gate = new CountDownLatch(1);
+		CompletableFuture<String> stale = cache.resolveAsync("a.example.com");
+		Assert.assertTrue(stale.isDone());
+		Assert.assertEquals("a", stale.join());
+
+		// expired negative entry waits for the refresh
+		CompletableFuture<String> negative = cache.resolveAsync("unknown");
+		Assert.assertFalse(negative.isDone());
+		resolver.gate.countDown();
+		Assert.assertNull(negative.join());
+		Assert.assertEquals(4, resolver.lookups.get());
+		cache.close();
+	}
+
+	/**
+	 * Concurrent misses share a single lookup.
+	 */
+	@Test
+	public void testCoalescing() {
+		CountingResolver resolver = new CountingResolver();
+		resolver.gate = new CountDownLatch(1);
+		CachingServiceNameResolver cache = new CachingServiceNameResolver(
+				resolver, 60000, 60000, 100, 4);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		CompletableFuture<String>[] futures = new CompletableFuture[10];
+		for (int i = 0; i < futures.length; i++)
+			futures[i] = cache.resolveAsync("b.example.com");
+		resolver.gate.countDown();
+		for (CompletableFuture<String> future : futures)
+			Assert.assertEquals("b", future.join());
+		Assert.assertEquals(1, resolver.lookups.get());
+		cache.close();
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testBounded() throws IOException {
+		CachingServiceNameResolver cache = new CachingServiceNameResolver(
+				new CountingResolver(), 60000, 60000, 10, 1);
+		for (int i = 0; i < 100; i++)
+			Assert.assertEquals("s" + i, cache.resolve("s" + i + ".example.com"));
+		Assert.assertTrue(cache.size() <= 10);
+		cache.close();
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Test
+	public void testPropertiesResolver() throws IOException {
+		File file = File.createTempFile("serviceNames", ".properties");
+		file.deleteOnExit();
+		try (FileWriter writer = new FileWriter(file)) {
+			writer.write("a.example.com=serviceA\n");
+		}
+		ServiceNameResolver resolver = new PropertiesServiceNameResolver(
+				file.getPath());
+		Assert.assertEquals("serviceA", resolver.resolve("a.example.com"));
+		Assert.assertNull(resolver.resolve("b.example.com"));
+
+		try (FileWriter writer = new FileWriter(file, true)) {
+			writer.write("b.example.com=serviceB\n");
+		}
+		// ensure a different modification time
+		file.setLastModified(file.lastModified() + 1000);
+		Assert.assertEquals("serviceB", resolver.resolve("b.example.com"));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(CachingServiceNameResolverTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
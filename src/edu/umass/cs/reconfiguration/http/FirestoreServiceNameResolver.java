@@ -0,0 +1,35 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.firebase.cloud.FirestoreClient;
+
+/**
+ * @author arun
+ *
+ *         Resolves virtual hosts using the "services" collection in
+ *         Firestore, whose documents have "virtualHost" and "serviceName"
+ *         fields. Each lookup is a blocking WAN round trip.
+ */
+public class FirestoreServiceNameResolver implements ServiceNameResolver {
+
+	@Override
+	public String resolve(String virtualHost) throws IOException {
+		Query query = FirestoreClient.getFirestore().collection("services")
+				.whereEqualTo("virtualHost", virtualHost);
+		List<QueryDocumentSnapshot> documents;
+		try {
+			documents = query.get().get().getDocuments();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+		if (documents.isEmpty())
+			return null;
+		Object serviceName = documents.get(0).getData().get("serviceName");
+		return serviceName != null ? serviceName.toString() : null;
+	}
+}
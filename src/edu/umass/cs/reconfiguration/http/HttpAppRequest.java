@@ -0,0 +1,322 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.interfaces.ReconfigurableRequest;
+import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * @author arun
+ *
+ *         An HTTP request received by an HTTP active replica in a byte-oriented
+ *         form, i.e., with its headers and body carried as is instead of
+ *         being serialized into a string, base64-encoded, and then wrapped in
+ *         JSON. The serialized form is
+ *
+ *         type(int) | requestID(long) | epoch(int) | flags(byte) | serviceName
+ *         | method | uri | protocolVersion | numHeaders(int) | (name |
+ *         value)* | bodyLength(int) | body
+ *
+ *         where each string is a length-prefixed UTF-8 byte sequence. As
+ *         request values in paxos are strings, {@link #toString()} maps these
+ *         bytes one-to-one to characters using
+ *         {@link MessageNIOTransport#NIO_CHARSET_ENCODING}.
+ */
+public class HttpAppRequest implements ReconfigurableRequest,
+		ReplicableRequest, ClientRequest, Byteable {
+
+	/**
+	 * Packet type of HTTP app requests.
+	 */
+	public enum PacketType implements IntegerPacketType {
+		/**
+		 *
+		 */
+		HTTP_APP_REQUEST(410);
+
+		private final int number;
+
+		PacketType(int t) {
+			this.number = t;
+		}
+
+		@Override
+		public int getInt() {
+			return this.number;
+		}
+	}
+
+	private static final Charset UTF8 = StandardCharsets.UTF_8;
+	private static final Charset CHARSET = Charset
+			.forName(MessageNIOTransport.NIO_CHARSET_ENCODING);
+
+	private static final byte COORDINATION_FLAG = 1;
+	private static final byte STOP_FLAG = 2;
+
+	private final String serviceName;
+	private final long requestID;
+	private final int epoch;
+	private final boolean stop;
+	private boolean needsCoordination;
+
+	private final String method;
+	private final String uri;
+	private final String protocolVersion;
+	private final HttpHeaders headers;
+	private final ByteBuf body;
+
+	private InetSocketAddress clientAddress = null;
+
+	/**
+	 * @param serviceName
+	 * @param requestID
+	 * @param method
+	 * @param uri
+	 * @param protocolVersion
+	 * @param headers
+	 * @param body
+	 *            Must not be a pooled buffer as it is never released.
+	 */
+	public HttpAppRequest(String serviceName, long requestID, String method,
+			String uri, String protocolVersion, HttpHeaders headers,
+			ByteBuf body) {
+		this(serviceName, requestID, 0, false, method, uri, protocolVersion,
+				headers, body);
+	}
+
+	private HttpAppRequest(String serviceName, long requestID, int epoch,
+			boolean stop, String method, String uri, String protocolVersion,
+			HttpHeaders headers, ByteBuf body) {
+		this.serviceName = serviceName;
+		this.requestID = requestID;
+		this.epoch = epoch;
+		this.stop = stop;
+		this.method = method;
+		this.uri = uri;
+		this.protocolVersion = protocolVersion;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	/**
+	 * @param bytes
+	 * @throws RequestParseException
+	 */
+	public HttpAppRequest(byte[] bytes) throws RequestParseException {
+		try {
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			if (buf.getInt() != PacketType.HTTP_APP_REQUEST.getInt())
+				throw new RequestParseException(new IllegalArgumentException(
+						"Not an " + HttpAppRequest.class.getSimpleName()));
+			this.requestID = buf.getLong();
+			this.epoch = buf.getInt();
+			byte flags = buf.get();
+			this.needsCoordination = (flags & COORDINATION_FLAG) != 0;
+			this.stop = (flags & STOP_FLAG) != 0;
+			this.serviceName = getString(buf);
+			this.method = getString(buf);
+			this.uri = getString(buf);
+			this.protocolVersion = getString(buf);
+			int numHeaders = buf.getInt();
+			this.headers = new DefaultHttpHeaders(false);
+			for (int i = 0; i < numHeaders; i++)
+				this.headers.add(getString(buf), getString(buf));
+			int bodyLength = buf.getInt();
+			// slice, not copy
+			this.body = Unpooled.wrappedBuffer(bytes, buf.position(),
+					bodyLength);
+		} catch (RuntimeException e) {
+			throw new RequestParseException(e);
+		}
+	}
+
+	/**
+	 * @param stringified
+	 * @return True if {@code stringified} could be the {@link #toString()} of
+	 *         an HttpAppRequest.
+	 */
+	public static boolean couldBeHttpAppRequest(String stringified) {
+		if (stringified.length() < Integer.BYTES)
+			return false;
+		int type = 0;
+		for (int i = 0; i < Integer.BYTES; i++)
+			type = (type << 8) | (stringified.charAt(i) & 0xff);
+		return type == PacketType.HTTP_APP_REQUEST.getInt();
+	}
+
+	/**
+	 * @param stringified
+	 * @return Request parsed from {@link #toString()}.
+	 * @throws RequestParseException
+	 */
+	public static HttpAppRequest fromString(String stringified)
+			throws RequestParseException {
+		return new HttpAppRequest(stringified.getBytes(CHARSET));
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int length = buf.getInt();
+		String s = new String(buf.array(), buf.arrayOffset() + buf.position(),
+				length, UTF8);
+		buf.position(buf.position() + length);
+		return s;
+	}
+
+	private static byte[] getBytes(String s) {
+		return s != null ? s.getBytes(UTF8) : new byte[0];
+	}
+
+	@Override
+	public byte[] toBytes() {
+		byte[][] strings = new byte[4 + 2 * this.headers.size()][];
+		int i = 0;
+		strings[i++] = getBytes(this.serviceName);
+		strings[i++] = getBytes(this.method);
+		strings[i++] = getBytes(this.uri);
+		strings[i++] = getBytes(this.protocolVersion);
+		for (Map.Entry<String, String> header : this.headers) {
+			strings[i++] = getBytes(header.getKey());
+			strings[i++] = getBytes(header.getValue());
+		}
+		int length = Integer.BYTES + Long.BYTES + Integer.BYTES + 1
+				+ Integer.BYTES + Integer.BYTES + this.body.readableBytes();
+		for (int j = 0; j < i; j++)
+			length += Integer.BYTES + strings[j].length;
+
+		byte[] bytes = new byte[length];
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		buf.putInt(PacketType.HTTP_APP_REQUEST.getInt())
+				.putLong(this.requestID)
+				.putInt(this.epoch)
+				.put((byte) ((this.needsCoordination ? COORDINATION_FLAG : 0) | (this.stop ? STOP_FLAG
+						: 0)));
+		for (int j = 0; j < 4; j++)
+			buf.putInt(strings[j].length).put(strings[j]);
+		buf.putInt(this.headers.size());
+		for (int j = 4; j < i; j++)
+			buf.putInt(strings[j].length).put(strings[j]);
+		buf.putInt(this.body.readableBytes());
+		// single copy of the body
+		this.body.getBytes(this.body.readerIndex(), bytes, buf.position(),
+				this.body.readableBytes());
+		return bytes;
+	}
+
+	/**
+	 * The inverse of {@link #fromString(String)}.
+	 */
+	@Override
+	public String toString() {
+		return new String(this.toBytes(), CHARSET);
+	}
+
+	@Override
+	public IntegerPacketType getRequestType() {
+		return PacketType.HTTP_APP_REQUEST;
+	}
+
+	@Override
+	public String getServiceName() {
+		return this.serviceName;
+	}
+
+	@Override
+	public long getRequestID() {
+		return this.requestID;
+	}
+
+	@Override
+	public int getEpochNumber() {
+		return this.epoch;
+	}
+
+	@Override
+	public boolean isStop() {
+		return this.stop;
+	}
+
+	@Override
+	public boolean needsCoordination() {
+		return this.needsCoordination;
+	}
+
+	// still invoked by AbstractReplicaCoordinator before coordinating
+	@SuppressWarnings("deprecation")
+	@Override
+	public void setNeedsCoordination(boolean b) {
+		this.needsCoordination = b;
+	}
+
+	/**
+	 * @param csa
+	 * @return {@code this}
+	 */
+	public HttpAppRequest setClientAddress(InetSocketAddress csa) {
+		this.clientAddress = csa;
+		return this;
+	}
+
+	// still used by PaxosManager to copy the client address into paxos
+	@SuppressWarnings("deprecation")
+	@Override
+	public InetSocketAddress getClientAddress() {
+		return this.clientAddress;
+	}
+
+	/**
+	 * Responses are sent directly on the HTTP connection.
+	 */
+	@Override
+	public ClientRequest getResponse() {
+		return null;
+	}
+
+	/**
+	 * @return HTTP method.
+	 */
+	public String getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * @return Request URI.
+	 */
+	public String getUri() {
+		return this.uri;
+	}
+
+	/**
+	 * @return HTTP protocol version, e.g., HTTP/1.1.
+	 */
+	public String getProtocolVersion() {
+		return this.protocolVersion;
+	}
+
+	/**
+	 * @return Request headers.
+	 */
+	public HttpHeaders getHeaders() {
+		return this.headers;
+	}
+
+	/**
+	 * @return Request body. Heap-backed, so {@link ByteBuf#array()} can be
+	 *         used without copying.
+	 */
+	public ByteBuf getBody() {
+		return this.body;
+	}
+}
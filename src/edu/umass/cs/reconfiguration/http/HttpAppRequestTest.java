@@ -0,0 +1,105 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.DefaultTest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * @author arun
+ *
+ *         Tests the serialized forms of {@link HttpAppRequest}.
+ */
+public class HttpAppRequestTest extends DefaultTest {
+
+	private static HttpAppRequest create(int bodyLength) {
+		HttpHeaders headers = new DefaultHttpHeaders();
+		headers.add("Host", "a.example.com");
+		headers.add("Content-Type", "application/octet-stream");
+		headers.add("X-Multi", "1");
+		headers.add("X-Multi", "2:3");
+		byte[] body = new byte[bodyLength];
+		new Random(bodyLength).nextBytes(body);
+		HttpAppRequest request = new HttpAppRequest("serviceA", 123456789L,
+				"PUT", "/upload?name=\u00fcn\u00efc\u00f6d\u00e9", "HTTP/1.1", headers,
+				Unpooled.wrappedBuffer(body));
+		request.setNeedsCoordination(true);
+		return request;
+	}
+
+	private static void assertEquals(HttpAppRequest expected,
+			HttpAppRequest actual) {
+		Assert.assertEquals(expected.getServiceName(), actual.getServiceName());
+		Assert.assertEquals(expected.getRequestID(), actual.getRequestID());
+		Assert.assertEquals(expected.getEpochNumber(), actual.getEpochNumber());
+		Assert.assertEquals(expected.isStop(), actual.isStop());
+		Assert.assertEquals(expected.needsCoordination(),
+				actual.needsCoordination());
+		Assert.assertEquals(expected.getMethod(), actual.getMethod());
+		Assert.assertEquals(expected.getUri(), actual.getUri());
+		Assert.assertEquals(expected.getProtocolVersion(),
+				actual.getProtocolVersion());
+		// header entry classes need not be the same
+		Assert.assertEquals(expected.getHeaders().entries().toString(), actual
+				.getHeaders().entries().toString());
+		Assert.assertEquals(expected.getBody(), actual.getBody());
+	}
+
+	/**
+	 * @throws RequestParseException
+	 */
+	@Test
+	public void testBytes() throws RequestParseException {
+		HttpAppRequest request = create(1000);
+		assertEquals(request, new HttpAppRequest(request.toBytes()));
+	}
+
+	/**
+	 * The string form is what paxos logs and replicates.
+	 *
+	 * @throws RequestParseException
+	 */
+	@Test
+	public void testString() throws RequestParseException {
+		HttpAppRequest request = create(1000);
+		String stringified = request.toString();
+		Assert.assertTrue(HttpAppRequest.couldBeHttpAppRequest(stringified));
+		Assert.assertFalse(HttpAppRequest.couldBeHttpAppRequest("{}"));
+		assertEquals(request, HttpAppRequest.fromString(stringified));
+	}
+
+	/**
+	 * Bodies bigger than the 64KB that the aggregator used to allow.
+	 *
+	 * @throws RequestParseException
+	 */
+	@Test
+	public void testLargeBody() throws RequestParseException {
+		HttpAppRequest request = create(4 * 1024 * 1024);
+		HttpAppRequest parsed = HttpAppRequest.fromString(request.toString());
+		assertEquals(request, parsed);
+		ByteBuf body = parsed.getBody();
+		Assert.assertTrue(body.hasArray());
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(HttpAppRequestTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
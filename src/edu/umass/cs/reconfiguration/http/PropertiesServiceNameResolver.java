@@ -0,0 +1,58 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * @author arun
+ *
+ *         Resolves virtual hosts using a local properties file with lines of
+ *         the form virtualHost=serviceName. The file is reloaded when its
+ *         modification time changes. Meant as a local stand-in for
+ *         {@link FirestoreServiceNameResolver}, e.g., for testing.
+ */
+public class PropertiesServiceNameResolver implements ServiceNameResolver {
+
+	/**
+	 * The system property specifying the properties file used by the no-arg
+	 * constructor.
+	 */
+	public static final String FILE_PROPERTY = "http.activeReplica.serviceNamesFile";
+
+	private final File file;
+	private Properties serviceNames = new Properties();
+	private long lastModified = -1;
+
+	/**
+	 * Uses the file specified by the system property {@link #FILE_PROPERTY}.
+	 */
+	public PropertiesServiceNameResolver() {
+		this(System.getProperty(FILE_PROPERTY));
+	}
+
+	/**
+	 * @param filename
+	 */
+	public PropertiesServiceNameResolver(String filename) {
+		if (filename == null)
+			throw new IllegalArgumentException(FILE_PROPERTY + " not specified");
+		this.file = new File(filename);
+	}
+
+	@Override
+	public synchronized String resolve(String virtualHost) throws IOException {
+		long modified = this.file.lastModified();
+		if (modified != this.lastModified) {
+			Properties loaded = new Properties();
+			try (InputStream is = new FileInputStream(this.file)) {
+				loaded.load(is);
+			}
+			this.serviceNames = loaded;
+			this.lastModified = modified;
+		}
+		return this.serviceNames.getProperty(virtualHost);
+	}
+}
@@ -0,0 +1,25 @@
+package edu.umass.cs.reconfiguration.http;
+
+import java.io.IOException;
+
+/**
+ * @author arun
+ *
+ *         Maps the virtual host (the HTTP Host header) of a request received
+ *         by an HTTP active replica to the name of the replicated service that
+ *         should handle it. Implementations may block, so HTTP active replicas
+ *         invoke them only via a {@link CachingServiceNameResolver} and never
+ *         on a network event loop thread. Implementations must have a public
+ *         no-arg constructor in order to be specified by class name.
+ */
+public interface ServiceNameResolver {
+	/**
+	 * @param virtualHost
+	 * @return The service name for {@code virtualHost} or null if there is
+	 *         none.
+	 * @throws IOException
+	 *             If the lookup itself failed, as opposed to finding no
+	 *             service name. Failed lookups are not cached.
+	 */
+	public String resolve(String virtualHost) throws IOException;
+}
@@ -17,6 +17,8 @@
  */
 package edu.umass.cs.reconfiguration.reconfigurationpackets;
 
+import java.util.zip.CRC32;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -29,9 +31,16 @@ import edu.umass.cs.nio.nioutils.StringifiableDefault;
  */
 public class EpochFinalState<NodeIDType> extends BasicReconfigurationPacket<NodeIDType> {
 	
-	private enum Keys {EPOCH_FINAL_STATE};
+	private enum Keys {EPOCH_FINAL_STATE, OFFSET, LENGTH, CHECKSUM, STATE_CHECKSUM};
 	
 	private final String state;
+
+	/* Chunk fields below are used only if offset >= 0, in which case state is
+	 * the chunk of the whole state of the given length starting at offset. */
+	private final int offset;
+	private final int length;
+	private final long checksum; // of the chunk
+	private final long stateChecksum; // of the whole state
 	
 	/**
 	 * @param initiator
@@ -41,10 +50,34 @@ public class EpochFinalState<NodeIDType> extends BasicReconfigurationPacket<Node
 	 * @param sender 
 	 */
 	public EpochFinalState(NodeIDType initiator, String name, int epochNumber, String state, NodeIDType sender) {
+		this(initiator, name, epochNumber, state, sender, -1, 0, 0);
+	}
+
+	/**
+	 * @param initiator
+	 * @param name
+	 * @param epochNumber
+	 * @param chunk
+	 *            The chunk of the whole state starting at {@code offset}.
+	 * @param sender
+	 * @param offset
+	 * @param length
+	 *            Length of the whole state.
+	 * @param stateChecksum
+	 *            Checksum of the whole state.
+	 */
+	public EpochFinalState(NodeIDType initiator, String name, int epochNumber,
+			String chunk, NodeIDType sender, int offset, int length,
+			long stateChecksum) {
 		super(initiator, ReconfigurationPacket.PacketType.EPOCH_FINAL_STATE, name, epochNumber);
-		this.state = state;
+		this.state = chunk;
 		this.setSender(sender);
+		this.offset = offset;
+		this.length = length;
+		this.checksum = offset >= 0 && chunk != null ? checksum(chunk) : 0;
+		this.stateChecksum = stateChecksum;
 	}
+
 	/**
 	 * @param json
 	 * @param unstringer
@@ -53,22 +86,95 @@ public class EpochFinalState<NodeIDType> extends BasicReconfigurationPacket<Node
 	public EpochFinalState(JSONObject json, Stringifiable<NodeIDType> unstringer) throws JSONException {
 		super(json, unstringer);
 		this.state = (json.has(Keys.EPOCH_FINAL_STATE.toString()) ? json.getString(Keys.EPOCH_FINAL_STATE.toString()) : null);
+		this.offset = json.has(Keys.OFFSET.toString()) ? json.getInt(Keys.OFFSET.toString()) : -1;
+		this.length = json.has(Keys.LENGTH.toString()) ? json.getInt(Keys.LENGTH.toString()) : 0;
+		this.checksum = json.has(Keys.CHECKSUM.toString()) ? json.getLong(Keys.CHECKSUM.toString()) : 0;
+		this.stateChecksum = json.has(Keys.STATE_CHECKSUM.toString()) ? json.getLong(Keys.STATE_CHECKSUM.toString()) : 0;
 	}
 	/**
-	 * @return Epoch final state.
+	 * @return Epoch final state, or the chunk of it if {@link #isChunk()}.
 	 */
 	public String getState() {return this.state;}
+
+	/**
+	 * @return True if this is a chunk of the final state.
+	 */
+	public boolean isChunk() {
+		return this.offset >= 0;
+	}
+
+	/**
+	 * @return Offset of this chunk in the whole state.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return Length of the whole state.
+	 */
+	public int getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return Checksum of the whole state.
+	 */
+	public long getStateChecksum() {
+		return this.stateChecksum;
+	}
+
+	/**
+	 * @return True if the chunk is within the whole state and matches its
+	 *         checksum.
+	 */
+	public boolean isIntact() {
+		return !this.isChunk()
+				|| (this.state != null && this.offset + this.state.length() <= this.length
+						&& checksum(this.state) == this.checksum);
+	}
+
+	/**
+	 * @param s
+	 * @return CRC32 checksum of the characters in {@code s}. Computed over
+	 *         characters as opposed to an encoding so that chunks can split
+	 *         surrogate pairs.
+	 */
+	public static long checksum(String s) {
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		for (int i = 0; i < s.length();) {
+			int n = 0;
+			for (; n < buf.length && i < s.length(); i++) {
+				char c = s.charAt(i);
+				buf[n++] = (byte) (c >> 8);
+				buf[n++] = (byte) c;
+			}
+			crc.update(buf, 0, n);
+		}
+		return crc.getValue();
+	}
 	
 	@Override
 	public JSONObject toJSONObjectImpl() throws JSONException  {
 		JSONObject json = super.toJSONObjectImpl();
 		json.put(Keys.EPOCH_FINAL_STATE.toString(), this.state);
+		if (this.isChunk()) {
+			json.put(Keys.OFFSET.toString(), this.offset);
+			json.put(Keys.LENGTH.toString(), this.length);
+			json.put(Keys.CHECKSUM.toString(), this.checksum);
+			json.put(Keys.STATE_CHECKSUM.toString(), this.stateChecksum);
+		}
 		return json;
 	}
 	
 	@Override
 	public String getSummary() {
-		return super.getSummary() + ":" + this.state;
+		return super.getSummary()
+				+ ":"
+				+ (this.isChunk() ? "[" + this.offset + "+"
+						+ (this.state != null ? this.state.length() : 0)
+						+ "]/" + this.length : this.state);
 	}
 	
 	public static void main(String[] args) {
@@ -80,6 +186,14 @@ public class EpochFinalState<NodeIDType> extends BasicReconfigurationPacket<Node
 			assert(obj1.toString().length()==obj2.toString().length());
 			assert(obj1.toString().indexOf("}") == obj2.toString().indexOf("}"));
 			assert(obj1.toString().equals(obj2.toString())) : obj1.toString() + "!=" + obj2.toString();
+			String state = "sample_state";
+			EpochFinalState<Integer> chunk1 = new EpochFinalState<Integer>(4,
+					"name1", 2, state.substring(7), 5, 7, state.length(),
+					checksum(state));
+			EpochFinalState<Integer> chunk2 = new EpochFinalState<Integer>(
+					chunk1.toJSONObject(), new StringifiableDefault<Integer>(0));
+			assert (chunk2.isChunk() && chunk2.isIntact());
+			assert (chunk1.toString().equals(chunk2.toString()));
 		} catch(JSONException je) {
 			je.printStackTrace();
 		}
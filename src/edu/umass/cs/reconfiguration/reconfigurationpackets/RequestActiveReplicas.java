@@ -57,6 +57,11 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 		 * 
 		 */
 		QID,
+
+		/**
+		 * Epoch number of the returned active replica set.
+		 */
+		ACTIVES_EPOCH,
 		
 	};
 
@@ -68,6 +73,9 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 
 	private Set<InetSocketAddress> actives = null;
 
+	// epoch of actives if known, else -1
+	private int activesEpoch = -1;
+
 	// need this if we need to coordinate this request
 	private final long requestID;
 
@@ -112,6 +120,7 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 						.valueOf(jsonArray.get(i).toString()));
 		}
 		this.requestID = json.getLong(Keys.QID.toString());
+		this.activesEpoch = json.optInt(Keys.ACTIVES_EPOCH.toString(), -1);
 	}
 
 	/**
@@ -128,6 +137,8 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 			json.put(Keys.ACTIVE_REPLICAS.toString(), new JSONArray(
 					this.actives));
 		json.put(Keys.QID.toString(), this.requestID);
+		if (this.activesEpoch >= 0)
+			json.put(Keys.ACTIVES_EPOCH.toString(), this.activesEpoch);
 		return json;
 	}
 
@@ -140,6 +151,27 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 		return this;
 	}
 
+	/**
+	 * @param replicas
+	 * @param epoch
+	 *            The epoch number of the name whose active replicas are
+	 *            {@code replicas}.
+	 * @return {@code this} with active replicas set to {@code replicas}.
+	 */
+	public ClientReconfigurationPacket setActives(
+			Set<InetSocketAddress> replicas, int epoch) {
+		this.activesEpoch = epoch;
+		return this.setActives(replicas);
+	}
+
+	/**
+	 * @return The epoch number of the active replicas returned or -1 if
+	 *         unknown.
+	 */
+	public int getActivesEpoch() {
+		return this.activesEpoch;
+	}
+
 	/**
 	 * @return Active replica socket addresses.
 	 */
@@ -199,6 +231,8 @@ public class RequestActiveReplicas extends ClientReconfigurationPacket implement
 	}
 
 	public String getSummary() {
-		return super.getSummary() + this.actives + ":" + this.getHashRCs();
+		return super.getSummary() + this.actives
+				+ (this.activesEpoch >= 0 ? ":" + this.activesEpoch : "") + ":"
+				+ this.getHashRCs();
 	}
 }
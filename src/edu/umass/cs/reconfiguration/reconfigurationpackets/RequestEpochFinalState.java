@@ -28,14 +28,40 @@ import edu.umass.cs.nio.interfaces.Stringifiable;
  */
 public class RequestEpochFinalState<NodeIDType> extends BasicReconfigurationPacket<NodeIDType> {
 
+	private static enum Keys {
+		OFFSET, CHUNK_SIZE
+	};
+
+	// offset of the requested chunk, or -1 for the whole state
+	private final int offset;
+	private final int chunkSize;
+
 	/**
 	 * @param initiator
 	 * @param name
 	 * @param epochNumber
 	 */
 	public RequestEpochFinalState(NodeIDType initiator, String name, int epochNumber) {
+		this(initiator, name, epochNumber, -1, 0);
+	}
+
+	/**
+	 * Requests the chunk of the final state starting at {@code offset}.
+	 * 
+	 * @param initiator
+	 * @param name
+	 * @param epochNumber
+	 * @param offset
+	 * @param chunkSize
+	 *            Maximum number of characters in the chunk.
+	 */
+	public RequestEpochFinalState(NodeIDType initiator, String name,
+			int epochNumber, int offset, int chunkSize) {
 		super(initiator, ReconfigurationPacket.PacketType.REQUEST_EPOCH_FINAL_STATE, name, epochNumber);
+		this.offset = offset;
+		this.chunkSize = chunkSize;
 	}
+
 	/**
 	 * @param json
 	 * @param unstringer
@@ -43,5 +69,47 @@ public class RequestEpochFinalState<NodeIDType> extends BasicReconfigurationPack
 	 */
 	public RequestEpochFinalState(JSONObject json, Stringifiable<NodeIDType> unstringer) throws JSONException {
 		super(json, unstringer);
+		this.offset = json.has(Keys.OFFSET.toString()) ? json.getInt(Keys.OFFSET
+				.toString()) : -1;
+		this.chunkSize = json.has(Keys.CHUNK_SIZE.toString()) ? json
+				.getInt(Keys.CHUNK_SIZE.toString()) : 0;
+	}
+
+	@Override
+	public JSONObject toJSONObjectImpl() throws JSONException {
+		JSONObject json = super.toJSONObjectImpl();
+		if (this.isChunked()) {
+			json.put(Keys.OFFSET.toString(), this.offset);
+			json.put(Keys.CHUNK_SIZE.toString(), this.chunkSize);
+		}
+		return json;
+	}
+
+	/**
+	 * @return True if a chunk as opposed to the whole state is requested.
+	 */
+	public boolean isChunked() {
+		return this.offset >= 0 && this.chunkSize > 0;
+	}
+
+	/**
+	 * @return Offset of the requested chunk.
+	 */
+	public int getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return Maximum number of characters in the requested chunk.
+	 */
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	@Override
+	public String getSummary() {
+		return super.getSummary()
+				+ (this.isChunked() ? ":[" + this.offset + "+"
+						+ this.chunkSize + "]" : "");
 	}
 }
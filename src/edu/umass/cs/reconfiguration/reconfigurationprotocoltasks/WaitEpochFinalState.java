@@ -15,9 +15,12 @@
  * Initial developer(s): V. Arun */
 package edu.umass.cs.reconfiguration.reconfigurationprotocoltasks;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,6 +34,7 @@ import edu.umass.cs.protocoltask.ProtocolTask;
 import edu.umass.cs.protocoltask.ThresholdProtocolTask;
 import edu.umass.cs.reconfiguration.AbstractReplicaCoordinator;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
 import edu.umass.cs.reconfiguration.Reconfigurator;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.AckStartEpoch;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.EpochFinalState;
@@ -38,6 +42,7 @@ import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ReconfigurationPacket.PacketType;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.RequestEpochFinalState;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.StartEpoch;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.MyLogger;
 
 /**
@@ -67,6 +72,14 @@ public class WaitEpochFinalState<NodeIDType>
 
 	private static final int WARN_NUM_RESTARTS = 4;
 
+	private static final int CHUNK_SIZE = Config
+			.getGlobalInt(RC.EPOCH_FINAL_STATE_CHUNK_SIZE);
+	// chunks requested in parallel from each previous epoch replica
+	private static final int MAX_CHUNKS_IN_FLIGHT_PER_NODE = 2;
+
+	// non-null only while a chunked transfer is in progress
+	private ChunkedTransfer transfer = null;
+
 	/**
 	 * @param myID
 	 * @param startEpoch
@@ -79,22 +92,28 @@ public class WaitEpochFinalState<NodeIDType>
 		this.startEpoch = startEpoch;
 		this.appCoordinator = appCoordinator;
 		this.prevGroupIterator = this.startEpoch.getPrevEpochGroup().iterator();
+		// first chunk, or whole state if small or chunking is disabled
 		this.reqState = new RequestEpochFinalState<NodeIDType>(myID,
 				startEpoch.getPrevGroupName(),
-				(startEpoch.getPrevEpochNumber()));
+				(startEpoch.getPrevEpochNumber()), CHUNK_SIZE > 0 ? 0 : -1,
+				CHUNK_SIZE);
 		this.key = this.refreshKey();
 		this.setPeriod(RESTART_PERIOD);
 		this.notifiees.put(this.startEpoch.getInitiator(),
 				this.startEpoch.getKey());
 	}
 
-	// simply calls start() but only if state not yet received
+	/* Simply calls start() but only if state not yet received. If a chunked
+	 * transfer is in progress, only chunks that have timed out are requested
+	 * again, so the transfer resumes from where it was. */
 	@Override
-	public GenericMessagingTask<NodeIDType, ?>[] restart() {
+	public synchronized GenericMessagingTask<NodeIDType, ?>[] restart() {
 		if (this.amObviated()) {
 			ProtocolExecutor.cancel(this);
 			return null;
 		}
+		if (this.transfer != null)
+			return this.transfer.getRequests(true);
 		if (!this.prevGroupIterator.hasNext())
 			this.prevGroupIterator = this.startEpoch.getPrevEpochGroup()
 					.iterator();
@@ -192,7 +211,8 @@ public class WaitEpochFinalState<NodeIDType>
 	}
 
 	@Override
-	public boolean handleEvent(ProtocolEvent<PacketType, String> event) {
+	public synchronized boolean handleEvent(
+			ProtocolEvent<PacketType, String> event) {
 		ReconfigurationPacket.PacketType type = event.getType();
 		if (type == null)
 			return false;
@@ -207,9 +227,13 @@ public class WaitEpochFinalState<NodeIDType>
 				break;
 			log.log(Level.INFO, "{0} received {1}",
 					new Object[] { this, state.getSummary(), state.getState() });
+			String finalState = state.getState();
+			// wait for remaining chunks if any
+			if (state.isChunk() && (finalState = this.receiveChunk(state)) == null)
+				break;
 			handled = this.appCoordinator.createReplicaGroup(
 					this.startEpoch.getServiceName(),
-					this.startEpoch.getEpochNumber(), state.getState(),
+					this.startEpoch.getEpochNumber(), finalState,
 					this.startEpoch.getCurEpochGroup());
 
 			// if !handled, we will be stuck retrying until it is true
@@ -220,6 +244,166 @@ public class WaitEpochFinalState<NodeIDType>
 		return handled;
 	}
 
+	// requests remaining chunks after a chunk is received
+	@Override
+	protected synchronized GenericMessagingTask<NodeIDType, ?>[] handlePartialEvent(
+			ProtocolEvent<PacketType, String> event) {
+		return this.transfer != null ? this.transfer.getRequests(false) : null;
+	}
+
+	/* Returns the whole state if the chunk completes it, else null. A single
+	 * chunk holding the whole state is returned as is. */
+	private String receiveChunk(EpochFinalState<NodeIDType> chunk) {
+		if (this.transfer == null && chunk.getOffset() == 0
+				&& chunk.getState() != null
+				&& chunk.getState().length() == chunk.getLength())
+			return chunk.isIntact()
+					&& EpochFinalState.checksum(chunk.getState()) == chunk
+							.getStateChecksum() ? chunk.getState() : null;
+		if (this.transfer == null)
+			this.transfer = new ChunkedTransfer(chunk);
+		String state = this.transfer.receive(chunk);
+		if (state != null)
+			// retries, if any, will fetch the state again
+			this.transfer = null;
+		return state;
+	}
+
+	/* Assembles a final state from chunks fetched in parallel from the
+	 * previous epoch's replicas. The first chunk received fixes the length and
+	 * checksum of the whole state; chunks from a replica whose final state
+	 * differs from it are discarded and fetched again from other replicas. */
+	private class ChunkedTransfer {
+		final int length;
+		final long stateChecksum;
+		final char[] buf;
+		final BitSet received;
+		final int numChunks;
+		final long[] requestedAt; // 0 if not in flight
+		final Object[] requestedFrom;
+		final ArrayList<NodeIDType> sources = new ArrayList<NodeIDType>();
+		final Set<NodeIDType> suspects = new HashSet<NodeIDType>();
+		int nextSource = 0;
+
+		ChunkedTransfer(EpochFinalState<NodeIDType> first) {
+			this.length = first.getLength();
+			this.stateChecksum = first.getStateChecksum();
+			this.buf = new char[this.length];
+			this.numChunks = (int) ((this.length + (long) CHUNK_SIZE - 1) / CHUNK_SIZE);
+			this.received = new BitSet(this.numChunks);
+			this.requestedAt = new long[this.numChunks];
+			this.requestedFrom = new Object[this.numChunks];
+			// start with the replica known to have the state
+			this.sources.add(first.getSender());
+			for (NodeIDType node : startEpoch.getPrevEpochGroup())
+				if (!node.equals(first.getSender()))
+					this.sources.add(node);
+		}
+
+		String receive(EpochFinalState<NodeIDType> chunk) {
+			int offset = chunk.getOffset(), i = offset / CHUNK_SIZE;
+			if (offset % CHUNK_SIZE != 0 || i >= this.numChunks
+					|| this.received.get(i))
+				return null;
+			this.requestedAt[i] = 0;
+			if (chunk.getLength() != this.length
+					|| chunk.getStateChecksum() != this.stateChecksum
+					|| !chunk.isIntact()
+					|| chunk.getState().length() != Math.min(CHUNK_SIZE,
+							this.length - offset)) {
+				log.log(Level.WARNING,
+						"{0} discarding inconsistent or corrupted chunk {1} from {2}",
+						new Object[] { WaitEpochFinalState.this,
+								chunk.getSummary(), chunk.getSender() });
+				this.suspects.add(chunk.getSender());
+				return null;
+			}
+			chunk.getState().getChars(0, chunk.getState().length(), this.buf,
+					offset);
+			this.received.set(i);
+			this.suspects.remove(chunk.getSender());
+			if (this.received.cardinality() < this.numChunks)
+				return null;
+
+			String state = new String(this.buf);
+			if (EpochFinalState.checksum(state) == this.stateChecksum)
+				return state;
+			// start over
+			log.log(Level.WARNING, "{0} assembled final state with bad checksum",
+					new Object[] { WaitEpochFinalState.this });
+			this.received.clear();
+			return null;
+		}
+
+		/* Requests missing chunks that are not in flight, spread round-robin
+		 * across unsuspected replicas, up to a limit per replica. If
+		 * timedOut, chunks in flight for longer than the restart period are
+		 * requested again from other replicas. */
+		@SuppressWarnings("unchecked")
+		GenericMessagingTask<NodeIDType, ?>[] getRequests(boolean timedOut) {
+			long now = System.currentTimeMillis();
+			int inFlight = 0;
+			for (int i = 0; i < this.numChunks; i++) {
+				if (timedOut && this.requestedAt[i] != 0
+						&& now - this.requestedAt[i] >= RESTART_PERIOD) {
+					this.suspects.add((NodeIDType) this.requestedFrom[i]);
+					this.requestedAt[i] = 0;
+				}
+				if (this.requestedAt[i] != 0)
+					inFlight++;
+			}
+			if (this.suspects.size() >= this.sources.size())
+				// try everyone again
+				this.suspects.clear();
+			int maxInFlight = MAX_CHUNKS_IN_FLIGHT_PER_NODE
+					* (this.sources.size() - this.suspects.size());
+
+			Map<NodeIDType, ArrayList<RequestEpochFinalState<NodeIDType>>> requests = new LinkedHashMap<NodeIDType, ArrayList<RequestEpochFinalState<NodeIDType>>>();
+			for (int i = this.received.nextClearBit(0); i < this.numChunks
+					&& inFlight < maxInFlight; i = this.received
+					.nextClearBit(i + 1)) {
+				if (this.requestedAt[i] != 0)
+					continue;
+				NodeIDType target = this.nextSource();
+				if (!requests.containsKey(target))
+					requests.put(target,
+							new ArrayList<RequestEpochFinalState<NodeIDType>>());
+				requests.get(target).add(
+						new RequestEpochFinalState<NodeIDType>(reqState
+								.getInitiator(), reqState.getServiceName(),
+								reqState.getEpochNumber(), i * CHUNK_SIZE,
+								CHUNK_SIZE));
+				this.requestedAt[i] = now;
+				this.requestedFrom[i] = target;
+				inFlight++;
+			}
+			if (requests.isEmpty())
+				return null;
+			log.log(Level.FINE, "{0} requesting {1} chunks of final state of length {2}; received {3}/{4}",
+					new Object[] { WaitEpochFinalState.this, requests,
+							this.length, this.received.cardinality(),
+							this.numChunks });
+
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			GenericMessagingTask<NodeIDType, ?>[] mtasks = new GenericMessagingTask[requests
+					.size()];
+			int j = 0;
+			for (NodeIDType target : requests.keySet())
+				mtasks[j++] = new GenericMessagingTask<NodeIDType, Object>(
+						target, requests.get(target).toArray());
+			return mtasks;
+		}
+
+		private NodeIDType nextSource() {
+			NodeIDType source = null;
+			do {
+				source = this.sources.get(this.nextSource++
+						% this.sources.size());
+			} while (this.suspects.contains(source));
+			return source;
+		}
+	}
+
 	public String toString() {
 		return this.getKey();
 	}
@@ -0,0 +1,316 @@
+package edu.umass.cs.reconfiguration.reconfigurationprotocoltasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.ExecutedCallback;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.GenericMessagingTask;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.nio.nioutils.StringifiableDefault;
+import edu.umass.cs.reconfiguration.AbstractReplicaCoordinator;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
+import edu.umass.cs.reconfiguration.examples.noopsimple.NoopApp;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.EpochFinalState;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.RequestEpochFinalState;
+import edu.umass.cs.reconfiguration.reconfigurationpackets.StartEpoch;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Tests the chunked transfer of a previous epoch's final state by
+ * {@link WaitEpochFinalState}. Previous epoch replicas are simulated by
+ * serving the requested chunks of a given state the way
+ * {@link edu.umass.cs.reconfiguration.ActiveReplica} does.
+ */
+public class WaitEpochFinalStateTest extends DefaultTest {
+
+	// small chunks and a short restart period
+	static {
+		Config.register(new String[] {
+				RC.EPOCH_FINAL_STATE_CHUNK_SIZE + "=4",
+				RC.STOP_TASK_RESTART_PERIOD + "=100" });
+	}
+
+	private static final int CHUNK_SIZE = Config
+			.getGlobalInt(RC.EPOCH_FINAL_STATE_CHUNK_SIZE);
+
+	private static final int MY_ID = 0;
+	private static final String NAME = "name";
+	private static final int PREV_EPOCH = 1;
+	private static final Set<Integer> PREV_GROUP = new HashSet<Integer>(
+			Arrays.asList(1, 2, 3));
+
+	private static class TestCoordinator extends
+			AbstractReplicaCoordinator<Integer> {
+		String created = null;
+
+		TestCoordinator() {
+			super(new NoopApp(new String[0]));
+		}
+
+		@Override
+		public boolean coordinateRequest(Request request,
+				ExecutedCallback callback) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean createReplicaGroup(String serviceName, int epoch,
+				String state, Set<Integer> nodes) {
+			this.created = state;
+			return true;
+		}
+
+		@Override
+		public boolean deleteReplicaGroup(String serviceName, int epoch) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Set<Integer> getReplicaGroup(String serviceName) {
+			return null;
+		}
+
+		@Override
+		public Integer getMyID() {
+			return MY_ID;
+		}
+
+		@Override
+		public Integer getEpoch(String name) {
+			// new epoch not yet created
+			return null;
+		}
+
+		@Override
+		public Set<IntegerPacketType> getRequestTypes() {
+			return this.app.getRequestTypes();
+		}
+	}
+
+	private static WaitEpochFinalState<Integer> createTask(
+			TestCoordinator coordinator) {
+		StartEpoch<Integer> startEpoch = new StartEpoch<Integer>(MY_ID, NAME,
+				PREV_EPOCH + 1, PREV_GROUP, PREV_GROUP, NAME, false, PREV_EPOCH);
+		// key of the reconfigurator task to notify
+		startEpoch.setKey(NAME);
+		return new WaitEpochFinalState<Integer>(MY_ID, startEpoch, coordinator);
+	}
+
+	private static String createState(int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++)
+			sb.append((char) ('a' + i % 26));
+		return sb.toString();
+	}
+
+	// the chunk of state at offset as served by sender
+	private static EpochFinalState<Integer> getChunk(String state, int offset,
+			int sender) {
+		return new EpochFinalState<Integer>(MY_ID, NAME, PREV_EPOCH,
+				state.substring(offset,
+						Math.min(offset + CHUNK_SIZE, state.length())), sender,
+				offset, state.length(), EpochFinalState.checksum(state));
+	}
+
+	// a chunk whose content changed after its checksum was computed
+	private static EpochFinalState<Integer> getCorruptedChunk(String state,
+			int offset, int sender) throws JSONException {
+		JSONObject json = getChunk(state, offset, sender).toJSONObject();
+		json.put("EPOCH_FINAL_STATE", createState(CHUNK_SIZE).toUpperCase());
+		return new EpochFinalState<Integer>(json,
+				new StringifiableDefault<Integer>(0));
+	}
+
+	/* Returns requested chunk offsets by recipient in request order. */
+	private static Map<Integer, ArrayList<Integer>> getRequests(
+			GenericMessagingTask<Integer, ?>[] mtasks) {
+		Map<Integer, ArrayList<Integer>> requests = new LinkedHashMap<Integer, ArrayList<Integer>>();
+		if (mtasks == null)
+			return requests;
+		for (GenericMessagingTask<Integer, ?> mtask : mtasks) {
+			Assert.assertEquals(1, mtask.recipients.length);
+			Integer recipient = (Integer) mtask.recipients[0];
+			Assert.assertTrue(PREV_GROUP.contains(recipient));
+			if (!requests.containsKey(recipient))
+				requests.put(recipient, new ArrayList<Integer>());
+			for (Object msg : mtask.msgs) {
+				@SuppressWarnings("unchecked")
+				RequestEpochFinalState<Integer> request = (RequestEpochFinalState<Integer>) msg;
+				Assert.assertTrue(request.isChunked());
+				Assert.assertEquals(CHUNK_SIZE, request.getChunkSize());
+				requests.get(recipient).add(request.getOffset());
+			}
+		}
+		return requests;
+	}
+
+	private static int count(Map<Integer, ArrayList<Integer>> requests) {
+		int count = 0;
+		for (ArrayList<Integer> offsets : requests.values())
+			count += offsets.size();
+		return count;
+	}
+
+	/* Hands chunk to task as the protocol executor would and returns the
+	 * requests that follow, if any. */
+	private static Map<Integer, ArrayList<Integer>> receive(
+			WaitEpochFinalState<Integer> task, EpochFinalState<Integer> chunk) {
+		if (task.handleEvent(chunk))
+			return null;
+		return getRequests(task.handlePartialEvent(chunk));
+	}
+
+	/* Receives the first chunk from node 1 and returns the requests for the
+	 * remaining chunks. */
+	private static Map<Integer, ArrayList<Integer>> start(
+			WaitEpochFinalState<Integer> task, String state) {
+		GenericMessagingTask<Integer, ?>[] mtasks = task.start();
+		Assert.assertEquals(Arrays.asList(0), getRequests(mtasks).values()
+				.iterator().next());
+		return receive(task, getChunk(state, 0, 1));
+	}
+
+	/**
+	 * Chunks requested from several replicas are assembled by offset even if
+	 * they arrive in reverse order.
+	 */
+	@Test
+	public void testReassemblyFromSeveralReplicas() {
+		TestCoordinator coordinator = new TestCoordinator();
+		WaitEpochFinalState<Integer> task = createTask(coordinator);
+		String state = createState(5 * CHUNK_SIZE - 1);
+
+		Map<Integer, ArrayList<Integer>> requests = start(task, state);
+		Assert.assertEquals(4, count(requests));
+		Assert.assertEquals(PREV_GROUP, requests.keySet());
+
+		ArrayList<Integer[]> responses = new ArrayList<Integer[]>();
+		for (int sender : requests.keySet())
+			for (int offset : requests.get(sender))
+				responses.add(new Integer[] { sender, offset });
+		Collections.reverse(responses);
+		for (Integer[] response : responses) {
+			Assert.assertNull(coordinator.created);
+			Map<Integer, ArrayList<Integer>> more = receive(task,
+					getChunk(state, response[1], response[0]));
+			// nothing left to request
+			Assert.assertTrue(more == null || more.isEmpty());
+		}
+		Assert.assertEquals(state, coordinator.created);
+	}
+
+	/**
+	 * A chunk that does not match its checksum is discarded and fetched again
+	 * from another replica.
+	 *
+	 * @throws JSONException
+	 */
+	@Test
+	public void testChecksumMismatchIsRefetched() throws JSONException {
+		TestCoordinator coordinator = new TestCoordinator();
+		WaitEpochFinalState<Integer> task = createTask(coordinator);
+		String state = createState(3 * CHUNK_SIZE);
+
+		Map<Integer, ArrayList<Integer>> requests = start(task, state);
+		Assert.assertEquals(2, count(requests));
+		int corrupter = requests.keySet().iterator().next();
+		int offset = requests.get(corrupter).get(0);
+		EpochFinalState<Integer> corrupted = getCorruptedChunk(state, offset,
+				corrupter);
+		Assert.assertFalse(corrupted.isIntact());
+
+		Map<Integer, ArrayList<Integer>> refetch = receive(task, corrupted);
+		Assert.assertEquals(1, count(refetch));
+		int refetcher = refetch.keySet().iterator().next();
+		Assert.assertNotEquals(corrupter, refetcher);
+		Assert.assertEquals(Arrays.asList(offset), refetch.get(refetcher));
+
+		for (int sender : requests.keySet())
+			for (int o : requests.get(sender))
+				if (o != offset)
+					receive(task, getChunk(state, o, sender));
+		Assert.assertNull(coordinator.created);
+		receive(task, getChunk(state, offset, refetcher));
+		Assert.assertEquals(state, coordinator.created);
+	}
+
+	/**
+	 * Upon a restart, chunks that a replica has not answered within the
+	 * restart period are requested again from other replicas.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testUnresponsiveReplicaIsRetried() throws InterruptedException {
+		TestCoordinator coordinator = new TestCoordinator();
+		WaitEpochFinalState<Integer> task = createTask(coordinator);
+		String state = createState(4 * CHUNK_SIZE + 1);
+
+		Map<Integer, ArrayList<Integer>> requests = start(task, state);
+		Assert.assertEquals(4, count(requests));
+		// the first replica after the sender of the first chunk stays silent
+		Integer silent = null;
+		for (int sender : requests.keySet())
+			if (sender != 1 && silent == null)
+				silent = sender;
+			else
+				for (int offset : requests.get(sender))
+					receive(task, getChunk(state, offset, sender));
+		Assert.assertNull(coordinator.created);
+
+		// nothing timed out yet
+		Assert.assertTrue(getRequests(task.restart()).isEmpty());
+		Thread.sleep(WaitAckStopEpoch.RESTART_PERIOD + 50);
+		Map<Integer, ArrayList<Integer>> retries = getRequests(task.restart());
+		Assert.assertFalse(retries.containsKey(silent));
+		Set<Integer> retried = new HashSet<Integer>();
+		for (ArrayList<Integer> offsets : retries.values())
+			retried.addAll(offsets);
+		Assert.assertEquals(new HashSet<Integer>(requests.get(silent)), retried);
+
+		for (int sender : retries.keySet())
+			for (int offset : retries.get(sender))
+				receive(task, getChunk(state, offset, sender));
+		Assert.assertEquals(state, coordinator.created);
+	}
+
+	/**
+	 * A state that fits in a single chunk is created from the first response
+	 * without further requests.
+	 */
+	@Test
+	public void testSingleChunk() {
+		TestCoordinator coordinator = new TestCoordinator();
+		WaitEpochFinalState<Integer> task = createTask(coordinator);
+		String state = createState(CHUNK_SIZE);
+
+		Assert.assertNull(start(task, state));
+		Assert.assertEquals(state, coordinator.created);
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(WaitEpochFinalStateTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -18,11 +18,12 @@
 package edu.umass.cs.reconfiguration.reconfigurationutils;
 
 import java.net.InetAddress;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
@@ -32,13 +33,19 @@ import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
  * 
  *         A utility class for maintaining demand profiles, specifically
  *         geo-distribution of demand in order to send it to reconfigurators.
+ * 
+ *         There is no lock across names. Demand profiles are not required to
+ *         be thread-safe, so a profile is accessed only while holding its own
+ *         monitor and only while it is still the one mapped to its name. A
+ *         profile that is plucked or trimmed is unmapped under its monitor and
+ *         is never updated thereafter, so it can be reported without copying.
  */
 public class AggregateDemandProfiler {
 	private static final int DEFAULT_MAX_SIZE = 100000;
 	private static final int DEFAULT_PLUCK_SIZE = 100;
 
 	private ReconfigurableAppInfo nodeConfig;
-	private final HashMap<String, AbstractDemandProfile> map = new HashMap<String, AbstractDemandProfile>();
+	private final ConcurrentHashMap<String, AbstractDemandProfile> map = new ConcurrentHashMap<String, AbstractDemandProfile>();
 
 	/**
 	 * @param nodeConfig
@@ -59,36 +66,67 @@ public class AggregateDemandProfiler {
 	 * @param sender
 	 * @return AbstractDemandProfile after registering {@code request}.
 	 */
-	public synchronized boolean shouldSendDemandReport(
-			Request request, InetAddress sender) {
+	public boolean shouldSendDemandReport(Request request, InetAddress sender) {
 		String name = request.getServiceName();
-		AbstractDemandProfile demand = this.getDemandProfile(name);
-		if (demand == null)
-			demand = AbstractDemandProfile.createDemandProfile(name); // reflection
-		boolean shouldReport = demand.shouldReportDemandStats(request, sender, nodeConfig);
-		this.map.put(name, demand);
-		return shouldReport;
+		for (AbstractDemandProfile demand;;)
+			synchronized (demand = this.getOrCreateDemandProfile(name)) {
+				if (this.map.get(name) == demand)
+					return demand.shouldReportDemandStats(request, sender,
+							nodeConfig);
+			}
 	}
 
-	private synchronized AbstractDemandProfile getDemandProfile(String name) {
+	/**
+	 * Registers {@code request} and, if a demand report is warranted, plucks
+	 * the demand profile in the same step so that concurrent requests for the
+	 * same name can not pluck it twice.
+	 * 
+	 * @param request
+	 * @param sender
+	 * @return Plucked demand profile to be reported to reconfigurators or null
+	 *         if no report is warranted.
+	 */
+	public AbstractDemandProfile register(Request request, InetAddress sender) {
+		String name = request.getServiceName();
+		for (AbstractDemandProfile demand;;)
+			synchronized (demand = this.getOrCreateDemandProfile(name)) {
+				if (this.map.get(name) != demand)
+					continue;
+				return demand.shouldReportDemandStats(request, sender,
+						nodeConfig) ? this.pluck(name, demand) : null;
+			}
+	}
+
+	private AbstractDemandProfile getOrCreateDemandProfile(String name) {
 		AbstractDemandProfile demand = this.map.get(name);
-		return demand;
+		if (demand != null)
+			return demand;
+		demand = AbstractDemandProfile.createDemandProfile(name); // reflection
+		AbstractDemandProfile existing = this.map.putIfAbsent(name, demand);
+		return existing != null ? existing : demand;
+	}
+
+	// must be invoked while holding demand's monitor
+	private AbstractDemandProfile pluck(String name,
+			AbstractDemandProfile demand) {
+		return this.map.replace(name, demand,
+				AbstractDemandProfile.createDemandProfile(name)) ? demand
+				: null;
 	}
 
 	/**
 	 * @param name
 	 * @return True if map contains name.
 	 */
-	public synchronized boolean contains(String name) {
+	public boolean contains(String name) {
 		return this.map.containsKey(name);
 	}
 
 	/**
 	 * @param profile
 	 */
-	public synchronized void putIfEmpty(AbstractDemandProfile profile) {
-		if (!this.map.containsKey(profile.getName()))
-			this.map.put(profile.getName(), profile);
+	public void putIfEmpty(AbstractDemandProfile profile) {
+		this.map.putIfAbsent(profile.getName(), profile);
 	}
 
 	/**
@@ -97,12 +135,13 @@ public class AggregateDemandProfiler {
 	 * @return True if Reconfigurator should initiate a reconfiguration to the
 	 *         IP addresses returned.
 	 */
-	public synchronized Set<String> reconfigure(String name,
-			Set<String> curActives) {
-		AbstractDemandProfile demand = this.getDemandProfile(name);
+	public Set<String> reconfigure(String name, Set<String> curActives) {
+		AbstractDemandProfile demand = this.map.get(name);
 		if (demand == null)
 			return null;
-		return demand.reconfigure(curActives, nodeConfig);
+		synchronized (demand) {
+			return demand.reconfigure(curActives, nodeConfig);
+		}
 	}
 
 	/**
@@ -112,16 +151,18 @@ public class AggregateDemandProfiler {
 	 * @return List of IP addresses to which the replicas have been
 	 *         reconfigured. The testAndSet ensures atomicity.
 	 */
-	public synchronized Set<String> testAndSetReconfigured(
-			String name, Set<String> curActives, ReconfigurableAppInfo appInfo) {
-		AbstractDemandProfile demand = this.getDemandProfile(name);
-		Set<String> newActives = null;
-		if (demand == null
-				|| (newActives = demand.reconfigure(curActives,
-						appInfo)) == null)
+	public Set<String> testAndSetReconfigured(String name,
+			Set<String> curActives, ReconfigurableAppInfo appInfo) {
+		AbstractDemandProfile demand = this.map.get(name);
+		if (demand == null)
 			return curActives;
-		// else should reconfigure
-		demand.justReconfigured();
+		Set<String> newActives = null;
+		synchronized (demand) {
+			if ((newActives = demand.reconfigure(curActives, appInfo)) == null)
+				return curActives;
+			// else should reconfigure
+			demand.justReconfigured();
+		}
 		return newActives;
 	}
 
@@ -134,17 +175,18 @@ public class AggregateDemandProfiler {
 	 * 
 	 * @return Set of demand profiles to be shipped to reconfigurator(s).
 	 */
-	public synchronized Set<AbstractDemandProfile> trim() {
+	public Set<AbstractDemandProfile> trim() {
+		if (this.map.size() < DEFAULT_MAX_SIZE)
+			return Collections.emptySet();
 		Set<AbstractDemandProfile> plucked = new HashSet<AbstractDemandProfile>();
-		if (this.map.size() >= DEFAULT_MAX_SIZE) {
-			int count = 0;
-			for (Iterator<Entry<String, AbstractDemandProfile>> iter = this.map
-					.entrySet().iterator(); iter.hasNext(); /* nothing */) {
-				Entry<String, AbstractDemandProfile> entry = iter.next();
-				plucked.add(entry.getValue());
-				iter.remove();
-				if (count++ >= DEFAULT_PLUCK_SIZE)
-					break;
+		for (Iterator<Entry<String, AbstractDemandProfile>> iter = this.map
+				.entrySet().iterator(); iter.hasNext()
+				&& plucked.size() < DEFAULT_PLUCK_SIZE;) {
+			Entry<String, AbstractDemandProfile> entry = iter.next();
+			AbstractDemandProfile demand = entry.getValue();
+			synchronized (demand) {
+				if (this.map.remove(entry.getKey(), demand))
+					plucked.add(demand);
 			}
 		}
 		return plucked;
@@ -154,29 +196,31 @@ public class AggregateDemandProfiler {
 	 * @param name
 	 * @return Plucked demand profile.
 	 */
-	public synchronized AbstractDemandProfile pluckDemandProfile(String name) {
-		AbstractDemandProfile demand = this.map.get(name);
-		// replaced clone() with un-stringification instead
-		AbstractDemandProfile copy = AbstractDemandProfile
-				.createDemandProfile(demand.getDemandStats()); // demand.clone();
-		//demand.reset();
-		// replaced reset() with reflective call instead
-		this.map.put(name, AbstractDemandProfile.createDemandProfile(name));
-		return copy;
+	public AbstractDemandProfile pluckDemandProfile(String name) {
+		for (AbstractDemandProfile demand;;) {
+			if ((demand = this.map.get(name)) == null)
+				return null;
+			synchronized (demand) {
+				if (this.pluck(name, demand) != null)
+					return demand;
+			}
+		}
 	}
 
 	/**
 	 * @param update
 	 * @return Combined demand profile.
 	 */
-	public synchronized AbstractDemandProfile combine(
-			AbstractDemandProfile update) {
-		AbstractDemandProfile existing = this.map.get(update.getName());
-		if (existing != null)
-			existing.combine(update);
-		else
-			existing = update;
-		this.map.put(update.getName(), existing);
-		return existing;
+	public AbstractDemandProfile combine(AbstractDemandProfile update) {
+		for (AbstractDemandProfile existing;;) {
+			if ((existing = this.map.putIfAbsent(update.getName(), update)) == null)
+				return update;
+			synchronized (existing) {
+				if (this.map.get(update.getName()) != existing)
+					continue;
+				existing.combine(update);
+				return existing;
+			}
+		}
 	}
 }
@@ -0,0 +1,99 @@
+package edu.umass.cs.reconfiguration.reconfigurationutils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Test class for {@link AggregateDemandProfiler}.
+ */
+public class AggregateDemandProfilerTest extends DefaultTest {
+
+	private static Request getRequest(final String name) {
+		return new Request() {
+			@Override
+			public IntegerPacketType getRequestType() {
+				return AppRequest.PacketType.DEFAULT_APP_REQUEST;
+			}
+
+			@Override
+			public String getServiceName() {
+				return name;
+			}
+		};
+	}
+
+	/**
+	 * Requests registered concurrently by many threads for a few names are
+	 * each counted in exactly one plucked demand profile, and prints the
+	 * registration rate.
+	 *
+	 * @throws InterruptedException
+	 * @throws UnknownHostException
+	 */
+	@Test
+	public void testConcurrentRegister() throws InterruptedException,
+			UnknownHostException {
+		int oldMin = DemandProfile.minRequestsBeforeDemandReport;
+		DemandProfile.minRequestsBeforeDemandReport = 100;
+		try {
+			final AggregateDemandProfiler profiler = new AggregateDemandProfiler();
+			final int numThreads = 4, perThread = 200 * 1000, numNames = 16;
+			final Request[] requests = new Request[numNames];
+			for (int i = 0; i < numNames; i++)
+				requests[i] = getRequest("name" + i);
+			final InetAddress sender = InetAddress.getByName("10.1.2.3");
+			final AtomicLong reported = new AtomicLong(0);
+			Thread[] threads = new Thread[numThreads];
+			long t = System.nanoTime();
+			for (int i = 0; i < numThreads; i++)
+				(threads[i] = new Thread() {
+					public void run() {
+						for (int j = 0; j < perThread; j++) {
+							AbstractDemandProfile demand = profiler.register(
+									requests[j % numNames], sender);
+							if (demand != null)
+								reported.addAndGet((long) ((DemandProfile) demand)
+										.getNumRequests());
+						}
+					}
+				}).start();
+			for (Thread thread : threads)
+				thread.join();
+			long elapsed = System.nanoTime() - t;
+			for (Request request : requests)
+				reported.addAndGet((long) ((DemandProfile) profiler
+						.pluckDemandProfile(request.getServiceName()))
+						.getNumRequests());
+			Assert.assertEquals(numThreads * perThread, reported.get());
+			Assert.assertTrue(profiler.trim().isEmpty());
+			System.out.print("registered "
+					+ (numThreads * perThread * 1000000000L / elapsed)
+					+ "/s ");
+		} finally {
+			DemandProfile.minRequestsBeforeDemandReport = oldMin;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(AggregateDemandProfilerTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
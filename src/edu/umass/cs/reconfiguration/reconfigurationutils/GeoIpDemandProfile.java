@@ -1,27 +1,30 @@
 package edu.umass.cs.reconfiguration.reconfigurationutils;
 
-import com.google.common.collect.Sets;
-import com.google.gson.Gson;
-import com.javadocmd.simplelatlng.LatLng;
-import com.javadocmd.simplelatlng.LatLngTool;
-import com.javadocmd.simplelatlng.util.LengthUnit;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
+import edu.umass.cs.utils.HeavyHitters;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class GeoIpDemandProfile extends DemandProfile {
 
     private enum Keys {
-        DIST
+        DIST, DIST_TOTAL
     }
 
-    private Map<String, Integer> demandDistribution = new HashMap<>();
+    /**
+     * Maximum number of client network prefixes whose demand is tracked per
+     * name. Demand from other prefixes only counts toward the total, so the
+     * size of a profile is bounded however many clients a name has.
+     */
+    protected static int maxPrefixes = 64;
+
+    // request counts keyed by client prefix as in GeoIpUtils.getPrefix
+    private HeavyHitters<String> demandDistribution = new HeavyHitters<>(maxPrefixes);
 
     public GeoIpDemandProfile(String name) {
         super(name);
@@ -36,68 +39,114 @@ public class GeoIpDemandProfile extends DemandProfile {
         if (json != null) {
             if (json.has(Keys.DIST.toString())) {
                 final JSONObject dist = json.getJSONObject(Keys.DIST.toString());
-                demandDistribution = new HashMap(new Gson().fromJson(dist.toString(), HashMap.class));
-                System.out.println(demandDistribution);
+                final Map<String, Long> counts = new HashMap<>();
+                long total = 0;
+                for (final Iterator<?> iter = dist.keys(); iter.hasNext(); ) {
+                    final String prefix = (String) iter.next();
+                    counts.put(prefix, dist.getLong(prefix));
+                    total += counts.get(prefix);
+                }
+                demandDistribution = new HeavyHitters<>(maxPrefixes, counts,
+                        json.optLong(Keys.DIST_TOTAL.toString(), total));
             }
         }
     }
 
     @Override
     public boolean shouldReportDemandStats(Request request, InetAddress sender, ReconfigurableAppInfo nodeConfig) {
-        synchronized (demandDistribution) {
-            super.shouldReportDemandStats(request, sender, nodeConfig);
-            final Integer numRequests = demandDistribution.getOrDefault(sender.getHostAddress(), 0);
-            System.out.println(demandDistribution.containsKey(sender.getHostAddress()));
-            demandDistribution.put(sender.getHostAddress(), numRequests + 1);
-            System.out.println(demandDistribution);
+        final boolean shouldReport = super.shouldReportDemandStats(request, sender, nodeConfig);
+        if (sender != null && request.getServiceName().equals(this.name)) {
+            demandDistribution.add(GeoIpUtils.getPrefix(sender));
         }
-        return true;
+        return shouldReport;
     }
 
     @Override
     public JSONObject getDemandStats() {
         final JSONObject json = super.getDemandStats();
         try {
-            json.put(Keys.DIST.toString(), demandDistribution);
+            json.put(Keys.DIST.toString(), demandDistribution.getCounts());
+            json.put(Keys.DIST_TOTAL.toString(), demandDistribution.getTotal());
         } catch (JSONException e) {
             throw new RuntimeException(e);
         }
         return json;
     }
 
+    @Override
+    public void combine(AbstractDemandProfile dp) {
+        super.combine(dp);
+        if (dp instanceof GeoIpDemandProfile) {
+            demandDistribution.merge(((GeoIpDemandProfile) dp).demandDistribution);
+        }
+    }
+
+    /**
+     * Resolves prefixes and actives to locations. Defaults to
+     * {@link GeoIpLocationService#getInstance()} if null.
+     */
+    protected static GeoIpLocationService locationService = null;
+
+    private static GeoIpLocationService getLocationService() {
+        final GeoIpLocationService service = locationService;
+        return service != null ? service : GeoIpLocationService.getInstance();
+    }
+
+    /**
+     * Places replicas at the actives closest to the weighted centroid of the
+     * locations of all tracked client prefixes, keeping the number of
+     * replicas unchanged. The closest actives are selected in one pass
+     * without sorting, and the placement defers to
+     * {@link DemandProfile#reconfigure(Set, ReconfigurableAppInfo)} if it
+     * declines to reconfigure or if neither demand nor actives can be located.
+     */
     @Override
     public Set<String> reconfigure(Set<String> curActives, ReconfigurableAppInfo nodeConfig) {
-        final List<Map.Entry<String, Integer>> sortedDemandDistribution = demandDistribution.entrySet().stream()
-                .sorted(Comparator.comparingInt(Map.Entry::getValue))
-                .collect(Collectors.toList());
-        if (!sortedDemandDistribution.isEmpty() && getNumRequests() > 5) {
-            final Map.Entry<String, Integer> highestDemand =
-                    sortedDemandDistribution.get(sortedDemandDistribution.size() - 1);
-            final String highestDemandAddress = highestDemand.getKey();
-            final LatLng highestDemandLocation = GeoIpUtils.getApproximateLocation(highestDemandAddress);
-            if (nodeConfig.getAllActiveReplicas() != null) {
-                String closest = null;
-                double closestDistance = Integer.MAX_VALUE;
-                for (Map.Entry<String, InetSocketAddress> entry : nodeConfig.getAllActiveReplicas().entrySet()) {
-                    String acName = entry.getKey();
-                    InetSocketAddress acAddress = entry.getValue();
-                    if (curActives.contains(acName)) {
-                        continue;
-                    }
-                    final LatLng acLocation = GeoIpUtils.getApproximateLocation(acAddress.getHostString());
-                    final double distance = LatLngTool.distance(highestDemandLocation, acLocation, LengthUnit.KILOMETER);
-                    System.out.println(acName + " distance: " + distance);
-                    if (distance < closestDistance) {
-                        closest = acName;
-                        closestDistance = distance;
-                    }
-                }
-                if (closest != null) {
-                    System.out.println("moves to " + closest);
-                    return Sets.newHashSet(closest);
-                }
+        final Set<String> reconfigured = super.reconfigure(curActives, nodeConfig);
+        final Map<String, InetSocketAddress> actives = nodeConfig.getAllActiveReplicas();
+        if (reconfigured == null || getNumRequests() <= 5 || demandDistribution.size() == 0
+                || actives == null) {
+            return reconfigured;
+        }
+        final GeoIpLocationService service = getLocationService();
+
+        // weighted sum of unit vectors, pointing toward the centroid
+        final double[] sum = new double[3];
+        demandDistribution.forEach((prefix, count) -> {
+            final GeoIpLocationService.Location location = service.locate(prefix);
+            if (location != null) {
+                sum[0] += count * location.x;
+                sum[1] += count * location.y;
+                sum[2] += count * location.z;
             }
+        });
+        final GeoIpLocationService.ActiveLocations located = service.getActiveLocations(actives);
+        final int k = Math.min(Math.max(curActives.size(), 1), located.names.length);
+        if (k == 0 || sum[0] * sum[0] + sum[1] * sum[1] + sum[2] * sum[2] == 0) {
+            return reconfigured;
+        }
+
+        // the k actives closest to the centroid in decreasing proximity
+        final int[] closest = new int[k];
+        final double[] proximity = new double[k];
+        int size = 0;
+        for (int i = 0; i < located.names.length; i++) {
+            final double p = located.locations[i].dot(sum[0], sum[1], sum[2]);
+            if (size == k && p <= proximity[k - 1]) {
+                continue;
+            }
+            int j = size < k ? size++ : k - 1;
+            for (; j > 0 && proximity[j - 1] < p; j--) {
+                closest[j] = closest[j - 1];
+                proximity[j] = proximity[j - 1];
+            }
+            closest[j] = i;
+            proximity[j] = p;
+        }
+        final Set<String> placement = new HashSet<>();
+        for (final int i : closest) {
+            placement.add(located.names[i]);
         }
-        return super.reconfigure(curActives, nodeConfig);
+        return placement;
     }
 }
@@ -0,0 +1,235 @@
+package edu.umass.cs.reconfiguration.reconfigurationutils;
+
+import com.javadocmd.simplelatlng.LatLng;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.nio.interfaces.IntegerPacketType;
+import edu.umass.cs.reconfiguration.examples.AppRequest;
+import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
+import edu.umass.cs.utils.DefaultTest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for {@link GeoIpDemandProfile} placement using the offline test
+ * database tests/geoip/locations.csv.
+ */
+public class GeoIpDemandProfileTest extends DefaultTest {
+
+    private static final String TEST_DATABASE = "tests/geoip/locations.csv";
+
+    // Seoul, Frankfurt, Virginia, Sydney, and an unlocatable loopback
+    private final Map<String, InetSocketAddress> actives = new HashMap<>();
+
+    private GeoIpLocationService oldLocationService;
+
+    @Before
+    public void setUp() {
+        actives.put("AR0", new InetSocketAddress("13.209.66.6", 2000));
+        actives.put("AR1", new InetSocketAddress("3.120.1.1", 2000));
+        actives.put("AR2", new InetSocketAddress("54.144.2.2", 2000));
+        actives.put("AR3", new InetSocketAddress("52.95.110.1", 2000));
+        actives.put("AR4", new InetSocketAddress("127.0.0.1", 2000));
+        oldLocationService = GeoIpDemandProfile.locationService;
+        GeoIpDemandProfile.locationService = new GeoIpLocationService(
+                GeoIpLocationService.openDatabase(TEST_DATABASE));
+    }
+
+    @After
+    public void tearDown() {
+        GeoIpDemandProfile.locationService = oldLocationService;
+    }
+
+    private static Request getRequest(final String name) {
+        return new Request() {
+            @Override
+            public IntegerPacketType getRequestType() {
+                return AppRequest.PacketType.DEFAULT_APP_REQUEST;
+            }
+
+            @Override
+            public String getServiceName() {
+                return name;
+            }
+        };
+    }
+
+    private static ReconfigurableAppInfo getAppInfo(final Map<String, InetSocketAddress> actives) {
+        return new ReconfigurableAppInfo() {
+            @Override
+            public Set<String> getReplicaGroup(String serviceName) {
+                return null;
+            }
+
+            @Override
+            public String snapshot(String serviceName) {
+                return null;
+            }
+
+            @Override
+            public Map<String, InetSocketAddress> getAllActiveReplicas() {
+                return actives;
+            }
+        };
+    }
+
+    // registers count requests for name from address
+    private static void addDemand(GeoIpDemandProfile profile, String address, int count)
+            throws UnknownHostException {
+        final Request request = getRequest(profile.getName());
+        final InetAddress sender = InetAddress.getByName(address);
+        for (int i = 0; i < count; i++) {
+            profile.shouldReportDemandStats(request, sender, null);
+        }
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    /**
+     * The test database is readable offline and unknown prefixes are not
+     * located.
+     */
+    @Test
+    public void testDatabase() throws UnknownHostException {
+        final GeoIpLocationService service = GeoIpDemandProfile.locationService;
+        final LatLng tokyo = service.getLocation(GeoIpUtils.getPrefix(InetAddress
+                .getByName("203.0.113.77")));
+        Assert.assertEquals(35.7, tokyo.getLatitude(), 0.1);
+        Assert.assertEquals(139.7, tokyo.getLongitude(), 0.1);
+        Assert.assertNotNull(service.getLocation(GeoIpUtils.getPrefix(InetAddress
+                .getByName("2001:db8:1::42"))));
+        Assert.assertNull(service.getLocation("10.0.0.0"));
+    }
+
+    /**
+     * Replicas move to the actives closest to the demand, keeping the number
+     * of replicas unchanged.
+     */
+    @Test
+    public void testPlacement() throws UnknownHostException {
+        final GeoIpDemandProfile profile = new GeoIpDemandProfile("name");
+        addDemand(profile, "203.0.113.5", 90); // Tokyo
+        addDemand(profile, "198.51.100.5", 10); // Boston
+        final ReconfigurableAppInfo appInfo = getAppInfo(actives);
+        Assert.assertEquals(set("AR0"), profile.reconfigure(set("AR2"), appInfo));
+        Assert.assertEquals(set("AR0", "AR3"),
+                profile.reconfigure(set("AR2", "AR4"), appInfo));
+    }
+
+    /**
+     * The whole distribution counts, not just the heaviest client network.
+     * Boston is the single heaviest, but most demand is from Asia.
+     */
+    @Test
+    public void testWeightedCentroid() throws UnknownHostException {
+        final GeoIpDemandProfile profile = new GeoIpDemandProfile("name");
+        addDemand(profile, "198.51.100.5", 40); // Boston
+        addDemand(profile, "203.0.113.5", 30); // Tokyo
+        addDemand(profile, "2001:db8:1::5", 30); // Singapore
+        Assert.assertEquals(set("AR0"),
+                profile.reconfigure(set("AR2"), getAppInfo(actives)));
+    }
+
+    /**
+     * Unlocatable demand falls back to the base policy.
+     */
+    @Test
+    public void testUnknownDemand() throws UnknownHostException {
+        final GeoIpDemandProfile profile = new GeoIpDemandProfile("name");
+        addDemand(profile, "10.1.2.3", 100);
+        Assert.assertEquals(set("AR2"),
+                profile.reconfigure(set("AR2"), getAppInfo(actives)));
+    }
+
+    /**
+     * Active locations are recomputed when the node config changes.
+     */
+    @Test
+    public void testNodeConfigChange() throws UnknownHostException {
+        final GeoIpDemandProfile profile = new GeoIpDemandProfile("name");
+        addDemand(profile, "203.0.113.5", 100); // Tokyo
+        final Map<String, InetSocketAddress> fewer = new HashMap<>(actives);
+        fewer.remove("AR0");
+        Assert.assertEquals(set("AR3"), profile.reconfigure(set("AR2"), getAppInfo(fewer)));
+        Assert.assertEquals(set("AR0"), profile.reconfigure(set("AR2"), getAppInfo(actives)));
+    }
+
+    /**
+     * Each prefix is looked up in the database once however many names it
+     * appears in, and prints the rate of reconfiguration decisions over 1M
+     * decisions.
+     */
+    @Test
+    public void testDecisionRate() throws UnknownHostException {
+        final int numPrefixes = 4096, numActives = 100, numNames = 1000,
+                rounds = 1000;
+        final Random r = new Random(1);
+        final Map<String, LatLng> locations = new HashMap<>();
+        for (int i = 0; i < numPrefixes; i++) {
+            locations.put("11." + (i >> 8) + "." + (i & 255) + ".0",
+                    new LatLng(r.nextDouble() * 180 - 90, r.nextDouble() * 360 - 180));
+        }
+        final Map<String, InetSocketAddress> many = new HashMap<>();
+        for (int i = 0; i < numActives; i++) {
+            many.put("AR" + i, new InetSocketAddress("11.0." + i + ".1", 2000));
+        }
+        final AtomicInteger lookups = new AtomicInteger();
+        GeoIpDemandProfile.locationService = new GeoIpLocationService(
+                new GeoIpLocationService.Database() {
+                    @Override
+                    public LatLng getLocation(InetAddress address) {
+                        lookups.incrementAndGet();
+                        return locations.get(GeoIpUtils.getPrefix(address));
+                    }
+                });
+
+        final GeoIpDemandProfile[] profiles = new GeoIpDemandProfile[numNames];
+        for (int i = 0; i < numNames; i++) {
+            profiles[i] = new GeoIpDemandProfile("name" + i);
+            for (int j = 0; j < 32; j++) {
+                final int prefix = r.nextInt(numPrefixes);
+                addDemand(profiles[i], "11." + (prefix >> 8) + "." + (prefix & 255)
+                        + "." + r.nextInt(256), 1 + r.nextInt(8));
+            }
+        }
+        final ReconfigurableAppInfo appInfo = getAppInfo(many);
+        final Set<String> curActives = set("AR0", "AR1", "AR2");
+        final long t = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (GeoIpDemandProfile profile : profiles) {
+                Assert.assertEquals(3, profile.reconfigure(curActives, appInfo).size());
+            }
+        }
+        final long elapsed = System.nanoTime() - t;
+        Assert.assertTrue(lookups.get() <= numPrefixes);
+        System.out.print("decided " + (rounds * numNames * 1000000000L / elapsed) + "/s ");
+    }
+
+    /**
+     * @param args
+     */
+    public static void main(String[] args) {
+        Result result = JUnitCore.runClasses(GeoIpDemandProfileTest.class);
+        for (Failure failure : result.getFailures()) {
+            System.out.println(failure.toString());
+            failure.getException().printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package edu.umass.cs.reconfiguration.reconfigurationutils;
+
+import com.javadocmd.simplelatlng.LatLng;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.CityResponse;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
+import edu.umass.cs.utils.Config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Resolves client network prefixes and active replicas to locations for
+ * {@link GeoIpDemandProfile}. Locations are cached in an LRU cache keyed by
+ * prefix as in {@link GeoIpUtils#getPrefix(InetAddress)}, including prefixes
+ * that the database can not locate, so a reconfigurator looks up each client
+ * network at most once however many names it appears in. The locations of all
+ * active replicas are computed once per node config and reused until the set
+ * of actives changes.
+ */
+public class GeoIpLocationService {
+
+    /**
+     * A source of locations, e.g., a MaxMind database.
+     */
+    public interface Database {
+        /**
+         * @param address
+         * @return Location of {@code address} or null if unknown.
+         * @throws IOException
+         */
+        LatLng getLocation(InetAddress address) throws IOException;
+    }
+
+    /**
+     * A location together with its unit vector on the sphere, so that
+     * centroids and angular proximity can be computed without trigonometry.
+     */
+    static final class Location {
+        final LatLng latLng;
+        final double x, y, z;
+
+        Location(LatLng latLng) {
+            this.latLng = latLng;
+            final double lat = Math.toRadians(latLng.getLatitude());
+            final double lng = Math.toRadians(latLng.getLongitude());
+            this.x = Math.cos(lat) * Math.cos(lng);
+            this.y = Math.cos(lat) * Math.sin(lng);
+            this.z = Math.sin(lat);
+        }
+
+        // cosine of the angle between this and the (x, y, z) unit vector
+        double dot(double x, double y, double z) {
+            return this.x * x + this.y * y + this.z * z;
+        }
+    }
+
+    /**
+     * Locations of the active replicas in a node config.
+     */
+    static final class ActiveLocations {
+        final Map<String, InetSocketAddress> actives;
+        final String[] names;
+        final Location[] locations;
+
+        ActiveLocations(Map<String, InetSocketAddress> actives,
+                        List<String> names, List<Location> locations) {
+            this.actives = actives;
+            this.names = names.toArray(new String[0]);
+            this.locations = locations.toArray(new Location[0]);
+        }
+    }
+
+    private static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+    // cached in place of null for prefixes the database does not know
+    private static final Location UNKNOWN = new Location(new LatLng(0, 0));
+
+    private static GeoIpLocationService instance;
+
+    private final Database database;
+    private final LinkedHashMap<String, Location> cache;
+    private volatile ActiveLocations activeLocations;
+
+    /**
+     * @param database
+     */
+    public GeoIpLocationService(Database database) {
+        this(database, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param database
+     * @param cacheSize Maximum number of prefixes cached.
+     */
+    @SuppressWarnings("serial")
+    public GeoIpLocationService(Database database, final int cacheSize) {
+        this.database = database;
+        this.cache = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return The service backed by {@link RC#GEOIP_DATABASE}, opened upon
+     * first use.
+     */
+    public static synchronized GeoIpLocationService getInstance() {
+        if (instance == null) {
+            instance = new GeoIpLocationService(openDatabase(Config
+                    .getGlobalString(RC.GEOIP_DATABASE)));
+        }
+        return instance;
+    }
+
+    /**
+     * @param path A MaxMind city database or a ".csv" file with lines of the
+     *             form "prefix,latitude,longitude".
+     * @return Database read from {@code path}.
+     */
+    public static Database openDatabase(String path) {
+        try {
+            return path.endsWith(".csv") ? readCsvDatabase(new File(path))
+                    : openMaxMindDatabase(new File(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Database openMaxMindDatabase(File file) throws IOException {
+        final DatabaseReader reader = new DatabaseReader.Builder(file).build();
+        return new Database() {
+            @Override
+            public LatLng getLocation(InetAddress address) throws IOException {
+                try {
+                    final CityResponse city = reader.city(address);
+                    final Double lat = city.getLocation().getLatitude();
+                    final Double lng = city.getLocation().getLongitude();
+                    return lat != null && lng != null ? new LatLng(lat, lng) : null;
+                } catch (AddressNotFoundException e) {
+                    return null;
+                } catch (GeoIp2Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    private static Database readCsvDatabase(File file) throws IOException {
+        final Map<String, LatLng> locations = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] fields = line.split(",");
+                locations.put(GeoIpUtils.getPrefix(InetAddress.getByName(fields[0]
+                        .trim())), new LatLng(Double.parseDouble(fields[1].trim()),
+                        Double.parseDouble(fields[2].trim())));
+            }
+        }
+        return new Database() {
+            @Override
+            public LatLng getLocation(InetAddress address) {
+                return locations.get(GeoIpUtils.getPrefix(address));
+            }
+        };
+    }
+
+    /**
+     * @param prefix A prefix as returned by
+     *               {@link GeoIpUtils#getPrefix(InetAddress)}.
+     * @return Location of {@code prefix} or null if unknown.
+     */
+    public LatLng getLocation(String prefix) {
+        final Location location = this.locate(prefix);
+        return location != null ? location.latLng : null;
+    }
+
+    Location locate(String prefix) {
+        Location location;
+        synchronized (this.cache) {
+            location = this.cache.get(prefix);
+        }
+        if (location == null) {
+            // looked up outside the lock; a racing duplicate lookup is harmless
+            location = this.lookup(prefix);
+            synchronized (this.cache) {
+                this.cache.put(prefix, location);
+            }
+        }
+        return location != UNKNOWN ? location : null;
+    }
+
+    private Location lookup(String prefix) {
+        try {
+            final LatLng latLng = this.database.getLocation(InetAddress
+                    .getByName(prefix));
+            return latLng != null ? new Location(latLng) : UNKNOWN;
+        } catch (IOException e) {
+            ReconfigurationConfig.getLogger().log(Level.FINE,
+                    "{0} unable to locate {1}: {2}",
+                    new Object[]{this, prefix, e});
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param actives As returned by
+     *                {@link edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo#getAllActiveReplicas()}.
+     * @return Locations of the locatable actives, recomputed only if
+     * {@code actives} differs from the node config last seen.
+     */
+    ActiveLocations getActiveLocations(Map<String, InetSocketAddress> actives) {
+        final ActiveLocations cached = this.activeLocations;
+        if (cached != null && cached.actives.equals(actives)) {
+            return cached;
+        }
+        final List<String> names = new ArrayList<>();
+        final List<Location> locations = new ArrayList<>();
+        for (Map.Entry<String, InetSocketAddress> entry : actives.entrySet()) {
+            final InetAddress address = entry.getValue().getAddress();
+            final Location location = address != null
+                    ? this.locate(GeoIpUtils.getPrefix(address)) : null;
+            if (location != null) {
+                names.add(entry.getKey());
+                locations.add(location);
+            }
+        }
+        final ActiveLocations refreshed = new ActiveLocations(new HashMap<>(actives),
+                names, locations);
+        ReconfigurationConfig.getLogger().log(Level.INFO,
+                "{0} located {1} of {2} active replicas",
+                new Object[]{this, names.size(), actives.size()});
+        return this.activeLocations = refreshed;
+    }
+
+    /**
+     * @return Number of prefixes cached.
+     */
+    public int getCacheSize() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    public String toString() {
+        return this.getClass().getSimpleName();
+    }
+}
@@ -9,11 +9,35 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 public class GeoIpUtils {
 
     private static DatabaseReader reader;
 
+    /**
+     * @param address
+     * @return The address of the /24 network (IPv4) or /48 network (IPv6)
+     * containing {@code address}, e.g., 10.1.2.0 for 10.1.2.3, as clients in
+     * the same such network are almost always in the same location.
+     */
+    public static String getPrefix(InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (bytes.length == 4) {
+            return (bytes[0] & 0xff) + "." + (bytes[1] & 0xff) + "."
+                    + (bytes[2] & 0xff) + ".0";
+        }
+        for (int i = 6; i < bytes.length; i++) {
+            bytes[i] = 0;
+        }
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            // only thrown for an illegal address length
+            throw new RuntimeException(e);
+        }
+    }
+
     public static LatLng getApproximateLocation(String ipAddress) {
         if (reader == null) {
             final File database = new File("GeoLite2-City.mmdb");
@@ -22,6 +22,8 @@ import java.util.Set;
 
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParserBytes;
 import edu.umass.cs.gigapaxos.interfaces.Application;
+import edu.umass.cs.gigapaxos.interfaces.AsyncCheckpointable;
+import edu.umass.cs.gigapaxos.interfaces.CheckpointProducer;
 import edu.umass.cs.gigapaxos.interfaces.GigapaxosShutdownable;
 import edu.umass.cs.gigapaxos.interfaces.Replicable;
 import edu.umass.cs.gigapaxos.interfaces.Request;
@@ -34,7 +36,7 @@ import edu.umass.cs.reconfiguration.interfaces.Repliconfigurable;
 /**
 @author V. Arun
  */
-public class TrivialRepliconfigurable implements Repliconfigurable, AppRequestParserBytes, GigapaxosShutdownable {
+public class TrivialRepliconfigurable implements Repliconfigurable, AppRequestParserBytes, GigapaxosShutdownable, AsyncCheckpointable {
 	
 	/**
 	 * The underlying app.
@@ -131,6 +133,16 @@ public class TrivialRepliconfigurable implements Repliconfigurable, AppRequestPa
 				return ((Replicable)this.app).restore(name, state);
 		throw new RuntimeException("Can not get stop request for a non-replicable app");
 	}
+
+	/**
+	 * @return Null, i.e., checkpoint synchronously, unless the underlying app
+	 *         is {@link AsyncCheckpointable}.
+	 */
+	@Override
+	public CheckpointProducer checkpointAsync(String name) {
+		return this.app instanceof AsyncCheckpointable ? ((AsyncCheckpointable) this.app)
+				.checkpointAsync(name) : null;
+	}
 	
 	public String toString() {
 		return this.app.toString();
@@ -5,6 +5,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import edu.umass.cs.gigapaxos.interfaces.Application;
 import edu.umass.cs.gigapaxos.interfaces.Request;
@@ -21,6 +22,7 @@ import edu.umass.cs.txn.interfaces.TxOp;
 import edu.umass.cs.txn.txpackets.AbortRequest;
 import edu.umass.cs.txn.txpackets.CommitRequest;
 import edu.umass.cs.txn.txpackets.LockRequest;
+import edu.umass.cs.txn.txpackets.TXPacket;
 import edu.umass.cs.txn.txpackets.UnlockRequest;
 import edu.umass.cs.utils.Config;
 
@@ -193,7 +195,7 @@ public class DistTransactor<NodeIDType> extends AbstractTransactor<NodeIDType> i
 					&& !((AbortRequest) response).isCommitted());
 		}
 
-		if (((AbortRequest) response).isCommitted())
+		if (response != null && ((AbortRequest) response).isCommitted())
 			this.releaseLocks(tx);
 
 		// else rollback participants
@@ -221,14 +223,52 @@ public class DistTransactor<NodeIDType> extends AbstractTransactor<NodeIDType> i
 		return true;
 	}
 
-	private boolean getLocks(Transaction tx) throws TXException, IOException {
-		for (String lockID : tx.getLockList())
-			if (((LockRequest) gpClient.sendRequest(new LockRequest(lockID,
-			/* The client ID is used as the ID of the initiator. */
-			tx))).isFailed())
-				throw new TXException(ResponseCode.LOCK_FAILURE,
-						"Failed to acquire lock " + lockID);
-		;
+	private static final int MAX_LOCK_ATTEMPTS = 10;
+	private static final long LOCK_RETRY_DELAY = 50;
+
+	/* Requests the locks of all participant groups concurrently, so locking
+	 * takes as long as the slowest participant group rather than the sum of
+	 * all of them. Acquiring locks concurrently, or even in sorted lockID
+	 * order but with retries, could deadlock with other transactions, so
+	 * participant groups resolve conflicts using wait-die: if a lock is held
+	 * by a younger transaction, we retry the locks not yet acquired after a
+	 * backoff; if it is held by an older one, we give up and transact aborts,
+	 * which also releases any locks already acquired. */
+	private boolean getLocks(Transaction tx) throws TXException {
+		TreeSet<String> pending = new TreeSet<String>(tx.getLockList());
+		for (int attempt = 0; attempt < MAX_LOCK_ATTEMPTS
+				&& !pending.isEmpty(); attempt++) {
+			if (attempt > 0)
+				try {
+					Thread.sleep(LOCK_RETRY_DELAY * attempt);
+				} catch (InterruptedException e) {
+					throw new TXException(ResponseCode.LOCK_FAILURE, e);
+				}
+			ArrayList<LockRequest> locks = new ArrayList<LockRequest>();
+			for (String lockID : pending)
+				locks.add(new LockRequest(lockID, tx));
+			Request[] responses = TXUtils.sendAll(this.gpClient, locks,
+					TXUtils.RTO);
+			for (int i = 0; i < responses.length; i++) {
+				TXPacket response = responses[i] instanceof TXPacket ? (TXPacket) responses[i]
+						: null;
+				// no response yet or wait
+				if (response == null || response.isFailed()
+						&& response.getResponseCode() == ResponseCode.LOCK_WAIT)
+					continue;
+				// die
+				if (response.isFailed())
+					throw new TXException(ResponseCode.LOCK_FAILURE,
+							"Failed to acquire lock " + locks.get(i).getLockID()
+									+ " for " + tx.getTXID());
+				pending.remove(locks.get(i).getLockID());
+			}
+		}
+		if (!pending.isEmpty())
+			throw new TXException(ResponseCode.LOCK_FAILURE,
+					"Failed to acquire locks " + pending + " for "
+							+ tx.getTXID() + " after " + MAX_LOCK_ATTEMPTS
+							+ " attempts");
 		return true;
 	}
 
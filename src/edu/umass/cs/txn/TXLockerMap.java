@@ -1,14 +1,91 @@
 package edu.umass.cs.txn;
 
+import java.util.HashMap;
+
+import edu.umass.cs.txn.exceptions.ResponseCode;
 import edu.umass.cs.txn.exceptions.TXException;
 import edu.umass.cs.txn.interfaces.TXLocker;
 
 /**
  * @author arun
  *
+ *         An in-memory table of the transaction locks held at a participant
+ *         group. An initiator requests the locks of all participant groups of
+ *         a transaction concurrently, so conflicts are resolved using
+ *         wait-die in order to prevent deadlocks: a transaction older than
+ *         the lock holder waits, i.e., is told to retry, while a younger one
+ *         dies, i.e., is told to abort. Lock requests are executed by
+ *         participant groups as coordinated requests, so
+ *         {@link #tryLock(String, String, long)} never blocks.
  */
 public class TXLockerMap implements TXLocker {
 
+	private static class Holder {
+		final String txid;
+		final long timestamp;
+
+		Holder(String txid, long timestamp) {
+			this.txid = txid;
+			this.timestamp = timestamp;
+		}
+
+		// ties in timestamps are broken using txids
+		boolean isYoungerThan(String txid, long timestamp) {
+			return this.timestamp > timestamp || this.timestamp == timestamp
+					&& this.txid.compareTo(txid) > 0;
+		}
+	}
+
+	private final HashMap<String, Holder> locks = new HashMap<String, Holder>();
+
+	/**
+	 * @param lockID
+	 * @param txid
+	 * @param timestamp
+	 *            The age of the transaction {@code txid} used to resolve
+	 *            conflicts.
+	 * @return Null if {@code lockID} is now held by {@code txid};
+	 *         {@link ResponseCode#LOCK_WAIT} if it is held by a younger
+	 *         transaction, so {@code txid} should retry; and
+	 *         {@link ResponseCode#LOCK_FAILURE} if it is held by an older
+	 *         transaction, so {@code txid} should abort.
+	 */
+	public synchronized ResponseCode tryLock(String lockID, String txid,
+			long timestamp) {
+		Holder holder = this.locks.get(lockID);
+		if (holder == null) {
+			this.locks.put(lockID, new Holder(txid, timestamp));
+			return null;
+		}
+		if (holder.txid.equals(txid))
+			return null;
+		return holder.isYoungerThan(txid, timestamp) ? ResponseCode.LOCK_WAIT
+				: ResponseCode.LOCK_FAILURE;
+	}
+
+	/**
+	 * @param lockID
+	 * @param txid
+	 * @return True if {@code lockID} was held by {@code txid} and is now
+	 *         released.
+	 */
+	public synchronized boolean unlock(String lockID, String txid) {
+		Holder holder = this.locks.get(lockID);
+		if (holder == null || !holder.txid.equals(txid))
+			return false;
+		this.locks.remove(lockID);
+		return true;
+	}
+
+	/**
+	 * @param lockID
+	 * @return The ID of the transaction holding {@code lockID} if any.
+	 */
+	public synchronized String getHolder(String lockID) {
+		Holder holder = this.locks.get(lockID);
+		return holder != null ? holder.txid : null;
+	}
+
 	/**
 	 * A blocking call that returns upon successfully locking {@code lockID} or
 	 * throws a {@link TXException}. Locking a group involves synchronously
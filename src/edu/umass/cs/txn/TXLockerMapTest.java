@@ -0,0 +1,62 @@
+package edu.umass.cs.txn;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.txn.exceptions.ResponseCode;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Test class for {@link TXLockerMap}.
+ */
+public class TXLockerMapTest extends DefaultTest {
+
+	/**
+	 * An older transaction waits for a younger lock holder while a younger
+	 * one dies, so two transactions locking the same groups concurrently in
+	 * opposite orders can not deadlock.
+	 */
+	@Test
+	public void testWaitDie() {
+		TXLockerMap group1 = new TXLockerMap(), group2 = new TXLockerMap();
+		String older = "tx1", younger = "tx2";
+		long olderTime = 100, youngerTime = 200;
+
+		Assert.assertNull(group1.tryLock("g1", older, olderTime));
+		Assert.assertNull(group2.tryLock("g2", younger, youngerTime));
+		// re-locking is idempotent
+		Assert.assertNull(group1.tryLock("g1", older, olderTime));
+
+		// the older transaction waits and the younger one dies
+		Assert.assertEquals(ResponseCode.LOCK_WAIT,
+				group2.tryLock("g2", older, olderTime));
+		Assert.assertEquals(ResponseCode.LOCK_FAILURE,
+				group1.tryLock("g1", younger, youngerTime));
+
+		// the younger transaction aborts, releasing its lock
+		Assert.assertFalse(group2.unlock("g2", older));
+		Assert.assertTrue(group2.unlock("g2", younger));
+		Assert.assertNull(group2.tryLock("g2", older, olderTime));
+		Assert.assertEquals(older, group2.getHolder("g2"));
+
+		// ties in timestamps are broken using txids
+		Assert.assertEquals(ResponseCode.LOCK_WAIT,
+				group1.tryLock("g1", "tx0", olderTime));
+		Assert.assertEquals(ResponseCode.LOCK_FAILURE,
+				group1.tryLock("g1", "tx3", olderTime));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(TXLockerMapTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -4,7 +4,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import edu.umass.cs.gigapaxos.interfaces.AppRequestParser;
 import edu.umass.cs.gigapaxos.interfaces.Request;
@@ -29,7 +34,7 @@ import edu.umass.cs.txn.txpackets.TxStateRequest;
  */
 public class TXUtils implements Transactor {
 
-	private static final long RTO = ReconfigurableAppClientAsync.DEFAULT_GC_TIMEOUT;
+	protected static final long RTO = ReconfigurableAppClientAsync.DEFAULT_GC_TIMEOUT;
 	private static final int DEFAULT_NUM_ATTEMPTS = 3;
 
 	protected static Request[] tryFinishAsyncTasks(
@@ -113,6 +118,53 @@ public class TXUtils implements Transactor {
 		return (responses);
 	}
 
+	/**
+	 * Sends all of a set of transaction steps concurrently and waits until all
+	 * of them have been responded to or until {@code timeout} has elapsed, so
+	 * the time taken grows with the slowest rather than the sum of the groups
+	 * involved. Unlike {@link #tryFinishAsyncTasks(GigaPaxosClient, ArrayList)}
+	 * , failed responses are returned instead of being retransmitted, so that
+	 * the caller can decide whether to retry or abort.
+	 * 
+	 * @param gpClient
+	 * @param txRequests
+	 * @param timeout
+	 * @return An array of responses where the i'th element of the array is the
+	 *         response for the i'th element in {@code txRequests} or null if
+	 *         none was received in time.
+	 */
+	protected static Request[] sendAll(GigaPaxosClient<Request> gpClient,
+			List<? extends Request> txRequests, long timeout) {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		CompletableFuture<Request>[] futures = new CompletableFuture[txRequests
+				.size()];
+		for (int i = 0; i < futures.length; i++) {
+			final CompletableFuture<Request> future = futures[i] = new CompletableFuture<Request>();
+			try {
+				gpClient.sendRequest(txRequests.get(i), new RequestCallback() {
+					@Override
+					public void handleResponse(Request response) {
+						future.complete(response);
+					}
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+				future.complete(null);
+			}
+		}
+		try {
+			CompletableFuture.allOf(futures).get(timeout,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException | ExecutionException
+				| TimeoutException e) {
+			// return whatever responses have been received
+		}
+		Request[] responses = new Request[futures.length];
+		for (int i = 0; i < futures.length; i++)
+			responses[i] = futures[i].getNow(null);
+		return responses;
+	}
+
 	/**
 	 * This method fetches the union set of the set of active replica addresses
 	 * for all participant groups in a transaction by issuing an async task for
@@ -0,0 +1,159 @@
+package edu.umass.cs.txn;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.interfaces.Callback;
+import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.gigapaxos.interfaces.NearestServerSelector;
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gigapaxos.interfaces.RequestFuture;
+import edu.umass.cs.reconfiguration.interfaces.GigaPaxosClient;
+import edu.umass.cs.txn.interfaces.TXRequest;
+import edu.umass.cs.txn.txpackets.LockRequest;
+import edu.umass.cs.utils.DefaultTest;
+
+/**
+ * Test class for {@link TXUtils}.
+ */
+public class TXUtilsTest extends DefaultTest {
+
+	/**
+	 * Responds to each request after a delay that emulates a consensus round
+	 * in the request's group, i.e., {@code BASE_DELAY} plus a few milliseconds
+	 * that differ across groups.
+	 */
+	static class DelayingClient implements GigaPaxosClient<Request> {
+		static final long BASE_DELAY = 10;
+		final ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(1);
+
+		long getDelay(Request request) {
+			return BASE_DELAY + Math.abs(request.getServiceName().hashCode())
+					% 5;
+		}
+
+		@Override
+		public Request sendRequest(Request request) throws IOException {
+			try {
+				Thread.sleep(getDelay(request));
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return request;
+		}
+
+		@Override
+		public RequestFuture<Request> sendRequest(final Request request,
+				final Callback<Request, Request> callback) throws IOException {
+			this.executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					callback.processResponse(request);
+				}
+			}, getDelay(request), TimeUnit.MILLISECONDS);
+			return null;
+		}
+
+		@Override
+		public RequestFuture<Request> sendRequest(ClientRequest request,
+				Callback<Request, Request> callback) throws IOException {
+			return this.sendRequest((Request) request, callback);
+		}
+
+		@Override
+		public RequestFuture<Request> sendRequest(ClientRequest request,
+				Callback<Request, Request> callback,
+				NearestServerSelector redirector) throws IOException {
+			return this.sendRequest((Request) request, callback);
+		}
+
+		@Override
+		public RequestFuture<Request> sendRequest(ClientRequest request,
+				InetSocketAddress server, Callback<Request, Request> callback)
+				throws IOException {
+			return this.sendRequest((Request) request, callback);
+		}
+	}
+
+	/**
+	 * Locks 10 participant groups one at a time as well as concurrently and
+	 * prints the time taken per transaction in either case.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testParallelFanOut() throws IOException {
+		DelayingClient client = new DelayingClient();
+		Transaction tx = new Transaction(new InetSocketAddress("127.0.0.1",
+				2000), (TXRequest) null);
+		ArrayList<LockRequest> locks = new ArrayList<LockRequest>();
+		for (int i = 0; i < 10; i++)
+			locks.add(new LockRequest("group" + i, tx));
+		int numTxs = 20;
+
+		long t = System.nanoTime();
+		for (int j = 0; j < numTxs; j++)
+			for (LockRequest lock : locks)
+				Assert.assertSame(lock, client.sendRequest(lock));
+		long sequential = (System.nanoTime() - t) / numTxs / 1000 / 1000;
+
+		t = System.nanoTime();
+		for (int j = 0; j < numTxs; j++) {
+			Request[] responses = TXUtils.sendAll(client, locks, TXUtils.RTO);
+			for (int i = 0; i < responses.length; i++)
+				Assert.assertSame(locks.get(i), responses[i]);
+		}
+		long parallel = (System.nanoTime() - t) / numTxs / 1000 / 1000;
+		client.executor.shutdown();
+
+		Assert.assertTrue(parallel * 3 < sequential);
+		System.out.print("sequential=" + sequential + "ms; parallel="
+				+ parallel + "ms for " + locks.size() + " groups ");
+	}
+
+	/**
+	 * Responses that do not arrive in time are returned as null.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void testTimeout() throws IOException {
+		DelayingClient client = new DelayingClient() {
+			@Override
+			long getDelay(Request request) {
+				return request.getServiceName().equals("slow") ? 1000 : 0;
+			}
+		};
+		Transaction tx = new Transaction(new InetSocketAddress("127.0.0.1",
+				2000), (TXRequest) null);
+		ArrayList<LockRequest> locks = new ArrayList<LockRequest>();
+		locks.add(new LockRequest("fast", tx));
+		locks.add(new LockRequest("slow", tx));
+		Request[] responses = TXUtils.sendAll(client, locks, 100);
+		Assert.assertSame(locks.get(0), responses[0]);
+		Assert.assertNull(responses[1]);
+		client.executor.shutdownNow();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(TXUtilsTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -42,6 +42,9 @@ public class Transaction implements TXInterface {
 
 	// the server issuing the transaction
 	private InetSocketAddress entryServer;
+
+	// the age of the transaction used to resolve lock conflicts
+	private final long timestamp = System.currentTimeMillis();
 	
 	/**
 	 * @param entryServer
@@ -108,6 +111,15 @@ public class Transaction implements TXInterface {
 		return this.getTXID();
 	}
 
+	/**
+	 * @return The creation time of this transaction. Lock conflicts between
+	 *         transactions are resolved using wait-die, so an older
+	 *         transaction waits for a younger one but not vice versa.
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
 	protected String getTxInitState() {
 		throw new RuntimeException("Unimplemented");
 	}
@@ -44,6 +44,12 @@ public enum ResponseCode {
 	 */
 	ABORT_FAILURE(16),
 
+	/**
+	 * Indicates that a lock is held by a younger transaction, so the
+	 * requesting transaction should retry as per wait-die.
+	 */
+	LOCK_WAIT(17),
+
 	;
 
 	final int code;
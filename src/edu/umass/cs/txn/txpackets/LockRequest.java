@@ -12,10 +12,11 @@ import edu.umass.cs.txn.Transaction;
 public class LockRequest extends TXPacket {
 
 	private static enum Keys {
-		LOCKID, TXID
+		LOCKID, TXID, TIMESTAMP
 	};
 
 	private final String lockID;
+	private final long timestamp;
 
 	/**
 	 * @param lockID
@@ -24,6 +25,7 @@ public class LockRequest extends TXPacket {
 	public LockRequest(String lockID, Transaction tx) {
 		super(TXPacket.PacketType.LOCK_REQUEST, tx.getTXID());
 		this.lockID = lockID;
+		this.timestamp = tx.getTimestamp();
 	}
 
 	/**
@@ -33,6 +35,7 @@ public class LockRequest extends TXPacket {
 	public LockRequest(JSONObject json) throws JSONException {
 		super(json);
 		this.lockID = json.getString(Keys.LOCKID.toString());
+		this.timestamp = json.optLong(Keys.TIMESTAMP.toString());
 	}
 
 	public JSONObject toJSONObjectImpl() {
@@ -46,6 +49,13 @@ public class LockRequest extends TXPacket {
 		return this.lockID;
 	}
 
+	/**
+	 * @return The age of the requesting transaction used for wait-die.
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
 	public String getServiceName() {
 		return this.getLockID();
 	}
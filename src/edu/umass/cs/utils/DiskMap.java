@@ -17,26 +17,24 @@
 package edu.umass.cs.utils;
 
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-
-import org.junit.runner.JUnitCore;
-import org.junit.runner.Result;
-import org.junit.runner.notification.Failure;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author arun
@@ -63,23 +61,26 @@ import org.junit.runner.notification.Failure;
  *            entries are rarely reused, e.g., a sweep over a very large number
  *            of map entries, then every access will on average force a disk
  *            read (to unpause the entry being accessed) and a write (to pause
- *            long idle entries). Normally, only entries that have been idle for
- *            at least {@code idleThreshold} paused to disk, so the caller must
- *            use {@link #setIdleThreshold(long)} so as to ensure that either no
- *            more than {@code sizeThreshold} entries are accessed in that
- *            interval or there is sufficient memory to hold all entries
- *            accessed in the last {@code idleThreshold} time. If not, a random
- *            fraction of entries, including possibly recently used entries,
- *            will be paused to disk in order to make room in memory.
+ *            idle entries).
+ * 
+ *            The in-memory map is split into lock-striped segments, each a
+ *            ConcurrentHashMap guarded by its own lock for modifications, so
+ *            gets of in-memory entries take no lock at all and modifications
+ *            only contend with others hashing to the same segment. Each segment
+ *            holds at most its share of the in-memory capacity. A put or
+ *            restore into a full segment evicts a small batch of entries from
+ *            that segment alone chosen by a CLOCK sweep, i.e., entries not
+ *            accessed since the sweep last passed them or long idle, so
+ *            eviction never walks the whole map. The CLOCK reference bits are
+ *            kept in a per-segment bit array indexed by key hash rather than
+ *            per entry, so values are stored in the segment map as is and
+ *            DiskMap adds no objects per entry. Evicted entries wait in a
+ *            pause queue, from where they continue to be readable, until a
+ *            background thread commits them to disk in batches.
  * 
- *            DiskMap can use MultiArrayMap as its underlying in-memory map if
- *            that is supplied in the constructor. Although not necessary, the
- *            use of MultiArrayMap makes the map more compact because of its
- *            cuckoo hashing design, but it requires values to implement the
- *            Keyable<K> interface. If values additionally also implement
- *            {@link Pausable}, DiskMap incurs just ~6B overhead per value as it
- *            does not have to maintain its own stats for last active times for
- *            map entries.
+ *            DiskMap can use a supplied ConcurrentMap, e.g., a MultiArrayMap,
+ *            as its underlying in-memory map, in which case the map is not
+ *            segmented.
  * 
  *            Note: There is no way to ensure that the value pointed to in the
  *            map is not modified after it has been paused to disk. It does not
@@ -102,15 +103,153 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 	 */
 	public static final int DEFAULT_CAPACITY = 1024 * 64;
 
-	private final Map<K, V> map;
+	/* Segments are not made smaller than this so that a CLOCK sweep over a
+	 * segment still has enough entries to choose from. */
+	private static final int MIN_SEGMENT_CAPACITY = 64;
 
-	private final ConcurrentMap<K, V> pauseQ = new ConcurrentHashMap<K, V>();
+	private static final int MAX_SEGMENTS = Integer.highestOneBit(Math.max(
+			Runtime.getRuntime().availableProcessors() * 4 - 1, 1)) << 1;
 
-	/**
-	 * This map could either be a MultiArrayMap or LinkedHashMap depending on
-	 * whether {@link #enablePriorityQueue()} is enabled.
-	 */
-	private Map<Object, LastActive> stats;
+	/* Reference bits per segment are about four times its capacity so that
+	 * few keys share a bit, but no more than this. */
+	private static final int MAX_REFERENCE_BITS = 1 << 22;
+
+	/* A restore from disk in progress without the segment lock held. Any put
+	 * or remove of its key in the meantime makes the restored value stale. */
+	private static class Restore {
+		int restorers = 1;
+		boolean stale = false;
+	}
+
+	/* All fields other than map, paused and referenced are guarded by lock.
+	 * Gets of in-memory entries read map without the lock; everything else
+	 * including all modifications of map and paused happens with the lock
+	 * held, but never the disk I/O via commit or restore, so that the latter
+	 * can synchronize on anything without risking a deadlock. */
+	private static class Segment<K, V> {
+		final ReentrantLock lock = new ReentrantLock();
+		final ConcurrentMap<K, V> map;
+		// evicted entries not yet committed to disk
+		final ConcurrentHashMap<K, V> paused = new ConcurrentHashMap<K, V>();
+		final long capacity;
+
+		/* CLOCK reference bits indexed by key hash. Keys sharing a bit only
+		 * make each other look recently used, and races on the bits are not
+		 * synchronized as they too only affect which entries get evicted.
+		 * New entries start unreferenced so that an entry accessed only once,
+		 * e.g., by a sweep over all keys, does not get a second chance. */
+		final long[] referenced;
+
+		// CLOCK hand
+		Iterator<K> hand = null;
+
+		// removed keys in the batch being committed by commitPaused()
+		final HashSet<Object> removedWhileCommitting = new HashSet<Object>();
+		// keys being deleted from disk
+		final HashMap<Object, Integer> tombstones = new HashMap<Object, Integer>();
+		final HashMap<Object, Restore> restoring = new HashMap<Object, Restore>();
+
+		Segment(ConcurrentMap<K, V> map, long capacity) {
+			this.map = map;
+			this.capacity = Math.max(capacity, 1);
+			this.referenced = new long[(int) Math.min(
+					Long.highestOneBit(this.capacity) << 2, MAX_REFERENCE_BITS) + 63 >>> 6];
+		}
+
+		private int referenceBit(Object key) {
+			int hash = key.hashCode();
+			return ((hash ^ (hash >>> 16)) * 0x9E3779B9)
+					& (this.referenced.length * 64 - 1);
+		}
+
+		void reference(Object key) {
+			int bit = this.referenceBit(key);
+			long mask = 1L << bit;
+			// avoid writing shared cache lines on every get
+			if ((this.referenced[bit >>> 6] & mask) == 0)
+				this.referenced[bit >>> 6] |= mask;
+		}
+
+		// clears the reference bit and returns its previous value
+		boolean unreference(Object key) {
+			int bit = this.referenceBit(key);
+			long mask = 1L << bit;
+			boolean wasReferenced = (this.referenced[bit >>> 6] & mask) != 0;
+			if (wasReferenced)
+				this.referenced[bit >>> 6] &= ~mask;
+			return wasReferenced;
+		}
+
+		V justActive(Object key, V value) {
+			this.reference(key);
+			return value;
+		}
+
+		/* MultiArrayMap iterators are fail-fast, but its concurrent iterator
+		 * is not and may return null instead. */
+		@SuppressWarnings("unchecked")
+		Iterator<K> keys() {
+			if (!(this.map instanceof MultiArrayMap))
+				return this.map.keySet().iterator();
+			final Iterator<?> values = ((MultiArrayMap<?, ?>) this.map)
+					.concurrentIterator();
+			return new Iterator<K>() {
+				@Override
+				public boolean hasNext() {
+					return values.hasNext();
+				}
+
+				@Override
+				public K next() {
+					Object value = values.next();
+					return value != null ? ((Keyable<K>) value).getKey()
+							: null;
+				}
+			};
+		}
+
+		Restore startRestore(Object key) {
+			Restore restore = this.restoring.get(key);
+			if (restore != null)
+				restore.restorers++;
+			else
+				this.restoring.put(key, restore = new Restore());
+			return restore;
+		}
+
+		void endRestore(Object key, Restore restore) {
+			if (--restore.restorers == 0)
+				this.restoring.remove(key);
+		}
+
+		void modified(Object key) {
+			Restore restore = this.restoring.get(key);
+			if (restore != null)
+				restore.stale = true;
+		}
+
+		boolean restorable(Object key) {
+			Restore restore = this.restoring.get(key);
+			return !this.tombstones.containsKey(key)
+					&& (restore == null || !restore.stale);
+		}
+
+		void tombstone(Object key) {
+			Integer count = this.tombstones.get(key);
+			this.tombstones.put(key, count == null ? 1 : count + 1);
+		}
+
+		void untombstone(Object key) {
+			Integer count = this.tombstones.get(key);
+			if (count == null || count == 1)
+				this.tombstones.remove(key);
+			else
+				this.tombstones.put(key, count - 1);
+		}
+	}
+
+	private final Segment<K, V>[] segments;
+	private final int segmentShift;
 
 	private final ScheduledExecutorService GC = Executors
 			.newScheduledThreadPool(1, new ThreadFactory() {
@@ -124,27 +263,35 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 			});
 
 	private final long capacityEstimate;
-	private long idleThreshold = 30000;
 	private long pauseThreadPeriod = 30000;
-	private long lastGCAttempt = 0;
-	private boolean ongoingGC = false;
-	
+
+	private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+	// only one commitPaused() at a time
+	private final ReentrantLock commitLock = new ReentrantLock();
+
+	private static final Map<?, ?> NOTHING_COMMITTING = new HashMap<Object, Object>();
+	// the batch being committed by commitPaused()
+	private volatile Map<?, ?> committing = NOTHING_COMMITTING;
+
 	/**
 	 * True means that the in-memory map will always be consistent with the
 	 * underlying database, which is achieved by always committing an entry
 	 * upon a put.
 	 */
-	private boolean cleanCache = false;
+	private volatile boolean cleanCache = false;
 
 	/**
-	 * Minimum idle time in order to be pausable.
+	 * Deprecated as eviction no longer tracks last active times per entry;
+	 * the CLOCK sweep evicts entries not accessed since it last passed them.
+	 * Values implementing {@link Pausable} can still use their own idle
+	 * threshold to be evicted sooner.
 	 * 
 	 * @param idleTime
 	 */
+	@Deprecated
 	public void setIdleThreshold(long idleTime) {
-		this.idleThreshold = idleTime;
 	}
-	
+
 	/**
 	 * Set the cleanCache option to true, which means that puts will be
 	 * immediately committed, i.e., the in-memory cache is always consistent
@@ -152,32 +299,21 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 	 * 
 	 * @param set
 	 */
-	public synchronized void setCleanCache(boolean set) {
+	public void setCleanCache(boolean set) {
 		this.cleanCache = set;
 	}
 
 	/**
-	 * 
+	 * Deprecated as the CLOCK sweep always approximates access order for
+	 * eviction.
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public synchronized void enablePriorityQueue() {
-		if (isSingleLinkedHashMap())
-			return;
-		if (this.stats instanceof LinkedHashMap)
-			return;
-		LinkedHashMap<Object, LastActive> tmpStats = new LinkedHashMap<Object, LastActive>(
-				16, (float) 0.75, true);
-		if (this.stats != null)
-			for (Iterator<LastActive> iterLA = ((MultiArrayMap) this.stats)
-					.concurrentIterator(); iterLA.hasNext();) {
-				LastActive la = iterLA.next();
-				tmpStats.put(la.key, la);
-			}
-		this.stats = tmpStats;
+	@Deprecated
+	public void enablePriorityQueue() {
 	}
 
 	/**
-	 * Period after which a pausing attempt is made by the GC thread.
+	 * Period after which any evicted entries not yet committed are committed
+	 * by the GC thread.
 	 * 
 	 * @param period
 	 */
@@ -185,81 +321,53 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 		this.pauseThreadPeriod = period;
 	}
 
-	/**
-	 *
-	 */
-	public class LastActive implements Keyable<Object> {
-
-		final Object key;
-		long lastActive = System.currentTimeMillis();
-
-		LastActive(Object key) {
-			this.key = key;
-		}
-
-		@Override
-		public Object getKey() {
-			return this.key;
-		}
-
-		LastActive justActive() {
-			this.lastActive = System.currentTimeMillis();
-			return this;
-		}
-	}
-
 	private void initPeriodicGC() {
 		this.GC.scheduleWithFixedDelay(new TimerTask() {
 			@Override
 			public void run() {
-				DiskMap.this.GC(false);
+				DiskMap.this.runCommitPaused();
 			}
-		}, 0, pauseThreadPeriod, TimeUnit.MILLISECONDS);
+		}, pauseThreadPeriod, pauseThreadPeriod, TimeUnit.MILLISECONDS);
 	}
 
-	private void initOnetimeGC() {
-		DiskMap.this.GC(true);
-	}
-
-	private static final boolean USE_LINKED_HASH_MAP = true;
-
 	/**
 	 * @param inMemoryCapacity
 	 *            Capacity for in-memory map. If the in-memory map size reaches
-	 *            this value, GC forcibly kicks in.
+	 *            this value, entries get evicted to make room.
 	 */
 	public DiskMap(long inMemoryCapacity) {
-		this.map = USE_LINKED_HASH_MAP ? Collections
-				.synchronizedMap(new LinkedHashMap<K, V>(16, (float) 0.75, true))
-				: new ConcurrentHashMap<K, V>();
-		this.externalMap = false;
 		this.capacityEstimate = inMemoryCapacity;
+		int numSegments = (int) Math.max(1, Math.min(MAX_SEGMENTS,
+				Long.highestOneBit(inMemoryCapacity / MIN_SEGMENT_CAPACITY)));
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(numSegments);
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Segment<K, V>[] segments = new Segment[numSegments];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment<K, V>(new ConcurrentHashMap<K, V>(),
+					inMemoryCapacity / numSegments);
+		this.segments = segments;
 		this.initPeriodicGC();
 	}
 
-	private final boolean externalMap;
-
 	/**
-	 * The supplied {@code map} will be used as the underlying in-memory map.
-	 * From this point onwards, making direct modifications to this underlying
-	 * map is unsafe.
+	 * The supplied {@code map} will be used as the underlying in-memory map
+	 * with capacity that of {@code map} if it is a MultiArrayMap. The map is
+	 * then a single segment. From this point onwards, making direct
+	 * modifications to this underlying map is unsafe.
 	 * 
 	 * @param map
 	 */
 	public DiskMap(ConcurrentMap<K, V> map) {
-		this.map = map;
-		this.externalMap = true;
 		this.capacityEstimate = map instanceof MultiArrayMap ? ((MultiArrayMap<?, ?>) map)
 				.capacity() : DEFAULT_CAPACITY;
+		this.segmentShift = 32;
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Segment<K, V>[] segments = new Segment[] { new Segment<K, V>(map,
+				this.capacityEstimate) };
+		this.segments = segments;
 		this.initPeriodicGC();
 	}
 
-	private void initStats() {
-		if (isSingleLinkedHashMap())
-			return;
-		this.enablePriorityQueue();
-	}
-
 	/**
 	 * This method should return only after successfully persisting the
 	 * key,value pair, otherwise it should throw an exception.
@@ -275,20 +383,32 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 	 */
 	abstract public V restore(K key) throws IOException;
 
+	private Segment<K, V> segmentFor(Object key) {
+		// high bits of a multiplicative hash as ConcurrentHashMap uses low bits
+		return this.segments[this.segments.length == 1 ? 0
+				: (key.hashCode() * 0x9E3779B9) >>> this.segmentShift];
+	}
+
 	@Override
 	public int size() {
-		return this.map.size();
+		int size = 0;
+		for (Segment<K, V> segment : this.segments)
+			size += segment.map.size();
+		return size;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return this.map.isEmpty();
+		for (Segment<K, V> segment : this.segments)
+			if (!segment.map.isEmpty())
+				return false;
+		return true;
 	}
 
 	@Override
 	public boolean containsKey(Object key) {
 		// need to check disk here
-		return this.map.containsKey(key) || this.get(key) != null;
+		return this.get(key) != null;
 	}
 
 	@Override
@@ -296,61 +416,48 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 		if (!(value instanceof Keyable<?>))
 			throw new RuntimeException(
 					"containsValue(value) can only be invoked on a value of type Keyable<?>");
-		return (this.map.containsValue(value) || this.get(
-				((Keyable<?>) value).getKey()).equals(value));
+		return value.equals(this.get(((Keyable<?>) value).getKey()));
 	}
 
 	@Override
 	public V get(Object key) {
-		V value = this.map.get(key);
-		if (value == null)
-			value = this.getOrRestore(key);
-		if (!(value instanceof Pausable))
-			this.markActive(key);
-		if (this.shouldGC(true))
-			this.initOnetimeGC();
-		return value;
-	}
-
-	private boolean isSingleLinkedHashMap() {
-		return USE_LINKED_HASH_MAP && !this.externalMap;
-	}
-
-	/* No synchronization needed here because concurrent insertions are not
-	 * fatal as stats only affects GC-related performance. */
-	private void markActive(Object key) {
-		if (isSingleLinkedHashMap())
-			return;
-		if (this.stats == null)
-			this.initStats();
-		LastActive la = this.stats.get(key);
-		if (la == null) {
-			la = new LastActive(key);
-		} else {
-			la.justActive();
-		}
-		this.stats.put(key, la);
+		Segment<K, V> segment = this.segmentFor(key);
+		// no locking for in-memory entries
+		V value = segment.map.get(key);
+		if (value != null)
+			return segment.justActive(key, value);
+		return this.getOrRestore(segment, key);
 	}
 
 	@Override
 	public V put(K key, V value) {
-		if (!(value instanceof Pausable))
-			this.markActive(key);
-		if (this.shouldGC(true))
-			this.initOnetimeGC();
 		assert (value != null) : key;
-		V prev = null;
-		// all mods need to be synchronized
-		synchronized (this) {
-			prev = this.getOrRestore(key);
-			this.map.put(key, value);
-			recordPut(key);
-			if (this.cleanCache)
-				this.putCommit(key, value);
+		Segment<K, V> segment = this.segmentFor(key);
+		boolean inMemory = segment.map.containsKey(key);
+		V prev = inMemory ? null : this.getOrRestore(segment, key);
+		int evicted = 0;
+		segment.lock.lock();
+		try {
+			if (segment.map.containsKey(key)) {
+				prev = segment.map.put(key, value);
+				// not a second access if this put restored key
+				if (inMemory)
+					segment.reference(key);
+			} else {
+				if (segment.paused.containsKey(key))
+					prev = segment.paused.remove(key);
+				evicted = this.insert(segment, key, value);
+			}
+			segment.modified(key);
+		} finally {
+			segment.lock.unlock();
 		}
+		if (this.cleanCache)
+			this.putCommit(key, value);
+		this.evicted(evicted);
 		return prev;
 	}
-	
+
 	private void putCommit(K key, V value) {
 		Set<K> committed = null;
 		try {
@@ -366,502 +473,559 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 		}
 	}
 
-	boolean recordPuts = false, recordRemoves = false;
-	private Set<K> concurrentPuts = new HashSet<K>();
-	private Set<Object> concurrentRemoves = new HashSet<Object>();
-
-	private synchronized void recordPut(K key) {
-		if (recordingPuts()) {
-			concurrentPuts.add(key);
-		}
-	}
-
-	private synchronized void recordRemove(Object key) {
-		if (recordingRemoves()) {
-			concurrentRemoves.add(key);
-		}
-	}
-
-	private synchronized void startRecordingPuts() {
-		recordPuts = true;
-	}
-
-	private synchronized void startRecordingRemoves() {
-		recordRemoves = true;
-	}
-
-	private synchronized void stopRecordingPuts() {
-		recordPuts = false;
-		this.concurrentPuts.clear();
-	}
-
-	private synchronized void stopRecordingRemoves() {
-		recordRemoves = false;
-		this.concurrentRemoves.clear();
-	}
-
-	private synchronized boolean recordingPuts() {
-		return recordPuts;
-	}
-
-	private synchronized boolean recordingRemoves() {
-		return recordRemoves;
+	@Override
+	public V remove(Object key) {
+		return this.remove(key, null, false);
 	}
 
-	@Override
-	public synchronized V remove(Object key) {
+	/* Removes key if its current value equals expected unless checkValue is
+	 * false. The deletion from disk happens without the segment lock held, but
+	 * the key is tombstoned meanwhile so that concurrent gets don't restore
+	 * its stale on-disk value. */
+	@SuppressWarnings("unchecked")
+	private V remove(Object key, Object expected, boolean checkValue) {
+		Segment<K, V> segment = this.segmentFor(key);
 		// will try to get from disk if needed
-		if (!this.containsKey(key))
+		V value = this.getOrRestore(segment, key);
+		if (value == null)
 			return null;
 
-		if (this.stats != null)
-			this.stats.remove(key);
-		Map<K, V> entryAsMap = this.removeEntry(key);
-		V value = null;
-		if (entryAsMap != null && !entryAsMap.isEmpty()) {
-			Map.Entry<K, V> entry = entryAsMap.entrySet().iterator().next();
+		segment.lock.lock();
+		try {
+			V current = segment.map.get(key);
+			if (current == null)
+				current = segment.paused.get(key);
+			if (current != null)
+				value = current;
+			if (checkValue && !value.equals(expected))
+				return null;
+			segment.map.remove(key);
+			segment.paused.remove(key);
+			segment.modified(key);
+			if (this.committing.containsKey(key))
+				segment.removedWhileCommitting.add(key);
 			if (!this.isGCEnabled())
-				return entry.getValue();
-			value = entry.getValue();
-			entryAsMap.put(entry.getKey(), null);
+				return value;
+			segment.tombstone(key);
+		} finally {
+			segment.lock.unlock();
+		}
+		try {
+			Map<K, V> entryAsMap = new HashMap<K, V>();
+			entryAsMap.put((K) key, null);
+			this.commit(entryAsMap);
+		} catch (IOException e) {
+			// any better option here?
+			throw new RuntimeException(e.getMessage());
+		} finally {
+			segment.lock.lock();
 			try {
-				this.commit(entryAsMap);
-			} catch (IOException e) {
-				// any better option here?
-				throw new RuntimeException(e.getMessage());
+				segment.untombstone(key);
+			} finally {
+				segment.lock.unlock();
 			}
 		}
-		// need to remove soft copies *after* commit
-		this.map.remove(key);
-		this.pauseQ.remove(key);
-		this.recordRemove(key);
 		return value;
 	}
 
-	/* There is seemingly no easy way to get the key of type K from the supplied
-	 * key of type Object. So this method has to iterate over all entries to get
-	 * the key in the map. If it is a MultiArrayMap, we can just get the key
-	 * from the value. */
-	@SuppressWarnings("unchecked")
-	private Map<K, V> removeEntry(Object key) {
-		if (this.map.containsKey(key)) {
-			HashMap<K, V> entryAsMap = new HashMap<K, V>();
-			if (this.map instanceof MultiArrayMap) {
-				V value = this.map.remove(key);
-				if (value != null)
-					entryAsMap.put(((Keyable<K>) value).getKey(), value);
-				return entryAsMap;
-			} else {
-				K removedKey = null;
-				V value = null;
-				try {
-					removedKey = (K) key;
-					value = this.map.remove(key);
-
-					// also remove from pauseQ
-					V enqueuePausedVal = this.pauseQ.remove(key);
-					if (value == null)
-						value = enqueuePausedVal;
-
-				} catch (ClassCastException cce) {
-					for (Iterator<Map.Entry<K, V>> entryIter = this.map
-							.entrySet().iterator(); entryIter.hasNext();) {
-						Map.Entry<K, V> entry = entryIter.next();
-						if (entry.getKey().equals(key)) {
-							removedKey = entry.getKey();
-							value = entry.getValue();
-							entryIter.remove();
-							break;
-						}
-					}
-				}
-				if (removedKey != null)
-					entryAsMap.put(removedKey, value);
-				return entryAsMap;
-			}
-		}
-		return null;
-	}
-
 	@Override
-	public synchronized void putAll(Map<? extends K, ? extends V> m) {
-		for (K key : m.keySet())
-			this.map.put(key, m.get(key));
+	public void putAll(Map<? extends K, ? extends V> m) {
+		for (Map.Entry<? extends K, ? extends V> entry : m.entrySet())
+			this.put(entry.getKey(), entry.getValue());
 	}
 
 	@Override
 	public void clear() {
-		if (this.stats != null)
-			this.stats.clear();
-		this.map.clear();
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				segment.map.clear();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
 	}
 
 	/**
-	 * This method only returns the in-memory key set. There is currently no
-	 * method to get the on-disk keys.
+	 * This method only returns a snapshot of the in-memory key set. There is
+	 * currently no method to get the on-disk keys.
 	 */
 	@Override
 	public Set<K> keySet() {
-		return this.map.keySet();
+		Set<K> keys = new HashSet<K>();
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				keys.addAll(segment.map.keySet());
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return keys;
 	}
 
 	/**
-	 * This method only returns the in-memory value set. There is currently no
-	 * method to get the on-disk values.
+	 * This method only returns a snapshot of the in-memory value set. There is
+	 * currently no method to get the on-disk values.
 	 */
 	@Override
 	public Collection<V> values() {
-		return this.map.values();
+		Collection<V> values = new ArrayList<V>();
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				values.addAll(segment.map.values());
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return values;
 	}
 
 	/**
-	 * This method only returns the in-memory entry set. There is currently no
-	 * method to get the on-disk entries.
+	 * This method only returns a snapshot of the in-memory entry set. There is
+	 * currently no method to get the on-disk entries.
 	 */
 	@Override
 	public Set<java.util.Map.Entry<K, V>> entrySet() {
-		return this.map.entrySet();
+		Set<Map.Entry<K, V>> entries = new HashSet<Map.Entry<K, V>>();
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				for (Map.Entry<K, V> entry : segment.map.entrySet())
+					entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(
+							entry.getKey(), entry.getValue()));
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return entries;
 	}
 
-	protected synchronized void hintRestore(K key, V value) {
-		if (!this.map.containsKey(key) && !this.pauseQ.containsKey(key))
-			this.map.put(key, value);
+	protected void hintRestore(K key, V value) {
+		Segment<K, V> segment = this.segmentFor(key);
+		int evicted = 0;
+		segment.lock.lock();
+		try {
+			if (!segment.map.containsKey(key)
+					&& !segment.paused.containsKey(key)
+					&& segment.restorable(key))
+				evicted = this.insert(segment, key, value);
+		} finally {
+			segment.lock.unlock();
+		}
+		this.evicted(evicted);
 	}
-	
+
 	private boolean isGCEnabled() {
 		return this.capacityEstimate < Long.MAX_VALUE;
 	}
 
-	// get from map or restore from pauseQ or disk
+	/* Get from map or restore from paused or disk. The segment lock is released
+	 * while restoring from disk and the restore is retried if the key was
+	 * concurrently put or removed. */
 	@SuppressWarnings("unchecked")
-	private V getOrRestore(Object key) {
+	private V getOrRestore(Segment<K, V> segment, Object key) {
 		V value = null;
-		if ((value = this.map.get(key)) != null)
-			return value;
-		else if(!this.isGCEnabled()) return null;
-		else if ((value = this.pauseQ.get(key)) != null) {
-			// try restore from pauseQ
+		int evicted = 0;
+		while (true) {
+			Restore restore = null;
+			segment.lock.lock();
 			try {
-				synchronized (this) {
-					this.map.put((K) key, value);
-					this.pauseQ.remove(key);
-				}
-			} catch (ClassCastException e) {
-				// do nothing
+				if ((value = segment.map.get(key)) != null)
+					return segment.justActive(key, value);
+				else if (!this.isGCEnabled())
+					return null;
+				else if ((value = segment.paused.remove(key)) != null) {
+					// restore from paused
+					evicted = this.insert(segment, (K) key, value);
+					break;
+				} else if (segment.tombstones.containsKey(key))
+					return null;
+				restore = segment.startRestore(key);
+			} finally {
+				segment.lock.unlock();
 			}
-		} else {
+
 			// try restore from disk
 			try {
-				synchronized (this) {
-					if ((value = this.restore((K) key)) != null)
-						this.map.put((K) key, value);
-				}
+				value = this.restore((K) key);
 			} catch (IOException e) {
 				e.printStackTrace();
 			} catch (ClassCastException e) {
 				// do nothing
 			}
+
+			segment.lock.lock();
+			try {
+				segment.endRestore(key, restore);
+				V inMemory = segment.map.get(key);
+				// restored by hintRestore or concurrently put
+				if (inMemory != null)
+					return segment.justActive(key, inMemory);
+				if (!restore.stale) {
+					if (value != null)
+						evicted = this.insert(segment, (K) key, value);
+					break;
+				}
+			} finally {
+				segment.lock.unlock();
+			}
 		}
+		this.evicted(evicted);
 		return value;
 	}
 
-	private boolean longIdle(LastActive la) {
-		return System.currentTimeMillis() - la.lastActive > idleThreshold;
+	private static final int FORCE_PAUSE_FACTOR = 20;
+
+	/* The number of evicted entries not yet committed after which evicting
+	 * threads commit them themselves if the GC thread is not already doing so,
+	 * as a fraction of capacity. */
+	private static final int PAUSE_BACKLOG_FACTOR = 10;
+
+	// segment lock must be held
+	private int insert(Segment<K, V> segment, K key, V value) {
+		int evicted = 0;
+		if (segment.map.size() >= segment.capacity
+				&& !segment.map.containsKey(key))
+			evicted = this.evict(segment);
+		segment.map.put(key, value);
+		segment.unreference(key);
+		return evicted;
 	}
 
-	private static final int FORCE_PAUSE_FACTOR = 20;
+	private static boolean isPausable(Object value) {
+		return value instanceof Pausable && ((Pausable) value).isPausable();
+	}
 
-	private boolean enqueuePause(K key, V value, LastActive la,
-			Iterator<?> iterator) {
-		assert (value == null || iterator != null);
-		synchronized (this) {
-			// came here via stats
+	/* Moves a batch of about 1/FORCE_PAUSE_FACTOR of the segment's entries
+	 * to paused using a CLOCK sweep: entries that are pausable or not accessed
+	 * since the hand last passed them are evicted, others just get their
+	 * reference bit cleared. At most two revolutions of the hand are
+	 * needed to fill the batch unless keys share reference bits. Segment lock
+	 * must be held. */
+	private int evict(Segment<K, V> segment) {
+		long quota = Math.max(segment.capacity / FORCE_PAUSE_FACTOR, 1);
+		int evicted = 0;
+		for (int steps = 2 * segment.map.size() + 1; steps > 0
+				&& evicted < quota; steps--) {
+			if (segment.hand == null || !segment.hand.hasNext())
+				segment.hand = segment.keys();
+			if (!segment.hand.hasNext())
+				break;
+			K key = segment.hand.next();
+			// the hand may return entries removed since it started
+			V value = key != null ? segment.map.get(key) : null;
 			if (value == null)
-				value = this.map.get(key);
-			if (((value instanceof Pausable) && ((Pausable) value).isPausable())
-					// if value is not Pausable, stats must be non-null
-					|| ((la != null || (this.stats != null && (la = this.stats
-							.get(key)) != null)) && longIdle(la))
-					// pause at least one entry
-					|| this.pauseQ.size() < Math.max(this.capacityEstimate
-							/ FORCE_PAUSE_FACTOR, 1)) {
-				if (iterator != null)
-					iterator.remove();
-				else
-					value = this.map.remove(key);
-				this.pauseQ.put(key, value);
-				return true;
+				continue;
+			if (!segment.unreference(key) || isPausable(value)) {
+				segment.map.remove(key);
+				segment.paused.put(key, value);
+				evicted++;
 			}
 		}
-		return false;
+		return evicted;
 	}
 
-	private boolean shouldGC(boolean strict) {
-		// avoid unnecessary synchronization
-		if(this.ongoingGC) return false;
-		
-		synchronized (this) {
-			if (strict)
-				return this.map.size() >= this.capacityEstimate;
-			if (this.map.size() > this.capacityEstimate
-					&& System.currentTimeMillis() - lastGCAttempt < this.pauseThreadPeriod)
-				return true;
-			return false;
-		}
+	private long numPaused() {
+		long numPaused = 0;
+		for (Segment<K, V> segment : this.segments)
+			numPaused += segment.paused.size();
+		return numPaused;
 	}
 
-	/* Pauses long idle entries. This method can be called both by the client or
-	 * by the GC thread but allows only one GC to proceed at any time. */
-	@SuppressWarnings("unchecked")
-	private void GC(boolean strict) {
-		synchronized (this) {
-			if (!shouldGC(strict))
-				return;
-			// else
-			while (this.ongoingGC)
-				try {
-					wait();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			this.lastGCAttempt = System.currentTimeMillis();
-			this.ongoingGC = true;
-		}
-		startRecordingRemoves();
-		startRecordingPuts();
-		long t = System.currentTimeMillis();
-		/* stats is directly traversed only if it is a LinkedHashMap, otherwise
-		 * we iterate over the underlying in-memory map and use stats to get
-		 * last active times instead. */
-		if (this.stats != null && this.stats instanceof LinkedHashMap) {
-			while (this.map.size() >= this.capacityEstimate
-					&& this.pauseQ.isEmpty()) {
-				// need to check for concurrent modification
-				try {
-					for (Iterator<Map.Entry<Object, LastActive>> iterLA = this.stats
-							.entrySet().iterator(); iterLA.hasNext();) {
-						Map.Entry<Object, LastActive> entry = iterLA.next();
-						if (!this.enqueuePause((K) (entry.getValue().key),
-								null, entry.getValue(), null))
-							break;
+	/* Invoked after releasing the segment lock by a thread that evicted
+	 * entries. The GC thread commits evicted entries asynchronously unless
+	 * the backlog is too large, in which case the evicting thread helps. */
+	private void evicted(int evicted) {
+		if (evicted == 0)
+			return;
+		if (this.numPaused() > Math.max(this.capacityEstimate
+				/ PAUSE_BACKLOG_FACTOR, 1)
+				&& this.commitLock.tryLock()) {
+			try {
+				this.commitPaused();
+			} finally {
+				this.commitLock.unlock();
+			}
+		} else if (this.commitScheduled.compareAndSet(false, true))
+			try {
+				this.GC.execute(new Runnable() {
+					@Override
+					public void run() {
+						DiskMap.this.commitScheduled.set(false);
+						DiskMap.this.runCommitPaused();
 					}
-				} catch (ConcurrentModificationException cme) {
-					// do nothing, will continue to retry
-				}
+				});
+			} catch (RejectedExecutionException ree) {
+				// closed, paused entries remain readable
+				this.commitScheduled.set(false);
 			}
+	}
+
+	private void runCommitPaused() {
+		this.commitLock.lock();
+		try {
+			this.commitPaused();
+		} catch (Exception | Error e) {
+			e.printStackTrace();
+		} finally {
+			this.commitLock.unlock();
 		}
-		/* One and only underlying, in-memory LinkedHashMap, the default and the
-		 * cleanest, good enough option. */
-		else if (isSingleLinkedHashMap()) {
-			while (this.map.size() >= this.capacityEstimate
-					&& this.pauseQ.isEmpty()) {
-				// need to check for concurrent modification
-				try {
-					/* Synchronization is needed for correctness here as we can
-					 * not rely on a concurrent modification exception to be
-					 * thrown. Without synchronization, enqueuePause's
-					 * iterator.remove() could remove a newer value from the
-					 * in-memory map while pausing an older value to disk. Even
-					 * though enqueuePause is synchronized the key-value pairs
-					 * are coming from the iterator here, so we either need
-					 * guaranteed fail-fast behavior (or at least need the
-					 * property that an iterator.remove() will not succeed if
-					 * corresponding entry has been modified in any way since
-					 * the entry's value was retrieved) or need to explicitly
-					 * synchronize the iteration itself like below. */
-					synchronized (this) {
-						for (Iterator<Map.Entry<K, V>> iterE = this.map
-								.entrySet().iterator(); iterE.hasNext();) {
-							Map.Entry<K, V> entry = iterE.next();
-							if (!this.enqueuePause(entry.getKey(),
-									entry.getValue(), null, iterE))
-								break;
-						}
-						// startRecordingPuts();
-					}
-				} catch (ConcurrentModificationException cme) {
-					// do nothing, will continue to retry
-				}
+	}
+
+	/* Commits all paused entries in a single batch and then removes them from
+	 * paused unless they were concurrently restored. Keys removed while the
+	 * batch was being committed are deleted again in case the batch brought
+	 * them back on disk. commitLock must be held. */
+	private void commitPaused() {
+		ConcurrentHashMap<K, V> batch = new ConcurrentHashMap<K, V>();
+		// published before filling so that remove() can check it
+		this.committing = batch;
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				batch.putAll(segment.paused);
+			} finally {
+				segment.lock.unlock();
 			}
 		}
+		if (batch.isEmpty()) {
+			this.committing = NOTHING_COMMITTING;
+			return;
+		}
 
-		else {
-			if (this.map instanceof MultiArrayMap) {
-				for (Iterator<Keyable<K>> iterV = (Iterator<Keyable<K>>) (((MultiArrayMap<?, ?>) this.map)
-						.concurrentIterator()); iterV.hasNext();) {
-					Keyable<K> value = iterV.next();
-					this.enqueuePause(value.getKey(), null, null, null);
-				}
-			} else {
-				for (Iterator<Map.Entry<K, V>> iterE = this.map.entrySet()
-						.iterator(); iterE.hasNext();) {
-					Map.Entry<K, V> entry = iterE.next();
-					this.enqueuePause(entry.getKey(), null, null, null);
+		long t = System.currentTimeMillis();
+		Set<K> committed = null;
+		try {
+			/* With the cleanCache option, everything in paused can be assumed
+			 * to have already been committed. */
+			committed = this.cleanCache ? batch.keySet() : this.commit(batch);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		Map<K, V> deletes = new HashMap<K, V>();
+		for (Map.Entry<K, V> entry : batch.entrySet()) {
+			K key = entry.getKey();
+			Segment<K, V> segment = this.segmentFor(key);
+			segment.lock.lock();
+			try {
+				if (committed != null && committed.contains(key))
+					// unless restored meanwhile
+					segment.paused.remove(key, entry.getValue());
+				if (segment.removedWhileCommitting.remove(key)
+						&& !segment.map.containsKey(key)
+						&& !segment.paused.containsKey(key)) {
+					segment.tombstone(key);
+					deletes.put(key, null);
 				}
+			} finally {
+				segment.lock.unlock();
 			}
 		}
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				segment.removedWhileCommitting.clear();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		this.committing = NOTHING_COMMITTING;
 
-		if (!this.pauseQ.isEmpty()) {
-			Set<K> committed = null;
+		if (!deletes.isEmpty())
 			try {
-				/* This commit can take a long time. While it is happening, it
-				 * is possible for puts or removes to happen concurrently. So we
-				 * have to explicitly check for such events by recording
-				 * concurrent puts or removes. For concurrent puts, we don't
-				 * remove the corresponding key from this.map. For concurrent
-				 * removes not superceded by a subsequent put, we should
-				 * re-remove the key just in case the pause-commit unremoved the
-				 * remove from disk. 
-				 * 
-				 * 
-				 * With the cleanCache option, everything in pause can be assumed
-				 * to have alredy been committed.
-				 * */
-				committed = this.cleanCache ? this.pauseQ.keySet() : this
-						.commit(this.pauseQ);
+				this.commit(deletes);
 			} catch (IOException e) {
 				e.printStackTrace();
-			}
-
-			// remove paused key,value pairs from the map
-			if (committed != null)
-				for (K key : committed) {
-					synchronized (this) {
-						V pausedValue = this.pauseQ.remove(key);
-						// concurrent puts should not be removed
-						if (!this.concurrentPuts.contains(key))
-							// remove in case intervening gets restored key
-							this.map.remove(key, pausedValue);
-
-						// concurrent removes should be (re-)removed
-						if (this.concurrentRemoves.contains(key)
-						// if no subsequent puts happened
-								&& !this.map.containsKey(key))
-							this.remove(key); // remove again for good measure
-
-						if (this.stats != null)
-							this.stats.remove(key);
+			} finally {
+				for (K key : deletes.keySet()) {
+					Segment<K, V> segment = this.segmentFor(key);
+					segment.lock.lock();
+					try {
+						segment.untombstone(key);
+					} finally {
+						segment.lock.unlock();
 					}
 				}
-			stopRecordingPuts();
-			stopRecordingRemoves();
-			DelayProfiler.updateDelay("GC", t);
-		}
-		synchronized (this) {
-			this.ongoingGC = false;
-		}
+			}
+		DelayProfiler.updateDelay("GC", t);
 	}
 
 	@Override
-	public synchronized V putIfAbsent(K key, V value) {
-		if (!this.containsKey(key))
-			return this.put(key, value);
+	public V putIfAbsent(K key, V value) {
+		V existing = this.get(key);
+		if (existing != null)
+			return existing;
+		Segment<K, V> segment = this.segmentFor(key);
+		int evicted = 0;
+		segment.lock.lock();
+		try {
+			if ((existing = segment.map.get(key)) != null)
+				return existing;
+			if ((existing = segment.paused.get(key)) != null)
+				return existing;
+			evicted = this.insert(segment, key, value);
+			segment.modified(key);
+		} finally {
+			segment.lock.unlock();
+		}
+		this.evicted(evicted);
 		return null;
 	}
 
 	@Override
-	public synchronized boolean remove(Object key, Object value) {
-		V existing = null;
-		if ((existing = this.get(key)) == null || !existing.equals(value))
-			return false;
-		this.remove(key);
-		return true;
+	public boolean remove(Object key, Object value) {
+		return value != null && this.remove(key, value, true) != null;
 	}
 
 	@Override
-	public synchronized boolean replace(K key, V oldValue, V newValue) {
-		if (!this.get(key).equals(oldValue))
+	public boolean replace(K key, V oldValue, V newValue) {
+		Segment<K, V> segment = this.segmentFor(key);
+		// restore into memory if needed
+		if (this.get(key) == null)
 			return false;
-		this.put(key, newValue);
+		segment.lock.lock();
+		try {
+			V existing = segment.map.get(key);
+			if (existing == null)
+				existing = segment.paused.get(key);
+			if (existing == null || !existing.equals(oldValue))
+				return false;
+			segment.paused.remove(key);
+			segment.map.put(key, newValue);
+			segment.modified(key);
+		} finally {
+			segment.lock.unlock();
+		}
+		if (this.cleanCache)
+			this.putCommit(key, newValue);
 		return true;
 	}
 
 	@Override
-	public synchronized V replace(K key, V value) {
-		if (this.containsKey(key))
-			return this.put(key, value);
-		return null;
-	}
-
-	@SuppressWarnings("unchecked")
-	private Map<K, V> extractIterableMap(ConcurrentMap<K, V> m, int size) {
-		if (m instanceof MultiArrayMap) {
-			ConcurrentHashMap<K, V> chmap = new ConcurrentHashMap<K, V>();
-			MultiArrayMap<K, ?> mamap = (MultiArrayMap<K, ?>) m;
-			int count = 0;
-			for (Iterator<?> iter = mamap.concurrentIterator(); iter.hasNext(); count++) {
-				Keyable<K> value = (Keyable<K>) iter.next();
-				chmap.put(value.getKey(), (V) value);
-				if (count == size - 1)
-					break;
-			}
-			return chmap;
-		} else
-			return m;
+	public V replace(K key, V value) {
+		Segment<K, V> segment = this.segmentFor(key);
+		// restore into memory if needed
+		if (this.get(key) == null)
+			return null;
+		V prev = null;
+		segment.lock.lock();
+		try {
+			if ((prev = segment.map.get(key)) == null
+					&& (prev = segment.paused.remove(key)) == null)
+				return null;
+			segment.map.put(key, value);
+			segment.modified(key);
+		} finally {
+			segment.lock.unlock();
+		}
+		if (this.cleanCache)
+			this.putCommit(key, value);
+		return prev;
 	}
 
 	// unused
-	protected synchronized Set<K> commit(K key) throws IOException {
+	protected Set<K> commit(K key) throws IOException {
 		Map<K, V> singleton = new HashMap<K, V>();
-		if (this.map.containsKey(key))
-			singleton.put(key, this.map.get(key));
+		V value = this.segmentFor(key).map.get(key);
+		if (value != null)
+			singleton.put(key, value);
 		return this.commit(singleton);
 	}
 
 	/**
-	 * Commits all in-memory entries in the map.
+	 * Commits all in-memory entries in the map including evicted entries not
+	 * yet committed by the GC thread.
 	 */
-	public synchronized void commit() {
-		this.commitAll(this.map, true);
+	public void commit() {
+		this.commitAll(true);
 	}
 
 	public String toString() {
-		return this.map.toString();
+		HashMap<K, V> snapshot = new HashMap<K, V>();
+		for (Map.Entry<K, V> entry : this.entrySet())
+			snapshot.put(entry.getKey(), entry.getValue());
+		return snapshot.toString();
 	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private synchronized void commitAll(Map<K, V> m, boolean clone) {
+	/* Commits synchronously without commitLock so that the caller doesn't wait
+	 * for the GC thread, which could be waiting for a lock held by the caller
+	 * in commit(Map). Committing a paused entry twice is harmless. Batches
+	 * that fail to commit are retried with exponential backoff, and the last
+	 * failure is rethrown after MAX_COMMIT_ATTEMPTS attempts in a row that
+	 * commit nothing. */
+	private void commitAll(boolean inMemory) {
+		Map<K, V> paused = new HashMap<K, V>();
 		ConcurrentMap<K, V> copy = new ConcurrentHashMap<K, V>();
-		if (m instanceof MultiArrayMap) {
-			for (Iterator<V> iter = (Iterator<V>) ((MultiArrayMap) m)
-					.concurrentIterator(); iter.hasNext();) {
-				V value = iter.next();
-				if (value != null)
-					copy.put(((Keyable<K>) value).getKey(), value);
-			}
-		} else
-			for (Object key : m.keySet().toArray()) {
-				V value = m.get(key);
-				if (value != null)
-					copy.put((K) key, m.get(key));
+		for (Segment<K, V> segment : this.segments) {
+			segment.lock.lock();
+			try {
+				paused.putAll(segment.paused);
+				if (inMemory)
+					copy.putAll(segment.map);
+			} finally {
+				segment.lock.unlock();
 			}
+		}
+		copy.putAll(paused);
 
+		int failures = 0;
 		while (!copy.isEmpty()) {
+			Map<K, V> batch = new HashMap<K, V>();
+			for (Iterator<Map.Entry<K, V>> iter = copy.entrySet().iterator(); iter
+					.hasNext() && batch.size() < BATCH_SIZE;) {
+				Map.Entry<K, V> entry = iter.next();
+				batch.put(entry.getKey(), entry.getValue());
+			}
 			Set<K> committed = null;
+			IOException ioe = null;
 			try {
-				committed = this.commit(this.extractIterableMap(copy,
-						BATCH_SIZE));
+				committed = this.commit(batch);
 			} catch (IOException e) {
 				e.printStackTrace();
+				ioe = e;
 			}
+			boolean progress = false;
 			if (committed != null)
-				for (K key : committed)
-					copy.remove(key);
+				for (K key : committed) {
+					progress = copy.remove(key) != null || progress;
+					V value = paused.get(key);
+					if (value != null)
+						// unless restored meanwhile
+						this.segmentFor(key).paused.remove(key, value);
+				}
+			if (progress)
+				failures = 0;
+			else if (++failures >= MAX_COMMIT_ATTEMPTS)
+				throw new RuntimeException("Failed to commit " + copy.size()
+						+ " entries to disk", ioe);
+			else
+				try {
+					Thread.sleep(COMMIT_RETRY_DELAY << (failures - 1));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
 		}
 	}
 
 	private static final int BATCH_SIZE = 100;
+	private static final int MAX_COMMIT_ATTEMPTS = 5;
+	private static final long COMMIT_RETRY_DELAY = 100;
 
 	/**
-	 * Will stop the GC thread but will have no other effect. The map can
-	 * continue to be used with the same semantics.
+	 * Will stop the GC thread and commit any evicted entries not yet
+	 * committed but will have no other effect. The map can continue to be
+	 * used with the same semantics.
 	 * 
 	 * @param commitAll
+	 *            If true, also commits all in-memory entries.
 	 */
 	public void close(boolean commitAll) {
 		this.GC.shutdown();
-		if (commitAll)
-			this.commitAll(this.map, false);
+		this.commitAll(commitAll);
 	}
 
 	/**
@@ -871,4 +1035,4 @@ public abstract class DiskMap<K, V> implements ConcurrentMap<K, V>,
 		close(false);
 	}
 
-}
\ No newline at end of file
+}
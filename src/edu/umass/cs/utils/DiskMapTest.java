@@ -1,8 +1,11 @@
 package edu.umass.cs.utils;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -96,6 +99,105 @@ public class DiskMapTest extends DefaultTest {
 		Assert.assertTrue(!dmap.containsKey(key1));
 	}
 
+	/**
+	 * Several threads concurrently put, get and remove their own keys in a
+	 * map holding a quarter of all keys in memory, whose commits to disk take
+	 * time, and check that every get returns the thread's last put or null
+	 * after a remove. Prints the aggregate throughput and the latency
+	 * distribution of individual operations.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void test02_ConcurrentThroughputAndLatency()
+			throws InterruptedException {
+		int numThreads = 8, keysPerThread = 50 * 1000, opsPerThread = 300 * 1000;
+		int capacity = numThreads * keysPerThread / 4;
+		ConcurrentHashMap<String, KeyableString> db = new ConcurrentHashMap<String, KeyableString>();
+		DiskMap<String, KeyableString> dmap = new DiskMap<String, KeyableString>(
+				capacity) {
+
+			@Override
+			public Set<String> commit(Map<String, KeyableString> toCommit)
+					throws IOException {
+				try {
+					// a disk write per batch
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				for (String key : toCommit.keySet())
+					if (toCommit.get(key) == null)
+						db.remove(key);
+					else
+						db.put(key, toCommit.get(key));
+				return new HashSet<String>(toCommit.keySet());
+			}
+
+			@Override
+			public KeyableString restore(String key) throws IOException {
+				return db.get(key);
+			}
+		};
+
+		long[][] latencies = new long[numThreads][opsPerThread];
+		String[] errors = new String[numThreads];
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int id = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					HashMap<String, KeyableString> expected = new HashMap<String, KeyableString>();
+					Random r = new Random(id);
+					for (int i = 0; i < opsPerThread && errors[id] == null; i++) {
+						String key = id + ":" + r.nextInt(keysPerThread);
+						int op = r.nextInt(10);
+						long t = System.nanoTime();
+						if (op < 4) {
+							KeyableString ks = new KeyableString(key);
+							dmap.put(key, ks);
+							expected.put(key, ks);
+						} else if (op < 9) {
+							KeyableString retrieved = dmap.get(key);
+							if (retrieved != expected.get(key)
+									&& (retrieved == null || !retrieved
+											.equals(expected.get(key))))
+								errors[id] = key + ": " + retrieved + " != "
+										+ expected.get(key);
+						} else {
+							dmap.remove(key);
+							expected.remove(key);
+						}
+						latencies[id][i] = System.nanoTime() - t;
+					}
+				}
+			});
+		}
+		long t = System.nanoTime();
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		long elapsed = System.nanoTime() - t;
+		dmap.close();
+		for (String error : errors)
+			Assert.assertNull(error, error);
+		Assert.assertTrue(dmap.size() <= capacity);
+
+		long[] all = new long[numThreads * opsPerThread];
+		for (int i = 0; i < numThreads; i++)
+			System.arraycopy(latencies[i], 0, all, i * opsPerThread,
+					opsPerThread);
+		Arrays.sort(all);
+		System.out.print("threads=" + numThreads + "; throughput="
+				+ Util.df(all.length * 1000000000.0 / elapsed)
+				+ "/s; latency_us p50=" + all[all.length / 2] / 1000
+				+ " p99=" + all[(int) (all.length * 0.99)] / 1000 + " p99.9="
+				+ all[(int) (all.length * 0.999)] / 1000 + " max="
+				+ all[all.length - 1] / 1000 + " ");
+	}
+
 	/**
 	 * 
 	 */
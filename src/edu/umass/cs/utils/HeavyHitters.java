@@ -0,0 +1,220 @@
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * @author arun
+ *
+ * @param <K>
+ *
+ *            A mergeable summary of the most frequent keys in a stream using
+ *            the Misra-Gries algorithm. At most {@code capacity} counters are
+ *            kept however many distinct keys are added. A key's count is
+ *            underestimated by at most {@link #getMaxError()}, so any key
+ *            that accounts for more than a 1/(capacity+1) fraction of the
+ *            total is always retained. Two summaries are merged by adding
+ *            their counters and then subtracting the (capacity+1)'th largest
+ *            counter from all of them, which preserves the same guarantee for
+ *            the combined stream.
+ *
+ *            This class is not thread-safe.
+ */
+public class HeavyHitters<K> {
+
+	private static class Counter {
+		long count;
+
+		Counter(long count) {
+			this.count = count;
+		}
+	}
+
+	private final int capacity;
+	private final HashMap<K, Counter> counters = new HashMap<K, Counter>();
+	private long total = 0;
+
+	/**
+	 * @param capacity
+	 *            Maximum number of keys tracked.
+	 */
+	public HeavyHitters(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(
+					"Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param capacity
+	 * @param counts
+	 *            Counts as returned by {@link #getCounts()}.
+	 * @param total
+	 *            Total as returned by {@link #getTotal()}.
+	 */
+	public HeavyHitters(int capacity, Map<K, Long> counts, long total) {
+		this(capacity);
+		for (Map.Entry<K, Long> entry : counts.entrySet())
+			this.counters.put(entry.getKey(), new Counter(entry.getValue()));
+		this.total = total;
+		this.prune();
+	}
+
+	/**
+	 * @param key
+	 */
+	public void add(K key) {
+		this.add(key, 1);
+	}
+
+	/**
+	 * @param key
+	 * @param count
+	 */
+	public void add(K key, long count) {
+		if (count <= 0)
+			return;
+		this.total += count;
+		Counter counter = this.counters.get(key);
+		if (counter != null) {
+			counter.count += count;
+			return;
+		}
+		if (this.counters.size() < this.capacity) {
+			this.counters.put(key, new Counter(count));
+			return;
+		}
+		// decrement all counters and the new key by the smallest of them
+		long min = count;
+		for (Counter c : this.counters.values())
+			min = Math.min(min, c.count);
+		for (Iterator<Counter> iter = this.counters.values().iterator(); iter
+				.hasNext();)
+			if ((iter.next().count -= min) <= 0)
+				iter.remove();
+		if (count > min)
+			this.counters.put(key, new Counter(count - min));
+	}
+
+	/**
+	 * Merges {@code other} into {@code this}. The capacity of {@code this} is
+	 * retained.
+	 *
+	 * @param other
+	 */
+	public void merge(HeavyHitters<K> other) {
+		for (Map.Entry<K, Counter> entry : other.counters.entrySet()) {
+			Counter counter = this.counters.get(entry.getKey());
+			if (counter != null)
+				counter.count += entry.getValue().count;
+			else
+				this.counters.put(entry.getKey(), new Counter(
+						entry.getValue().count));
+		}
+		this.total += other.total;
+		this.prune();
+	}
+
+	// subtracts the (capacity+1)'th largest counter if over capacity
+	private void prune() {
+		if (this.counters.size() <= this.capacity)
+			return;
+		long[] counts = new long[this.counters.size()];
+		int i = 0;
+		for (Counter counter : this.counters.values())
+			counts[i++] = counter.count;
+		Arrays.sort(counts);
+		long kth = counts[counts.length - 1 - this.capacity];
+		for (Iterator<Counter> iter = this.counters.values().iterator(); iter
+				.hasNext();)
+			if ((iter.next().count -= kth) <= 0)
+				iter.remove();
+	}
+
+	/**
+	 * @param key
+	 * @return Estimated count of {@code key}, at most {@link #getMaxError()}
+	 *         less than its true count.
+	 */
+	public long get(K key) {
+		Counter counter = this.counters.get(key);
+		return counter != null ? counter.count : 0;
+	}
+
+	/**
+	 * @return Total count of all keys ever added.
+	 */
+	public long getTotal() {
+		return this.total;
+	}
+
+	/**
+	 * @return Upper bound on the amount by which any count is underestimated.
+	 */
+	public long getMaxError() {
+		long tracked = 0;
+		for (Counter counter : this.counters.values())
+			tracked += counter.count;
+		return (this.total - tracked) / (this.capacity + 1);
+	}
+
+	/**
+	 * @return Number of keys tracked.
+	 */
+	public int size() {
+		return this.counters.size();
+	}
+
+	/**
+	 * @return Estimated counts of all tracked keys.
+	 */
+	public Map<K, Long> getCounts() {
+		HashMap<K, Long> counts = new HashMap<K, Long>();
+		for (Map.Entry<K, Counter> entry : this.counters.entrySet())
+			counts.put(entry.getKey(), entry.getValue().count);
+		return counts;
+	}
+
+	/**
+	 * Applies {@code action} to each tracked key and its estimated count
+	 * without copying the counts as {@link #getCounts()} does.
+	 *
+	 * @param action
+	 */
+	public void forEach(BiConsumer<? super K, ? super Long> action) {
+		for (Map.Entry<K, Counter> entry : this.counters.entrySet())
+			action.accept(entry.getKey(), entry.getValue().count);
+	}
+
+	/**
+	 * @param n
+	 * @return Up to {@code n} tracked keys in decreasing order of their
+	 *         estimated counts.
+	 */
+	public List<K> getTop(int n) {
+		List<Map.Entry<K, Counter>> entries = new ArrayList<Map.Entry<K, Counter>>(
+				this.counters.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<K, Counter>>() {
+			@Override
+			public int compare(Map.Entry<K, Counter> e1,
+					Map.Entry<K, Counter> e2) {
+				return Long.compare(e2.getValue().count, e1.getValue().count);
+			}
+		});
+		List<K> top = new ArrayList<K>();
+		for (int i = 0; i < Math.min(n, entries.size()); i++)
+			top.add(entries.get(i).getKey());
+		return top;
+	}
+
+	public String toString() {
+		return this.getCounts().toString();
+	}
+}
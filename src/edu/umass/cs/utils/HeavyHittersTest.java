@@ -0,0 +1,107 @@
+package edu.umass.cs.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Test class for {@link HeavyHitters}.
+ */
+public class HeavyHittersTest extends DefaultTest {
+
+	private static final int CAPACITY = 16;
+
+	// skewed stream of keys with a long tail of rare keys
+	private static int[] stream(int n, long seed) {
+		Random r = new Random(seed);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = r.nextBoolean() ? r.nextInt(4) : r.nextInt(100000);
+		return keys;
+	}
+
+	private static void assertBounds(HeavyHitters<Integer> hh,
+			Map<Integer, Long> exact) {
+		long maxError = hh.getMaxError();
+		Assert.assertTrue(hh.size() <= CAPACITY);
+		Assert.assertTrue(maxError <= hh.getTotal() / (CAPACITY + 1));
+		for (Map.Entry<Integer, Long> entry : exact.entrySet()) {
+			long estimate = hh.get(entry.getKey());
+			Assert.assertTrue(estimate <= entry.getValue());
+			Assert.assertTrue(estimate >= entry.getValue() - maxError);
+			if (entry.getValue() > hh.getTotal() / (CAPACITY + 1))
+				Assert.assertTrue(estimate > 0);
+		}
+	}
+
+	private static void count(int[] keys, HeavyHitters<Integer> hh,
+			Map<Integer, Long> exact) {
+		for (int key : keys) {
+			hh.add(key);
+			Long count = exact.get(key);
+			exact.put(key, count != null ? count + 1 : 1);
+		}
+	}
+
+	/**
+	 * Counts are underestimated by at most the error bound and frequent keys
+	 * are retained, for a single summary as well as for merged ones.
+	 */
+	@Test
+	public void testAddAndMerge() {
+		int n = 100 * 1000;
+		Map<Integer, Long> exact = new HashMap<Integer, Long>();
+		HeavyHitters<Integer> hh1 = new HeavyHitters<Integer>(CAPACITY);
+		count(stream(n, 1), hh1, exact);
+		Assert.assertEquals(n, hh1.getTotal());
+		assertBounds(hh1, exact);
+		Assert.assertEquals(4, hh1.getTop(4).size());
+		for (int key : hh1.getTop(4))
+			Assert.assertTrue(key < 4);
+
+		HeavyHitters<Integer> hh2 = new HeavyHitters<Integer>(CAPACITY);
+		count(stream(n, 2), hh2, exact);
+		hh1.merge(hh2);
+		Assert.assertEquals(2 * n, hh1.getTotal());
+		assertBounds(hh1, exact);
+
+		// round trip through counts as when serialized
+		HeavyHitters<Integer> copy = new HeavyHitters<Integer>(CAPACITY,
+				hh1.getCounts(), hh1.getTotal());
+		Assert.assertEquals(hh1.getCounts(), copy.getCounts());
+		Assert.assertEquals(hh1.getMaxError(), copy.getMaxError());
+	}
+
+	/**
+	 * Weighted additions behave as repeated additions of a single key.
+	 */
+	@Test
+	public void testWeighted() {
+		HeavyHitters<String> hh = new HeavyHitters<String>(2);
+		hh.add("a", 5);
+		hh.add("b", 3);
+		hh.add("c", 4);
+		// all decremented by 3
+		Assert.assertEquals(2, hh.get("a"));
+		Assert.assertEquals(0, hh.get("b"));
+		Assert.assertEquals(1, hh.get("c"));
+		Assert.assertEquals(3, hh.getMaxError());
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(HeavyHittersTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
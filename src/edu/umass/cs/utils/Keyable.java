@@ -8,4 +8,15 @@ public interface Keyable<KeyType> {
 	 * @return The key.
 	 */
 	public KeyType getKey();
+
+	/**
+	 * Implementations that store their key in a compact form may override
+	 * this method to compare against it without materializing the key.
+	 * 
+	 * @param key
+	 * @return True if {@code key} equals {@link #getKey()}.
+	 */
+	public default boolean keyEquals(Object key) {
+		return key != null && key.equals(this.getKey());
+	}
 }
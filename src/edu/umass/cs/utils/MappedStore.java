@@ -0,0 +1,719 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): V. Arun */
+
+package edu.umass.cs.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * @author arun
+ *
+ *         An embedded, append-only key-value store backed by a single
+ *         memory-mapped file. Every put or remove appends a checksummed record
+ *         to the file, so writes and reads are plain memory copies and never
+ *         go through a database. Keys are located using an open-addressing
+ *         hash index kept off-heap in a direct buffer that stores only a 64-bit
+ *         key hash and a file offset per key, so the store adds no per-key
+ *         objects to the heap. The index is rebuilt by scanning the file upon
+ *         opening, and a torn record at the tail left behind by a crash is
+ *         discarded.
+ *
+ *         Records overwritten or removed become garbage. Once garbage exceeds
+ *         half of the file, live records are copied to a new file in the
+ *         background and atomically renamed over the old one. The store is
+ *         thread-safe; compaction copies live records without holding the
+ *         store's lock and takes it only to snapshot the index and to swap
+ *         files.
+ *
+ *         The store is durable across process crashes as writes go to the OS
+ *         page cache; it is durable across machine crashes only if
+ *         {@code sync} is true, in which case every write is forced to disk.
+ *         Files are limited to 2GB.
+ */
+public class MappedStore {
+
+	private static final int MAGIC = 0x6d737472; // "mstr"
+	private static final int FORMAT_VERSION = 1;
+	private static final int FILE_HEADER_SIZE = 8;
+	// bodyLength, crc, op, keyLength
+	private static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 2;
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+
+	// 64-bit key hash followed by int file offset
+	private static final int SLOT_SIZE = 12;
+	private static final int MIN_INDEX_CAPACITY = 1024;
+	private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * Files smaller than this are never compacted.
+	 */
+	public static final int MIN_COMPACTION_SIZE = 1024 * 1024;
+
+	private static final Logger log = Logger.getLogger(MappedStore.class
+			.getName());
+
+	private final File file;
+	private final int initialSize;
+	private final boolean sync;
+	private final ExecutorService compactor;
+	private final CRC32 crc = new CRC32();
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buf;
+	private int writePos;
+	private long garbage = 0;
+
+	private ByteBuffer index;
+	private int indexCapacity;
+	private int size = 0;
+
+	private boolean compacting = false;
+	private boolean closed = false;
+	// incremented by clear so that a compaction can detect it
+	private int numClears = 0;
+	// replaced mappings that a compaction in progress may still read
+	private final ArrayList<MappedByteBuffer> retired = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * Opens or creates the store in {@code filename} and rebuilds its index.
+	 *
+	 * @param filename
+	 * @param initialSize
+	 *            Initial size in bytes of the mapped file; the file doubles in
+	 *            size as needed.
+	 * @param sync
+	 *            If true, every write is forced to disk.
+	 * @throws IOException
+	 */
+	public MappedStore(String filename, int initialSize, boolean sync)
+			throws IOException {
+		this.file = new File(filename);
+		this.initialSize = Math.max(initialSize, FILE_HEADER_SIZE
+				+ RECORD_HEADER_SIZE);
+		this.sync = sync;
+		this.compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = Executors.defaultThreadFactory().newThread(r);
+				thread.setName(MappedStore.class.getSimpleName() + ":"
+						+ file.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.initIndex(MIN_INDEX_CAPACITY);
+		this.open();
+	}
+
+	private void open() throws IOException {
+		if (this.file.getParentFile() != null)
+			this.file.getParentFile().mkdirs();
+		// leftover from a compaction interrupted by a crash
+		new File(this.getCompactionFilename()).delete();
+
+		this.raf = new RandomAccessFile(this.file, "rw");
+		boolean created = this.raf.length() == 0;
+		this.buf = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				0, Math.max(this.raf.length(), this.initialSize));
+		if (created) {
+			this.buf.putInt(0, MAGIC);
+			this.buf.putInt(4, FORMAT_VERSION);
+		} else if (this.buf.getInt(0) != MAGIC
+				|| this.buf.getInt(4) != FORMAT_VERSION) {
+			this.raf.close();
+			throw new IOException(this + " found unrecognized file header");
+		}
+		this.recover();
+	}
+
+	private void recover() {
+		int pos = FILE_HEADER_SIZE;
+		boolean torn = false;
+		while (pos + RECORD_HEADER_SIZE <= this.buf.capacity()) {
+			int bodyLength = this.buf.getInt(pos);
+			if (bodyLength == 0)
+				break;
+			if (bodyLength < RECORD_HEADER_SIZE - 8
+					|| (long) pos + 8 + bodyLength > this.buf.capacity()
+					|| this.checksum(pos + 8, bodyLength) != this.buf
+							.getInt(pos + 4)) {
+				torn = true;
+				break;
+			}
+			int keyLength = this.getKeyLength(pos);
+			long hash = this.hash(pos + RECORD_HEADER_SIZE, keyLength);
+			int slot = this.find(hash, null, pos + RECORD_HEADER_SIZE,
+					keyLength);
+			if (this.buf.get(pos + 8) == PUT)
+				this.putSlot(slot, hash, pos);
+			else {
+				this.removeSlot(slot);
+				this.garbage += 8 + bodyLength;
+			}
+			pos += 8 + bodyLength;
+		}
+		this.writePos = pos;
+		if (torn) {
+			log.log(Level.WARNING,
+					"{0} discarding torn record at offset {1}",
+					new Object[] { this, pos });
+			for (int i = pos; i < this.buf.capacity(); i++)
+				this.buf.put(i, (byte) 0);
+		}
+		log.log(Level.FINE, "{0} recovered {1} keys from {2} bytes",
+				new Object[] { this, this.size, this.writePos });
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @throws IOException
+	 *             If the store is closed or full.
+	 */
+	public synchronized void put(String key, byte[] value) throws IOException {
+		byte[] keyBytes = this.getKeyBytes(key);
+		long hash = this.hash(keyBytes);
+		int offset = this.append(PUT, keyBytes, value);
+		this.putSlot(this.find(hash, keyBytes, 0, keyBytes.length), hash,
+				offset);
+		this.compactIfNeeded();
+	}
+
+	/**
+	 * @param key
+	 * @return Value for {@code key} or null if none.
+	 */
+	public synchronized byte[] get(String key) {
+		if (this.closed)
+			return null;
+		byte[] keyBytes = this.getKeyBytes(key);
+		int slot = this.find(this.hash(keyBytes), keyBytes, 0, keyBytes.length);
+		if (slot < 0)
+			return null;
+		int offset = this.getOffset(slot);
+		int valueOffset = offset + RECORD_HEADER_SIZE + keyBytes.length;
+		byte[] value = new byte[offset + 8 + this.buf.getInt(offset)
+				- valueOffset];
+		this.buf.position(valueOffset);
+		this.buf.get(value);
+		return value;
+	}
+
+	/**
+	 * @param key
+	 * @return True if the store has a value for {@code key}.
+	 */
+	public synchronized boolean containsKey(String key) {
+		if (this.closed)
+			return false;
+		byte[] keyBytes = this.getKeyBytes(key);
+		return this.find(this.hash(keyBytes), keyBytes, 0, keyBytes.length) >= 0;
+	}
+
+	/**
+	 * @param key
+	 * @return True if {@code key} was present.
+	 * @throws IOException
+	 *             If the store is closed or full.
+	 */
+	public synchronized boolean remove(String key) throws IOException {
+		byte[] keyBytes = this.getKeyBytes(key);
+		int slot = this.find(this.hash(keyBytes), keyBytes, 0, keyBytes.length);
+		if (slot < 0)
+			return false;
+		int offset = this.append(REMOVE, keyBytes, null);
+		this.removeSlot(slot);
+		this.garbage += this.getRecordLength(offset);
+		this.compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * @return Set of all keys. Meant only for infrequent use, e.g., during
+	 *         recovery, as it decodes every key.
+	 */
+	public synchronized Set<String> keySet() {
+		Set<String> keys = new HashSet<String>();
+		for (int slot = 0; slot < this.indexCapacity; slot++)
+			if (this.getHash(slot) != 0) {
+				int offset = this.getOffset(slot);
+				byte[] keyBytes = new byte[this.getKeyLength(offset)];
+				this.buf.position(offset + RECORD_HEADER_SIZE);
+				this.buf.get(keyBytes);
+				keys.add(new String(keyBytes, StandardCharsets.UTF_8));
+			}
+		return keys;
+	}
+
+	/**
+	 * Removes all keys.
+	 */
+	public synchronized void clear() {
+		for (int i = FILE_HEADER_SIZE; i < this.writePos; i++)
+			this.buf.put(i, (byte) 0);
+		if (this.sync)
+			this.buf.force();
+		this.writePos = FILE_HEADER_SIZE;
+		this.garbage = 0;
+		this.numClears++;
+		this.initIndex(MIN_INDEX_CAPACITY);
+	}
+
+	/**
+	 * @return Number of keys.
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return Bytes used in the file including garbage.
+	 */
+	public synchronized long getFileBytes() {
+		return this.writePos;
+	}
+
+	/**
+	 * @return Bytes used by live records in the file.
+	 */
+	public synchronized long getLiveBytes() {
+		return this.writePos - FILE_HEADER_SIZE - this.garbage;
+	}
+
+	/**
+	 * @return Off-heap bytes used by the index.
+	 */
+	public synchronized long getIndexBytes() {
+		return (long) this.indexCapacity * SLOT_SIZE;
+	}
+
+	/**
+	 * Copies live records to a new file that then replaces the current file.
+	 * Normally invoked automatically in the background. Reads and writes
+	 * proceed while records are copied. Returns without compacting if a
+	 * compaction is already in progress.
+	 *
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		synchronized (this) {
+			if (this.compacting)
+				return;
+			this.compacting = true;
+		}
+		try {
+			this.copyAndSwap();
+		} finally {
+			this.endCompaction();
+		}
+	}
+
+	/* Copies the live records in a snapshot of the index without holding the
+	 * lock, which is safe as records below the snapshot's write position are
+	 * never modified. The lock is then taken to copy records appended
+	 * meanwhile, redirect the index to the new file and swap files. */
+	private void copyAndSwap() throws IOException {
+		long t = System.currentTimeMillis();
+		int[] offsets;
+		int copyEnd, clears;
+		ByteBuffer src;
+		synchronized (this) {
+			if (this.closed)
+				return;
+			offsets = new int[this.size];
+			for (int slot = 0, i = 0; slot < this.indexCapacity; slot++)
+				if (this.getHash(slot) != 0)
+					offsets[i++] = this.getOffset(slot);
+			copyEnd = this.writePos;
+			clears = this.numClears;
+			src = this.buf.duplicate();
+		}
+		// copy in file order and look up new offsets by old offset
+		Arrays.sort(offsets);
+		int[] newOffsets = new int[offsets.length];
+		long liveBytes = 0;
+		for (int offset : offsets)
+			liveBytes += 8 + src.getInt(offset);
+
+		File compacted = new File(this.getCompactionFilename());
+		compacted.delete();
+		MappedByteBuffer cbuf = null;
+		boolean swapped = false;
+		try (RandomAccessFile craf = new RandomAccessFile(compacted, "rw")) {
+			cbuf = craf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE,
+					0,
+					Math.min(MAX_FILE_SIZE, Math.max(this.initialSize,
+							2 * (FILE_HEADER_SIZE + liveBytes))));
+			cbuf.putInt(0, MAGIC);
+			cbuf.putInt(4, FORMAT_VERSION);
+			int pos = FILE_HEADER_SIZE;
+			for (int i = 0; i < offsets.length; i++) {
+				src.limit(src.capacity());
+				int length = 8 + src.getInt(offsets[i]);
+				src.limit(offsets[i] + length).position(offsets[i]);
+				cbuf.position(pos);
+				cbuf.put(src);
+				newOffsets[i] = pos;
+				pos += length;
+			}
+
+			synchronized (this) {
+				// copied records are stale if cleared meanwhile
+				if (this.closed || this.numClears != clears)
+					return;
+				long prevBytes = this.writePos;
+				int appended = this.writePos - copyEnd;
+				if (pos + appended > cbuf.capacity()) {
+					MappedByteBuffer prev = cbuf;
+					cbuf = craf.getChannel().map(
+							FileChannel.MapMode.READ_WRITE, 0,
+							Math.min(MAX_FILE_SIZE, 2L * (pos + appended)));
+					unmap(prev);
+				}
+				ByteBuffer tail = this.buf.duplicate();
+				tail.limit(this.writePos).position(copyEnd);
+				cbuf.position(pos);
+				cbuf.put(tail);
+				cbuf.force();
+				Files.move(compacted.toPath(), this.file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				this.raf.close();
+				this.raf = new RandomAccessFile(this.file, "rw");
+
+				/* A live record below copyEnd was live in the snapshot as
+				 * index entries only ever move to newer records. */
+				long live = 0;
+				for (int slot = 0; slot < this.indexCapacity; slot++)
+					if (this.getHash(slot) != 0) {
+						int offset = this.getOffset(slot);
+						int newOffset = offset >= copyEnd ? offset - copyEnd
+								+ pos : newOffsets[Arrays.binarySearch(
+								offsets, offset)];
+						this.index.putInt(slot * SLOT_SIZE + 8, newOffset);
+						live += 8 + cbuf.getInt(newOffset);
+					}
+				this.retire(this.buf);
+				this.buf = cbuf;
+				this.writePos = pos + appended;
+				this.garbage = this.writePos - FILE_HEADER_SIZE - live;
+				swapped = true;
+				log.log(Level.INFO,
+						"{0} compacted {1} keys from {2} to {3} bytes in {4}ms",
+						new Object[] { this, this.size, prevBytes,
+								this.writePos,
+								System.currentTimeMillis() - t });
+			}
+		} finally {
+			if (!swapped) {
+				if (cbuf != null)
+					unmap(cbuf);
+				compacted.delete();
+			}
+		}
+	}
+
+	private synchronized void endCompaction() {
+		this.compacting = false;
+		for (MappedByteBuffer prev : this.retired)
+			unmap(prev);
+		this.retired.clear();
+	}
+
+	// unmaps prev now or, if a compaction may be reading it, once it ends
+	private void retire(MappedByteBuffer prev) {
+		if (this.compacting)
+			this.retired.add(prev);
+		else
+			unmap(prev);
+	}
+
+	/* Unmaps buf right away instead of when it is garbage collected so that
+	 * replaced mappings do not pile up. buf must not be accessed after this
+	 * call. */
+	private static void unmap(MappedByteBuffer buf) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(
+					theUnsafe.get(null), buf);
+		} catch (ReflectiveOperationException | SecurityException e) {
+			// pre-java 9 or restricted; GC will unmap eventually
+			log.log(Level.FINE, "Unable to unmap mapped store buffer: {0}",
+					new Object[] { e });
+		}
+	}
+
+	/**
+	 * Closes the store. Subsequent writes will throw an exception and reads
+	 * will return null.
+	 */
+	public synchronized void close() {
+		if (this.closed)
+			return;
+		this.closed = true;
+		this.compactor.shutdownNow();
+		try {
+			this.buf.force();
+			this.raf.close();
+		} catch (IOException e) {
+			log.severe(this + " incurred " + e + " while closing");
+			e.printStackTrace();
+		}
+	}
+
+	public String toString() {
+		return this.getClass().getSimpleName() + ":" + this.file.getName();
+	}
+
+	private String getCompactionFilename() {
+		return this.file.getPath() + ".compact";
+	}
+
+	private void compactIfNeeded() {
+		if (this.compacting || this.writePos < MIN_COMPACTION_SIZE
+				|| this.garbage < (this.writePos - FILE_HEADER_SIZE) / 2)
+			return;
+		this.compacting = true;
+		try {
+			this.compactor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						MappedStore.this.copyAndSwap();
+					} catch (IOException e) {
+						log.severe(MappedStore.this + " failed to compact: "
+								+ e);
+						e.printStackTrace();
+					} finally {
+						MappedStore.this.endCompaction();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			this.compacting = false;
+		}
+	}
+
+	/* Appends a record and returns its offset. The checksum is written last
+	 * so that a partially written record is detected during recovery. */
+	private int append(byte op, byte[] keyBytes, byte[] value)
+			throws IOException {
+		if (this.closed)
+			throw new IOException(this + " is closed");
+		int bodyLength = 1 + 2 + keyBytes.length
+				+ (value != null ? value.length : 0);
+		this.ensureCapacity((long) this.writePos + 8 + bodyLength);
+		int offset = this.writePos;
+		this.buf.position(offset + 8);
+		this.buf.put(op).putShort((short) keyBytes.length).put(keyBytes);
+		if (value != null)
+			this.buf.put(value);
+		this.buf.putInt(offset, bodyLength);
+		this.buf.putInt(offset + 4, this.checksum(offset + 8, bodyLength));
+		if (this.sync)
+			this.buf.force();
+		this.writePos += 8 + bodyLength;
+		return offset;
+	}
+
+	private void ensureCapacity(long needed) throws IOException {
+		if (needed <= this.buf.capacity())
+			return;
+		if (needed > MAX_FILE_SIZE)
+			throw new IOException(this + " is full");
+		long newSize = this.buf.capacity();
+		while (newSize < needed)
+			newSize *= 2;
+		MappedByteBuffer prev = this.buf;
+		this.buf = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+				0, Math.min(newSize, MAX_FILE_SIZE));
+		this.retire(prev);
+	}
+
+	private int checksum(int offset, int length) {
+		ByteBuffer body = this.buf.duplicate();
+		body.limit(offset + length).position(offset);
+		this.crc.reset();
+		this.crc.update(body);
+		return (int) this.crc.getValue();
+	}
+
+	private byte[] getKeyBytes(String key) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > 0xffff)
+			throw new IllegalArgumentException(this + " can not store key of "
+					+ keyBytes.length + " bytes");
+		return keyBytes;
+	}
+
+	private int getKeyLength(int offset) {
+		return this.buf.getShort(offset + 9) & 0xffff;
+	}
+
+	private int getRecordLength(int offset) {
+		return 8 + this.buf.getInt(offset);
+	}
+
+	/* ***************** Off-heap index methods below ********************* */
+
+	private void initIndex(int capacity) {
+		this.indexCapacity = capacity;
+		this.index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		this.size = 0;
+	}
+
+	// FNV-1a; 0 marks an empty slot
+	private static long fnv(long h, byte b) {
+		return (h ^ (b & 0xff)) * 0x100000001b3L;
+	}
+
+	private static long nonZero(long h) {
+		return h != 0 ? h : 1;
+	}
+
+	private long hash(byte[] keyBytes) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : keyBytes)
+			h = fnv(h, b);
+		return nonZero(h);
+	}
+
+	private long hash(int offset, int length) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++)
+			h = fnv(h, this.buf.get(i));
+		return nonZero(h);
+	}
+
+	private int getHome(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & (this.indexCapacity - 1);
+	}
+
+	private long getHash(int slot) {
+		return this.index.getLong(slot * SLOT_SIZE);
+	}
+
+	private int getOffset(int slot) {
+		return this.index.getInt(slot * SLOT_SIZE + 8);
+	}
+
+	/* Returns the slot holding the key, or -(empty slot + 1) where it should
+	 * be inserted. The key is either keyBytes or, if null, the key stored at
+	 * keyOffset in the file. */
+	private int find(long hash, byte[] keyBytes, int keyOffset, int keyLength) {
+		for (int slot = this.getHome(hash);; slot = (slot + 1)
+				& (this.indexCapacity - 1)) {
+			long slotHash = this.getHash(slot);
+			if (slotHash == 0)
+				return -(slot + 1);
+			if (slotHash == hash
+					&& this.keyEquals(this.getOffset(slot), keyBytes,
+							keyOffset, keyLength))
+				return slot;
+		}
+	}
+
+	private boolean keyEquals(int offset, byte[] keyBytes, int keyOffset,
+			int keyLength) {
+		if (this.getKeyLength(offset) != keyLength)
+			return false;
+		for (int i = 0; i < keyLength; i++)
+			if (this.buf.get(offset + RECORD_HEADER_SIZE + i) != (keyBytes != null ? keyBytes[i]
+					: this.buf.get(keyOffset + i)))
+				return false;
+		return true;
+	}
+
+	private void putSlot(int slot, long hash, int offset) {
+		if (slot >= 0) {
+			this.garbage += this.getRecordLength(this.getOffset(slot));
+			this.index.putInt(slot * SLOT_SIZE + 8, offset);
+			return;
+		}
+		slot = -(slot + 1);
+		this.index.putLong(slot * SLOT_SIZE, hash);
+		this.index.putInt(slot * SLOT_SIZE + 8, offset);
+		if (++this.size > this.indexCapacity / 2)
+			this.resizeIndex(this.indexCapacity * 2);
+	}
+
+	// backward shift deletion for linear probing
+	private void removeSlot(int slot) {
+		if (slot < 0)
+			return;
+		this.garbage += this.getRecordLength(this.getOffset(slot));
+		int mask = this.indexCapacity - 1;
+		int hole = slot;
+		for (int next = (hole + 1) & mask;; next = (next + 1) & mask) {
+			long nextHash = this.getHash(next);
+			if (nextHash == 0)
+				break;
+			int home = this.getHome(nextHash);
+			// move next into the hole unless its home lies in (hole, next]
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				this.index.putLong(hole * SLOT_SIZE, nextHash);
+				this.index.putInt(hole * SLOT_SIZE + 8, this.getOffset(next));
+				hole = next;
+			}
+		}
+		this.index.putLong(hole * SLOT_SIZE, 0);
+		this.index.putInt(hole * SLOT_SIZE + 8, 0);
+		this.size--;
+	}
+
+	private void resizeIndex(int capacity) {
+		ByteBuffer prev = this.index;
+		int prevCapacity = this.indexCapacity;
+		int prevSize = this.size;
+		this.initIndex(capacity);
+		for (int slot = 0; slot < prevCapacity; slot++) {
+			long hash = prev.getLong(slot * SLOT_SIZE);
+			if (hash == 0)
+				continue;
+			int empty = this.getHome(hash);
+			while (this.getHash(empty) != 0)
+				empty = (empty + 1) & (capacity - 1);
+			this.index.putLong(empty * SLOT_SIZE, hash);
+			this.index.putInt(empty * SLOT_SIZE + 8,
+					prev.getInt(slot * SLOT_SIZE + 8));
+		}
+		this.size = prevSize;
+	}
+}
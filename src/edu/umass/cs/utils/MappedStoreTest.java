@@ -0,0 +1,321 @@
+package edu.umass.cs.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import edu.umass.cs.gigapaxos.paxospackets.PaxosPacket.PaxosPacketType;
+import edu.umass.cs.gigapaxos.paxosutil.Ballot;
+import edu.umass.cs.gigapaxos.paxosutil.HotRestoreInfo;
+import edu.umass.cs.gigapaxos.paxosutil.LogIndex;
+
+/**
+ * Test class for {@link MappedStore}.
+ */
+public class MappedStoreTest extends DefaultTest {
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+
+	private File dir;
+
+	/**
+	 * @throws IOException
+	 */
+	@Before
+	public void createDir() throws IOException {
+		this.dir = Files.createTempDirectory(
+				MappedStoreTest.class.getSimpleName()).toFile();
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void removeDir() {
+		Util.recursiveRemove(this.dir);
+	}
+
+	private MappedStore open() throws IOException {
+		return new MappedStore(this.dir + "/store", INITIAL_SIZE, false);
+	}
+
+	private static byte[] value(String key, int i) {
+		return (key + ":" + i).getBytes();
+	}
+
+	private static void assertContents(HashMap<String, byte[]> expected,
+			MappedStore store) {
+		Assert.assertEquals(expected.size(), store.size());
+		Assert.assertEquals(expected.keySet(), store.keySet());
+		for (String key : expected.keySet())
+			Assert.assertArrayEquals(expected.get(key), store.get(key));
+	}
+
+	/**
+	 * Random puts, overwrites and removes across several index resizes match a
+	 * HashMap before and after reopening.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testAgainstHashMap() throws IOException {
+		MappedStore store = this.open();
+		HashMap<String, byte[]> expected = new HashMap<String, byte[]>();
+		Random r = new Random(23);
+		for (int i = 0; i < 200000; i++) {
+			String key = "paxos" + r.nextInt(20000);
+			if (r.nextInt(3) == 0) {
+				Assert.assertEquals(expected.remove(key) != null,
+						store.remove(key));
+			} else {
+				byte[] value = value(key, i);
+				expected.put(key, value);
+				store.put(key, value);
+			}
+			if (i % 10000 == 0) {
+				Assert.assertEquals(expected.containsKey(key),
+						store.containsKey(key));
+				Assert.assertEquals(expected.size(), store.size());
+			}
+		}
+		Assert.assertNull(store.get("absent"));
+		Assert.assertFalse(store.remove("absent"));
+		// empty values are distinct from absent ones
+		store.put("empty", new byte[0]);
+		expected.put("empty", new byte[0]);
+		assertContents(expected, store);
+		store.close();
+
+		store = this.open();
+		assertContents(expected, store);
+		store.clear();
+		Assert.assertEquals(0, store.size());
+		store.put("after", value("after", 0));
+		store.close();
+
+		store = this.open();
+		Assert.assertEquals(1, store.size());
+		Assert.assertArrayEquals(value("after", 0), store.get("after"));
+		store.close();
+	}
+
+	/**
+	 * A partially written record at the tail is discarded upon reopening.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testTornTail() throws IOException {
+		MappedStore store = this.open();
+		store.put("a", value("a", 1));
+		store.put("b", value("b", 1));
+		long tail = store.getFileBytes();
+		store.close();
+
+		// length and key but wrong checksum
+		try (RandomAccessFile raf = new RandomAccessFile(this.dir + "/store",
+				"rw")) {
+			raf.seek(tail);
+			raf.writeInt(100);
+			raf.writeInt(0);
+			raf.write(new byte[] { 1, 0, 1, 'c' });
+		}
+		store = this.open();
+		Assert.assertEquals(2, store.size());
+		Assert.assertEquals(tail, store.getFileBytes());
+		store.put("c", value("c", 1));
+		store.close();
+
+		store = this.open();
+		Assert.assertEquals(3, store.size());
+		Assert.assertArrayEquals(value("c", 1), store.get("c"));
+		store.close();
+	}
+
+	/**
+	 * Compaction keeps only live records, both when invoked directly and in
+	 * the background once garbage exceeds half of the file.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCompaction() throws IOException, InterruptedException {
+		MappedStore store = this.open();
+		HashMap<String, byte[]> expected = new HashMap<String, byte[]>();
+		byte[] padding = new byte[100];
+		for (int i = 0; i < 1000; i++) {
+			String key = "paxos" + (i % 100);
+			byte[] value = Arrays.copyOf(value(key, i), padding.length);
+			expected.put(key, value);
+			store.put(key, value);
+		}
+		long before = store.getFileBytes();
+		store.compact();
+		Assert.assertTrue(store.getFileBytes() < before / 5);
+		Assert.assertEquals(store.getLiveBytes() + 8, store.getFileBytes());
+		assertContents(expected, store);
+
+		// background compaction
+		for (int i = 0; store.getFileBytes() < MappedStore.MIN_COMPACTION_SIZE; i++)
+			store.put("paxos" + (i % 100),
+					expected.get("paxos" + (i % 100)));
+		for (int i = 0; i < 100 && store.getFileBytes() >= MappedStore.MIN_COMPACTION_SIZE; i++)
+			Thread.sleep(50);
+		Assert.assertTrue(store.getFileBytes() < MappedStore.MIN_COMPACTION_SIZE);
+		assertContents(expected, store);
+		store.close();
+
+		store = this.open();
+		assertContents(expected, store);
+		store.close();
+	}
+
+	/**
+	 * Puts and removes made while live records are being copied, including
+	 * ones that grow the file, are neither lost nor resurrected by the
+	 * compaction.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCompactionWithConcurrentWrites() throws IOException,
+			InterruptedException {
+		final MappedStore store = this.open();
+		HashMap<String, byte[]> expected = new HashMap<String, byte[]>();
+		byte[] padding = new byte[100];
+		for (int i = 0; i < 20000; i++) {
+			String key = "paxos" + (i % 2000);
+			byte[] value = Arrays.copyOf(value(key, i), padding.length);
+			expected.put(key, value);
+			store.put(key, value);
+		}
+		final IOException[] failed = new IOException[1];
+		Thread compactor = new Thread() {
+			public void run() {
+				try {
+					store.compact();
+				} catch (IOException e) {
+					failed[0] = e;
+				}
+			}
+		};
+		compactor.start();
+		for (int i = 0; compactor.isAlive() || i < 10000; i++) {
+			String key = "paxos" + (i % 3000);
+			if (i % 5 == 0) {
+				expected.remove(key);
+				store.remove(key);
+			} else {
+				byte[] value = Arrays.copyOf(value(key, -i), padding.length);
+				expected.put(key, value);
+				store.put(key, value);
+			}
+		}
+		compactor.join();
+		Assert.assertNull(failed[0]);
+		assertContents(expected, store);
+		store.compact();
+		Assert.assertEquals(store.getLiveBytes() + 8, store.getFileBytes());
+		assertContents(expected, store);
+		store.close();
+
+		MappedStore reopened = this.open();
+		assertContents(expected, reopened);
+		reopened.close();
+	}
+
+	private static HotRestoreInfo makeHRI(String paxosID, int i) {
+		int[] members = { 1, 2, 3 };
+		return new HotRestoreInfo(paxosID, 0, members, i + 10, new Ballot(3,
+				1), i, new Ballot(3, 1), i + 11, new int[] { i, i, i });
+	}
+
+	private static LogIndex makeLogIndex(String paxosID, int i) {
+		LogIndex logIndex = new LogIndex(paxosID, 0);
+		logIndex.setGCSlot(i);
+		for (int slot = i + 1; slot <= i + 3; slot++)
+			logIndex.add(slot, 3, 1, PaxosPacketType.ACCEPT.getInt(),
+					"paxos_logs/logs1/log.1." + (i / 1000), 4096L * slot, 300);
+		return logIndex;
+	}
+
+	/**
+	 * Pauses and unpauses many instances, each with a paused state and a
+	 * logIndex, as SQLPaxosLogger does and prints pause and unpause rates and
+	 * the bytes used per paused instance.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testPauseUnpauseRate() throws IOException {
+		int n = 100 * 1000;
+		MappedStore hris = new MappedStore(this.dir + "/hri", INITIAL_SIZE,
+				false);
+		MappedStore logIndexes = new MappedStore(this.dir + "/logindex",
+				INITIAL_SIZE, false);
+		String[] paxosIDs = new String[n];
+		HotRestoreInfo[] paused = new HotRestoreInfo[n];
+		LogIndex[] pausedLogIndexes = new LogIndex[n];
+		for (int i = 0; i < n; i++) {
+			paused[i] = makeHRI(paxosIDs[i] = "paxos" + i, i);
+			pausedLogIndexes[i] = makeLogIndex(paxosIDs[i], i);
+		}
+
+		long t = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			logIndexes.put(paxosIDs[i], pausedLogIndexes[i].toBytes());
+			hris.put(paxosIDs[i], paused[i].toBytes());
+		}
+		long pauseNanos = System.nanoTime() - t;
+		long bytesPerInstance = (hris.getLiveBytes() + logIndexes
+				.getLiveBytes()) / n;
+		long indexBytesPerInstance = (hris.getIndexBytes() + logIndexes
+				.getIndexBytes()) / n;
+
+		t = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			HotRestoreInfo hri = new HotRestoreInfo(ByteBuffer.wrap(hris
+					.get(paxosIDs[i])));
+			LogIndex logIndex = new LogIndex(ByteBuffer.wrap(logIndexes
+					.get(paxosIDs[i])));
+			hris.remove(paxosIDs[i]);
+			Assert.assertEquals(paused[i].toString(), hri.toString());
+			Assert.assertEquals(pausedLogIndexes[i].version, logIndex.version);
+		}
+		long unpauseNanos = System.nanoTime() - t;
+		Assert.assertEquals(0, hris.size());
+		hris.close();
+		logIndexes.close();
+
+		System.out.print("pause_rate=" + (n * 1000000000L / pauseNanos)
+				+ "/s; unpause_rate=" + (n * 1000000000L / unpauseNanos)
+				+ "/s; bytes_per_instance=" + bytesPerInstance
+				+ "B on disk + " + indexBytesPerInstance + "B off-heap index ");
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(MappedStoreTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
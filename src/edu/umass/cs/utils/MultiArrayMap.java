@@ -3,12 +3,13 @@ package edu.umass.cs.utils;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +37,15 @@ import org.junit.runner.notification.Failure;
  *            return concurrently removed elements any time after they have been
  *            removed. This non-fail-fast iterator is useful for doing an
  *            "approximate" sweep over the entire map.
+ *            <p>
+ * 
+ *            Lookups are lock-free: array slots are read with volatile
+ *            semantics and the cop out map is a {@link ConcurrentHashMap}.
+ *            Modifications are serialized on the map. A put never relocates
+ *            an existing value, so a key is present in at most one slot at
+ *            any time and a lookup need not be retried. Lookups compare keys
+ *            using {@link Keyable#keyEquals(Object)}, so values that store
+ *            their keys compactly need not materialize them upon every probe.
  */
 
 public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
@@ -44,10 +54,10 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	private static final int LEVELS = 6;
 	private final int arraySize;
 	// private final int levels;
-	private Object[][] aMap;
-	private BitSet[] bitsets;
-	private HashMap<K, V> hMap;
-	private int size = 0;
+	private final AtomicReferenceArray<Object>[] aMap;
+	private final BitSet[] bitsets;
+	private final ConcurrentHashMap<K, V> hMap;
+	private volatile int size = 0;
 	private int modCount = 0;
 
 	private static Logger log = Logger.getLogger(MultiArrayMap.class.getName());
@@ -58,16 +68,19 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 */
 	public MultiArrayMap(int size, int levels) {
 		this.arraySize = size;
-		aMap = new Object[levels][];
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		AtomicReferenceArray<Object>[] arrays = new AtomicReferenceArray[levels];
+		aMap = arrays;
 		bitsets = new BitSet[levels];
 		double sizeFactor = 1;
 		for (int i = 0; i < levels; i++) {
-			aMap[i] = new Object[(int) (sizeFactor * this.arraySize)];
+			aMap[i] = new AtomicReferenceArray<Object>(
+					(int) (sizeFactor * this.arraySize));
 			bitsets[i] = new BitSet((int) (sizeFactor * this.arraySize));
 			sizeFactor *= SHRINKAGE;
 		}
 		// cop out map
-		hMap = new HashMap<K, V>();
+		hMap = new ConcurrentHashMap<K, V>();
 
 	}
 
@@ -86,39 +99,40 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	}
 
 	/**
+	 * Overwrites the value in place if {@code key} is already present, else
+	 * inserts it into the first free slot or the cop out map.
+	 * 
 	 * @param key
 	 * @param value
 	 */
 	@SuppressWarnings("unchecked")
 	public synchronized V put(K key, V value) {
 		assert (key.equals(value.getKey())) : key + " != " + value.getKey();
-		boolean inserted = false;
-		int level = 0;
-		V prev = null;
-		for (Object[] array : this.aMap) {
+		int freeLevel = -1, freeIndex = -1;
+		for (int level = 0; level < this.aMap.length; level++) {
+			AtomicReferenceArray<Object> array = this.aMap[level];
 			int index = getHashIndex(key, array);
-			if (array[index] == null
-					|| (array[index] instanceof Keyable<?> && key
-							.equals(((Keyable<?>) array[index]).getKey()))) {
-				if (array[index] == null)
-					size++;
-				else
-					log.log(Level.FINE, "{0} overwrote {1} in [{2},{3}]",
-							new Object[] { this, value, level, index });
-				prev = (V) (array[index]);
-				array[index] = value;
-				bitsets[level].set(index);
-				inserted = true;
+			Object cur = array.get(index);
+			if (cur == null) {
+				if (freeLevel == -1) {
+					freeLevel = level;
+					freeIndex = index;
+				}
+			} else if (keyEquals(key, cur)) {
+				log.log(Level.FINE, "{0} overwrote {1} in [{2},{3}]",
+						new Object[] { this, value, level, index });
+				array.set(index, value);
 				modCount++;
-				break;
+				return (V) cur;
 			}
-			level++;
 		}
-		if (!inserted) {
-			prev = hMap.put(key, value);
-			inserted = true;
-		}
-		return prev;
+		modCount++;
+		if (freeLevel == -1 || this.hMap.containsKey(key))
+			return hMap.put(key, value);
+		this.aMap[freeLevel].set(freeIndex, value);
+		bitsets[freeLevel].set(freeIndex);
+		size++;
+		return null;
 	}
 
 	/**
@@ -126,25 +140,20 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 * @return The value to which the key maps.
 	 */
 	@SuppressWarnings("unchecked")
-	public synchronized V get(Object key) {
-		Object[] array = getArray(key);
-		int index = getIndex(key, array);
-		assert (index == -1 || array[index] != null);
-
-		V foundValue = null;
-		if (index >= 0) {
-			foundValue = (V) array[index];
-		} else {
-			foundValue = this.hMap.get(key);
+	public V get(Object key) {
+		for (AtomicReferenceArray<Object> array : this.aMap) {
+			Object value = array.get(getHashIndex(key, array));
+			if (value != null && keyEquals(key, value))
+				return (V) value;
 		}
-		return foundValue;
+		return this.hMap.get(key);
 	}
 
 	/**
 	 * @param key
 	 * @return True if key is present.
 	 */
-	public synchronized boolean containsKey(Object key) {
+	public boolean containsKey(Object key) {
 		return (key != null && get(key) != null);
 	}
 
@@ -152,7 +161,7 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 * @param value
 	 * @return True if value present.
 	 */
-	public synchronized boolean containsValue(Object value) {
+	public boolean containsValue(Object value) {
 		V key = null;
 		return ( value != null && (value instanceof Keyable<?>) 
 				&& (key=get(((Keyable<?>) value).getKey()) ) != null
@@ -163,43 +172,34 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 * @param key
 	 * @return Previous value if any.
 	 */
+	@SuppressWarnings("unchecked")
 	public synchronized V remove(Object key) {
-
-		V value = get(key);
-		if (value == null)
-			return null;
-
 		int level = this.getLevel(key);
-		int index = -1;
-		Object[] array = null;
+		V value = null;
 		if (level >= 0) {
-			array = this.getArray(key);
-			index = getIndex(key, array);
-		}
-		assert (index == -1 || array[index] != null);
-
-		if (index >= 0) {
-			array[index] = null;
+			AtomicReferenceArray<Object> array = this.aMap[level];
+			int index = getHashIndex(key, array);
+			value = (V) array.getAndSet(index, null);
 			this.bitsets[level].clear(index);
-		} else
-			this.hMap.remove(key);
+			this.size--;
+		} else if ((value = this.hMap.remove(key)) == null)
+			return null;
 
 		modCount++;
-		this.size--;
 		return value;
 	}
 
 	/**
 	 * @return The size.
 	 */
-	public synchronized int size() {
+	public int size() {
 		return this.size + this.hMap.size();
 	}
 
 	/**
 	 * @return The hashmap size.
 	 */
-	public synchronized int hashmapSize() {
+	public int hashmapSize() {
 		return this.hMap.size();
 	}
 
@@ -207,13 +207,14 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 * Resets the map.
 	 */
 	public synchronized void clear() {
-		for (Object[] array : this.aMap)
-			for (int i = 0; i < array.length; i++)
-				array[i] = null;
+		for (AtomicReferenceArray<Object> array : this.aMap)
+			for (int i = 0; i < array.length(); i++)
+				array.set(i, null);
 		this.hMap.clear();
 		for (BitSet bitset : this.bitsets)
 			bitset.clear();
 		this.size = 0;
+		modCount++;
 	}
 
 	@Override
@@ -346,7 +347,7 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 
 			@Override
 			public int size() {
-				return MultiArrayMap.this.size;
+				return MultiArrayMap.this.size();
 			}
 
 			@Override
@@ -607,15 +608,19 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 
 	@Override
 	public synchronized boolean remove(Object key, Object value) {
-		if (this.get(key).equals(value))
+		V cur = this.get(key);
+		if (cur != null && cur.equals(value))
 			return this.remove(key) != null;
 		return false;
 	}
 
 	@Override
-	public boolean replace(K key, V oldValue, V newValue) {
-		if (this.get(key).equals(oldValue))
-			return this.put(key, newValue) != null;
+	public synchronized boolean replace(K key, V oldValue, V newValue) {
+		V cur = this.get(key);
+		if (cur != null && cur.equals(oldValue)) {
+			this.put(key, newValue);
+			return true;
+		}
 		return false;
 	}
 
@@ -633,51 +638,33 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 	 */
 	@Override
 	public synchronized V putIfAbsent(K key, V value) {
-		if (this.containsKey(key))
-			return this.get(key);
+		V cur = this.get(key);
+		if (cur != null)
+			return cur;
 		this.put(key, value);
 		return null;
 	}
 
-	private synchronized Object[] getArray(Object key) {
-		Object[] foundArray = null;
-		for (Object[] array : this.aMap) {
-			int index = getIndex(key, array);
-			if (index >= 0) {
-				foundArray = array;
-				break;
-			}
-		}
-		return foundArray;
-	}
-
-	private synchronized int getLevel(Object key) {
+	private int getLevel(Object key) {
 		for (int i = 0; i < aMap.length; i++) {
-			int index = getIndex(key, aMap[i]);
-			if (index >= 0) {
+			Object value = aMap[i].get(getHashIndex(key, aMap[i]));
+			if (value != null && keyEquals(key, value))
 				return i;
-			}
 		}
 		return -1;
 	}
 
-	private synchronized int getIndex(Object key, Object[] array) {
-		int foundIndex = -1;
-		if (array != null) {
-			int index = getHashIndex(key, array);
-			if (array[index] != null && array[index] instanceof Keyable<?>
-					&& key.equals(((Keyable<?>) array[index]).getKey())) {
-				foundIndex = index;
-			}
-		}
-		return foundIndex;
+	private static boolean keyEquals(Object key, Object value) {
+		return value instanceof Keyable<?>
+				&& ((Keyable<?>) value).keyEquals(key);
 	}
 
-	private synchronized int getHashIndex(Object key, Object[] array) {
+	private static int getHashIndex(Object key,
+			AtomicReferenceArray<Object> array) {
 		int hash = key.hashCode();
-		int index = hash % array.length;
+		int index = hash % array.length();
 		if (index < 0)
-			index += array.length;
+			index += array.length();
 		return index;
 	}
 
@@ -736,7 +723,7 @@ public class MultiArrayMap<K, V extends Keyable<K>> implements Iterable<V>,
 			for (; level < MultiArrayMap.this.aMap.length; level++) {
 				index = bitsets[level].nextSetBit(index + 1);
 				if (index >= 0)
-					return last = (V) aMap[level][index];
+					return last = (V) aMap[level].get(index);
 				else
 					assert (index == -1);
 			}
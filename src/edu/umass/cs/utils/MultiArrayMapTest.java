@@ -1,7 +1,11 @@
 package edu.umass.cs.utils;
 
 import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
@@ -106,6 +110,136 @@ public class MultiArrayMapTest extends DefaultTest {
 
 	}
 
+	/**
+	 * A key moved to a deeper level by a collision is overwritten in place
+	 * even after the slot above it is freed, so it is never duplicated.
+	 */
+	@Test
+	public void testPutOverwritesExistingKey() {
+		// levels of length 2 and 1; "0", "2", "4", "6" collide in both
+		MultiArrayMap<String, StringValue<Integer>> map = new MultiArrayMap<String, StringValue<Integer>>(
+				2, 2);
+		map.put("0", new StringValue<Integer>("0", 0));
+		map.put("2", new StringValue<Integer>("2", 2));
+		Assert.assertEquals(0, (int) map.remove("0").value);
+		Assert.assertEquals(2,
+				(int) map.put("2", new StringValue<Integer>("2", 3)).value);
+		Assert.assertEquals(1, map.size());
+		Assert.assertNull(map.remove("0"));
+
+		map.put("4", new StringValue<Integer>("4", 4));
+		map.put("6", new StringValue<Integer>("6", 6));
+		Assert.assertEquals(1, map.hashmapSize());
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals(6,
+				(int) map.putIfAbsent("6", new StringValue<Integer>("6", 7)).value);
+		Assert.assertFalse(map.remove("0", new StringValue<Integer>("0", 0)));
+		Assert.assertEquals(6, (int) map.remove("6").value);
+		Assert.assertEquals(3, (int) map.get("2").value);
+		Assert.assertEquals(2, map.size());
+	}
+
+	/**
+	 * Keyable with a compact key like {@code PaxosInstanceStateMachine}.
+	 */
+	static class BytesValue implements Keyable<String> {
+		final byte[] key;
+		final int value;
+
+		BytesValue(String key, int value) {
+			this.key = key.getBytes();
+			this.value = value;
+		}
+
+		public String getKey() {
+			return new String(this.key);
+		}
+
+		public boolean keyEquals(Object key) {
+			return key instanceof String && Util.equals((String) key, this.key);
+		}
+	}
+
+	private static long usedMemory() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return Runtime.getRuntime().totalMemory()
+				- Runtime.getRuntime().freeMemory();
+	}
+
+	/**
+	 * Looks up random paxos instances among 2 million from 32 threads while
+	 * another thread concurrently removes and re-inserts a small fraction of
+	 * them, and prints the lookup rate and the bytes used per instance.
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentLookups() throws InterruptedException {
+		final int n = 2 * 1000 * 1000, numThreads = 32, lookups = 500 * 1000;
+		final String[] paxosIDs = new String[n];
+		for (int i = 0; i < n; i++)
+			paxosIDs[i] = "paxos" + i;
+
+		long used = usedMemory();
+		BytesValue[] values = new BytesValue[n];
+		for (int i = 0; i < n; i++)
+			values[i] = new BytesValue(paxosIDs[i], i);
+		long valueBytes = usedMemory() - used;
+		final MultiArrayMap<String, BytesValue> map = new MultiArrayMap<String, BytesValue>(
+				n);
+		for (int i = 0; i < n; i++)
+			map.put(paxosIDs[i], values[i]);
+		long mapBytes = usedMemory() - used - valueBytes;
+		Assert.assertEquals(n, map.size());
+
+		// churns instances with ids divisible by 100
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		Thread churner = new Thread(new Runnable() {
+			public void run() {
+				Random r = new Random(0);
+				while (!stop.get()) {
+					int i = r.nextInt(n / 100) * 100;
+					map.remove(paxosIDs[i]);
+					map.put(paxosIDs[i], values[i]);
+				}
+			}
+		});
+		churner.start();
+
+		final AtomicLong errors = new AtomicLong(0);
+		Thread[] readers = new Thread[numThreads];
+		long t = System.nanoTime();
+		for (int j = 0; j < numThreads; j++) {
+			final int seed = j;
+			(readers[j] = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(seed);
+					for (int k = 0; k < lookups; k++) {
+						int i = r.nextInt(n);
+						BytesValue value = map.get(paxosIDs[i]);
+						if (i % 100 != 0 ? value == null || value.value != i
+								: value != null && value.value != i)
+							errors.incrementAndGet();
+					}
+				}
+			})).start();
+		}
+		for (Thread reader : readers)
+			reader.join();
+		long nanos = System.nanoTime() - t;
+		stop.set(true);
+		churner.join();
+
+		Assert.assertEquals(0, errors.get());
+		Assert.assertEquals(n, map.size());
+		System.out.print("lookup_rate=" + (numThreads * (long) lookups
+				* 1000000000L / nanos) + "/s; bytes_per_instance="
+				+ mapBytes / n + "B in map + " + valueBytes / n
+				+ "B per value with key; cop-out hashmap size = "
+				+ map.hashmapSize() + " ");
+	}
+
 	/**
 	 * @param args
 	 */
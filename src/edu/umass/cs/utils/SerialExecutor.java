@@ -0,0 +1,87 @@
+package edu.umass.cs.utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * @author arun
+ *
+ *         An executor that runs submitted tasks one at a time in submission
+ *         order on a shared pool. Many serial executors can share a small
+ *         pool, so a slow task delays only the tasks submitted to the same
+ *         serial executor. At most one pool task is outstanding per serial
+ *         executor at any time, and it yields its pool thread after
+ *         {@link #MAX_TASKS_PER_RUN} tasks so that busy serial executors do
+ *         not starve others.
+ *
+ *         An exception thrown by a task is logged and does not prevent
+ *         subsequent tasks from running.
+ */
+public class SerialExecutor implements Executor {
+	/**
+	 * Maximum number of tasks run back to back before the pool thread is
+	 * relinquished.
+	 */
+	public static final int MAX_TASKS_PER_RUN = 64;
+
+	private static final Logger log = Logger.getLogger(SerialExecutor.class
+			.getName());
+
+	private final Executor pool;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	// submitted but not yet completed tasks
+	private final AtomicInteger pending = new AtomicInteger(0);
+
+	private final Runnable drainer = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * @param pool
+	 */
+	public SerialExecutor(Executor pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		this.tasks.add(task);
+		// the submitter that finds nothing pending schedules the drainer
+		if (this.pending.getAndIncrement() == 0)
+			this.pool.execute(this.drainer);
+	}
+
+	/**
+	 * @return The number of submitted tasks that have not yet completed,
+	 *         including the one running, if any.
+	 */
+	public int getPending() {
+		return this.pending.get();
+	}
+
+	private void drain() {
+		for (int count = 1;; count++) {
+			// non-null because pending is incremented after adding
+			Runnable task = this.tasks.poll();
+			try {
+				task.run();
+			} catch (RuntimeException | Error e) {
+				log.log(Level.SEVERE, "{0} encountered {1} while running {2}",
+						new Object[] { this, e, task });
+				e.printStackTrace();
+			}
+			if (this.pending.decrementAndGet() == 0)
+				return;
+			if (count >= MAX_TASKS_PER_RUN) {
+				this.pool.execute(this.drainer);
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Test class for {@link SerialExecutor}.
+ */
+public class SerialExecutorTest extends DefaultTest {
+
+	/**
+	 * Tasks submitted to each of many serial executors sharing a pool run one
+	 * at a time in submission order, and a failing task does not stall later
+	 * ones.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testOrder() throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(3);
+		final int numExecutors = 10, numTasks = 10000;
+		SerialExecutor[] executors = new SerialExecutor[numExecutors];
+		final int[] next = new int[numExecutors];
+		final AtomicInteger errors = new AtomicInteger(0);
+		final AtomicInteger running = new AtomicInteger(0);
+		for (int i = 0; i < numExecutors; i++)
+			executors[i] = new SerialExecutor(pool);
+		for (int j = 0; j < numTasks; j++)
+			for (int i = 0; i < numExecutors; i++) {
+				final int executor = i, task = j;
+				executors[i].execute(new Runnable() {
+					@Override
+					public void run() {
+						// at most one task of an executor runs at a time
+						if (running.incrementAndGet() > numExecutors
+								|| next[executor]++ != task)
+							errors.incrementAndGet();
+						running.decrementAndGet();
+						if (task == numTasks / 2)
+							throw new RuntimeException("task " + task
+									+ " failed as expected");
+					}
+				});
+			}
+		for (SerialExecutor executor : executors)
+			while (executor.getPending() > 0)
+				Thread.sleep(10);
+		pool.shutdown();
+		Assert.assertTrue(pool.awaitTermination(1, TimeUnit.SECONDS));
+		Assert.assertEquals(0, errors.get());
+		for (int i = 0; i < numExecutors; i++)
+			Assert.assertEquals(numTasks, next[i]);
+	}
+
+	private static long[] deliver(int numGroups, int rounds,
+			final long slowMillis, SerialExecutor[] executors)
+			throws InterruptedException {
+		final long[] latencies = new long[(numGroups - 1) * rounds];
+		final AtomicInteger count = new AtomicInteger(0);
+		long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			// decisions arrive every millisecond unless delivery is behind
+			final long arrival = start + round * 1000 * 1000;
+			while (System.nanoTime() < arrival)
+				Thread.sleep(0, 100 * 1000);
+			for (int group = 0; group < numGroups; group++) {
+				final int slow = group;
+				Runnable execution = new Runnable() {
+					@Override
+					public void run() {
+						if (slow == 0)
+							try {
+								Thread.sleep(slowMillis);
+							} catch (InterruptedException e) {
+								e.printStackTrace();
+							}
+						else
+							latencies[count.getAndIncrement()] = System
+									.nanoTime() - arrival;
+					}
+				};
+				if (executors == null)
+					execution.run();
+				else
+					executors[group].execute(execution);
+			}
+		}
+		if (executors != null)
+			for (SerialExecutor executor : executors)
+				while (executor.getPending() > 0)
+					Thread.sleep(1);
+		Assert.assertEquals(latencies.length, count.get());
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	private static String percentiles(long[] sorted) {
+		ArrayList<String> list = new ArrayList<String>();
+		for (double p : new double[] { 0.5, 0.99 })
+			list.add("p" + (int) (p * 100) + "="
+					+ Util.df(sorted[(int) (p * (sorted.length - 1))] / 1000.0)
+					+ "us");
+		return list.toString();
+	}
+
+	/**
+	 * Decisions of many groups are delivered by a single thread while one
+	 * group's executions are slow, and prints the arrival-to-execution
+	 * latency of the other groups' decisions when the delivering thread
+	 * executes them itself and when they are handed off to per-group serial
+	 * executors on a shared pool.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSlowGroupLatency() throws InterruptedException {
+		int numGroups = 20, rounds = 100;
+		long slowMillis = 10;
+		long[] inline = deliver(numGroups, rounds, slowMillis, null);
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		SerialExecutor[] executors = new SerialExecutor[numGroups];
+		for (int i = 0; i < numGroups; i++)
+			executors[i] = new SerialExecutor(pool);
+		long[] pipelined = deliver(numGroups, rounds, slowMillis, executors);
+		pool.shutdown();
+
+		Assert.assertTrue(pipelined[(int) (0.99 * (pipelined.length - 1))] < inline[(int) (0.99 * (inline.length - 1))]);
+		System.out.print("inline " + percentiles(inline) + "; pipelined "
+				+ percentiles(pipelined) + " ");
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(SerialExecutorTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
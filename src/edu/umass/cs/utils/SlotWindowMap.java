@@ -0,0 +1,338 @@
+package edu.umass.cs.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * @author arun
+ * @param <ValueType>
+ *
+ *            A map from int slot numbers to values meant for the dense,
+ *            mostly increasing slot numbers used by paxos. It maintains a
+ *            circular array indexed by the low-order bits of the slot that
+ *            covers the window [{@link #firstKey()}, {@link #lastKey()}] and
+ *            grows (or shrinks) by powers of two as the window changes. Slots
+ *            are neither boxed nor wrapped in map entries, and all slot
+ *            comparisons use wraparound-aware arithmetic.
+ *
+ *            Like {@link NullIfEmptyMap}, the array is allocated lazily and
+ *            is null when the map is empty, so an empty map takes only a few
+ *            bytes. Its memory is proportional to the span of slots in the
+ *            window rather than to the number of slots present, so the span
+ *            is capped. Slots that would stretch the window beyond the cap,
+ *            e.g., a decision far ahead of a lagging replica, are kept in a
+ *            small sparse overflow map instead and move into the window once
+ *            it catches up. This is fine for paxos as a replica that falls
+ *            far behind catches up using a checkpoint instead of accumulating
+ *            decisions.
+ *
+ *            Null values are not supported; putting a null value is the same
+ *            as removing the slot.
+ */
+public class SlotWindowMap<ValueType> {
+	private static final int MIN_CAPACITY = 4;
+
+	/**
+	 * Default maximum span of the window.
+	 */
+	public static final int DEFAULT_MAX_SPAN = 1 << 16;
+
+	// wraparound-aware, so consistent for any set of slots spanning < 2^31
+	private static final Comparator<Integer> SLOT_ORDER = new Comparator<Integer>() {
+		@Override
+		public int compare(Integer s1, Integer s2) {
+			return Integer.signum(s1 - s2);
+		}
+	};
+
+	private final int maxSpan;
+	private Object[] window = null;
+	private int base; // lowest slot in the window
+	private int end; // one more than the highest slot in the window
+	// slots outside the window, null if none
+	private TreeMap<Integer, ValueType> overflow = null;
+
+	/**
+	 * A map whose window spans at most {@link #DEFAULT_MAX_SPAN} slots.
+	 */
+	public SlotWindowMap() {
+		this(DEFAULT_MAX_SPAN);
+	}
+
+	/**
+	 * @param maxSpan
+	 *            Maximum number of consecutive slots covered by the window.
+	 */
+	public SlotWindowMap(int maxSpan) {
+		if (maxSpan < MIN_CAPACITY)
+			throw new IllegalArgumentException("Maximum span " + maxSpan
+					+ " less than " + MIN_CAPACITY);
+		this.maxSpan = maxSpan;
+	}
+
+	private int index(int slot) {
+		return slot & (this.window.length - 1);
+	}
+
+	private boolean inWindow(int slot) {
+		return this.window != null && slot - this.base >= 0
+				&& slot - this.end < 0;
+	}
+
+	/**
+	 * @param slot
+	 * @param value
+	 */
+	public synchronized void put(int slot, ValueType value) {
+		if (value == null) {
+			this.remove(slot);
+			return;
+		}
+		if (this.inWindow(slot))
+			this.window[this.index(slot)] = value;
+		else if (this.fits(slot)) {
+			if (this.overflow != null)
+				this.removeOverflow(slot);
+			this.putWindow(slot, value);
+			// the window may now cover overflow slots
+			this.absorb();
+		} else
+			(this.overflow != null ? this.overflow
+					: (this.overflow = new TreeMap<Integer, ValueType>(
+							SLOT_ORDER))).put(slot, value);
+	}
+
+	// true if the window can be stretched to cover slot
+	private boolean fits(int slot) {
+		if (this.window == null)
+			return true;
+		int newBase = slot - this.base < 0 ? slot : this.base;
+		int newEnd = slot - this.end >= 0 ? slot + 1 : this.end;
+		return newEnd - newBase > 0 && newEnd - newBase <= this.maxSpan;
+	}
+
+	// requires fits(slot)
+	private void putWindow(int slot, Object value) {
+		if (this.window == null) {
+			this.window = new Object[MIN_CAPACITY];
+			this.base = slot;
+			this.end = slot + 1;
+		} else {
+			int newBase = slot - this.base < 0 ? slot : this.base;
+			int newEnd = slot - this.end >= 0 ? slot + 1 : this.end;
+			if (newEnd - newBase > this.window.length)
+				this.resize(newEnd - newBase);
+			this.base = newBase;
+			this.end = newEnd;
+		}
+		this.window[this.index(slot)] = value;
+	}
+
+	private ValueType removeOverflow(int slot) {
+		ValueType value = this.overflow.remove(slot);
+		if (this.overflow.isEmpty())
+			this.overflow = null;
+		return value;
+	}
+
+	/* Moves overflow slots that now fit into the window, e.g., after it
+	 * emptied or moved ahead. */
+	private void absorb() {
+		if (this.overflow == null)
+			return;
+		for (Iterator<Map.Entry<Integer, ValueType>> iter = this.overflow
+				.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, ValueType> entry = iter.next();
+			if (this.fits(entry.getKey())) {
+				this.putWindow(entry.getKey(), entry.getValue());
+				iter.remove();
+			}
+		}
+		if (this.overflow.isEmpty())
+			this.overflow = null;
+	}
+
+	/**
+	 * @param slot
+	 * @return The value for the slot.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized ValueType get(int slot) {
+		return this.inWindow(slot) ? (ValueType) this.window[this
+				.index(slot)] : this.overflow != null ? this.overflow
+				.get(slot) : null;
+	}
+
+	/**
+	 * @param slot
+	 * @return The value removed.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized ValueType remove(int slot) {
+		if (!this.inWindow(slot))
+			return this.overflow != null ? this.removeOverflow(slot) : null;
+		int i = this.index(slot);
+		ValueType value = (ValueType) this.window[i];
+		this.window[i] = null;
+		if (value != null)
+			this.trim();
+		return value;
+	}
+
+	/**
+	 * Removes all slots less than or equal to {@code slot}.
+	 *
+	 * @param slot
+	 */
+	public synchronized void removeUpTo(int slot) {
+		if (this.overflow != null) {
+			this.overflow.headMap(slot, true).clear();
+			if (this.overflow.isEmpty())
+				this.overflow = null;
+		}
+		if (this.window == null)
+			return;
+		int s = this.base;
+		for (; s - slot <= 0 && s - this.end < 0; s++)
+			this.window[this.index(s)] = null;
+		this.base = s;
+		this.trim();
+	}
+
+	/**
+	 * @param slot
+	 * @return True if slot present.
+	 */
+	public synchronized boolean containsKey(int slot) {
+		return this.get(slot) != null;
+	}
+
+	/**
+	 * @return The lowest slot present or null if empty.
+	 */
+	public synchronized Integer firstKey() {
+		if (this.window == null)
+			return null;
+		return this.overflow != null
+				&& this.overflow.firstKey() - this.base < 0 ? this.overflow
+				.firstKey() : this.base;
+	}
+
+	/**
+	 * @return The highest slot present or null if empty.
+	 */
+	public synchronized Integer lastKey() {
+		if (this.window == null)
+			return null;
+		return this.overflow != null
+				&& this.overflow.lastKey() - this.end >= 0 ? this.overflow
+				.lastKey() : this.end - 1;
+	}
+
+	/**
+	 * @return The slots present in increasing order. The returned set is a
+	 *         copy.
+	 */
+	public synchronized Set<Integer> keySet() {
+		return this.getOrderedMap().keySet();
+	}
+
+	/**
+	 * @return The values in increasing slot order. The returned collection is
+	 *         a copy.
+	 */
+	public synchronized List<ValueType> values() {
+		return new ArrayList<ValueType>(this.getOrderedMap().values());
+	}
+
+	/**
+	 * @return A copy of the map.
+	 */
+	public synchronized TreeMap<Integer, ValueType> getMap() {
+		return new TreeMap<Integer, ValueType>(this.getOrderedMap());
+	}
+
+	// in wraparound-aware slot order
+	@SuppressWarnings("unchecked")
+	private Map<Integer, ValueType> getOrderedMap() {
+		Map<Integer, ValueType> map = new LinkedHashMap<Integer, ValueType>();
+		// the window is never empty while the overflow map is not
+		if (this.window == null)
+			return map;
+		if (this.overflow != null)
+			map.putAll(this.overflow.headMap(this.base));
+		for (int s = this.base; s - this.end < 0; s++)
+			if (this.window[this.index(s)] != null)
+				map.put(s, (ValueType) this.window[this.index(s)]);
+		if (this.overflow != null)
+			map.putAll(this.overflow.tailMap(this.end));
+		return map;
+	}
+
+	/**
+	 * @return Number of slots present.
+	 */
+	public synchronized int size() {
+		int size = this.overflow != null ? this.overflow.size() : 0;
+		if (this.window != null)
+			for (int s = this.base; s - this.end < 0; s++)
+				if (this.window[this.index(s)] != null)
+					size++;
+		return size;
+	}
+
+	/**
+	 * @return True if empty.
+	 */
+	public synchronized boolean isEmpty() {
+		return this.window == null;
+	}
+
+	/**
+	 * Empties the map.
+	 */
+	public synchronized void clear() {
+		this.window = null;
+		this.overflow = null;
+	}
+
+	/*
+	 * Shrinks the window to the lowest and highest slots present, discarding
+	 * the array if the map is empty and halving it if it is mostly unused.
+	 */
+	private void trim() {
+		while (this.base - this.end < 0
+				&& this.window[this.index(this.base)] == null)
+			this.base++;
+		while (this.end - this.base > 0
+				&& this.window[this.index(this.end - 1)] == null)
+			this.end--;
+		if (this.base == this.end)
+			this.window = null;
+		else if (this.window.length > MIN_CAPACITY
+				&& this.end - this.base <= this.window.length / 4)
+			// leave room to grow
+			this.resize(Math.min(2 * (this.end - this.base), this.maxSpan));
+		this.absorb();
+	}
+
+	private void resize(int span) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < span)
+			capacity <<= 1;
+		Object[] resized = new Object[capacity];
+		for (int s = this.base; s - this.end < 0; s++)
+			resized[s & (capacity - 1)] = this.window[this.index(s)];
+		this.window = resized;
+	}
+
+	public synchronized String toString() {
+		return this.getMap().toString();
+	}
+}
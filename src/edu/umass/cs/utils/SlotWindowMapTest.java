@@ -0,0 +1,185 @@
+package edu.umass.cs.utils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * @author arun
+ *
+ *         Tests {@link SlotWindowMap}.
+ */
+public class SlotWindowMapTest extends DefaultTest {
+
+	/**
+	 * Puts, removes, and garbage collection across the int wraparound
+	 * boundary.
+	 */
+	@Test
+	public void testWraparound() {
+		SlotWindowMap<String> map = new SlotWindowMap<String>();
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertNull(map.lastKey());
+
+		int start = Integer.MAX_VALUE - 10;
+		for (int i = 0; i < 20; i++)
+			map.put(start + i, "v" + i);
+		Assert.assertEquals(20, map.size());
+		Assert.assertEquals(start, (int) map.firstKey());
+		Assert.assertEquals(start + 19, (int) map.lastKey());
+		Assert.assertEquals("v15", map.get(start + 15));
+		Assert.assertNull(map.get(start + 20));
+		Assert.assertNull(map.get(start - 1));
+
+		// in slot order despite the wraparound
+		int i = 0;
+		for (String value : map.values())
+			Assert.assertEquals("v" + i++, value);
+
+		map.removeUpTo(start + 14);
+		Assert.assertEquals(5, map.size());
+		Assert.assertEquals(start + 15, (int) map.firstKey());
+		Assert.assertNull(map.get(start + 14));
+
+		Assert.assertEquals("v19", map.remove(start + 19));
+		Assert.assertEquals(start + 18, (int) map.lastKey());
+		map.removeUpTo(start + 100);
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertEquals(0, map.size());
+	}
+
+	/**
+	 * Random operations on a window of slots compared against a TreeMap.
+	 */
+	@Test
+	public void testAgainstTreeMap() {
+		testAgainstTreeMap(new SlotWindowMap<Integer>(), 200);
+	}
+
+	/**
+	 * Random operations on slots spread wider than the maximum window span,
+	 * so many of them go to the overflow map, compared against a TreeMap.
+	 */
+	@Test
+	public void testOverflowAgainstTreeMap() {
+		testAgainstTreeMap(new SlotWindowMap<Integer>(16), 200);
+	}
+
+	private static void testAgainstTreeMap(SlotWindowMap<Integer> map,
+			int range) {
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		Random r = new Random(1);
+		int base = 1000;
+		for (int i = 0; i < 100000; i++) {
+			int slot = base + r.nextInt(range);
+			switch (r.nextInt(4)) {
+			case 0:
+			case 1:
+				map.put(slot, i);
+				expected.put(slot, i);
+				break;
+			case 2:
+				Assert.assertEquals(expected.remove(slot), map.remove(slot));
+				break;
+			case 3:
+				map.removeUpTo(base);
+				for (Iterator<Integer> iter = expected.keySet().iterator(); iter
+						.hasNext();)
+					if (iter.next() <= base)
+						iter.remove();
+				base += r.nextInt(50);
+				break;
+			}
+			Assert.assertEquals(expected.get(slot), map.get(slot));
+			Assert.assertEquals(expected.isEmpty(), map.isEmpty());
+			Assert.assertEquals(expected.size(), map.size());
+			if (!expected.isEmpty()) {
+				Assert.assertEquals(expected.firstKey(), map.firstKey());
+				Assert.assertEquals(expected.lastKey(), map.lastKey());
+			}
+		}
+		Assert.assertEquals(expected, map.getMap());
+		Assert.assertEquals(expected.keySet().toString(), map.keySet()
+				.toString());
+		Assert.assertEquals(new ArrayList<Integer>(expected.values()),
+				map.values());
+	}
+
+	private static int getCapacity(SlotWindowMap<?> map) throws Exception {
+		Field field = SlotWindowMap.class.getDeclaredField("window");
+		field.setAccessible(true);
+		Object[] window = (Object[]) field.get(map);
+		return window != null ? window.length : 0;
+	}
+
+	/**
+	 * A slot ~10^7 slots ahead of the window, e.g., a decision received by a
+	 * lagging replica, neither stretches the window to span the gap nor gets
+	 * lost, and moves into the window once the window catches up.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFarAheadSlot() throws Exception {
+		int maxSpan = 1024;
+		SlotWindowMap<String> map = new SlotWindowMap<String>(maxSpan);
+		int gap = 10 * 1000 * 1000;
+		int start = Integer.MAX_VALUE - gap / 2; // across the wraparound too
+		for (int i = 0; i < 10; i++)
+			map.put(start + i, "v" + i);
+		map.put(start + gap, "far");
+		map.put(start + gap + 1, "far1");
+		Assert.assertTrue(getCapacity(map) <= maxSpan);
+
+		Assert.assertEquals(12, map.size());
+		Assert.assertEquals(start, (int) map.firstKey());
+		Assert.assertEquals(start + gap + 1, (int) map.lastKey());
+		Assert.assertEquals("far", map.get(start + gap));
+		Assert.assertNull(map.get(start + gap - 1));
+		Assert.assertEquals("[v0, v1, v2, v3, v4, v5, v6, v7, v8, v9, far, far1]",
+				map.values().toString());
+
+		// the window moves ahead but the far slots still do not fit
+		map.put(start + 100, "v100");
+		map.removeUpTo(start + 9);
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals(start + 100, (int) map.firstKey());
+		Assert.assertTrue(getCapacity(map) <= maxSpan);
+
+		// the window empties, so the far slots move into it
+		Assert.assertEquals("v100", map.remove(start + 100));
+		Assert.assertEquals(start + gap, (int) map.firstKey());
+		Assert.assertEquals("far1", map.get(start + gap + 1));
+		Assert.assertTrue(getCapacity(map) > 0
+				&& getCapacity(map) <= maxSpan);
+
+		// slots far behind the window go to the overflow map as well
+		map.put(start, "v0");
+		Assert.assertEquals(start, (int) map.firstKey());
+		Assert.assertEquals("v0", map.get(start));
+		Assert.assertTrue(getCapacity(map) <= maxSpan);
+
+		map.removeUpTo(start + gap + 1);
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertEquals(0, getCapacity(map));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Result result = JUnitCore.runClasses(SlotWindowMapTest.class);
+		for (Failure failure : result.getFailures()) {
+			System.out.println(failure.toString());
+			failure.getException().printStackTrace();
+		}
+	}
+}
@@ -117,6 +117,23 @@ public class Util {
 		return str.substring(0, prefixLength);
 	}
 
+	/**
+	 * @param str
+	 * @param bytes
+	 * @return True if {@code bytes} equals {@code str.getBytes()}. ASCII
+	 *         strings are compared without encoding {@code str}.
+	 */
+	public static boolean equals(String str, byte[] bytes) {
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c >= 0x80)
+				return Arrays.equals(str.getBytes(), bytes);
+			if (i >= bytes.length || bytes[i] != c)
+				return false;
+		}
+		return str.length() == bytes.length;
+	}
+
 	public static Set<Integer> arrayToIntSet(int[] array) {
 		TreeSet<Integer> set = new TreeSet<Integer>();
 		for (int i = 0; i < array.length; i++) {